@@ -20,10 +20,11 @@
 package spade.core;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 
 import spade.utility.HelperFunctions;
 
@@ -49,7 +50,7 @@ public abstract class AbstractEdge implements Serializable{
 	/**
      * A map containing the annotations for this edge.
      */
-    private final Map<String, String> annotations = new TreeMap<>();
+    private final Map<String, String> annotations = new AnnotationMap();
     private AbstractVertex childVertex;
     private AbstractVertex parentVertex;
 
@@ -58,6 +59,12 @@ public abstract class AbstractEdge implements Serializable{
      * If null then big hash computed using the annotations map.
      */
     private final String bigHashCode;
+
+    /**
+     * Memoized hash of the edge. Reset whenever the annotations are modified, and ignored if the endpoints' hashes
+     * have changed since it was computed. Not serialized since cheap to recompute.
+     */
+    private transient volatile MemoizedHash memoizedHash = null;
     
     /**
      * Create a vertex without a fixed big hash.
@@ -99,7 +106,7 @@ public abstract class AbstractEdge implements Serializable{
     }
 
 	public final Set<String> getAnnotationKeys(){
-		return annotations.keySet();
+		return Collections.unmodifiableSet(annotations.keySet());
 	}
 
     /**
@@ -114,6 +121,7 @@ public abstract class AbstractEdge implements Serializable{
 				value = "";
 			}
 			annotations.put(key, value);
+			memoizedHash = null;
 		}
 	}
 
@@ -138,7 +146,11 @@ public abstract class AbstractEdge implements Serializable{
      * existed.
      */
     public final String removeAnnotation(String key){
-        return annotations.remove(key);
+        final String value = annotations.remove(key);
+        if(value != null){
+        	memoizedHash = null;
+        }
+        return value;
     }
 
     /**
@@ -229,24 +241,45 @@ public abstract class AbstractEdge implements Serializable{
         this.parentVertex = parentVertex;
     }
 
+    /**
+     * Returns the memoized hash. Computed according to the default set in spade.core.HashHelper if not memoized yet
+     * or if the hash of any endpoint has changed since it was memoized.
+     */
+	private final MemoizedHash getMemoizedHash(){
+		MemoizedHash hash = memoizedHash;
+		if(bigHashCode != null){
+			if(hash == null){
+				hash = new MemoizedHash(HashHelper.defaultInstance.convertHashHexStringToHashByteArray(bigHashCode), null, null);
+				memoizedHash = hash;
+			}
+			return hash;
+		}
+		final byte[] childBytes = (childVertex == null) ? null : childVertex.getBigHashCodeBytes();
+		final byte[] parentBytes = (parentVertex == null) ? null : parentVertex.getBigHashCodeBytes();
+		// Memoized byte arrays of the endpoints are compared by reference since a vertex creates a new one only
+		// when its annotations change
+		if(hash == null || hash.childBytes != childBytes || hash.parentBytes != parentBytes){
+			hash = new MemoizedHash(HashHelper.defaultInstance.hashEdge(childVertex, annotations, parentVertex), 
+					childBytes, parentBytes);
+			memoizedHash = hash;
+		}
+		return hash;
+	}
+
     /**
      * Computes hash of annotations in the edge and hashes of the endpoints according to the default set in spade.core.HashHelper.
      * If the hash was fixed then that is used.
      */
 	public final String bigHashCode(){
 		if(bigHashCode == null){
-			final String data = 
-					((childVertex == null) ? "(null)" : childVertex.bigHashCode()) + ","
-					+ annotations.toString() + ","
-					+ ((parentVertex == null) ? "(null)" : parentVertex.bigHashCode());
-			return HashHelper.defaultInstance.hashToHexString(data);
+			return HashHelper.defaultInstance.convertHashByteArrayToHashHexString(getMemoizedHash().bytes);
 		}else{
 			return bigHashCode;
 		}
 	}
 
 	public final byte[] bigHashCodeBytes(){
-		return HashHelper.defaultInstance.convertHashHexStringToHashByteArray(bigHashCode());
+		return getMemoizedHash().bytes.clone();
     }
 
     @Override
@@ -256,14 +289,23 @@ public abstract class AbstractEdge implements Serializable{
 		if(obj == null)
 			return false;
 		AbstractEdge other = (AbstractEdge) obj;
+		if(this.bigHashCode == null && other.bigHashCode == null){
+			// Both computed hence no need to compare the case of hex strings
+			return Arrays.equals(getMemoizedHash().bytes, other.getMemoizedHash().bytes);
+		}
 		return bigHashCode().equals(other.bigHashCode());
 	}
 
     @Override
 	public int hashCode(){
-    	final int prime = 31;
-		int result = 1;
-		result = prime * result + bigHashCode().hashCode();
+    	final MemoizedHash hash = getMemoizedHash();
+    	int result = hash.hashCode;
+    	if(result == 0){
+    		final int prime = 31;
+    		result = 1;
+    		result = prime * result + bigHashCode().hashCode();
+    		hash.hashCode = result;
+    	}
 		return result;
 	}
 
@@ -306,4 +348,17 @@ public abstract class AbstractEdge implements Serializable{
 			return false;
 		}
 	}
+
+	private static final class MemoizedHash{
+		private final byte[] bytes;
+		// Memoized hash bytes of the endpoints that were used to compute the bytes above
+		private final byte[] childBytes, parentBytes;
+		private int hashCode = 0;
+
+		private MemoizedHash(final byte[] bytes, final byte[] childBytes, final byte[] parentBytes){
+			this.bytes = bytes;
+			this.childBytes = childBytes;
+			this.parentBytes = parentBytes;
+		}
+	}
 }
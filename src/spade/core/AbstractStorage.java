@@ -23,6 +23,7 @@ import java.io.FileInputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,7 +41,11 @@ public abstract class AbstractStorage
 {
 	// Screens only accessible from package and self (not even children can view it)
 	final Object screensLock = new Object();
-	final List<AbstractScreen> screens = new ArrayList<AbstractScreen>();
+	/*
+	 * Copy-on-write because screens are only added on storage initialization but iterated for every element. 
+	 * Screens are called without holding 'screensLock' and must be safe to call concurrently.
+	 */
+	final List<AbstractScreen> screens = new CopyOnWriteArrayList<AbstractScreen>();
 
 	final void addScreen(final AbstractScreen screen) throws IllegalArgumentException{
 		if(screen == null){
@@ -87,17 +92,42 @@ public abstract class AbstractStorage
 		return null;
 	}
 
+	// Asynchronous writer for this storage. Null if elements are written on the caller's thread.
+	private volatile StorageWriter writer = null;
+
+	final void startWriter() throws Exception{
+		writer = StorageWriter.create(this);
+	}
+
+	/**
+	 * Waits for the pending elements (if any) in the writer to be written and stops the writer.
+	 */
+	final void shutdownWriter(){
+		final StorageWriter writer = this.writer;
+		if(writer != null){
+			writer.shutdown();
+			this.writer = null;
+		}
+	}
+
+	/**
+	 * Returns the asynchronous writer for this storage.
+	 * 
+	 * @return null if the storage is written to synchronously
+	 */
+	public final StorageWriter getWriter(){
+		return writer;
+	}
+
 	public final boolean putVertex(final AbstractVertex vertex){
 		boolean block = false;
 		if(vertex == null){
 			block = true;
 		}else{
-			synchronized(screensLock){
-				for(final AbstractScreen screen : screens){
-					if(screen.blockVertex(vertex)){
-						block = true;
-						break;
-					}
+			for(final AbstractScreen screen : screens){
+				if(screen.blockVertex(vertex)){
+					block = true;
+					break;
 				}
 			}
 		}
@@ -113,12 +143,10 @@ public abstract class AbstractStorage
 		if(edge == null){
 			block = true;
 		}else{
-			synchronized(screensLock){
-				for(final AbstractScreen screen : screens){
-					if(screen.blockEdge(edge)){
-						block = true;
-						break;
-					}
+			for(final AbstractScreen screen : screens){
+				if(screen.blockEdge(edge)){
+					block = true;
+					break;
 				}
 			}
 		}
@@ -129,6 +157,43 @@ public abstract class AbstractStorage
 		}
 	}
 
+	/**
+	 * For storages which write a graph natively instead of through putVertex and putEdge. The screens are shown the
+	 * written elements so that they remember them (the elements are written regardless), and the ones which pass the
+	 * screens are counted like the ones put individually.
+	 * 
+	 * @param graph elements written by the storage
+	 */
+	public final void screenAndCountWrittenGraph(final Graph graph){
+		if(graph == null){
+			return;
+		}
+		for(final AbstractVertex vertex : graph.vertexSet()){
+			boolean block = false;
+			for(final AbstractScreen screen : screens){
+				if(screen.blockVertex(vertex)){
+					block = true;
+					break;
+				}
+			}
+			if(!block){
+				vertexCount++;
+			}
+		}
+		for(final AbstractEdge edge : graph.edgeSet()){
+			boolean block = false;
+			for(final AbstractScreen screen : screens){
+				if(screen.blockEdge(edge)){
+					block = true;
+					break;
+				}
+			}
+			if(!block){
+				edgeCount++;
+			}
+		}
+	}
+
 	////////////////
 
     public static final String PRIMARY_KEY = "hash";
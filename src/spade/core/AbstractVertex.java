@@ -20,6 +20,8 @@
 package spade.core;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -44,7 +46,7 @@ public abstract class AbstractVertex implements Serializable{
 	/**
      * A map containing the annotations for this vertex.
      */
-    private final Map<String, String> annotations = new TreeMap<>();
+    private final Map<String, String> annotations = new AnnotationMap();
 
     /**
      * String big hash to be returned by bigHashCode function only if not null.
@@ -52,6 +54,13 @@ public abstract class AbstractVertex implements Serializable{
      */
     private final String bigHashCode;
 
+    /**
+     * Memoized hash of the annotations (or the fixed big hash) as bytes, and the memoized Java hash code.
+     * Reset whenever the annotations are modified. Not serialized since cheap to recompute.
+     */
+    private transient volatile byte[] bigHashCodeBytes = null;
+    private transient int hashCode = 0;
+
     /**
      * Create a vertex without a fixed big hash.
      */
@@ -105,7 +114,12 @@ public abstract class AbstractVertex implements Serializable{
 	}
 
 	public final Set<String> getAnnotationKeys(){
-		return annotations.keySet();
+		return Collections.unmodifiableSet(annotations.keySet());
+	}
+
+	private final void annotationsModified(){
+		bigHashCodeBytes = null;
+		hashCode = 0;
 	}
 
     /**
@@ -120,6 +134,7 @@ public abstract class AbstractVertex implements Serializable{
 				value = "";
 			}
 			annotations.put(key, value);
+			annotationsModified();
 		}
 	}
 
@@ -144,7 +159,11 @@ public abstract class AbstractVertex implements Serializable{
      * existed.
      */
     public final String removeAnnotation(String key) {
-        return annotations.remove(key);
+        final String value = annotations.remove(key);
+        if(value != null){
+        	annotationsModified();
+        }
+        return value;
     }
 
     /**
@@ -202,28 +221,48 @@ public abstract class AbstractVertex implements Serializable{
     	}
     }
 
+    /**
+     * Returns the memoized hash bytes. Computed according to the default set in spade.core.HashHelper if
+     * not memoized yet. The returned array must not be modified.
+     */
+	final byte[] getBigHashCodeBytes(){
+		byte[] bytes = bigHashCodeBytes;
+		if(bytes == null){
+			if(bigHashCode == null){
+				bytes = HashHelper.defaultInstance.hashVertex(annotations);
+			}else{
+				bytes = HashHelper.defaultInstance.convertHashHexStringToHashByteArray(bigHashCode);
+			}
+			bigHashCodeBytes = bytes;
+		}
+		return bytes;
+	}
+
     /**
      * Computes hash of annotations in the vertex according to the default set in spade.core.HashHelper.
      * If the hash was fixed then that is used.
      */
 	public final String bigHashCode(){
 		if(bigHashCode == null){
-			final String data = annotations.toString();
-			return HashHelper.defaultInstance.hashToHexString(data);
+			return HashHelper.defaultInstance.convertHashByteArrayToHashHexString(getBigHashCodeBytes());
 		}else{
 			return bigHashCode;
 		}
 	}
 
 	public final byte[] bigHashCodeBytes(){
-		return HashHelper.defaultInstance.convertHashHexStringToHashByteArray(bigHashCode());
+		return getBigHashCodeBytes().clone();
     }
 
     @Override
 	public final int hashCode(){
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + bigHashCode().hashCode();
+		int result = hashCode;
+		if(result == 0){
+			final int prime = 31;
+			result = 1;
+			result = prime * result + bigHashCode().hashCode();
+			hashCode = result;
+		}
 		return result;
 	}
 
@@ -234,6 +273,10 @@ public abstract class AbstractVertex implements Serializable{
 		if(obj == null)
 			return false;
 		AbstractVertex other = (AbstractVertex) obj;
+		if(this.bigHashCode == null && other.bigHashCode == null){
+			// Both computed hence no need to compare the case of hex strings
+			return Arrays.equals(getBigHashCodeBytes(), other.getBigHashCodeBytes());
+		}
 		return bigHashCode().equals(other.bigHashCode());
 	}
 
@@ -0,0 +1,455 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.utility.FileUtility;
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
+
+/**
+ * Compact map of annotations used by vertices and edges.
+ *
+ * Keys are kept sorted (same iteration order and string form as a TreeMap) in a shape which is shared by all the
+ * maps with the same set of keys. Each map only holds an array of values in the order of the keys of its shape.
+ * Keys are interned in a global dictionary, and values of the configured keys (like uid and gid) are interned too.
+ *
+ * Not thread-safe, same as the TreeMap that it replaces.
+ */
+final class AnnotationMap extends AbstractMap<String, String> implements Serializable{
+
+	private static final long serialVersionUID = -1645389183925306871L;
+
+	private static final Logger logger = Logger.getLogger(AnnotationMap.class.getName());
+
+	private static final String keyMaxKeys = "maxKeys",
+			keyMaxShapes = "maxShapes",
+			keyMaxValues = "maxValues",
+			keyInternValuesOf = "internValuesOf";
+
+	private static final String[] emptyArray = new String[0];
+
+	private static long maxKeys = 10000;
+	private static long maxShapes = 100000;
+	private static long maxValues = 100000;
+	private static Set<String> internValuesOf = Collections.emptySet();
+
+	static{
+		final String configFilePath = Settings.getDefaultConfigFilePath(AnnotationMap.class);
+		try{
+			final Map<String, String> map = FileUtility.readConfigFileAsKeyValueMap(configFilePath, "=");
+
+			final Result<Long> maxKeysResult = HelperFunctions.parseLong(map.get(keyMaxKeys), 10, 0, Integer.MAX_VALUE);
+			if(maxKeysResult.error){
+				throw new Exception("Invalid value for '"+keyMaxKeys+"'. " + maxKeysResult.errorMessage);
+			}
+			final Result<Long> maxShapesResult = HelperFunctions.parseLong(map.get(keyMaxShapes), 10, 0, Integer.MAX_VALUE);
+			if(maxShapesResult.error){
+				throw new Exception("Invalid value for '"+keyMaxShapes+"'. " + maxShapesResult.errorMessage);
+			}
+			final Result<Long> maxValuesResult = HelperFunctions.parseLong(map.get(keyMaxValues), 10, 0, Integer.MAX_VALUE);
+			if(maxValuesResult.error){
+				throw new Exception("Invalid value for '"+keyMaxValues+"'. " + maxValuesResult.errorMessage);
+			}
+			final Set<String> internValuesOfSet = new HashSet<String>();
+			final String internValuesOfString = map.get(keyInternValuesOf);
+			if(!HelperFunctions.isNullOrEmpty(internValuesOfString)){
+				for(final String key : internValuesOfString.split(",")){
+					if(!key.trim().isEmpty()){
+						internValuesOfSet.add(key.trim());
+					}
+				}
+			}
+
+			maxKeys = maxKeysResult.result;
+			maxShapes = maxShapesResult.result;
+			maxValues = maxValuesResult.result;
+			internValuesOf = Collections.unmodifiableSet(internValuesOfSet);
+		}catch(Exception e){
+			logger.log(Level.WARNING, "Failed to load annotation map configuration from file '" + configFilePath + "'. "
+					+ "Using defaults", e);
+		}
+	}
+
+	/*
+	 * Global dictionaries. Only grow up to their limits after which keys and values are used as they are, and new
+	 * shapes are created without being shared.
+	 */
+	private static final ConcurrentHashMap<String, String> keyDictionary = new ConcurrentHashMap<String, String>();
+	private static final ConcurrentHashMap<String, String> valueDictionary = new ConcurrentHashMap<String, String>();
+	private static final ConcurrentHashMap<Shape, Shape> shapes = new ConcurrentHashMap<Shape, Shape>();
+	private static final AtomicBoolean loggedKeysFull = new AtomicBoolean(false),
+			loggedShapesFull = new AtomicBoolean(false),
+			loggedValuesFull = new AtomicBoolean(false);
+
+	private static final Shape emptyShape = new Shape(emptyArray);
+
+	private static String intern(final ConcurrentHashMap<String, String> dictionary, final long max,
+			final AtomicBoolean loggedFull, final String name, final String string){
+		final String existing = dictionary.get(string);
+		if(existing != null){
+			return existing;
+		}
+		if(dictionary.size() >= max){
+			if(loggedFull.compareAndSet(false, true)){
+				logger.log(Level.INFO, "Annotation " + name + " dictionary full at " + max + " entries. "
+						+ "New " + name + "s are not interned anymore");
+			}
+			return string;
+		}
+		final String previous = dictionary.putIfAbsent(string, string);
+		return previous == null ? string : previous;
+	}
+
+	private static String internKey(final String key){
+		return intern(keyDictionary, maxKeys, loggedKeysFull, "key", key);
+	}
+
+	private static String internValue(final String key, final String value){
+		if(internValuesOf.contains(key)){
+			return intern(valueDictionary, maxValues, loggedValuesFull, "value", value);
+		}
+		return value;
+	}
+
+	/*
+	 * Sorted set of keys shared between maps. Transitions to the shapes with a key added or removed are cached
+	 * since maps of the same kind are built by adding the same keys in the same order.
+	 */
+	private static final class Shape{
+		private final String[] keys;
+		private final int hashCode;
+		private final ConcurrentHashMap<String, Shape> added = new ConcurrentHashMap<String, Shape>(4);
+		private final ConcurrentHashMap<String, Shape> removed = new ConcurrentHashMap<String, Shape>(4);
+
+		private Shape(final String[] keys){
+			this.keys = keys;
+			this.hashCode = Arrays.hashCode(keys);
+		}
+
+		private int indexOf(final Object key){
+			int low = 0, high = keys.length - 1;
+			while(low <= high){
+				final int mid = (low + high) >>> 1;
+				final String midKey = keys[mid];
+				if(midKey == key){
+					return mid;
+				}
+				final int cmp = midKey.compareTo((String)key);
+				if(cmp < 0){
+					low = mid + 1;
+				}else if(cmp > 0){
+					high = mid - 1;
+				}else{
+					return mid;
+				}
+			}
+			return -(low + 1);
+		}
+
+		private Shape withKey(final String key, final int insertionIndex){
+			Shape shape = added.get(key);
+			if(shape == null){
+				final String[] newKeys = new String[keys.length + 1];
+				System.arraycopy(keys, 0, newKeys, 0, insertionIndex);
+				newKeys[insertionIndex] = key;
+				System.arraycopy(keys, insertionIndex, newKeys, insertionIndex + 1, keys.length - insertionIndex);
+				shape = share(new Shape(newKeys));
+				if(shape.isShared()){
+					added.putIfAbsent(key, shape);
+				}
+			}
+			return shape;
+		}
+
+		private Shape withoutKey(final String key, final int index){
+			Shape shape = removed.get(key);
+			if(shape == null){
+				final String[] newKeys = new String[keys.length - 1];
+				System.arraycopy(keys, 0, newKeys, 0, index);
+				System.arraycopy(keys, index + 1, newKeys, index, keys.length - index - 1);
+				shape = share(new Shape(newKeys));
+				if(shape.isShared()){
+					removed.putIfAbsent(key, shape);
+				}
+			}
+			return shape;
+		}
+
+		private boolean isShared(){
+			return this == emptyShape || shapes.get(this) == this;
+		}
+
+		@Override
+		public int hashCode(){
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj){
+			if(this == obj)
+				return true;
+			if(obj == null || getClass() != obj.getClass())
+				return false;
+			final Shape other = (Shape)obj;
+			return hashCode == other.hashCode && Arrays.equals(keys, other.keys);
+		}
+	}
+
+	private static Shape share(final Shape shape){
+		if(shape.keys.length == 0){
+			return emptyShape;
+		}
+		final Shape existing = shapes.get(shape);
+		if(existing != null){
+			return existing;
+		}
+		if(shapes.size() >= maxShapes){
+			if(loggedShapesFull.compareAndSet(false, true)){
+				logger.log(Level.INFO, "Annotation shape dictionary full at " + maxShapes + " entries. "
+						+ "New shapes are not shared anymore");
+			}
+			return shape;
+		}
+		final Shape previous = shapes.putIfAbsent(shape, shape);
+		return previous == null ? shape : previous;
+	}
+
+	////////////////////////////////////
+
+	private transient Shape shape = emptyShape;
+	private transient String[] values = emptyArray;
+	private transient int modCount = 0;
+
+	AnnotationMap(){}
+
+	@Override
+	public int size(){
+		return values.length;
+	}
+
+	@Override
+	public boolean isEmpty(){
+		return values.length == 0;
+	}
+
+	@Override
+	public boolean containsKey(final Object key){
+		return key instanceof String && shape.indexOf(key) >= 0;
+	}
+
+	@Override
+	public String get(final Object key){
+		if(!(key instanceof String)){
+			return null;
+		}
+		final int index = shape.indexOf(key);
+		return index >= 0 ? values[index] : null;
+	}
+
+	@Override
+	public String put(final String key, final String value){
+		if(key == null || value == null){
+			throw new NullPointerException("NULL annotation key or value");
+		}
+		final int index = shape.indexOf(key);
+		if(index >= 0){
+			final String previous = values[index];
+			values[index] = internValue(shape.keys[index], value);
+			return previous;
+		}
+		final int insertionIndex = -(index + 1);
+		final String internedKey = internKey(key);
+		final String[] newValues = new String[values.length + 1];
+		System.arraycopy(values, 0, newValues, 0, insertionIndex);
+		newValues[insertionIndex] = internValue(internedKey, value);
+		System.arraycopy(values, insertionIndex, newValues, insertionIndex + 1, values.length - insertionIndex);
+		shape = shape.withKey(internedKey, insertionIndex);
+		values = newValues;
+		modCount++;
+		return null;
+	}
+
+	@Override
+	public String remove(final Object key){
+		if(!(key instanceof String)){
+			return null;
+		}
+		final int index = shape.indexOf(key);
+		if(index < 0){
+			return null;
+		}
+		final String previous = values[index];
+		removeAt(index);
+		return previous;
+	}
+
+	private void removeAt(final int index){
+		final String[] newValues = values.length == 1 ? emptyArray : new String[values.length - 1];
+		System.arraycopy(values, 0, newValues, 0, index);
+		System.arraycopy(values, index + 1, newValues, index, values.length - index - 1);
+		shape = shape.withoutKey(shape.keys[index], index);
+		values = newValues;
+		modCount++;
+	}
+
+	@Override
+	public void clear(){
+		shape = emptyShape;
+		values = emptyArray;
+		modCount++;
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet(){
+		return new AbstractSet<Map.Entry<String, String>>(){
+			@Override
+			public int size(){
+				return AnnotationMap.this.size();
+			}
+
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator(){
+				return new EntryIterator();
+			}
+		};
+	}
+
+	private final class EntryIterator implements Iterator<Map.Entry<String, String>>{
+		private int next = 0;
+		private int last = -1;
+		private int expectedModCount = modCount;
+
+		@Override
+		public boolean hasNext(){
+			return next < values.length;
+		}
+
+		@Override
+		public Map.Entry<String, String> next(){
+			if(expectedModCount != modCount){
+				throw new ConcurrentModificationException();
+			}
+			if(next >= values.length){
+				throw new NoSuchElementException();
+			}
+			last = next++;
+			return new Entry(last);
+		}
+
+		@Override
+		public void remove(){
+			if(last < 0){
+				throw new IllegalStateException();
+			}
+			if(expectedModCount != modCount){
+				throw new ConcurrentModificationException();
+			}
+			removeAt(last);
+			next = last;
+			last = -1;
+			expectedModCount = modCount;
+		}
+	}
+
+	private final class Entry implements Map.Entry<String, String>{
+		private final String key;
+		private final String value;
+
+		private Entry(final int index){
+			this.key = shape.keys[index];
+			this.value = values[index];
+		}
+
+		@Override
+		public String getKey(){
+			return key;
+		}
+
+		@Override
+		public String getValue(){
+			return value;
+		}
+
+		@Override
+		public String setValue(final String value){
+			return put(key, value);
+		}
+
+		@Override
+		public int hashCode(){
+			return key.hashCode() ^ value.hashCode();
+		}
+
+		@Override
+		public boolean equals(final Object obj){
+			if(!(obj instanceof Map.Entry)){
+				return false;
+			}
+			final Map.Entry<?, ?> other = (Map.Entry<?, ?>)obj;
+			return key.equals(other.getKey()) && value.equals(other.getValue());
+		}
+
+		@Override
+		public String toString(){
+			return key + "=" + value;
+		}
+	}
+
+	/*
+	 * Shapes are process-local. Written as key-value pairs and rebuilt (interned) when read.
+	 */
+	private void writeObject(final ObjectOutputStream out) throws IOException{
+		out.defaultWriteObject();
+		out.writeInt(values.length);
+		for(int i = 0; i < values.length; i++){
+			out.writeObject(shape.keys[i]);
+			out.writeObject(values[i]);
+		}
+	}
+
+	private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+		shape = emptyShape;
+		values = emptyArray;
+		final int size = in.readInt();
+		for(int i = 0; i < size; i++){
+			put((String)in.readObject(), (String)in.readObject());
+		}
+	}
+}
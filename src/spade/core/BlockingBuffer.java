@@ -19,7 +19,13 @@
  */
 package spade.core;
 
+import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -27,23 +33,43 @@ import spade.utility.FileUtility;
 import spade.utility.HelperFunctions;
 import spade.utility.Result;
 
+/**
+ * Buffer which blocks the reporter when:
+ * 1) The free JVM memory percentage falls to or below the workable free memory percentage, or
+ * 2) The number of elements in the buffer reaches 'maxElements' (if bounded), or
+ * 3) The estimated bytes of elements in the buffer reach 'maxBytes' (if bounded).
+ * 
+ * The reporter waits on a condition which is signalled by the consumer whenever elements are taken out. The free
+ * memory condition is re-checked every 'sleepWaitMillis' since there is nobody to signal it.
+ */
 public class BlockingBuffer extends Buffer{
 
 	public static final String keyWorkableFreeMemoryPercentageForBuffer = "workableFreeMemory";
 	private static final String keySleepWaitMillis = "sleepWaitMillis";
 	private static final String keyReportingIntervalSeconds = "reportingIntervalSeconds";
+	private static final String keyMaxElements = "maxElements";
+	private static final String keyMaxBytes = "maxBytes";
 	
 	private final long sleepWaitMillis;
 	private final long reportingIntervalMillis;
+	private final long maxElements;
+	private final long maxBytes;
 	
 	private final Object reportLock = new Object();
-	private final Object putLock = new Object();
-	private final Object getLock = new Object();
 	private final long createdAtMillis = System.currentTimeMillis();
-	private long putCount = 0;
-	private long getCount = 0;
+	private final AtomicLong putCount = new AtomicLong(0);
+	private final AtomicLong getCount = new AtomicLong(0);
+	private final AtomicLong bytes = new AtomicLong(0);
+	private final AtomicLong putWaitMillis = new AtomicLong(0);
+	
+	private final ReentrantLock capacityLock = new ReentrantLock();
+	private final Condition notFull = capacityLock.newCondition();
+	private final AtomicInteger waitingPutters = new AtomicInteger(0);
 	
 	private long lastReportedAtMillis = System.currentTimeMillis();
+	private long lastReportedPutCount = 0;
+	private long lastReportedGetCount = 0;
+	private long lastReportedPutWaitMillis = 0;
 
 	private final Logger logger = Logger.getLogger(this.getClass().getName());
 	private final String reporterNameForLogging;
@@ -77,13 +103,31 @@ public class BlockingBuffer extends Buffer{
 					+ reportingIntervalSecondsResult.errorMessage);
 		}
 		
+		final String maxElementsString = map.get(keyMaxElements);
+		final Result<Long> maxElementsResult = HelperFunctions.parseLong(maxElementsString, 10, 0, Long.MAX_VALUE);
+		if(maxElementsResult.error){
+			throw new RuntimeException("Invalid value for '"+keyMaxElements+"' in file '"+configFilePath+"'. " 
+					+ maxElementsResult.errorMessage);
+		}
+		
+		final String maxBytesString = map.get(keyMaxBytes);
+		final Result<Long> maxBytesResult = HelperFunctions.parseLong(maxBytesString, 10, 0, Long.MAX_VALUE);
+		if(maxBytesResult.error){
+			throw new RuntimeException("Invalid value for '"+keyMaxBytes+"' in file '"+configFilePath+"'. " 
+					+ maxBytesResult.errorMessage);
+		}
+		
 		this.sleepWaitMillis = sleepWaitMillisResult.result;
 		this.reportingIntervalMillis = reportingIntervalSecondsResult.result.intValue() * 1000;
+		this.maxElements = maxElementsResult.result;
+		this.maxBytes = maxBytesResult.result;
 		
-		log(Level.INFO, String.format("%s=%.3f%%, %s=%s, %s=%s", 
+		log(Level.INFO, String.format("%s=%.3f%%, %s=%s, %s=%s, %s=%s, %s=%s", 
 				keyWorkableFreeMemoryPercentageForBuffer, getFreeWorkableMemoryPercentage(),
 				keyReportingIntervalSeconds, reportingIntervalSecondsResult.result.intValue() + "("+getReportingEnableDisableString()+")",
-				keySleepWaitMillis, this.sleepWaitMillis));
+				keySleepWaitMillis, this.sleepWaitMillis,
+				keyMaxElements, this.maxElements + (this.maxElements > 0 ? "" : "(unbounded)"),
+				keyMaxBytes, this.maxBytes + (this.maxBytes > 0 ? "" : "(unbounded)")));
 	}
 	
 	private final String getReportingEnableDisableString(){
@@ -109,9 +153,11 @@ public class BlockingBuffer extends Buffer{
 	@Override
 	public final boolean putVertex(AbstractVertex vertex){
 		report();
+		final long elementBytes = estimateBytesIfBounded(vertex);
+		awaitCapacity(elementBytes);
 		final boolean added = super.putVertex(vertex);
 		if(added){
-			put();
+			put(elementBytes);
 		}
 		return added;
 	}
@@ -119,9 +165,11 @@ public class BlockingBuffer extends Buffer{
 	@Override
 	public final boolean putEdge(AbstractEdge edge){
 		report();
+		final long elementBytes = estimateBytesIfBounded(edge);
+		awaitCapacity(elementBytes);
 		final boolean added = super.putEdge(edge);
 		if(added){
-			put();
+			put(elementBytes);
 		}
 		return added;
 	}
@@ -131,76 +179,155 @@ public class BlockingBuffer extends Buffer{
 		report();
 		final Object result = super.getBufferElement();
 		if(result != null){
-			synchronized(getLock){
-				getCount++;
-			}
+			got(estimateBytesIfBounded(result), 1);
+		}
+		return result;
+	}
+
+	@Override
+	public final Object getBufferElement(long timeout, TimeUnit unit) throws InterruptedException{
+		report();
+		final Object result = super.getBufferElement(timeout, unit);
+		if(result != null){
+			got(estimateBytesIfBounded(result), 1);
 		}
 		return result;
 	}
+
+	@Override
+	public final int drainTo(Collection<Object> collection, int maxElements){
+		report();
+		final int sizeBefore = collection.size();
+		final int drained = super.drainTo(collection, maxElements);
+		if(drained > 0){
+			long drainedBytes = 0;
+			if(maxBytes > 0){
+				int i = 0;
+				for(final Object element : collection){
+					if(i++ >= sizeBefore){
+						drainedBytes += Buffer.estimateSizeInBytes(element);
+					}
+				}
+			}
+			got(drainedBytes, drained);
+		}
+		return drained;
+	}
 	
-	private final void put(){
-		synchronized(putLock){
-			putCount++;
+	/**
+	 * The estimate is only needed (and only made) when the bytes are bounded
+	 */
+	private final long estimateBytesIfBounded(final Object element){
+		return maxBytes > 0 ? Buffer.estimateSizeInBytes(element) : 0;
+	}
+	
+	private final void put(final long elementBytes){
+		putCount.incrementAndGet();
+		if(maxBytes > 0){
+			bytes.addAndGet(elementBytes);
+		}
+	}
+	
+	private final void got(final long elementBytes, final int elementCount){
+		getCount.addAndGet(elementCount);
+		// The estimate can only differ from the one at put time if the element was modified while in the buffer
+		if(maxBytes > 0 && bytes.addAndGet(-elementBytes) < 0){
+			bytes.set(0);
 		}
+		if(waitingPutters.get() > 0){
+			capacityLock.lock();
+			try{
+				notFull.signalAll();
+			}finally{
+				capacityLock.unlock();
+			}
+		}
+	}
+	
+	private final boolean isMemoryLow(){
+		return HelperFunctions.getFreeMemoryPercentage() <= getFreeWorkableMemoryPercentage();
+	}
+	
+	private final boolean isFull(final long elementBytes){
+		if(maxElements > 0 && size() >= maxElements){
+			return true;
+		}
+		// An element bigger than the bound is still let in when the buffer is empty
+		if(maxBytes > 0 && bytes.get() + elementBytes > maxBytes && !isEmpty()){
+			return true;
+		}
+		return false;
+	}
+	
+	private final void awaitCapacity(final long elementBytes){
 		if(isShutdown()){
 			return;
 		}
-		boolean slept = false;
-		final long waitStartMillis = System.currentTimeMillis();
-		
-		final double freeWorkableMemoryPercentageSpecified = getFreeWorkableMemoryPercentage();
+		final boolean memoryLow = isMemoryLow();
+		if(!memoryLow && !isFull(elementBytes)){
+			return;
+		}
 		
-		if(HelperFunctions.getFreeMemoryPercentage() <= freeWorkableMemoryPercentageSpecified){
-			if(reportingIntervalMillis > 0){
-				log(Level.INFO, String.format("Blocking until free memory percentage rises above min. (current) %.3f <= (specified) %.3f" 
-					, HelperFunctions.getFreeMemoryPercentage(), freeWorkableMemoryPercentageSpecified), null);
-			}
+		if(memoryLow && reportingIntervalMillis > 0){
+			log(Level.INFO, String.format("Blocking until free memory percentage rises above min. (current) %.3f <= (specified) %.3f" 
+				, HelperFunctions.getFreeMemoryPercentage(), getFreeWorkableMemoryPercentage()), null);
 		}
 		
-		while(HelperFunctions.getFreeMemoryPercentage() <= freeWorkableMemoryPercentageSpecified){
-			slept = true;
-			
-			if(isShutdown()){ // If shutdown has been called then break out
-				break;
+		final long waitStartMillis = System.currentTimeMillis();
+		waitingPutters.incrementAndGet();
+		capacityLock.lock();
+		try{
+			while(!isShutdown() && (isFull(elementBytes) || isMemoryLow())){
+				try{
+					notFull.await(sleepWaitMillis, TimeUnit.MILLISECONDS);
+				}catch(InterruptedException e){
+					log(Level.WARNING, "Interrupted while waiting for buffer capacity", e);
+					break;
+				}
 			}
-			
-			HelperFunctions.sleepSafe(sleepWaitMillis);
+		}finally{
+			capacityLock.unlock();
+			waitingPutters.decrementAndGet();
 		}
 		
-		if(slept){
-			if(reportingIntervalMillis > 0){
-				final long waitEndMillis = System.currentTimeMillis() - waitStartMillis;
-				log(Level.INFO, "Blocked for " + (waitEndMillis) 
-						+ " millis for free memory percentage to rise above min.", null);
-			}
+		final long waitedMillis = System.currentTimeMillis() - waitStartMillis;
+		putWaitMillis.addAndGet(waitedMillis);
+		if(memoryLow && reportingIntervalMillis > 0){
+			log(Level.INFO, "Blocked for " + waitedMillis + " millis for free memory percentage to rise above min.", null);
 		}
 	}
 	
 	public final double getPutRate(){
-		synchronized(putLock){
-			return getRate(putCount);
-		}
+		return getRate(getPutCount());
 	}
 	
 	public final double getGetRate(){
-		synchronized(getLock){
-			return getRate(getCount);
-		}
+		return getRate(getGetCount());
 	}
 	
 	public final long getPutCount(){
-		synchronized(putLock){
-			return putCount;
-		}
+		return putCount.get();
 	}
 	
 	public final long getGetCount(){
-		synchronized(getLock){
-			return getCount;
-		}
+		return getCount.get();
+	}
+	
+	/**
+	 * @return Estimated bytes of the elements currently in the buffer. Always 0 if 'maxBytes' is unbounded.
+	 */
+	public final long getSizeInBytes(){
+		return bytes.get();
+	}
+	
+	/**
+	 * @return Total milliseconds the reporter has spent waiting for capacity in the buffer
+	 */
+	public final long getPutWaitMillis(){
+		return putWaitMillis.get();
 	}
 	
-	private final synchronized double getRate(final long count){
+	private final double getRate(final long count){
 		return count / ((System.currentTimeMillis() - createdAtMillis) / (1000.0 * 60.0));
 	}
 	
@@ -213,14 +340,28 @@ public class BlockingBuffer extends Buffer{
 	}
 	
 	private final void report(){
-		synchronized(reportLock){
-			if(reportingIntervalMillis > 0){
-				if((System.currentTimeMillis() - lastReportedAtMillis) > reportingIntervalMillis){
-					lastReportedAtMillis = System.currentTimeMillis();
+		if(reportingIntervalMillis > 0){
+			synchronized(reportLock){
+				final long nowMillis = System.currentTimeMillis();
+				final long intervalMillis = nowMillis - lastReportedAtMillis;
+				if(intervalMillis > reportingIntervalMillis){
+					final long currentPutCount = getPutCount();
+					final long currentGetCount = getGetCount();
+					final long currentPutWaitMillis = getPutWaitMillis();
+					final double intervalSeconds = intervalMillis / 1000.0;
 					log(Level.INFO, 
-							String.format("Size=%s, Get-count=%s, Put-count=%s, Free-mem=%.3f percent", 
-									size(), getGetCount(), getPutCount(), HelperFunctions.getFreeMemoryPercentage())
+							String.format("Size=%s, Bytes=%s, Get-count=%s, Put-count=%s, Get-rate=%.3f/sec, Put-rate=%.3f/sec, "
+									+ "Put-wait=%s millis, Free-mem=%.3f percent", 
+									size(), getSizeInBytes(), currentGetCount, currentPutCount,
+									(currentGetCount - lastReportedGetCount) / intervalSeconds,
+									(currentPutCount - lastReportedPutCount) / intervalSeconds,
+									currentPutWaitMillis - lastReportedPutWaitMillis,
+									HelperFunctions.getFreeMemoryPercentage())
 							);
+					lastReportedAtMillis = nowMillis;
+					lastReportedGetCount = currentGetCount;
+					lastReportedPutCount = currentPutCount;
+					lastReportedPutWaitMillis = currentPutWaitMillis;
 				}
 			}
 		}
@@ -21,12 +21,23 @@
  */
 package spade.core;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.BitSet;
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
 
 /**
  * Implementation of a Bloom-filter, as described here:
@@ -40,30 +51,61 @@ import java.util.Collection;
  * were proposed in comments in his blog:
  * http://blog.locut.us/2008/01/12/a-decent-stand-alone-java-bloom-filter-implementation/
  *
+ * Bits are kept in an array of longs which is updated without locks, so add and contains can be called
+ * concurrently. New filters use a blocked layout: all k bits of an element are in the same 512-bit (one cache line)
+ * block, chosen by double hashing over a single murmur3 hash of the element.
+ * Filters saved with the earlier layout (k salted MD5 digests over the whole bit set) keep using it when loaded.
+ *
  * @param <E> Object type that is to be inserted into the Bloom filter, e.g. String or Integer.
  * @author Magnus Skjegstad <magnus@skjegstad.com>
  */
 public class BloomFilter<E> implements Serializable {
-    private BitSet bitset;
-    private int bitSetSize;
-    private double bitsPerElement;
-    private int expectedNumberOfFilterElements; // expected (maximum) number of elements to be added
-    private int numberOfAddedElements; // number of elements actually added to the Bloom filter
-    private int k; // number of hash functions
+    // Same as the computed one of the earlier layout to be able to read the filters saved with it
+    private static final long serialVersionUID = -4451498270929112812L;
+
+    private static final int LAYOUT_LEGACY = 0;
+    private static final int LAYOUT_BLOCKED = 1;
+
+    private static final int BLOCK_BITS = 512;
+    private static final int BLOCK_WORDS = BLOCK_BITS / Long.SIZE;
+
+    /*
+     * 'bitset' is only used to read and write the bits of the filter.
+     * Filters saved with the earlier layout do not have the 'layout' field, and it is read as LAYOUT_LEGACY.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("bitset", BitSet.class),
+        new ObjectStreamField("bitSetSize", int.class),
+        new ObjectStreamField("bitsPerElement", double.class),
+        new ObjectStreamField("expectedNumberOfFilterElements", int.class),
+        new ObjectStreamField("numberOfAddedElements", int.class),
+        new ObjectStreamField("k", int.class),
+        new ObjectStreamField("layout", int.class)
+    };
+
+    private transient AtomicLongArray words;
+    private transient int layout;
+    private transient int bitSetSize;
+    private transient double bitsPerElement;
+    private transient int expectedNumberOfFilterElements; // expected (maximum) number of elements to be added
+    private transient AtomicInteger numberOfAddedElements; // number of elements actually added to the Bloom filter
+    private transient int k; // number of hash functions
 
     static final Charset charset = Charset.forName("UTF-8"); // encoding used for storing hash values as strings
 
     static final String hashName = "MD5"; // MD5 gives good enough accuracy in most circumstances. Change to SHA1 if it's needed
-    static final MessageDigest digestFunction;
-    static { // The digest method is reused between instances
-        MessageDigest tmp;
-        try {
-            tmp = java.security.MessageDigest.getInstance(hashName);
-        } catch (NoSuchAlgorithmException e) {
-            tmp = null;
+    private static final ThreadLocal<MessageDigest> digestFunction = new ThreadLocal<MessageDigest>(){
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return java.security.MessageDigest.getInstance(hashName);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("Digest function '" + hashName + "' not available", e);
+            }
         }
-        digestFunction = tmp;
-    }
+    };
+
+    private static final HashFunction blockHashFunction = Hashing.murmur3_128();
 
     /**
       * Constructs an empty Bloom filter. The total length of the Bloom filter will be
@@ -77,9 +119,16 @@ public class BloomFilter<E> implements Serializable {
       this.expectedNumberOfFilterElements = n;
       this.k = k;
       this.bitsPerElement = c;
-      this.bitSetSize = (int)Math.ceil(c * n);
-      numberOfAddedElements = 0;
-      this.bitset = new BitSet(bitSetSize);
+      this.layout = LAYOUT_BLOCKED;
+      // Blocked layout has a higher false positive rate than a plain one with the same bits. Given 25% more bits
+      // (rounded up to whole blocks) to stay within the requested false positive probability.
+      final long blocks = Math.max(1, (long)Math.ceil(Math.ceil(c * n * 1.25) / BLOCK_BITS));
+      if (blocks * BLOCK_BITS > Integer.MAX_VALUE) {
+          throw new IllegalArgumentException("Bloom filter too large: " + (blocks * BLOCK_BITS) + " bits");
+      }
+      this.bitSetSize = (int)(blocks * BLOCK_BITS);
+      this.numberOfAddedElements = new AtomicInteger(0);
+      this.words = new AtomicLongArray((int)(blocks * BLOCK_WORDS));
     }
 
     /**
@@ -115,12 +164,27 @@ public class BloomFilter<E> implements Serializable {
      * @param bitSetSize defines how many bits should be used for the filter.
      * @param expectedNumberOfFilterElements defines the maximum number of elements the filter is expected to contain.
      * @param actualNumberOfFilterElements specifies how many elements have been inserted into the <code>filterData</code> BitSet.
-     * @param filterData a BitSet representing an existing Bloom filter.
+     * @param filterData a BitSet representing an existing Bloom filter (with the earlier layout).
      */
     public BloomFilter(int bitSetSize, int expectedNumberOfFilterElements, int actualNumberOfFilterElements, BitSet filterData) {
-        this(bitSetSize, expectedNumberOfFilterElements);
-        this.bitset = filterData;
-        this.numberOfAddedElements = actualNumberOfFilterElements;
+        this.expectedNumberOfFilterElements = expectedNumberOfFilterElements;
+        this.bitsPerElement = bitSetSize / (double)expectedNumberOfFilterElements;
+        this.k = (int) Math.round(this.bitsPerElement * Math.log(2.0));
+        this.bitSetSize = bitSetSize;
+        this.layout = LAYOUT_LEGACY;
+        this.numberOfAddedElements = new AtomicInteger(actualNumberOfFilterElements);
+        this.words = toWords(filterData, bitSetSize);
+    }
+
+    private static AtomicLongArray toWords(final BitSet bitSet, final int bitSetSize) {
+        final AtomicLongArray words = new AtomicLongArray((bitSetSize + Long.SIZE - 1) / Long.SIZE);
+        if (bitSet != null) {
+            final long[] longs = bitSet.toLongArray();
+            for (int i = 0; i < longs.length && i < words.length(); i++) {
+                words.set(i, longs[i]);
+            }
+        }
+        return words;
     }
 
     /**
@@ -166,15 +230,14 @@ public class BloomFilter<E> implements Serializable {
     public static int[] createHashes(byte[] data, int hashes) {
         int[] result = new int[hashes];
 
+        final MessageDigest digestFunction = BloomFilter.digestFunction.get();
         int k = 0;
         byte salt = 0;
         while (k < hashes) {
             byte[] digest;
-            synchronized (digestFunction) {
-                digestFunction.update(salt);
-                salt++;
-                digest = digestFunction.digest(data);                
-            }
+            digestFunction.update(salt);
+            salt++;
+            digest = digestFunction.digest(data);
         
             for (int i = 0; i < digest.length/4 && k < hashes; i++) {
                 int h = 0;
@@ -213,9 +276,14 @@ public class BloomFilter<E> implements Serializable {
         if (this.bitSetSize != other.bitSetSize) {
             return false;
         }
-        if (this.bitset != other.bitset && (this.bitset == null || !this.bitset.equals(other.bitset))) {
+        if (this.layout != other.layout) {
             return false;
         }
+        for (int i = 0; i < this.words.length(); i++) {
+            if (this.words.get(i) != other.words.get(i)) {
+                return false;
+            }
+        }
         return true;
     }
 
@@ -226,7 +294,7 @@ public class BloomFilter<E> implements Serializable {
     @Override
     public int hashCode() {
         int hash = 7;
-        hash = 61 * hash + (this.bitset != null ? this.bitset.hashCode() : 0);
+        hash = 61 * hash + getBitSet().hashCode();
         hash = 61 * hash + this.expectedNumberOfFilterElements;
         hash = 61 * hash + this.bitSetSize;
         hash = 61 * hash + this.k;
@@ -270,7 +338,7 @@ public class BloomFilter<E> implements Serializable {
      * @return probability of false positives.
      */
     public double getFalsePositiveProbability() {
-        return getFalsePositiveProbability(numberOfAddedElements);
+        return getFalsePositiveProbability(count());
     }
 
 
@@ -290,8 +358,10 @@ public class BloomFilter<E> implements Serializable {
      * Sets all bits to false in the Bloom filter.
      */
     public void clear() {
-        bitset.clear();
-        numberOfAddedElements = 0;
+        for (int i = 0; i < words.length(); i++) {
+            words.set(i, 0L);
+        }
+        numberOfAddedElements.set(0);
     }
 
     /**
@@ -301,7 +371,11 @@ public class BloomFilter<E> implements Serializable {
      * @param element is an element to register in the Bloom filter.
      */
     public void add(E element) {
-       add(element.toString().getBytes(charset));
+       if (layout == LAYOUT_BLOCKED) {
+           addHash(blockHashFunction.hashString(element.toString(), charset));
+       } else {
+           add(element.toString().getBytes(charset));
+       }
     }
 
     /**
@@ -310,10 +384,55 @@ public class BloomFilter<E> implements Serializable {
      * @param bytes array of bytes to add to the Bloom filter.
      */
     public void add(byte[] bytes) {
-       int[] hashes = createHashes(bytes, k);
-       for (int hash : hashes)
-           bitset.set(Math.abs(hash % bitSetSize), true);
-       numberOfAddedElements ++;
+       if (layout == LAYOUT_BLOCKED) {
+           addHash(blockHashFunction.hashBytes(bytes));
+       } else {
+           int[] hashes = createHashes(bytes, k);
+           for (int hash : hashes)
+               setBitAtomically(Math.abs(hash % bitSetSize));
+           numberOfAddedElements.incrementAndGet();
+       }
+    }
+
+    /*
+     * Blocked layout. The first half of the 128-bit hash picks the block and the step, and the bits in the block
+     * are picked by double hashing: bit(i) = top 9 bits of (second half + i * step).
+     */
+    private void addHash(final HashCode hashCode) {
+        final byte[] hash = hashCode.asBytes();
+        final long h1 = Longs.fromBytes(hash[0], hash[1], hash[2], hash[3], hash[4], hash[5], hash[6], hash[7]);
+        final long h2 = Longs.fromBytes(hash[8], hash[9], hash[10], hash[11], hash[12], hash[13], hash[14], hash[15]);
+        final int offset = getBlockOffset(h1);
+        final long step = Long.rotateLeft(h1, 32) | 1;
+        long combined = h2;
+        for (int i = 0; i < k; i++) {
+            final int bit = (int)(combined >>> 55);
+            setBitsAtomically(offset + (bit >>> 6), 1L << bit);
+            combined += step;
+        }
+        numberOfAddedElements.incrementAndGet();
+    }
+
+    private boolean containsHash(final HashCode hashCode) {
+        final byte[] hash = hashCode.asBytes();
+        final long h1 = Longs.fromBytes(hash[0], hash[1], hash[2], hash[3], hash[4], hash[5], hash[6], hash[7]);
+        final long h2 = Longs.fromBytes(hash[8], hash[9], hash[10], hash[11], hash[12], hash[13], hash[14], hash[15]);
+        final int offset = getBlockOffset(h1);
+        final long step = Long.rotateLeft(h1, 32) | 1;
+        long combined = h2;
+        for (int i = 0; i < k; i++) {
+            final int bit = (int)(combined >>> 55);
+            if ((words.get(offset + (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+            combined += step;
+        }
+        return true;
+    }
+
+    private int getBlockOffset(final long h1) {
+        final int blocks = words.length() / BLOCK_WORDS;
+        return (int)((h1 >>> 1) % blocks) * BLOCK_WORDS;
     }
 
     /**
@@ -334,6 +453,9 @@ public class BloomFilter<E> implements Serializable {
      * @return true if the element could have been inserted into the Bloom filter.
      */
     public boolean contains(E element) {
+        if (layout == LAYOUT_BLOCKED) {
+            return containsHash(blockHashFunction.hashString(element.toString(), charset));
+        }
         return contains(element.toString().getBytes(charset));
     }
 
@@ -346,9 +468,12 @@ public class BloomFilter<E> implements Serializable {
      * @return true if the array could have been inserted into the Bloom filter.
      */
     public boolean contains(byte[] bytes) {
+        if (layout == LAYOUT_BLOCKED) {
+            return containsHash(blockHashFunction.hashBytes(bytes));
+        }
         int[] hashes = createHashes(bytes, k);
         for (int hash : hashes) {
-            if (!bitset.get(Math.abs(hash % bitSetSize))) {
+            if (!getBit(Math.abs(hash % bitSetSize))) {
                 return false;
             }
         }
@@ -375,7 +500,7 @@ public class BloomFilter<E> implements Serializable {
      * @return true if the bit is set, false if it is not.
      */
     public boolean getBit(int bit) {
-        return bitset.get(bit);
+        return (words.get(bit >>> 6) & (1L << bit)) != 0;
     }
 
     /**
@@ -384,15 +509,88 @@ public class BloomFilter<E> implements Serializable {
      * @param value If true, the bit is set. If false, the bit is cleared.
      */
     public void setBit(int bit, boolean value) {
-        bitset.set(bit, value);
+        if (value) {
+            setBitAtomically(bit);
+        } else {
+            final int index = bit >>> 6;
+            final long mask = 1L << bit;
+            long current;
+            while (((current = words.get(index)) & mask) != 0) {
+                if (words.compareAndSet(index, current, current & ~mask)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void setBitAtomically(final int bit) {
+        setBitsAtomically(bit >>> 6, 1L << bit);
+    }
+
+    private void setBitsAtomically(final int index, final long mask) {
+        long current;
+        while (((current = words.get(index)) & mask) != mask) {
+            if (words.compareAndSet(index, current, current | mask)) {
+                return;
+            }
+        }
     }
 
     /**
-     * Return the bit set used to store the Bloom filter.
+     * Return a copy of the bits of the Bloom filter. Changes to the returned bit set are not reflected
+     * in the Bloom filter. Use or(), and() and setAll() to combine Bloom filters.
      * @return bit set representing the Bloom filter.
      */
     public BitSet getBitSet() {
-        return bitset;
+        final long[] longs = new long[words.length()];
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = words.get(i);
+        }
+        return BitSet.valueOf(longs);
+    }
+
+    private void checkCompatible(final BloomFilter<?> other) {
+        if (other.layout != this.layout || other.bitSetSize != this.bitSetSize || other.k != this.k) {
+            throw new IllegalArgumentException("Bloom filters with different layout, size or number of hash functions");
+        }
+    }
+
+    /**
+     * Sets the bits of this Bloom filter which are set in the given Bloom filter.
+     * @param other Bloom filter with the same size, layout and number of hash functions.
+     */
+    public void or(BloomFilter<?> other) {
+        checkCompatible(other);
+        for (int i = 0; i < words.length(); i++) {
+            setBitsAtomically(i, other.words.get(i));
+        }
+    }
+
+    /**
+     * Clears the bits of this Bloom filter which are not set in the given Bloom filter.
+     * @param other Bloom filter with the same size, layout and number of hash functions.
+     */
+    public void and(BloomFilter<?> other) {
+        checkCompatible(other);
+        for (int i = 0; i < words.length(); i++) {
+            final long mask = other.words.get(i);
+            long current;
+            while (((current = words.get(i)) & ~mask) != 0) {
+                if (words.compareAndSet(i, current, current & mask)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets or clears all the bits of the Bloom filter.
+     * @param value If true, all the bits are set. If false, all the bits are cleared.
+     */
+    public void setAll(boolean value) {
+        for (int i = 0; i < words.length(); i++) {
+            words.set(i, value ? -1L : 0L);
+        }
     }
 
     /**
@@ -412,7 +610,7 @@ public class BloomFilter<E> implements Serializable {
      * @return number of elements added to the Bloom filter.
      */
     public int count() {
-        return this.numberOfAddedElements;
+        return this.numberOfAddedElements.get();
     }
 
     /**
@@ -442,6 +640,35 @@ public class BloomFilter<E> implements Serializable {
      * @return number of bits per element.
      */
     public double getBitsPerElement() {
-        return this.bitSetSize / (double)numberOfAddedElements;
+        return this.bitSetSize / (double)count();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        final ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("bitset", getBitSet());
+        fields.put("bitSetSize", bitSetSize);
+        fields.put("bitsPerElement", bitsPerElement);
+        fields.put("expectedNumberOfFilterElements", expectedNumberOfFilterElements);
+        fields.put("numberOfAddedElements", count());
+        fields.put("k", k);
+        fields.put("layout", layout);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        final ObjectInputStream.GetField fields = in.readFields();
+        this.bitSetSize = fields.get("bitSetSize", 0);
+        this.bitsPerElement = fields.get("bitsPerElement", 0.0);
+        this.expectedNumberOfFilterElements = fields.get("expectedNumberOfFilterElements", 0);
+        this.numberOfAddedElements = new AtomicInteger(fields.get("numberOfAddedElements", 0));
+        this.k = fields.get("k", 0);
+        this.layout = fields.get("layout", LAYOUT_LEGACY);
+        if (this.layout != LAYOUT_LEGACY && this.layout != LAYOUT_BLOCKED) {
+            throw new IOException("Unknown Bloom filter layout: " + this.layout);
+        }
+        if (this.layout == LAYOUT_BLOCKED && (this.bitSetSize <= 0 || this.bitSetSize % BLOCK_BITS != 0)) {
+            throw new IOException("Invalid Bloom filter size for blocked layout: " + this.bitSetSize);
+        }
+        this.words = toWords((BitSet)fields.get("bitset", null), this.bitSetSize);
     }
 }
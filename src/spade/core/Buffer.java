@@ -19,8 +19,10 @@
  */
 package spade.core;
 
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This is the buffer class which is used by reporters to send provenance
@@ -33,14 +35,14 @@ public class Buffer {
 	private final Object shutdownLock = new Object();
 	private volatile boolean shutdown = false;
 
-    private final Queue<Object> queue;
+    private final BlockingQueue<Object> queue;
 
     /**
      * Empty constructor for this class.
      *
      */
     public Buffer() {
-        queue = new ConcurrentLinkedQueue<>();
+        queue = new LinkedBlockingQueue<>();
     }
 
     /**
@@ -82,6 +84,58 @@ public class Buffer {
         return queue.poll();
     }
 
+    /**
+     * This method is used to extract provenance elements from the buffer waiting
+     * (without polling) up to the given time for an element to arrive.
+     *
+     * @param timeout How long to wait before giving up.
+     * @param unit Unit of the timeout.
+     * @return The provenance element from the head of the queue, or null if none arrived in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public Object getBufferElement(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    /**
+     * This method is used to extract a batch of provenance elements from the buffer
+     * in one go.
+     *
+     * @param collection The collection to add the extracted elements to (in order).
+     * @param maxElements Maximum number of elements to extract.
+     * @return The number of elements extracted.
+     */
+    public int drainTo(Collection<Object> collection, int maxElements) {
+        return queue.drainTo(collection, maxElements);
+    }
+
+    /**
+     * Rough estimate of the heap used by the given provenance element excluding the
+     * endpoints of an edge (which are counted as vertices).
+     *
+     * @param element Vertex or edge.
+     * @return Estimated number of bytes.
+     */
+    public static long estimateSizeInBytes(Object element) {
+        // Object header and fields, plus per annotation: value slot, string header and the characters.
+        // Keys are shared between elements (see AnnotationMap) hence not counted.
+        long bytes = 64;
+        if (element instanceof AbstractVertex) {
+            final AbstractVertex vertex = (AbstractVertex) element;
+            for (String key : vertex.getAnnotationKeys()) {
+                bytes += 48 + vertex.getAnnotation(key).length();
+            }
+        } else if (element instanceof AbstractEdge) {
+            final AbstractEdge edge = (AbstractEdge) element;
+            for (String key : edge.getAnnotationKeys()) {
+                bytes += 48 + edge.getAnnotation(key).length();
+            }
+        } else {
+            return 0;
+        }
+        return bytes;
+    }
+
     /**
      * This method is used to determine whether the buffer is empty or not.
      *
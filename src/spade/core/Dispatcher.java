@@ -0,0 +1,436 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.utility.FileUtility;
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
+
+/**
+ * Moves provenance elements from the reporters' buffers into the filter list.
+ *
+ * In 'serial' mode the kernel's main thread drains all buffers (see {@link #drainAll(Set)}).
+ * In 'parallel' mode each reporter is drained by a single worker at a time (either a dedicated thread or a task
+ * in a bounded pool) so that the elements of a reporter keep their order while different reporters are ingested
+ * concurrently. Back-pressure on a reporter is applied by its own buffer since a worker does not drain more
+ * elements until the filter list has accepted the previous ones.
+ */
+public class Dispatcher{
+
+	public static enum Mode{ SERIAL, PARALLEL }
+
+	private static final String keyMode = "mode",
+			keyWorkers = "workers",
+			keyBatchSize = "batchSize",
+			keyIdleWaitMillis = "idleWaitMillis",
+			keySerializeFilterList = "serializeFilterList";
+
+	private static final int FIRST_FILTER = 0;
+	private static final int DRAIN_CHUNK_SIZE = 1024;
+
+	private final Logger logger = Logger.getLogger(Dispatcher.class.getName());
+
+	private final Mode mode;
+	private final int workers;
+	private final int batchSize;
+	private final long idleWaitMillis;
+	private final boolean serializeFilterList;
+
+	private final List<AbstractFilter> filters;
+	private final Set<AbstractReporter> removeReporters;
+
+	private final Object filterListLock = new Object();
+	private final ReentrantReadWriteLock suspendLock = new ReentrantReadWriteLock();
+	private final Map<AbstractReporter, Drain> drains = new ConcurrentHashMap<AbstractReporter, Drain>();
+	private final ScheduledExecutorService pool;
+	// Only used by the kernel's main thread in 'serial' mode
+	private final List<Object> serialBatch = new ArrayList<Object>(DRAIN_CHUNK_SIZE);
+	// Held by the kernel's main thread in 'serial' mode while elements taken out of the buffers are being dispatched
+	private final Object serialDrainLock = new Object();
+
+	private volatile boolean shutdown = false;
+
+	/**
+	 * @param filters The kernel's filter list. The first filter is looked up for every element so that filters added
+	 * at runtime are honored.
+	 * @param removeReporters The kernel's set of reporters marked for removal. A reporter is removed from this set
+	 * once its buffer has been completely drained.
+	 */
+	public Dispatcher(final List<AbstractFilter> filters, final Set<AbstractReporter> removeReporters){
+		this.filters = filters;
+		this.removeReporters = removeReporters;
+
+		final String configFilePath = Settings.getDefaultConfigFilePath(Dispatcher.class);
+		final Map<String, String> map;
+		try{
+			map = FileUtility.readConfigFileAsKeyValueMap(configFilePath, "=");
+		}catch(Throwable t){
+			throw new RuntimeException("Failed to read file '"+configFilePath+"'. " + t.getMessage(), t);
+		}
+
+		final Result<Mode> modeResult = HelperFunctions.parseEnumValue(Mode.class, map.get(keyMode), true);
+		if(modeResult.error){
+			throw new RuntimeException("Invalid value for '"+keyMode+"' in file '"+configFilePath+"'. "
+					+ modeResult.errorMessage);
+		}
+
+		final Result<Long> workersResult = HelperFunctions.parseLong(map.get(keyWorkers), 10, 0, Integer.MAX_VALUE);
+		if(workersResult.error){
+			throw new RuntimeException("Invalid value for '"+keyWorkers+"' in file '"+configFilePath+"'. "
+					+ workersResult.errorMessage);
+		}
+
+		final Result<Long> batchSizeResult = HelperFunctions.parseLong(map.get(keyBatchSize), 10, 1, Integer.MAX_VALUE);
+		if(batchSizeResult.error){
+			throw new RuntimeException("Invalid value for '"+keyBatchSize+"' in file '"+configFilePath+"'. "
+					+ batchSizeResult.errorMessage);
+		}
+
+		final Result<Long> idleWaitMillisResult = HelperFunctions.parseLong(map.get(keyIdleWaitMillis), 10, 1, Long.MAX_VALUE);
+		if(idleWaitMillisResult.error){
+			throw new RuntimeException("Invalid value for '"+keyIdleWaitMillis+"' in file '"+configFilePath+"'. "
+					+ idleWaitMillisResult.errorMessage);
+		}
+
+		final Result<Boolean> serializeFilterListResult = HelperFunctions.parseBoolean(map.get(keySerializeFilterList));
+		if(serializeFilterListResult.error){
+			throw new RuntimeException("Invalid value for '"+keySerializeFilterList+"' in file '"+configFilePath+"'. "
+					+ serializeFilterListResult.errorMessage);
+		}
+
+		this.mode = modeResult.result;
+		this.workers = workersResult.result.intValue();
+		this.batchSize = batchSizeResult.result.intValue();
+		this.idleWaitMillis = idleWaitMillisResult.result;
+		this.serializeFilterList = serializeFilterListResult.result;
+
+		if(this.mode == Mode.PARALLEL && this.workers > 0){
+			final AtomicInteger threadCount = new AtomicInteger(0);
+			this.pool = Executors.newScheduledThreadPool(this.workers, new ThreadFactory(){
+				@Override
+				public Thread newThread(final Runnable runnable){
+					return new Thread(runnable, "dispatchSPADE-Thread-" + threadCount.incrementAndGet());
+				}
+			});
+		}else{
+			this.pool = null;
+		}
+
+		logger.log(Level.INFO, String.format("Arguments: %s=%s, %s=%s, %s=%s, %s=%s, %s=%s",
+				keyMode, this.mode.name().toLowerCase(),
+				keyWorkers, this.workers,
+				keyBatchSize, this.batchSize,
+				keyIdleWaitMillis, this.idleWaitMillis,
+				keySerializeFilterList, this.serializeFilterList));
+	}
+
+	public final Mode getMode(){
+		return mode;
+	}
+
+	public final boolean isParallel(){
+		return mode == Mode.PARALLEL;
+	}
+
+	public final long getIdleWaitMillis(){
+		return idleWaitMillis;
+	}
+
+	/**
+	 * Sends the given buffer element to the head of the filter list.
+	 *
+	 * @param bufferElement vertex or edge
+	 */
+	private final void dispatch(final Object bufferElement){
+		if(mode == Mode.PARALLEL){
+			suspendLock.readLock().lock();
+			try{
+				dispatchWithPolicy(bufferElement);
+			}finally{
+				suspendLock.readLock().unlock();
+			}
+		}else{
+			dispatchWithPolicy(bufferElement);
+		}
+	}
+
+	private final void dispatchWithPolicy(final Object bufferElement){
+		if(serializeFilterList){
+			synchronized(filterListLock){
+				dispatchToFilterList(bufferElement);
+			}
+		}else{
+			dispatchToFilterList(bufferElement);
+		}
+	}
+
+	private final void dispatchToFilterList(final Object bufferElement){
+		if(bufferElement instanceof AbstractVertex){
+			filters.get(FIRST_FILTER).putVertex((AbstractVertex)bufferElement);
+		}else if(bufferElement instanceof AbstractEdge){
+			filters.get(FIRST_FILTER).putEdge((AbstractEdge)bufferElement);
+		}
+	}
+
+	/**
+	 * Blocks until all dispatch workers are outside the filter list, and keeps them out until {@link #resume()}.
+	 * Used by the kernel to modify the storages (or filters) that the workers would be writing to.
+	 * No-op in 'serial' mode since the kernel's main thread does the dispatching itself.
+	 */
+	public final void suspend(){
+		if(mode == Mode.PARALLEL){
+			suspendLock.writeLock().lock();
+		}
+	}
+
+	public final void resume(){
+		if(mode == Mode.PARALLEL){
+			suspendLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Drains at most 'maxElements' from the buffer of the reporter into the filter list.
+	 *
+	 * If the buffer is found empty and the reporter has been marked for removal then the reporter is removed from
+	 * the set of reporters marked for removal.
+	 *
+	 * @param reporter the reporter to drain
+	 * @param buffer the buffer of the reporter
+	 * @param maxElements maximum elements to drain
+	 * @param waitMillis milliseconds to wait for an element if the buffer is empty to begin with (0 to not wait)
+	 * @param batch reusable list to take elements out of the buffer in chunks
+	 * @return number of elements drained, or -1 if the reporter has been completely drained after removal
+	 */
+	final int drain(final AbstractReporter reporter, final Buffer buffer, final int maxElements, final long waitMillis,
+			final List<Object> batch){
+		int drained = 0;
+		while(drained < maxElements){
+			batch.clear();
+			final int count = buffer.drainTo(batch, Math.min(DRAIN_CHUNK_SIZE, maxElements - drained));
+			if(count == 0){
+				if(drained == 0 && waitMillis > 0){
+					Object bufferElement = null;
+					try{
+						bufferElement = buffer.getBufferElement(waitMillis, TimeUnit.MILLISECONDS);
+					}catch(InterruptedException e){
+						// Treat as empty
+					}
+					if(bufferElement != null){
+						dispatch(bufferElement);
+						drained++;
+						continue;
+					}
+				}
+				if(removeReporters.remove(reporter)){
+					return -1;
+				}
+				break;
+			}
+			for(final Object bufferElement : batch){
+				dispatch(bufferElement);
+			}
+			drained += count;
+		}
+		batch.clear();
+		return drained;
+	}
+
+	/**
+	 * Used in 'serial' mode by the kernel's main thread.
+	 *
+	 * @param reporters reporters to drain one batch each from
+	 * @return total number of elements drained
+	 */
+	public final int drainAll(final Set<AbstractReporter> reporters){
+		int total = 0;
+		synchronized(serialDrainLock){
+			if(shutdown){
+				return 0;
+			}
+			for(final AbstractReporter reporter : reporters){
+				final int drained = drain(reporter, reporter.getBuffer(), batchSize, 0, serialBatch);
+				if(drained > 0){
+					total += drained;
+				}
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Used in 'parallel' mode by the kernel's main thread to start a worker for every reporter that does not have
+	 * one yet.
+	 *
+	 * @param reporters current reporters
+	 */
+	public final void attachAll(final Set<AbstractReporter> reporters){
+		if(shutdown){
+			return;
+		}
+		final List<AbstractReporter> currentReporters;
+		synchronized(reporters){
+			currentReporters = new ArrayList<AbstractReporter>(reporters);
+		}
+		// Forget the workers of reporters which have been removed. Workers of reporters that are still present are
+		// kept (even if done) so that a removed reporter is not picked up again before the kernel forgets it.
+		final Iterator<Map.Entry<AbstractReporter, Drain>> iterator = drains.entrySet().iterator();
+		while(iterator.hasNext()){
+			final Map.Entry<AbstractReporter, Drain> entry = iterator.next();
+			if(entry.getValue().isDone() && !currentReporters.contains(entry.getKey())){
+				iterator.remove();
+			}
+		}
+		for(final AbstractReporter reporter : currentReporters){
+			if(!drains.containsKey(reporter)){
+				final Drain drain = new Drain(reporter);
+				drains.put(reporter, drain);
+				drain.start();
+			}
+		}
+	}
+
+	/**
+	 * Stops all workers after they have finished dispatching their current elements. In 'serial' mode waits for the
+	 * kernel's main thread to finish dispatching the elements it has already taken out of the buffers. Must only be
+	 * called once the reporters' buffers have been emptied.
+	 */
+	public final void shutdown(){
+		synchronized(serialDrainLock){
+			shutdown = true;
+		}
+		for(final Drain drain : drains.values()){
+			drain.join();
+		}
+		drains.clear();
+		if(pool != null){
+			pool.shutdown();
+			try{
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}catch(InterruptedException e){
+				logger.log(Level.WARNING, "Interrupted while waiting for dispatch workers to finish", e);
+			}
+		}
+	}
+
+	private final class Drain implements Runnable{
+		private final AbstractReporter reporter;
+		private final String reporterName;
+		private final Object doneLock = new Object();
+		private final List<Object> batch = new ArrayList<Object>(DRAIN_CHUNK_SIZE);
+		private boolean done = false;
+		// Only used when there is a dedicated thread per reporter
+		private Thread thread;
+
+		private Drain(final AbstractReporter reporter){
+			this.reporter = reporter;
+			this.reporterName = reporter.getClass().getSimpleName();
+		}
+
+		private void start(){
+			if(pool == null){
+				thread = new Thread(new Runnable(){
+					@Override
+					public void run(){
+						while(!isDone()){
+							Drain.this.run();
+						}
+					}
+				}, "dispatchSPADE-Thread-" + reporterName);
+				thread.start();
+			}else{
+				pool.execute(this);
+			}
+		}
+
+		private boolean isDone(){
+			synchronized(doneLock){
+				return done;
+			}
+		}
+
+		private void finish(){
+			synchronized(doneLock){
+				done = true;
+				doneLock.notifyAll();
+			}
+		}
+
+		private void join(){
+			synchronized(doneLock){
+				while(!done){
+					try{
+						doneLock.wait(idleWaitMillis);
+					}catch(InterruptedException e){
+						logger.log(Level.WARNING, "Interrupted while waiting for dispatch worker of reporter: " + reporterName, e);
+						return;
+					}
+				}
+			}
+		}
+
+		@Override
+		public void run(){
+			int drained;
+			try{
+				// A dedicated thread waits on the buffer itself for elements to arrive, while a pooled task is
+				// rescheduled instead so that it does not hold on to a shared worker.
+				drained = drain(reporter, reporter.getBuffer(), batchSize, (pool == null) ? idleWaitMillis : 0, batch);
+			}catch(Throwable t){
+				logger.log(Level.SEVERE, "Failed to dispatch element of reporter: " + reporterName, t);
+				drained = 0;
+			}
+			if(drained < 0){
+				finish();
+				return;
+			}
+			if(drained == 0){
+				if(shutdown){
+					finish();
+					return;
+				}
+				if(pool != null){
+					pool.schedule(this, idleWaitMillis, TimeUnit.MILLISECONDS);
+				}
+			}else{
+				if(pool != null){
+					// Yield the worker to other reporters. Only one instance of this task is ever pending which
+					// keeps the elements of this reporter in order.
+					pool.execute(this);
+				}
+			}
+		}
+	}
+}
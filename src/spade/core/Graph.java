@@ -523,6 +523,43 @@ public class Graph implements Serializable{
 		}
 	}
 
+	/**
+	 * Storage which writes the vertices and edges put into it to the writer in the given format. Shutdown the storage
+	 * to write the footer.
+	 * 
+	 * @param format JSON or DOT
+	 * @param writer writer to write to
+	 * @param closeWriter close the writer on storage shutdown
+	 * @return initialized storage
+	 * @throws Exception if failed to initialize the storage
+	 */
+	public static final AbstractStorage createExportStorage(final SaveGraph.Format format, final BufferedWriter writer,
+			final boolean closeWriter) throws Exception{
+		if(format == null){
+			throw new RuntimeException("Cannot export to NULL format");
+		}
+		final boolean printHeader = true, printFooter = true;
+		switch(format){
+			case kJson:
+				final boolean printRecordSeparator = true;
+				final JSON jsonStorage = new JSON();
+				jsonStorage.initializeUnsafe(
+						writer,  
+						printHeader, printFooter, printRecordSeparator,
+						System.lineSeparator(), closeWriter);
+				return jsonStorage;
+			case kDot:
+				final Graphviz dotStorage = new Graphviz();
+				dotStorage.initializeUnsafe(
+						writer, 
+						DotConfiguration.getDefaultConfigFilePath(), 
+						printHeader, printFooter, System.lineSeparator(),
+						closeWriter);
+				return dotStorage;
+			default: throw new RuntimeException("Unhandled graph export format: " + format);
+		}
+	}
+
 	public static final void exportGraphUsingWriter(
 			final SaveGraph.Format format,
 			final BufferedWriter writer, final Graph graph,
@@ -532,30 +569,7 @@ public class Graph implements Serializable{
 		}else if(format == null){
 			throw new RuntimeException("Cannot export to NULL format");
 		}else{
-			final AbstractStorage storage;
-			final boolean printHeader = true, printFooter = true;
-			
-			switch(format){
-				case kJson:
-					final boolean printRecordSeparator = true;
-					final JSON jsonStorage = new JSON();
-					jsonStorage.initializeUnsafe(
-							writer,  
-							printHeader, printFooter, printRecordSeparator,
-							System.lineSeparator(), closeWriter);
-					storage = jsonStorage;
-					break;
-				case kDot:
-					final Graphviz dotStorage = new Graphviz();
-					dotStorage.initializeUnsafe(
-							writer, 
-							DotConfiguration.getDefaultConfigFilePath(), 
-							printHeader, printFooter, System.lineSeparator(),
-							closeWriter);
-					storage = dotStorage;
-					break;
-				default: throw new RuntimeException("Unhandled graph export format: " + format);
-			}
+			final AbstractStorage storage = createExportStorage(format, writer, closeWriter);
 
 			try{
 				for(AbstractVertex vertex : graph.vertexSet()){
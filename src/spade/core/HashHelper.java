@@ -19,23 +19,50 @@
  */
 package spade.core;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import spade.utility.FileUtility;
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
+
 /*
  * This is the class that should contains all the functions that can be required for
  * hashing of vertices and edges.
+ * 
+ * The algorithm and the encoding of annotations fed to it are read from the config file of this class:
+ * 1) 'legacy' encoding hashes the string form of the annotations map (and of the endpoint hashes for edges)
+ * as was always done. Required to keep matching hashes already in existing databases.
+ * 2) 'canonical' encoding streams the length-prefixed UTF-8 bytes of the sorted annotations (and the raw bytes of
+ * the endpoint hashes for edges) directly into the hash function.
  */
 public abstract class HashHelper{
 
+	public static enum Algorithm{ MD5, MURMUR3_128, SHA256 }
+	public static enum Encoding{ LEGACY, CANONICAL }
+
+	private static final String keyAlgorithm = "algorithm",
+			keyEncoding = "encoding",
+			keyAllowChange = "allowChange";
+
 	// Default hasher
-	public final static HashHelper defaultInstance = new MD5HashHelper();
+	public final static HashHelper defaultInstance = createDefaultInstance();
 	
 	public final String hashAlgorithmName;
 	public final int bytesInHash;
+	private Encoding encoding = Encoding.LEGACY;
+	private boolean allowChange = false;
 	
 	private HashHelper(final String hashAlgorithmName, final int bytesInHash){
 		if(hashAlgorithmName == null){
@@ -47,9 +74,149 @@ public abstract class HashHelper{
 		this.hashAlgorithmName = hashAlgorithmName;
 		this.bytesInHash = bytesInHash;
 	}
+
+	private static HashHelper createDefaultInstance(){
+		final Logger logger = Logger.getLogger(HashHelper.class.getName());
+		final String configFilePath = Settings.getDefaultConfigFilePath(HashHelper.class);
+		try{
+			final Map<String, String> map = FileUtility.readConfigFileAsKeyValueMap(configFilePath, "=");
+
+			final Result<Algorithm> algorithmResult = HelperFunctions.parseEnumValue(Algorithm.class, map.get(keyAlgorithm), true);
+			if(algorithmResult.error){
+				throw new Exception("Invalid value for '"+keyAlgorithm+"'. " + algorithmResult.errorMessage);
+			}
+			final Result<Encoding> encodingResult = HelperFunctions.parseEnumValue(Encoding.class, map.get(keyEncoding), true);
+			if(encodingResult.error){
+				throw new Exception("Invalid value for '"+keyEncoding+"'. " + encodingResult.errorMessage);
+			}
+			final Result<Boolean> allowChangeResult = HelperFunctions.parseBoolean(map.get(keyAllowChange));
+			if(allowChangeResult.error){
+				throw new Exception("Invalid value for '"+keyAllowChange+"'. " + allowChangeResult.errorMessage);
+			}
+
+			final HashHelper instance = create(algorithmResult.result);
+			instance.encoding = encodingResult.result;
+			instance.allowChange = allowChangeResult.result;
+			logger.log(Level.INFO, "Using " + instance);
+			return instance;
+		}catch(Exception e){
+			// Not falling back to a default because elements hashed with it would silently mismatch the stored ones
+			throw new RuntimeException("Failed to load hash configuration from file '" + configFilePath + "'", e);
+		}
+	}
+
+	public static HashHelper create(final Algorithm algorithm){
+		switch(algorithm){
+			case MD5: return new MD5HashHelper();
+			case MURMUR3_128: return new Murmur3HashHelper();
+			case SHA256: return new SHA256HashHelper();
+			default: throw new RuntimeException("Unhandled hash algorithm: " + algorithm);
+		}
+	}
 	
 	public abstract byte[] hashToByteArray(final String data);
 	public abstract String hashToHexString(final String data);
+
+	/**
+	 * Function to stream the canonical encoding into
+	 */
+	protected abstract HashFunction getHashFunction();
+
+	public final Encoding getEncoding(){
+		return encoding;
+	}
+
+	/**
+	 * Storages that persist hashes use this to record the hash in use when they create a database, and to compare
+	 * against when they open an existing database.
+	 * 
+	 * @return string describing the algorithm and the encoding
+	 */
+	public final String getDescriptor(){
+		return hashAlgorithmName + "/" + encoding.name().toLowerCase();
+	}
+
+	/**
+	 * Checks if elements hashed with this instance can be added to a database which was created with the given
+	 * descriptor.
+	 * 
+	 * @param storedDescriptor descriptor recorded in the database (null if none recorded)
+	 * @return error if the descriptors differ and change has not been allowed
+	 */
+	public final Result<Boolean> validateStoredDescriptor(final String storedDescriptor){
+		if(storedDescriptor == null || storedDescriptor.equals(getDescriptor())){
+			return Result.successful(true);
+		}
+		if(allowChange){
+			return Result.successful(false);
+		}
+		return Result.failed("Database created with hash '" + storedDescriptor + "' but configured to use '" + getDescriptor() + "'. "
+				+ "Set the hash configuration back to '" + storedDescriptor + "' to keep using the database, "
+				+ "or set '" + keyAllowChange + "=true' in the hash configuration to mix hashes");
+	}
+
+	/**
+	 * Hash of the annotations of a vertex.
+	 * 
+	 * @param annotations sorted annotations
+	 * @return hash bytes
+	 */
+	public final byte[] hashVertex(final Map<String, String> annotations){
+		if(encoding == Encoding.LEGACY){
+			return hashToByteArray(annotations.toString());
+		}
+		final Hasher hasher = getHashFunction().newHasher();
+		putAnnotations(hasher, annotations);
+		return hasher.hash().asBytes();
+	}
+
+	/**
+	 * Hash of the annotations of an edge and the hashes of its endpoints.
+	 * 
+	 * @param childVertex child vertex or null
+	 * @param annotations sorted annotations
+	 * @param parentVertex parent vertex or null
+	 * @return hash bytes
+	 */
+	public final byte[] hashEdge(final AbstractVertex childVertex, final Map<String, String> annotations, 
+			final AbstractVertex parentVertex){
+		if(encoding == Encoding.LEGACY){
+			final String data = 
+					((childVertex == null) ? "(null)" : childVertex.bigHashCode()) + ","
+					+ annotations.toString() + ","
+					+ ((parentVertex == null) ? "(null)" : parentVertex.bigHashCode());
+			return hashToByteArray(data);
+		}
+		final Hasher hasher = getHashFunction().newHasher();
+		putEndpoint(hasher, childVertex);
+		putAnnotations(hasher, annotations);
+		putEndpoint(hasher, parentVertex);
+		return hasher.hash().asBytes();
+	}
+
+	private static void putEndpoint(final Hasher hasher, final AbstractVertex vertex){
+		if(vertex == null){
+			hasher.putInt(-1);
+		}else{
+			final byte[] bytes = vertex.getBigHashCodeBytes();
+			hasher.putInt(bytes.length);
+			hasher.putBytes(bytes);
+		}
+	}
+
+	private static void putAnnotations(final Hasher hasher, final Map<String, String> annotations){
+		hasher.putInt(annotations.size());
+		for(final Map.Entry<String, String> entry : annotations.entrySet()){
+			putString(hasher, entry.getKey());
+			putString(hasher, entry.getValue());
+		}
+	}
+
+	private static void putString(final Hasher hasher, final String string){
+		// Length in chars keeps the encoding unambiguous without encoding the string twice
+		hasher.putInt(string.length());
+		hasher.putString(string, StandardCharsets.UTF_8);
+	}
 	
 	public final boolean isValidHashByteArray(final byte[] hash){
 		if(hash != null){
@@ -105,7 +272,8 @@ public abstract class HashHelper{
 	
 	@Override
 	public final String toString(){
-		return this.getClass().getSimpleName() + " [hashAlgorithmName=" + hashAlgorithmName + ", bytesInHash=" + bytesInHash + "]";
+		return this.getClass().getSimpleName() + " [hashAlgorithmName=" + hashAlgorithmName + ", bytesInHash=" + bytesInHash 
+				+ ", encoding=" + encoding.name().toLowerCase() + ", allowChange=" + allowChange + "]";
 	}
 	
 	public static final class MD5HashHelper extends HashHelper{
@@ -124,6 +292,63 @@ public abstract class HashHelper{
 			return DigestUtils.md5Hex(data);
 		}
 
+		@SuppressWarnings("deprecation")
+		@Override
+		protected HashFunction getHashFunction(){
+			return Hashing.md5();
+		}
+
+	}
+
+	/*
+	 * Non-cryptographic 128-bit hash. Same width as md5 but much faster.
+	 */
+	public static final class Murmur3HashHelper extends HashHelper{
+
+		private final HashFunction hashFunction = Hashing.murmur3_128();
+
+		private Murmur3HashHelper(){
+			super("murmur3_128", 16);
+		}
+
+		@Override
+		public byte[] hashToByteArray(String data){
+			return hashFunction.hashString(data, StandardCharsets.UTF_8).asBytes();
+		}
+
+		@Override
+		public String hashToHexString(String data){
+			return Hex.encodeHexString(hashToByteArray(data));
+		}
+
+		@Override
+		protected HashFunction getHashFunction(){
+			return hashFunction;
+		}
+
+	}
+
+	public static final class SHA256HashHelper extends HashHelper{
+
+		private SHA256HashHelper(){
+			super("sha256", 32);
+		}
+
+		@Override
+		public byte[] hashToByteArray(String data){
+			return DigestUtils.sha256(data);
+		}
+
+		@Override
+		public String hashToHexString(String data){
+			return DigestUtils.sha256Hex(data);
+		}
+
+		@Override
+		protected HashFunction getHashFunction(){
+			return Hashing.sha256();
+		}
+
 	}
 	
 	private static List<Byte> toList(final byte[] bytes){
@@ -204,10 +204,10 @@ public class Kernel
     private static Set<AbstractStorage> removeStorages;
     private static Set<AbstractAnalyzer> removeAnalyzers;
 
-    private static final int BATCH_BUFFER_ELEMENTS = 1000000;
+    private static Dispatcher dispatcher;
+
     private static final int MAIN_THREAD_SLEEP_DELAY = 10;
     private static final int REMOVE_WAIT_DELAY = 100;
-    private static final int FIRST_FILTER = 0;
     private static Logger logger;
     private static boolean ANDROID_PLATFORM = false;
 
@@ -423,6 +423,8 @@ public class Kernel
         commitFilter.sketches = sketches;
         filters.add(commitFilter);
 
+        dispatcher = new Dispatcher(filters, removeReporters);
+
         // The final transformer is used to send vertex and edge objects to
         // their corresponding result Graph.
         // FinalTransformer finalTransformer = new FinalTransformer();
@@ -435,6 +437,8 @@ public class Kernel
      * It extracts provenance objects (vertices, edges) from the
      * buffers, adds the source_reporter annotation to each object which is
      * class name of the reporter, and then sends these objects to the filter list.
+     * In the 'parallel' mode of the {@link Dispatcher} the extraction is done by
+     * one dispatch worker per reporter, and this thread only starts the workers.
      * This thread is also used for cleanly removing reporters and storages
      * through the control commands and also when shutting down. This is done by
      * ensuring that once a reporter is marked for removal, the provenance objects from
@@ -468,13 +472,24 @@ public class Kernel
                         {
                             // Check if a storage is marked for removal.
                             // If it is, shut it down and remove it from the list.
-                            Iterator<AbstractStorage> iterator = removeStorages.iterator();
-                            while(iterator.hasNext())
+                            // Dispatch workers (if any) must not be writing to a storage being shut down.
+                            dispatcher.suspend();
+                            try
                             {
-                                AbstractStorage currentStorage = iterator.next();
-                                AbstractScreen.shutdownScreens(currentStorage.getScreens());
-                                currentStorage.shutdown();
-                                iterator.remove();
+                                Iterator<AbstractStorage> iterator = removeStorages.iterator();
+                                while(iterator.hasNext())
+                                {
+                                    AbstractStorage currentStorage = iterator.next();
+                                    storages.remove(currentStorage);
+                                    currentStorage.shutdownWriter();
+                                    AbstractScreen.shutdownScreens(currentStorage.getScreens());
+                                    currentStorage.shutdown();
+                                    iterator.remove();
+                                }
+                            }
+                            finally
+                            {
+                                dispatcher.resume();
                             }
                         }
                         if (!removeAnalyzers.isEmpty())
@@ -490,34 +505,22 @@ public class Kernel
                             }
                         }
 
-                        for (AbstractReporter reporter : reporters)
+                        if (dispatcher.isParallel())
+                        {
+                            // Each reporter is drained by its own dispatch worker. Make sure that
+                            // newly added reporters get one.
+                            dispatcher.attachAll(reporters);
+                        }
+                        else
                         {
-                            // This loop performs the actual task of committing provenance data to
-                            // the storages. Each reporter is selected and the nested loop is used to
-                            // extract buffer elements in a batch manner for increased efficiency.
+                            // This performs the actual task of committing provenance data to
+                            // the storages. Each reporter is selected and its buffer elements are
+                            // extracted in a batch manner for increased efficiency.
                             // The elements are then passed to the filter list.
-                            Buffer buffer = reporter.getBuffer();
-                            for (int i = 0; i < BATCH_BUFFER_ELEMENTS; i++)
+                            if (dispatcher.drainAll(reporters) > 0)
                             {
-                                Object bufferElement = buffer.getBufferElement();
-                                if (bufferElement instanceof AbstractVertex)
-                                {
-                                    AbstractVertex tempVertex = (AbstractVertex) bufferElement;
-                                    filters.get(FIRST_FILTER).putVertex(tempVertex);
-                                }
-                                else if (bufferElement instanceof AbstractEdge)
-                                {
-                                    AbstractEdge tempEdge = (AbstractEdge) bufferElement;
-                                    filters.get(FIRST_FILTER).putEdge(tempEdge);
-                                }
-                                else if (bufferElement == null)
-                                {
-                                    if (removeReporters.contains(reporter))
-                                    {
-                                        removeReporters.remove(reporter);
-                                    }
-                                    break;
-                                }
+                                // Only sleep when there is nothing to do.
+                                continue;
                             }
                         }
                         Thread.sleep(MAIN_THREAD_SLEEP_DELAY);
@@ -1044,6 +1047,17 @@ public class Kernel
 			return;
 		}
 
+		try{
+			storage.startWriter();
+		}catch(Exception ex){
+			logger.log(Level.SEVERE, "Unable to start asynchronous writer for storage!", ex);
+			outputStream.println("failed");
+			storage.shutdown();
+			storage.clearScreens();
+			AbstractScreen.shutdownScreens(screensResult.result);
+			return;
+		}
+
 		boolean setAsDefaultQuery = false;
 		// If the storage classes match and the storage instance is not set for querying
 		// only then do the following.
@@ -1496,6 +1510,11 @@ public class Kernel
                     if(storage == Kernel.getDefaultQueryStorage()){
                     	outputStream.print(" [ Querying default ]");
                     }
+                    final StorageWriter writer = storage.getWriter();
+                    if(writer != null){
+                    	outputStream.print(" [ Pending: " + writer.getPendingCount() + ", Lag: " + writer.getLagMillis() + " millis"
+                    			+ ", Dropped: " + writer.getDroppedCount() + ", Spilled: " + writer.getSpilledCount() + " ]");
+                    }
                     outputStream.println();
                     count++;
                 }
@@ -1605,10 +1624,9 @@ public class Kernel
 					outputStream.print("Shutting down storage " + className + "... ");
 
 					while(removeStorages.contains(storage)){
-						// Wait for other thread to safely remove storage
+						// Wait for other thread to safely remove storage (from the storages set too)
 						HelperFunctions.sleepSafe(REMOVE_WAIT_DELAY);
 					}
-					storageIterator.remove();
 
 					if(Kernel.getDefaultQueryStorage() == storage){ // Equality by instance
 						// Find the next one with the same class and set to it (if any)
@@ -1883,6 +1901,8 @@ public class Kernel
                 logger.log(Level.WARNING, null, ex);
             }
         }
+        // Wait for the dispatch workers (or the main thread) to hand over the elements already taken out of the buffers.
+        dispatcher.shutdown();
 
         // Shut down filters.
         for (int i = 0; i < filters.size() - 1; i++)
@@ -1897,6 +1917,7 @@ public class Kernel
         // Shut down storages.
         for (AbstractStorage storage : storages)
         {
+            storage.shutdownWriter();
         	long vertexCount = storage.vertexCount;
             long edgeCount = storage.edgeCount;
             AbstractScreen.shutdownScreens(storage.getScreens());
@@ -40,7 +40,7 @@ import java.util.List;
  */
 public class MatrixFilter implements Serializable {
 
-    private List<BloomFilter> filterSet;
+    private List<BloomFilter<AbstractVertex>> filterSet;
     private int filterSetSize;
     private double filtersPerElement;
     private int expectedNumberOfElements; // expected (maximum) number of elements to be added
@@ -76,7 +76,7 @@ public class MatrixFilter implements Serializable {
         numberOfAddedElements = 0;
         this.filterSet = new LinkedList<>();
         for (int i = 0; i < this.filterSetSize; i++) {
-            this.filterSet.add(new BloomFilter(c, n, k));
+            this.filterSet.add(new BloomFilter<>(c, n, k));
         }
     }
 
@@ -112,12 +112,12 @@ public class MatrixFilter implements Serializable {
                 (int) Math.ceil(-(Math.log(falsePositiveProbability) / Math.log(2)))); // k = ceil(-log_2(false prob.))
     }
 
-    public BloomFilter getAllBloomFilters() {
-        BloomFilter result = new BloomFilter(filtersPerElement, expectedNumberOfElements, k);
-        result.getBitSet().set(0, result.getBitSet().size() - 1, false);
+    public BloomFilter<AbstractVertex> getAllBloomFilters() {
+        BloomFilter<AbstractVertex> result = new BloomFilter<>(filtersPerElement, expectedNumberOfElements, k);
+        result.setAll(false);
         for (int i = 0; i < filterSet.size(); i++) {
-            BloomFilter currentFilter = filterSet.get(i);
-            result.getBitSet().or(currentFilter.getBitSet());
+            BloomFilter<AbstractVertex> currentFilter = filterSet.get(i);
+            result.or(currentFilter);
         }
         return result;
     }
@@ -287,27 +287,27 @@ public class MatrixFilter implements Serializable {
         numberOfAddedElements++;
     }
 
-    public void updateAncestors(AbstractVertex vertex, BloomFilter ancestorsToAdd) {
+    public void updateAncestors(AbstractVertex vertex, BloomFilter<AbstractVertex> ancestorsToAdd) {
         long hash;
         String valString = sketchString(vertex);
         for (int x = 0; x < k; x++) {
             hash = createHash(valString + Integer.toString(x));
             hash = hash % (long) filterSetSize;
-            filterSet.get(Math.abs((int) hash)).getBitSet().or(ancestorsToAdd.getBitSet());
+            filterSet.get(Math.abs((int) hash)).or(ancestorsToAdd);
         }
         numberOfAddedElements++;
     }
 
-    public BloomFilter get(AbstractVertex vertex) {
-        BloomFilter result = new BloomFilter(filtersPerElement, expectedNumberOfElements, k);
-        result.getBitSet().set(0, result.getBitSet().size() - 1, true);
+    public BloomFilter<AbstractVertex> get(AbstractVertex vertex) {
+        BloomFilter<AbstractVertex> result = new BloomFilter<>(filtersPerElement, expectedNumberOfElements, k);
+        result.setAll(true);
         long hash;
         String valString = sketchString(vertex);
         for (int x = 0; x < k; x++) {
             hash = createHash(valString + Integer.toString(x));
             hash = hash % (long) filterSetSize;
-            BloomFilter tempBloomFilter = filterSet.get(Math.abs((int) hash));
-            result.getBitSet().and(tempBloomFilter.getBitSet());
+            BloomFilter<AbstractVertex> tempBloomFilter = filterSet.get(Math.abs((int) hash));
+            result.and(tempBloomFilter);
         }
         return result;
     }
@@ -0,0 +1,424 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2021 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.utility.FileUtility;
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
+
+/**
+ * Asynchronous stage between the FinalCommitFilter and a single storage.
+ *
+ * Elements are put in a bounded queue by the caller and written to the storage by a dedicated writer thread so that
+ * a slow storage does not throttle the other storages. When the queue is full the configured overflow policy is
+ * applied:
+ * 1) 'block' - the caller waits for space in the queue.
+ * 2) 'spill' - the element is appended to a spill file on disk, and read back once the queue has been drained.
+ * 3) 'drop'  - the element is discarded and counted.
+ *
+ * The order of the elements is preserved with all policies (except for the dropped elements).
+ */
+public class StorageWriter{
+
+	public static enum OverflowPolicy{ BLOCK, SPILL, DROP }
+
+	private static final String keyEnabled = "enabled",
+			keyCapacity = "capacity",
+			keyOverflowPolicy = "overflowPolicy",
+			keySpillDirectory = "spillDirectory",
+			keyReportingIntervalSeconds = "reportingIntervalSeconds";
+
+	private static final long POLL_WAIT_MILLIS = 10;
+
+	private final Logger logger = Logger.getLogger(StorageWriter.class.getName());
+
+	private final AbstractStorage storage;
+	private final String storageName;
+	private final int capacity;
+	private final OverflowPolicy overflowPolicy;
+	private final String spillDirectory;
+	private final long reportingIntervalMillis;
+
+	private final BlockingQueue<Pending> queue;
+	private final Thread thread;
+
+	private final AtomicLong enqueuedCount = new AtomicLong(0);
+	private final AtomicLong writtenCount = new AtomicLong(0);
+	private final AtomicLong droppedCount = new AtomicLong(0);
+	private final AtomicLong spilledCount = new AtomicLong(0);
+	private volatile long lagMillis = 0;
+	private long lastReportedAtMillis = System.currentTimeMillis();
+
+	private final Object spillLock = new Object();
+	private File spillFile = null;
+	private ObjectOutputStream spillOutput = null;
+	private ObjectInputStream spillInput = null;
+	private long spillWritten = 0, spillFlushed = 0, spillRead = 0;
+
+	private volatile boolean shutdown = false;
+
+	/**
+	 * Reads the config file for this class and creates the writer for the storage if enabled. Every key in the config
+	 * file can be overridden for a specific storage by prefixing the key with the storage class name followed by a
+	 * '.' i.e. 'PostgreSQL.overflowPolicy=spill'.
+	 *
+	 * @param storage storage to write to
+	 * @return null if not enabled for the storage otherwise the started writer
+	 * @throws Exception if the config file is invalid
+	 */
+	static StorageWriter create(final AbstractStorage storage) throws Exception{
+		final String storageName = storage.getClass().getSimpleName();
+		final String configFilePath = Settings.getDefaultConfigFilePath(StorageWriter.class);
+		final Map<String, String> map;
+		try{
+			map = FileUtility.readConfigFileAsKeyValueMap(configFilePath, "=");
+		}catch(Exception e){
+			throw new Exception("Failed to read file '"+configFilePath+"'", e);
+		}
+
+		final String enabledKey = getKeyFor(map, storageName, keyEnabled);
+		final Result<Boolean> enabledResult = HelperFunctions.parseBoolean(map.get(enabledKey));
+		if(enabledResult.error){
+			throw new Exception("Invalid value for '"+enabledKey+"' in file '"+configFilePath+"'. " + enabledResult.errorMessage);
+		}
+		if(!enabledResult.result){
+			return null;
+		}
+
+		final String capacityKey = getKeyFor(map, storageName, keyCapacity);
+		final Result<Long> capacityResult = HelperFunctions.parseLong(map.get(capacityKey), 10, 1, Integer.MAX_VALUE);
+		if(capacityResult.error){
+			throw new Exception("Invalid value for '"+capacityKey+"' in file '"+configFilePath+"'. " + capacityResult.errorMessage);
+		}
+
+		final String overflowPolicyKey = getKeyFor(map, storageName, keyOverflowPolicy);
+		final Result<OverflowPolicy> overflowPolicyResult = HelperFunctions.parseEnumValue(OverflowPolicy.class, map.get(overflowPolicyKey), true);
+		if(overflowPolicyResult.error){
+			throw new Exception("Invalid value for '"+overflowPolicyKey+"' in file '"+configFilePath+"'. " + overflowPolicyResult.errorMessage);
+		}
+
+		final String spillDirectory;
+		if(overflowPolicyResult.result == OverflowPolicy.SPILL){
+			final String spillDirectoryKey = getKeyFor(map, storageName, keySpillDirectory);
+			final String spillDirectoryValue = map.get(spillDirectoryKey);
+			if(HelperFunctions.isNullOrEmpty(spillDirectoryValue)){
+				throw new Exception("NULL/Empty value for '"+spillDirectoryKey+"' in file '"+configFilePath+"'");
+			}
+			spillDirectory = Settings.getPathRelativeToSPADERootIfNotAbsolute(spillDirectoryValue);
+			try{
+				FileUtility.createDirectories(spillDirectory);
+			}catch(Exception e){
+				throw new Exception("Invalid value for '"+spillDirectoryKey+"' in file '"+configFilePath+"'", e);
+			}
+		}else{
+			spillDirectory = null;
+		}
+
+		final String reportingIntervalSecondsKey = getKeyFor(map, storageName, keyReportingIntervalSeconds);
+		final Result<Long> reportingIntervalSecondsResult = HelperFunctions.parseLong(map.get(reportingIntervalSecondsKey), 10, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		if(reportingIntervalSecondsResult.error){
+			throw new Exception("Invalid value for '"+reportingIntervalSecondsKey+"' in file '"+configFilePath+"'. "
+					+ reportingIntervalSecondsResult.errorMessage);
+		}
+
+		final StorageWriter writer = new StorageWriter(storage, capacityResult.result.intValue(), overflowPolicyResult.result,
+				spillDirectory, reportingIntervalSecondsResult.result.intValue() * 1000L);
+		writer.thread.start();
+		return writer;
+	}
+
+	private static String getKeyFor(final Map<String, String> map, final String storageName, final String key){
+		final String storageKey = storageName + "." + key;
+		return map.containsKey(storageKey) ? storageKey : key;
+	}
+
+	private StorageWriter(final AbstractStorage storage, final int capacity, final OverflowPolicy overflowPolicy,
+			final String spillDirectory, final long reportingIntervalMillis){
+		this.storage = storage;
+		this.storageName = storage.getClass().getSimpleName();
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+		this.spillDirectory = spillDirectory;
+		this.reportingIntervalMillis = reportingIntervalMillis;
+		this.queue = new ArrayBlockingQueue<Pending>(capacity);
+		this.thread = new Thread(new Runnable(){
+			@Override
+			public void run(){
+				runWriter();
+			}
+		}, "storageWriter-" + storageName);
+
+		log(Level.INFO, String.format("Arguments: %s=%s, %s=%s, %s=%s, %s=%s",
+				keyCapacity, this.capacity,
+				keyOverflowPolicy, this.overflowPolicy.name().toLowerCase(),
+				keySpillDirectory, this.spillDirectory,
+				keyReportingIntervalSeconds, (this.reportingIntervalMillis / 1000)), null);
+	}
+
+	public final void putVertex(final AbstractVertex vertex){
+		put(new Pending(vertex));
+	}
+
+	public final void putEdge(final AbstractEdge edge){
+		put(new Pending(edge));
+	}
+
+	private final void put(final Pending pending){
+		enqueuedCount.incrementAndGet();
+		switch(overflowPolicy){
+			case DROP:
+				if(!queue.offer(pending)){
+					droppedCount.incrementAndGet();
+				}
+				break;
+			case SPILL:
+				synchronized(spillLock){
+					// Once spilling starts everything must be spilled until the spill file has been read completely
+					// otherwise the order of elements would change.
+					if(spillWritten == spillRead && queue.offer(pending)){
+						return;
+					}
+					try{
+						spill(pending);
+						return;
+					}catch(Exception e){
+						log(Level.WARNING, "Failed to spill element. Blocking until space in queue", e);
+					}
+				}
+				putBlocking(pending);
+				break;
+			case BLOCK:
+			default:
+				putBlocking(pending);
+				break;
+		}
+	}
+
+	private final void putBlocking(final Pending pending){
+		try{
+			queue.put(pending);
+		}catch(InterruptedException e){
+			droppedCount.incrementAndGet();
+			log(Level.WARNING, "Interrupted while waiting for space in queue. Element dropped", e);
+		}
+	}
+
+	// Must be called with spillLock held
+	private final void spill(final Pending pending) throws Exception{
+		if(spillOutput == null){
+			spillFile = File.createTempFile("spill-" + storageName + "-", ".bin", new File(spillDirectory));
+			spillFile.deleteOnExit();
+			spillOutput = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+		}
+		spillOutput.writeUnshared(pending);
+		// Don't keep references to the written elements in the stream
+		spillOutput.reset();
+		spillWritten++;
+		spilledCount.incrementAndGet();
+	}
+
+	private final Pending takeSpilled() throws Exception{
+		synchronized(spillLock){
+			if(spillOutput == null){
+				return null;
+			}
+			if(spillRead == spillWritten){
+				closeSpill();
+				return null;
+			}
+			if(spillFlushed < spillWritten){
+				spillOutput.flush();
+				spillFlushed = spillWritten;
+			}
+			if(spillInput == null){
+				spillInput = new ObjectInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+			}
+			final Pending pending = (Pending)spillInput.readUnshared();
+			spillRead++;
+			return pending;
+		}
+	}
+
+	// Must be called with spillLock held
+	private final void closeSpill(){
+		try{
+			if(spillInput != null){
+				spillInput.close();
+			}
+		}catch(Exception e){
+			log(Level.WARNING, "Failed to close spill file reader", e);
+		}
+		try{
+			if(spillOutput != null){
+				spillOutput.close();
+			}
+		}catch(Exception e){
+			log(Level.WARNING, "Failed to close spill file writer", e);
+		}
+		if(spillFile != null && !spillFile.delete()){
+			log(Level.WARNING, "Failed to delete spill file: " + spillFile.getAbsolutePath(), null);
+		}
+		spillInput = null;
+		spillOutput = null;
+		spillFile = null;
+		spillWritten = spillFlushed = spillRead = 0;
+	}
+
+	private final void runWriter(){
+		while(true){
+			Pending pending = null;
+			try{
+				pending = queue.poll(POLL_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+				if(pending == null){
+					pending = takeSpilled();
+				}
+			}catch(InterruptedException e){
+				// Only exits after everything has been written
+			}catch(Exception e){
+				log(Level.SEVERE, "Failed to read spilled element. Discarding spill file", e);
+				synchronized(spillLock){
+					droppedCount.addAndGet(spillWritten - spillRead);
+					closeSpill();
+				}
+			}
+			if(pending == null){
+				if(shutdown && queue.isEmpty() && isSpillEmpty()){
+					break;
+				}
+			}else{
+				write(pending);
+			}
+			report();
+		}
+		report(true);
+	}
+
+	private final boolean isSpillEmpty(){
+		synchronized(spillLock){
+			return spillWritten == spillRead;
+		}
+	}
+
+	private final void write(final Pending pending){
+		try{
+			if(pending.element instanceof AbstractVertex){
+				if(storage.putVertex((AbstractVertex)pending.element)){
+					storage.vertexCount++;
+				}
+			}else if(pending.element instanceof AbstractEdge){
+				if(storage.putEdge((AbstractEdge)pending.element)){
+					storage.edgeCount++;
+				}
+			}
+		}catch(Throwable t){
+			log(Level.SEVERE, "Failed to write element to storage", t);
+		}
+		writtenCount.incrementAndGet();
+		lagMillis = System.currentTimeMillis() - pending.enqueuedAtMillis;
+	}
+
+	/**
+	 * Waits for all the pending elements to be written to the storage and stops the writer thread.
+	 * Must only be called once no more elements are going to be put.
+	 */
+	final void shutdown(){
+		shutdown = true;
+		try{
+			thread.join();
+		}catch(InterruptedException e){
+			log(Level.WARNING, "Interrupted while waiting for pending elements to be written", e);
+		}
+		synchronized(spillLock){
+			closeSpill();
+		}
+	}
+
+	/**
+	 * @return number of elements put but not yet written to the storage (including spilled)
+	 */
+	public final long getPendingCount(){
+		return enqueuedCount.get() - writtenCount.get() - droppedCount.get();
+	}
+
+	/**
+	 * @return milliseconds the last written element spent waiting in this writer
+	 */
+	public final long getLagMillis(){
+		return lagMillis;
+	}
+
+	public final long getWrittenCount(){
+		return writtenCount.get();
+	}
+
+	public final long getDroppedCount(){
+		return droppedCount.get();
+	}
+
+	public final long getSpilledCount(){
+		return spilledCount.get();
+	}
+
+	private final void report(){
+		report(false);
+	}
+
+	private final void report(final boolean force){
+		if(reportingIntervalMillis > 0 || force){
+			final long nowMillis = System.currentTimeMillis();
+			if(force || (nowMillis - lastReportedAtMillis) > reportingIntervalMillis){
+				lastReportedAtMillis = nowMillis;
+				log(Level.INFO, String.format("Pending=%s, Queued=%s, Written=%s, Dropped=%s, Spilled=%s, Lag=%s millis",
+						getPendingCount(), queue.size(), getWrittenCount(), getDroppedCount(), getSpilledCount(), getLagMillis()), null);
+			}
+		}
+	}
+
+	private final void log(final Level level, final String msg, final Throwable t){
+		logger.log(level, "["+storageName+"] " + msg, t);
+	}
+
+	private static final class Pending implements Serializable{
+		private static final long serialVersionUID = -1403387563201738419L;
+		private final Object element;
+		private final long enqueuedAtMillis;
+
+		private Pending(final Object element){
+			this.element = element;
+			this.enqueuedAtMillis = System.currentTimeMillis();
+		}
+	}
+}
@@ -27,6 +27,7 @@ import spade.core.AbstractFilter;
 import spade.core.AbstractSketch;
 import spade.core.AbstractStorage;
 import spade.core.AbstractVertex;
+import spade.core.StorageWriter;
 
 public class FinalCommitFilter extends AbstractFilter{
 
@@ -36,11 +37,16 @@ public class FinalCommitFilter extends AbstractFilter{
 
 	// This filter is the last filter in the list so any vertices or edges
 	// received by it need to be passed to the storages. On receiving any
-	// provenance elements, it is passed to all storages.
+	// provenance elements, it is passed to all storages. Storages with an
+	// asynchronous writer are handed the element through their writer which
+	// also does the counting.
 	@Override
 	public void putVertex(AbstractVertex incomingVertex){
 		for(final AbstractStorage storage : storages){
-			if(storage.putVertex(incomingVertex)){
+			final StorageWriter writer = storage.getWriter();
+			if(writer != null){
+				writer.putVertex(incomingVertex);
+			}else if(storage.putVertex(incomingVertex)){
 				incrementStorageVertexCount(storage);
 			}
 		}
@@ -52,7 +58,10 @@ public class FinalCommitFilter extends AbstractFilter{
 	@Override
 	public void putEdge(AbstractEdge incomingEdge){
 		for(AbstractStorage storage : storages){
-			if(storage.putEdge(incomingEdge)){
+			final StorageWriter writer = storage.getWriter();
+			if(writer != null){
+				writer.putEdge(incomingEdge);
+			}else if(storage.putEdge(incomingEdge)){
 				incrementStorageEdgeCount(storage);
 			}
 		}
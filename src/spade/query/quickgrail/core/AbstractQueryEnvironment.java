@@ -52,6 +52,7 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 	private final Graph baseGraph;
 
 	private final EnvironmentVariableManager envVarManager = new EnvironmentVariableManager();
+	private final GraphMemberships graphMemberships = new GraphMemberships();
 	// START - Differential privacy related state
 	private final AggregationState aggregationState = new AggregationState();
 	public final AggregationState getAggregationState(){
@@ -71,6 +72,10 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 		return envVarManager;
 	}
 
+	public final GraphMemberships getGraphMemberships(){
+		return graphMemberships;
+	}
+
 	public final void initialize(){
 		initialize(false);
 	}
@@ -94,6 +99,7 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 		}
 		
 		this.idCounter = -1;
+		graphMemberships.clear();
 		symbolsGraph.clear();
 		symbolsMetadata.clear();
 		symbolsPredicate.clear();
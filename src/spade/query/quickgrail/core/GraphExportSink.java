@@ -0,0 +1,34 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail.core;
+
+import java.util.Map;
+
+/**
+ * Receives the elements of an exported graph one at a time. All vertices are passed before any edge.
+ */
+public interface GraphExportSink{
+
+	public void putVertex(final String hash, final Map<String, String> annotations);
+
+	public void putEdge(final String hash, final String childHash, final String parentHash,
+			final Map<String, String> annotations);
+
+}
@@ -0,0 +1,70 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import spade.query.quickgrail.entities.Graph;
+import spade.query.quickgrail.utility.MembershipBitmap;
+
+/**
+ * In-memory vertex and edge memberships of graph variables, as bitmaps over the integer element ids of a storage.
+ *
+ * Kept next to the materialized variables by executors which have integer ids. A membership is only present while it
+ * is known to match the variable. Executors must invalidate it before writing to the variable any other way.
+ */
+public final class GraphMemberships{
+
+	public static final class Membership{
+		public final MembershipBitmap vertices;
+		public final MembershipBitmap edges;
+		/** Whether the materialized variable has no duplicate rows i.e. the row counts are the cardinalities */
+		public final boolean distinct;
+
+		public Membership(final MembershipBitmap vertices, final MembershipBitmap edges, final boolean distinct){
+			this.vertices = vertices;
+			this.edges = edges;
+			this.distinct = distinct;
+		}
+
+		public static Membership empty(){
+			return new Membership(new MembershipBitmap(), new MembershipBitmap(), true);
+		}
+	}
+
+	private final Map<String, Membership> memberships = new HashMap<String, Membership>();
+
+	public final synchronized Membership get(final Graph graph){
+		return memberships.get(graph.name);
+	}
+
+	public final synchronized void put(final Graph graph, final Membership membership){
+		memberships.put(graph.name, membership);
+	}
+
+	public final synchronized void invalidate(final Graph graph){
+		memberships.remove(graph.name);
+	}
+
+	public final synchronized void clear(){
+		memberships.clear();
+	}
+}
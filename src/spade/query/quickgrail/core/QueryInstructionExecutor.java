@@ -19,6 +19,8 @@
  */
 package spade.query.quickgrail.core;
 
+import java.io.BufferedWriter;
+import java.io.FileWriter;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -45,7 +47,7 @@ import spade.query.quickgrail.entities.GraphMetadata;
 import spade.query.quickgrail.entities.GraphPredicate;
 import spade.query.quickgrail.instruction.DescribeGraph;
 import spade.query.quickgrail.instruction.DescribeGraph.ElementType;
-import spade.query.quickgrail.instruction.ExportGraph;
+import spade.query.quickgrail.instruction.RemoteVariableOperation;
 import spade.query.quickgrail.instruction.GetEdgeEndpoint.Component;
 import spade.query.quickgrail.instruction.GetGraphStatistic;
 import spade.query.quickgrail.instruction.GetLineage;
@@ -99,7 +101,7 @@ public abstract class QueryInstructionExecutor{
 
 	public abstract ResultTable evaluateQuery(final String nativeQuery);
 
-	public final spade.core.Graph exportGraph(final Graph targetGraph, final boolean force){
+	private final void checkExportLimit(final Graph targetGraph, final boolean force){
 		final GraphStatistic.Count count = getGraphCount(targetGraph);
 		long verticesAndEdges = count.getVertices() + count.getEdges();
 		if(!force){
@@ -110,31 +112,37 @@ public abstract class QueryInstructionExecutor{
 								+ verticesAndEdges + "'. " + "Please use 'dump all ...' to force the print.");
 			}
 		}
-		final Map<String, Map<String, String>> queriedVerticesMap = exportVertices(targetGraph);
-		final Map<String, AbstractVertex> verticesMap = new HashMap<String, AbstractVertex>();
-		for(Map.Entry<String, Map<String, String>> entry : queriedVerticesMap.entrySet()){
-			AbstractVertex vertex = new Vertex(entry.getKey()); // always create reference vertices
-			vertex.addAnnotations(entry.getValue());
-			verticesMap.put(entry.getKey(), vertex);
-		}
+	}
 
-		final Set<QueriedEdge> queriedEdges = exportEdges(targetGraph);
+	public final spade.core.Graph exportGraph(final Graph targetGraph, final boolean force){
+		checkExportLimit(targetGraph, force);
+
+		final Map<String, AbstractVertex> verticesMap = new HashMap<String, AbstractVertex>();
 		final Set<AbstractEdge> edges = new HashSet<AbstractEdge>();
-		for(final QueriedEdge queriedEdge : queriedEdges){
-			AbstractVertex child = verticesMap.get(queriedEdge.childHash);
-			AbstractVertex parent = verticesMap.get(queriedEdge.parentHash);
-			if(child == null){
-				child = new Vertex(queriedEdge.childHash);
-				// verticesMap.put(queriedEdge.childHash, child);
+		exportGraph(targetGraph, new GraphExportSink(){
+			@Override
+			public void putVertex(final String hash, final Map<String, String> annotations){
+				AbstractVertex vertex = new Vertex(hash); // always create reference vertices
+				vertex.addAnnotations(annotations);
+				verticesMap.put(hash, vertex);
 			}
-			if(parent == null){
-				parent = new Vertex(queriedEdge.parentHash);
-				// verticesMap.put(queriedEdge.parentHash, parent);
+
+			@Override
+			public void putEdge(final String hash, final String childHash, final String parentHash,
+					final Map<String, String> annotations){
+				AbstractVertex child = verticesMap.get(childHash);
+				AbstractVertex parent = verticesMap.get(parentHash);
+				if(child == null){
+					child = new Vertex(childHash);
+				}
+				if(parent == null){
+					parent = new Vertex(parentHash);
+				}
+				final AbstractEdge edge = new Edge(hash, child, parent);
+				edge.addAnnotations(annotations);
+				edges.add(edge);
 			}
-			final AbstractEdge edge = new Edge(queriedEdge.edgeHash, child, parent);
-			edge.addAnnotations(queriedEdge.getCopyOfAnnotations());
-			edges.add(edge);
-		}
+		});
 
 		final spade.core.Graph resultGraph = new spade.core.Graph();
 		resultGraph.vertexSet().addAll(verticesMap.values());
@@ -142,6 +150,25 @@ public abstract class QueryInstructionExecutor{
 		return resultGraph;
 	}
 
+	/**
+	 * Passes all the vertices and then all the edges of the graph to the sink.
+	 * 
+	 * The default implementation reads the whole graph into memory first. Storages which can read the result
+	 * incrementally should override it so that the memory used does not depend on the size of the graph.
+	 * 
+	 * @param targetGraph graph to export
+	 * @param sink receiver of the vertices and the edges
+	 */
+	public void exportGraph(final Graph targetGraph, final GraphExportSink sink){
+		for(final Map.Entry<String, Map<String, String>> entry : exportVertices(targetGraph).entrySet()){
+			sink.putVertex(entry.getKey(), entry.getValue());
+		}
+		for(final QueriedEdge queriedEdge : exportEdges(targetGraph)){
+			sink.putEdge(queriedEdge.edgeHash, queriedEdge.childHash, queriedEdge.parentHash,
+					queriedEdge.getCopyOfAnnotations());
+		}
+	}
+
 	public abstract void getAdjacentVertex(Graph targetGraph, Graph subjectGraph, Graph sourceGraph, GetLineage.Direction direction);
 
 	public abstract void getEdge(Graph targetGraph, Graph subjectGraph, String annotationKey, PredicateOperator operator,
@@ -261,11 +288,56 @@ public abstract class QueryInstructionExecutor{
 
 	public final void saveGraph(final Graph targetGraph, final SaveGraph.Format format, final boolean force,
 			final String filePath){
+		if(HelperFunctions.isNullOrEmpty(filePath)){
+			throw new RuntimeException("Cannot export graph to NULL/Empty file path: '" + filePath + "'");
+		}
+		checkExportLimit(targetGraph, force);
 		final boolean verify = false;
 		final Context execCtx = new Context(this);
-		final spade.core.Graph exportedGraph = new ExportGraph(targetGraph, force, verify).exec(execCtx);
-		try{
-			spade.core.Graph.exportGraphToFile(format, filePath, exportedGraph);
+		// Local elements are written as they are read instead of building the whole graph first.
+		// The remote result is small, so it is fetched first and only its hashes are kept to skip the local elements
+		// which it already has.
+		try(final BufferedWriter writer = new BufferedWriter(new FileWriter(filePath))){
+			final AbstractStorage fileStorage = spade.core.Graph.createExportStorage(format, writer, false);
+			try{
+				final RemoteGraph remoteGraph = new RemoteVariableOperation.Export(targetGraph, force, verify).exec(execCtx);
+				final Set<String> remoteVertexHashes = new HashSet<String>();
+				for(final AbstractVertex vertex : remoteGraph.vertexSet()){
+					if(remoteVertexHashes.add(vertex.bigHashCode())){
+						fileStorage.putVertex(vertex);
+					}
+				}
+				final Set<String> remoteEdgeHashes = new HashSet<String>();
+				for(final AbstractEdge edge : remoteGraph.edgeSet()){
+					if(remoteEdgeHashes.add(edge.bigHashCode())){
+						fileStorage.putEdge(edge);
+					}
+				}
+				exportGraph(targetGraph, new GraphExportSink(){
+					@Override
+					public void putVertex(final String hash, final Map<String, String> annotations){
+						if(remoteVertexHashes.contains(hash)){
+							return;
+						}
+						final AbstractVertex vertex = new Vertex(hash);
+						vertex.addAnnotations(annotations);
+						fileStorage.putVertex(vertex);
+					}
+
+					@Override
+					public void putEdge(final String hash, final String childHash, final String parentHash,
+							final Map<String, String> annotations){
+						if(remoteEdgeHashes.contains(hash)){
+							return;
+						}
+						final AbstractEdge edge = new Edge(hash, new Vertex(childHash), new Vertex(parentHash));
+						edge.addAnnotations(annotations);
+						fileStorage.putEdge(edge);
+					}
+				});
+			}finally{
+				fileStorage.shutdown();
+			}
 		}catch(Exception e){
 			throw new RuntimeException("Failed to save graph to file '" + filePath + "' on SPADE server", e);
 		}
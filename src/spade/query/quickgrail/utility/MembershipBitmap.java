@@ -0,0 +1,435 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail.utility;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of non-negative integers laid out like a Roaring bitmap.
+ *
+ * Values are split into chunks of 2^16 by their high 16 bits. A chunk is kept as a sorted array of the low 16 bits
+ * while it has at most 4096 values, and as a plain bitmap of 2^16 bits once it has more. Set operations work chunk by
+ * chunk and never expand the values.
+ */
+public final class MembershipBitmap{
+
+	private static final int maxArrayCardinality = 4096;
+	private static final int wordsInBitmap = (1 << 16) / 64;
+
+	private char[] keys;
+	private Container[] containers;
+	private int size;
+
+	public MembershipBitmap(){
+		this(4);
+	}
+
+	private MembershipBitmap(final int capacity){
+		this.keys = new char[Math.max(capacity, 1)];
+		this.containers = new Container[Math.max(capacity, 1)];
+		this.size = 0;
+	}
+
+	public final void add(final int value){
+		if(value < 0){
+			throw new IllegalArgumentException("Negative value: " + value);
+		}
+		final char key = (char)(value >>> 16);
+		final int index = indexOfKey(key);
+		if(index >= 0){
+			containers[index] = containers[index].add((char)value);
+		}else{
+			final ArrayContainer container = new ArrayContainer(new char[4], 0);
+			container.add((char)value);
+			insertAt(-index - 1, key, container);
+		}
+	}
+
+	public final boolean contains(final int value){
+		if(value < 0){
+			return false;
+		}
+		final int index = indexOfKey((char)(value >>> 16));
+		return index >= 0 && containers[index].contains((char)value);
+	}
+
+	public final long getCardinality(){
+		long cardinality = 0;
+		for(int i = 0; i < size; i++){
+			cardinality += containers[i].cardinality;
+		}
+		return cardinality;
+	}
+
+	public final boolean isEmpty(){
+		return size == 0;
+	}
+
+	/**
+	 * Calls the consumer with each value in ascending order
+	 *
+	 * @param consumer consumer of values
+	 */
+	public final void forEach(final IntConsumer consumer){
+		for(int i = 0; i < size; i++){
+			containers[i].forEach(keys[i] << 16, consumer);
+		}
+	}
+
+	public static MembershipBitmap or(final MembershipBitmap lhs, final MembershipBitmap rhs){
+		final MembershipBitmap result = new MembershipBitmap(lhs.size + rhs.size);
+		int l = 0, r = 0;
+		while(l < lhs.size && r < rhs.size){
+			if(lhs.keys[l] == rhs.keys[r]){
+				result.append(lhs.keys[l], lhs.containers[l++].or(rhs.containers[r++]));
+			}else if(lhs.keys[l] < rhs.keys[r]){
+				result.append(lhs.keys[l], lhs.containers[l++].copy());
+			}else{
+				result.append(rhs.keys[r], rhs.containers[r++].copy());
+			}
+		}
+		while(l < lhs.size){
+			result.append(lhs.keys[l], lhs.containers[l++].copy());
+		}
+		while(r < rhs.size){
+			result.append(rhs.keys[r], rhs.containers[r++].copy());
+		}
+		return result;
+	}
+
+	public static MembershipBitmap and(final MembershipBitmap lhs, final MembershipBitmap rhs){
+		final MembershipBitmap result = new MembershipBitmap(Math.min(lhs.size, rhs.size));
+		int l = 0, r = 0;
+		while(l < lhs.size && r < rhs.size){
+			if(lhs.keys[l] == rhs.keys[r]){
+				final Container container = lhs.containers[l].and(rhs.containers[r]);
+				if(container.cardinality > 0){
+					result.append(lhs.keys[l], container);
+				}
+				l++;
+				r++;
+			}else if(lhs.keys[l] < rhs.keys[r]){
+				l++;
+			}else{
+				r++;
+			}
+		}
+		return result;
+	}
+
+	public static MembershipBitmap andNot(final MembershipBitmap lhs, final MembershipBitmap rhs){
+		final MembershipBitmap result = new MembershipBitmap(lhs.size);
+		int l = 0, r = 0;
+		while(l < lhs.size){
+			while(r < rhs.size && rhs.keys[r] < lhs.keys[l]){
+				r++;
+			}
+			if(r < rhs.size && rhs.keys[r] == lhs.keys[l]){
+				final Container container = lhs.containers[l].andNot(rhs.containers[r]);
+				if(container.cardinality > 0){
+					result.append(lhs.keys[l], container);
+				}
+			}else{
+				result.append(lhs.keys[l], lhs.containers[l].copy());
+			}
+			l++;
+		}
+		return result;
+	}
+
+	@Override
+	public String toString(){
+		return "MembershipBitmap [chunks=" + size + ", cardinality=" + getCardinality() + "]";
+	}
+
+	private int indexOfKey(final char key){
+		// Appending in ascending order is the common case
+		if(size > 0 && keys[size - 1] == key){
+			return size - 1;
+		}
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+
+	private void insertAt(final int index, final char key, final Container container){
+		if(size == keys.length){
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(containers, index, containers, index + 1, size - index);
+		keys[index] = key;
+		containers[index] = container;
+		size++;
+	}
+
+	private void append(final char key, final Container container){
+		insertAt(size, key, container);
+	}
+
+	private static abstract class Container{
+		int cardinality;
+
+		abstract Container add(final char value);
+
+		abstract boolean contains(final char value);
+
+		abstract void forEach(final int high, final IntConsumer consumer);
+
+		abstract Container copy();
+
+		abstract Container or(final Container other);
+
+		abstract Container and(final Container other);
+
+		abstract Container andNot(final Container other);
+	}
+
+	private static final class ArrayContainer extends Container{
+		private char[] values;
+
+		ArrayContainer(final char[] values, final int cardinality){
+			this.values = values;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		Container add(final char value){
+			int index = (cardinality > 0 && values[cardinality - 1] < value)
+					? -cardinality - 1 : Arrays.binarySearch(values, 0, cardinality, value);
+			if(index >= 0){
+				return this;
+			}
+			if(cardinality == maxArrayCardinality){
+				return toBitmap().add(value);
+			}
+			index = -index - 1;
+			if(cardinality == values.length){
+				values = Arrays.copyOf(values, Math.min(values.length * 2, maxArrayCardinality));
+			}
+			System.arraycopy(values, index, values, index + 1, cardinality - index);
+			values[index] = value;
+			cardinality++;
+			return this;
+		}
+
+		@Override
+		boolean contains(final char value){
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+
+		@Override
+		void forEach(final int high, final IntConsumer consumer){
+			for(int i = 0; i < cardinality; i++){
+				consumer.accept(high | values[i]);
+			}
+		}
+
+		@Override
+		Container copy(){
+			return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+		}
+
+		BitmapContainer toBitmap(){
+			final long[] words = new long[wordsInBitmap];
+			for(int i = 0; i < cardinality; i++){
+				words[values[i] >>> 6] |= 1L << values[i];
+			}
+			return new BitmapContainer(words, cardinality);
+		}
+
+		@Override
+		Container or(final Container other){
+			if(other instanceof BitmapContainer){
+				return other.or(this);
+			}
+			final ArrayContainer that = (ArrayContainer)other;
+			if(cardinality + that.cardinality > maxArrayCardinality){
+				return toBitmap().or(that);
+			}
+			final char[] merged = new char[Math.max(cardinality + that.cardinality, 1)];
+			int i = 0, j = 0, k = 0;
+			while(i < cardinality && j < that.cardinality){
+				if(values[i] == that.values[j]){
+					merged[k++] = values[i++];
+					j++;
+				}else if(values[i] < that.values[j]){
+					merged[k++] = values[i++];
+				}else{
+					merged[k++] = that.values[j++];
+				}
+			}
+			while(i < cardinality){
+				merged[k++] = values[i++];
+			}
+			while(j < that.cardinality){
+				merged[k++] = that.values[j++];
+			}
+			return new ArrayContainer(merged, k);
+		}
+
+		@Override
+		Container and(final Container other){
+			final char[] result = new char[Math.max(cardinality, 1)];
+			int k = 0;
+			if(other instanceof BitmapContainer){
+				for(int i = 0; i < cardinality; i++){
+					if(other.contains(values[i])){
+						result[k++] = values[i];
+					}
+				}
+			}else{
+				final ArrayContainer that = (ArrayContainer)other;
+				int i = 0, j = 0;
+				while(i < cardinality && j < that.cardinality){
+					if(values[i] == that.values[j]){
+						result[k++] = values[i++];
+						j++;
+					}else if(values[i] < that.values[j]){
+						i++;
+					}else{
+						j++;
+					}
+				}
+			}
+			return new ArrayContainer(result, k);
+		}
+
+		@Override
+		Container andNot(final Container other){
+			final char[] result = new char[Math.max(cardinality, 1)];
+			int k = 0;
+			for(int i = 0; i < cardinality; i++){
+				if(!other.contains(values[i])){
+					result[k++] = values[i];
+				}
+			}
+			return new ArrayContainer(result, k);
+		}
+	}
+
+	private static final class BitmapContainer extends Container{
+		private final long[] words;
+
+		BitmapContainer(final long[] words, final int cardinality){
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		Container add(final char value){
+			final long bit = 1L << value;
+			if((words[value >>> 6] & bit) == 0){
+				words[value >>> 6] |= bit;
+				cardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		boolean contains(final char value){
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		void forEach(final int high, final IntConsumer consumer){
+			for(int w = 0; w < wordsInBitmap; w++){
+				long word = words[w];
+				while(word != 0){
+					consumer.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		}
+
+		@Override
+		Container copy(){
+			return new BitmapContainer(words.clone(), cardinality);
+		}
+
+		/*
+		 * Goes back to an array once sparse enough
+		 */
+		private Container shrink(){
+			if(cardinality > maxArrayCardinality){
+				return this;
+			}
+			final char[] values = new char[Math.max(cardinality, 1)];
+			final int[] k = {0};
+			forEach(0, value -> values[k[0]++] = (char)value);
+			return new ArrayContainer(values, cardinality);
+		}
+
+		@Override
+		Container or(final Container other){
+			final long[] result = words.clone();
+			if(other instanceof BitmapContainer){
+				final long[] that = ((BitmapContainer)other).words;
+				for(int w = 0; w < wordsInBitmap; w++){
+					result[w] |= that[w];
+				}
+			}else{
+				final ArrayContainer that = (ArrayContainer)other;
+				for(int i = 0; i < that.cardinality; i++){
+					result[that.values[i] >>> 6] |= 1L << that.values[i];
+				}
+			}
+			return new BitmapContainer(result, bitCount(result));
+		}
+
+		@Override
+		Container and(final Container other){
+			if(other instanceof ArrayContainer){
+				return other.and(this);
+			}
+			final long[] that = ((BitmapContainer)other).words;
+			final long[] result = new long[wordsInBitmap];
+			for(int w = 0; w < wordsInBitmap; w++){
+				result[w] = words[w] & that[w];
+			}
+			return new BitmapContainer(result, bitCount(result)).shrink();
+		}
+
+		@Override
+		Container andNot(final Container other){
+			final long[] result = words.clone();
+			if(other instanceof BitmapContainer){
+				final long[] that = ((BitmapContainer)other).words;
+				for(int w = 0; w < wordsInBitmap; w++){
+					result[w] &= ~that[w];
+				}
+			}else{
+				final ArrayContainer that = (ArrayContainer)other;
+				for(int i = 0; i < that.cardinality; i++){
+					result[that.values[i] >>> 6] &= ~(1L << that.values[i]);
+				}
+			}
+			return new BitmapContainer(result, bitCount(result)).shrink();
+		}
+
+		private static int bitCount(final long[] words){
+			int count = 0;
+			for(final long word : words){
+				count += Long.bitCount(word);
+			}
+			return count;
+		}
+	}
+}
@@ -19,6 +19,7 @@
  */
 package spade.reporter;
 
+import java.io.InputStream;
 import java.math.BigInteger;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -39,9 +40,13 @@ import spade.edge.opm.WasDerivedFrom;
 import spade.edge.opm.WasGeneratedBy;
 import spade.edge.opm.WasTriggeredBy;
 import spade.reporter.audit.ArtifactConfiguration;
+import spade.reporter.audit.AuditCheckpoint;
 import spade.reporter.audit.AuditConfiguration;
 import spade.reporter.audit.AuditControlManager;
+import spade.reporter.audit.AuditEventPipeline;
 import spade.reporter.audit.AuditEventReader;
+import spade.reporter.audit.AuditEventShards;
+import spade.reporter.audit.AuditLogReplay;
 import spade.reporter.audit.IPCManager;
 import spade.reporter.audit.Input;
 import spade.reporter.audit.KernelModuleArgument;
@@ -128,8 +133,26 @@ public class Audit extends AbstractReporter {
 	private ProcessUserSyscallFilter processUserSyscallFilter;
 	
 	private SPADEAuditBridgeProcess spadeAuditBridgeProcess;
+	// Used instead of the SPADE audit bridge process if the logs are replayed in parallel
+	private AuditLogReplay auditLogReplay;
 	
 	private AuditEventReader auditEventReader;
+	// Reads and parses events ahead of the main event loop thread if parser threads are configured
+	private AuditEventPipeline auditEventPipeline;
+	private static final int eventsBufferedPerParserThread = 1024;
+	// Handles events on more than one thread if handler threads are configured
+	private AuditEventShards auditEventShards;
+	private static final int eventsBufferedPerHandlerThread = 1024;
+	private static final int artifactLocks = 4096;
+	// Shard key of each process that shares state with the process it was cloned from. The pid is the key otherwise.
+	// Only used on the main event loop thread.
+	private final Map<String, String> pidToShardKey = new HashMap<String, String>();
+	
+	private AuditCheckpoint auditCheckpoint;
+	// Number of events read from the input including the ones skipped on resuming from a checkpoint
+	private long eventCount = 0;
+	// Checkpoints are not written after a failure because the changes taken for it would be missing from the next one
+	private boolean checkpointFailed = false;
 	// A flag to block on shutdown call if buffers are being emptied and events are still being read
 	private volatile boolean isMainEventLoopThreadRunning = false;
 	private final Thread mainEventLoopThread = new Thread(new Runnable(){
@@ -139,21 +162,44 @@ public class Audit extends AbstractReporter {
 			while(true){
 				Map<String, String> eventData = null;
 				try{
-					eventData = auditEventReader.readEventData();
+					writeCheckpoint(false);
+					eventData = readEventData();
 					if(eventData == null){
 						// EOF
+						writeCheckpoint(true);
 						break;
 					}else{
+						eventCount++;
+						if(auditEventShards != null && !isHandledAfterAllEvents(eventData)){
+							printStats(false);
+							// Handled and recycled on the shard of the process
+							auditEventShards.handle(getShardKey(eventData.get(AuditEventReader.PID)), eventData);
+							if(auditEventShards.hasFailed() && auditConfiguration.isFailfast()){
+								break;
+							}
+							continue;
+						}
 						try{
+							if(auditEventShards != null){
+								auditEventShards.await();
+							}
 							finishEvent(eventData);
+							if(auditEventShards != null){
+								updateShardKeys(eventData);
+							}
 						}catch(Exception e){
 							logger.log(Level.SEVERE, "Failed to handle event: " + eventData, e);
 							if(auditConfiguration.isFailfast()){
 								break;
 							}
+						}finally{
+							artifactManager.eventHandled();
+							// Not referenced after handling
+							recycleEventData(eventData);
 						}
 					}
 				}catch(MalformedAuditDataException made){
+					eventCount++;
 					logger.log(Level.SEVERE, "Failed to parse event", made);
 					if(auditConfiguration.isFailfast()){
 						break;
@@ -163,8 +209,14 @@ public class Audit extends AbstractReporter {
 					break;
 				}
 			}
+			if(auditEventShards != null){
+				// Events given to the shards are handled before the state is cleaned up
+				auditEventShards.close();
+			}
 			try{
-				if(auditEventReader != null){
+				if(auditEventPipeline != null){
+					auditEventPipeline.close();
+				}else if(auditEventReader != null){
 					auditEventReader.close();
 				}
 			}catch(Exception e){
@@ -252,7 +304,27 @@ public class Audit extends AbstractReporter {
 					logger.log(Level.WARNING, "Failed to SPADE audit bridge process cleanup", e);
 				}
 			}
-			if(auditEventReader != null){
+			if(auditLogReplay != null){
+				try{
+					auditLogReplay.close();
+				}catch(Exception e){
+					logger.log(Level.WARNING, "Failed to parallel log replay cleanup", e);
+				}
+			}
+			if(auditEventShards != null){
+				try{
+					auditEventShards.close();
+				}catch(Exception e){
+					logger.log(Level.WARNING, "Failed to gracefully close audit event handler threads", e);
+				}
+			}
+			if(auditEventPipeline != null){
+				try{
+					auditEventPipeline.close();
+				}catch(Exception e){
+					logger.log(Level.WARNING, "Failed to gracefully close audit event pipeline", e);
+				}
+			}else if(auditEventReader != null){
 				try{
 					auditEventReader.close();
 				}catch(Exception e){
@@ -322,6 +394,14 @@ public class Audit extends AbstractReporter {
 			return false;
 		}
 		
+		try{
+			this.auditCheckpoint = AuditCheckpoint.instance(map);
+			logger.log(Level.INFO, this.auditCheckpoint.toString());
+		}catch(Exception e){
+			logger.log(Level.SEVERE, "Failed to setup checkpoints", e);
+			return false;
+		}
+		
 		try{
 			final String keyConstantsSource = "constantsSource";
 			this.platformConstants = LinuxConstants.instance(map, keyConstantsSource);
@@ -408,31 +488,73 @@ public class Audit extends AbstractReporter {
 			}
 		}
 		
-		try{
-			this.spadeAuditBridgeProcess = SPADEAuditBridgeProcess.launch(this.input, auditConfiguration.isUnits(), auditConfiguration.getMergeUnit());
-			logger.log(Level.INFO, "Launched SPADE audit bridge process with pid '" + spadeAuditBridgeProcess.getPid() + "' using command:"
-					+ " " + spadeAuditBridgeProcess.getCommand());
-			this.spadeAuditBridgeProcess.consumeStdErr(new BiConsumer<String, Exception>(){
-				@Override
-				public void accept(final String msg, final Exception exception){
-					if(msg != null && exception != null){
-						logger.log(Level.SEVERE, "[SPADE audit bridge] [ERROR] " + msg, exception);
-					}else if(msg != null && exception == null){
-						logger.log(Level.INFO, "[SPADE audit bridge] [OUTPUT] " + msg);
-					}else if(msg == null && exception != null){
-						logger.log(Level.SEVERE, "[SPADE audit bridge] [ERROR] " + "Unexpected error", exception);
-					}else{
-						logger.log(Level.INFO, "[SPADE audit bridge] [OUTPUT] " + "Exiting error thread");
+		long checkpointEventCount = 0;
+		if(auditCheckpoint.isEnabled()){
+			try{
+				auditCheckpoint.setState(input, processManager, artifactManager, kernelModuleConfiguration);
+				checkpointEventCount = auditCheckpoint.restore();
+			}catch(Exception e){
+				logger.log(Level.SEVERE, "Failed to restore checkpoint", e);
+				return false;
+			}
+		}
+		
+		if(input.isParallelReplay()){
+			if(auditConfiguration.isUnits()){
+				logger.log(Level.SEVERE, "Parallel replay of logs ('replayThreads') is not supported with units");
+				return false;
+			}
+			try{
+				this.auditLogReplay = new AuditLogReplay(input.getSPADEAuditBridgePath(), input.getReplayLogList(), 
+						input.getReplayThreads(), reportingIntervaler.intervalTimeMillis);
+				this.auditLogReplay.start();
+			}catch(Exception e){
+				logger.log(Level.SEVERE, "Failed to start parallel replay of logs", e);
+				return false;
+			}
+		}else{
+			try{
+				this.spadeAuditBridgeProcess = SPADEAuditBridgeProcess.launch(this.input, auditConfiguration.isUnits(), auditConfiguration.getMergeUnit());
+				logger.log(Level.INFO, "Launched SPADE audit bridge process with pid '" + spadeAuditBridgeProcess.getPid() + "' using command:"
+						+ " " + spadeAuditBridgeProcess.getCommand());
+				this.spadeAuditBridgeProcess.consumeStdErr(new BiConsumer<String, Exception>(){
+					@Override
+					public void accept(final String msg, final Exception exception){
+						if(msg != null && exception != null){
+							logger.log(Level.SEVERE, "[SPADE audit bridge] [ERROR] " + msg, exception);
+						}else if(msg != null && exception == null){
+							logger.log(Level.INFO, "[SPADE audit bridge] [OUTPUT] " + msg);
+						}else if(msg == null && exception != null){
+							logger.log(Level.SEVERE, "[SPADE audit bridge] [ERROR] " + "Unexpected error", exception);
+						}else{
+							logger.log(Level.INFO, "[SPADE audit bridge] [OUTPUT] " + "Exiting error thread");
+						}
 					}
-				}
-			});
-		}catch(Exception e){
-			logger.log(Level.SEVERE, "Failed to start SPADE audit bridge process", e);
-			return false;
+				});
+			}catch(Exception e){
+				logger.log(Level.SEVERE, "Failed to start SPADE audit bridge process", e);
+				return false;
+			}
 		}
 		
 		try{
-			this.auditEventReader = new AuditEventReader(input.getSPADEAuditBridgeName(), spadeAuditBridgeProcess.getStdOutStream());
+			final InputStream eventStream = auditLogReplay != null 
+					? auditLogReplay.getStream() : spadeAuditBridgeProcess.getStdOutStream();
+			this.auditEventReader = new AuditEventReader(input.getSPADEAuditBridgeName(), eventStream);
+			if(checkpointEventCount > 0){
+				if(input.isLiveMode()){
+					logger.log(Level.INFO, "Not skipping events in live mode after restoring checkpoint");
+				}else{
+					final long skippedEventCount = this.auditEventReader.skipEvents(checkpointEventCount);
+					if(skippedEventCount < checkpointEventCount){
+						logger.log(Level.WARNING, "Input ended after skipping " + skippedEventCount + " of " 
+								+ checkpointEventCount + " checkpointed events");
+					}else{
+						logger.log(Level.INFO, "Skipped " + skippedEventCount + " checkpointed events in input");
+					}
+				}
+				this.eventCount = checkpointEventCount;
+			}
 			if(this.outputLog.isEnabled()){
 				this.auditEventReader.setOutputLog(this.outputLog.getOutputLogPath(), this.outputLog.getRotateLogAfterLines());
 			}
@@ -441,6 +563,34 @@ public class Audit extends AbstractReporter {
 			return false;
 		}
 		
+		if(auditConfiguration.getParserThreads() > 0){
+			try{
+				this.auditEventPipeline = new AuditEventPipeline(auditEventReader, auditConfiguration.getParserThreads(), 
+						auditConfiguration.getParserThreads() * eventsBufferedPerParserThread);
+				this.auditEventPipeline.start();
+			}catch(Exception e){
+				logger.log(Level.SEVERE, "Failed to instantiate/start audit event pipeline", e);
+				return false;
+			}
+		}
+		
+		if(auditConfiguration.getHandlerThreads() > 0){
+			try{
+				artifactManager.enableConcurrentHandling(artifactLocks);
+				this.auditEventShards = new AuditEventShards(auditConfiguration.getHandlerThreads(), 
+						eventsBufferedPerHandlerThread, new Consumer<Map<String, String>>(){
+							@Override
+							public void accept(final Map<String, String> eventData){
+								handleShardedEvent(eventData);
+							}
+						});
+				this.auditEventShards.start();
+			}catch(Exception e){
+				logger.log(Level.SEVERE, "Failed to instantiate/start audit event handler threads", e);
+				return false;
+			}
+		}
+		
 		try{
 			this.mainEventLoopThread.start();
 		}catch(Exception e){
@@ -626,6 +776,10 @@ public class Audit extends AbstractReporter {
 				logger.log(Level.WARNING, "Failed to stop SPADE audit bridge process", e);
 			}
 		}
+		if(auditLogReplay != null && !input.isWaitForLog()){
+			final boolean forceStop = false;
+			auditLogReplay.stop(forceStop);
+		}
 
 		// Return. The event reader thread and the error reader thread will exit on
 		// their own.
@@ -660,10 +814,178 @@ public class Audit extends AbstractReporter {
 		}
 	}
 
+	private void writeCheckpoint(final boolean force){
+		if(!auditCheckpoint.isEnabled() || checkpointFailed){
+			return;
+		}
+		try{
+			if(force || auditCheckpoint.isDue()){
+				if(auditEventShards != null){
+					// The checkpoint must have the changes of all the events counted
+					auditEventShards.await();
+				}
+				auditCheckpoint.checkpoint(eventCount);
+			}
+		}catch(Exception e){
+			checkpointFailed = true;
+			logger.log(Level.SEVERE, "Failed to write checkpoint to '" + auditCheckpoint.getCheckpointPath() 
+					+ "'. No more checkpoints are written", e);
+		}
+	}
+	
+	private Map<String, String> readEventData() throws Exception{
+		if(auditEventPipeline != null){
+			return auditEventPipeline.readEventData();
+		}else{
+			return auditEventReader.readEventData();
+		}
+	}
+	
+	private void recycleEventData(final Map<String, String> eventData){
+		if(auditEventPipeline != null){
+			auditEventPipeline.recycleEventData(eventData);
+		}else{
+			auditEventReader.recycleEventData(eventData);
+		}
+	}
+	
 	private void finishEvent(Map<String, String> eventData){
-
 		printStats(false);
-
+		handleEvent(eventData);
+	}
+	
+	/*
+	 * Called on the handler threads
+	 */
+	private void handleShardedEvent(final Map<String, String> eventData){
+		try{
+			handleEvent(eventData);
+		}finally{
+			artifactManager.eventHandled();
+			// The event maps of the reader are not recycled because it is not thread-safe
+			if(auditEventPipeline != null){
+				auditEventPipeline.recycleEventData(eventData);
+			}
+		}
+	}
+	
+	private String getShardKey(final String pid){
+		final String shardKey = pidToShardKey.get(pid);
+		return shardKey == null ? pid : shardKey;
+	}
+	
+	/**
+	 * Tells if the event has to be handled after all the events before it (i.e. not on the shard of its process)
+	 * 
+	 * True for the events which:
+	 * 1) change or read the state of more than one process, or the shard of a process
+	 * 2) change more than one artifact
+	 * 3) change or read the state not kept per process or artifact (i.e. netfilter hooks, and the flag to handle the
+	 * kernel module records)
+	 * 
+	 * @param eventData event key values
+	 * @return true/false
+	 */
+	private boolean isHandledAfterAllEvents(final Map<String, String> eventData){
+		if(eventData.get(AuditEventReader.PID) == null){
+			return true;
+		}
+		final String recordType = eventData.get(AuditEventReader.RECORD_TYPE_KEY);
+		if(AuditEventReader.RECORD_TYPE_UBSI_ENTRY.equals(recordType)
+				|| AuditEventReader.RECORD_TYPE_UBSI_EXIT.equals(recordType)){
+			return false;
+		}else if(AuditEventReader.RECORD_TYPE_UBSI_DEP.equals(recordType)
+				|| AuditEventReader.RECORD_TYPE_DAEMON_START.equals(recordType)
+				|| AuditEventReader.RECORD_TYPE_NETFILTER_HOOK.equals(recordType)){
+			return true;
+		}else if(AuditEventReader.KMODULE_RECORD_TYPE.equals(recordType)){
+			return isNetworkEventHandledAfterAllEvents();
+		}
+		final SYSCALL syscall = getSyscall(HelperFunctions.parseInt(eventData.get(AuditEventReader.SYSCALL), -1));
+		if(syscall == null){
+			return false;
+		}
+		switch(syscall){
+			case FORK:
+			case VFORK:
+			case CLONE:
+			case EXECVE:
+			case EXIT:
+			case EXIT_GROUP:
+			case KILL:
+			case PTRACE:
+			case PIVOT_ROOT:
+			case RENAME:
+			case RENAMEAT:
+			case LINK:
+			case LINKAT:
+			case SYMLINK:
+			case SYMLINKAT:
+			case TEE:
+			case SPLICE:
+			case MMAP:
+				return true;
+			case SENDMSG:
+			case SENDTO:
+			case RECVFROM:
+			case RECVMSG:
+			case SOCKET:
+			case BIND:
+			case ACCEPT:
+			case ACCEPT4:
+			case CONNECT:
+				return isNetworkEventHandledAfterAllEvents();
+			default:
+				return false;
+		}
+	}
+	
+	/*
+	 * The first network event decides whether to handle the kernel module records on playback if not specified.
+	 * Network events are matched against the netfilter hook events in order.
+	 */
+	private boolean isNetworkEventHandledAfterAllEvents(){
+		return !kernelModuleConfiguration.isHandleLocalEndpointsSpecified()
+				|| kernelModuleConfiguration.isHandleNetworkAddressTranslation();
+	}
+	
+	/**
+	 * Moves the processes to the shard of the process they share state with, or back to their own shard, after the
+	 * event has been handled
+	 * 
+	 * @param eventData event key values
+	 */
+	private void updateShardKeys(final Map<String, String> eventData){
+		final String pid = eventData.get(AuditEventReader.PID);
+		final SYSCALL syscall = getSyscall(HelperFunctions.parseInt(eventData.get(AuditEventReader.SYSCALL), -1));
+		if(pid == null || syscall == null){
+			return;
+		}
+		switch(syscall){
+			case FORK:
+			case VFORK:
+			case CLONE:
+				final String childPid = auditConfiguration.isNamespaces() 
+						? eventData.get(AuditEventReader.NS_HOST_PID) : eventData.get(AuditEventReader.EXIT);
+				if(childPid != null){
+					if(processManager.isSharingState(pid, childPid)){
+						pidToShardKey.put(childPid, getShardKey(pid));
+					}else{
+						pidToShardKey.remove(childPid);
+					}
+				}
+				break;
+			case EXECVE:
+			case EXIT:
+			case EXIT_GROUP:
+				pidToShardKey.remove(pid);
+				break;
+			default:
+				break;
+		}
+	}
+	
+	private void handleEvent(Map<String, String> eventData){
 		if (eventData == null) {
 			logger.log(Level.WARNING, "Null event data read");
 			return;
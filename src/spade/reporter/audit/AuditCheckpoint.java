@@ -0,0 +1,483 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit;
+
+import static spade.utility.map.external.codec.CompactCodecs.readNullableBoolean;
+import static spade.utility.map.external.codec.CompactCodecs.readObject;
+import static spade.utility.map.external.codec.CompactCodecs.readString;
+import static spade.utility.map.external.codec.CompactCodecs.readVarInt;
+import static spade.utility.map.external.codec.CompactCodecs.writeNullableBoolean;
+import static spade.utility.map.external.codec.CompactCodecs.writeObject;
+import static spade.utility.map.external.codec.CompactCodecs.writeString;
+import static spade.utility.map.external.codec.CompactCodecs.writeVarInt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import spade.core.Settings;
+import spade.reporter.audit.artifact.ArtifactIdentifier;
+import spade.reporter.audit.artifact.ArtifactManager;
+import spade.reporter.audit.artifact.ArtifactState;
+import spade.reporter.audit.process.ProcessManager;
+import spade.utility.FileUtility;
+import spade.utility.HelperFunctions;
+import spade.utility.profile.Intervaler;
+
+/**
+ * Periodic checkpoints of the reporter state so that the reporter can resume after a restart without handling the
+ * input from the beginning.
+ * 
+ * The file has a header identifying the input followed by checkpoint records. Each record has the number of events
+ * handled, the complete process state, and the states of the artifacts changed since the previous record. Records are
+ * appended with their length and CRC32 so that a record partially written on a crash is ignored and truncated.
+ * 
+ * Once the file grows to twice its size after the last compaction, it is rewritten with one record which has the
+ * latest state of every artifact. The artifact states are held in memory while compacting.
+ * 
+ * Netfilter hooks state is not written because it is only kept for a short time to match the network address
+ * translation events.
+ */
+public class AuditCheckpoint{
+
+	private static final Logger logger = Logger.getLogger(AuditCheckpoint.class.getName());
+	
+	public final static String keyCheckpoint = "checkpoint",
+			keyCheckpointInterval = "checkpointInterval";
+	
+	private static final long magic = 0x535041444543504BL; // SPADECPK
+	private static final int formatVersion = 1;
+	private static final long minimumCompactionSize = 1024 * 1024;
+	
+	private final boolean enabled;
+	private final String checkpointPath;
+	private final Intervaler intervaler;
+	
+	private String inputId;
+	private ProcessManager processManager;
+	private ArtifactManager artifactManager;
+	private KernelModuleConfiguration kernelModuleConfiguration;
+	
+	private long compactedFileSize = 0;
+	
+	private AuditCheckpoint(final boolean enabled, final String checkpointPath, final Intervaler intervaler){
+		this.enabled = enabled;
+		this.checkpointPath = checkpointPath;
+		this.intervaler = intervaler;
+	}
+	
+	public boolean isEnabled(){
+		return enabled;
+	}
+	
+	public String getCheckpointPath(){
+		return checkpointPath;
+	}
+	
+	/**
+	 * Sets the state to write and enables the tracking of changes in it. Must be called before any event is handled.
+	 * 
+	 * @param input input of the reporter. Checkpoints are only restored for the same input.
+	 * @param processManager process manager
+	 * @param artifactManager artifact manager
+	 * @param kernelModuleConfiguration kernel module configuration
+	 */
+	public void setState(final Input input, final ProcessManager processManager, final ArtifactManager artifactManager,
+			final KernelModuleConfiguration kernelModuleConfiguration){
+		this.inputId = getInputId(input);
+		this.processManager = processManager;
+		this.artifactManager = artifactManager;
+		this.kernelModuleConfiguration = kernelModuleConfiguration;
+		this.processManager.enableCheckpoints();
+		this.artifactManager.enableCheckpoints();
+	}
+	
+	private static String getInputId(final Input input){
+		switch(input.getMode()){
+			case FILE: return Input.Mode.FILE + ":" + input.getInputLogList();
+			case DIRECTORY: return Input.Mode.DIRECTORY + ":" + input.getInputDir() + ":" + input.getInputDirTime();
+			default: return Input.Mode.LIVE + ":" + input.getLinuxAuditSocketPath();
+		}
+	}
+	
+	/**
+	 * Restores the state from the checkpoint file if it exists. Otherwise, creates the checkpoint file.
+	 * 
+	 * @return the number of events handled before the checkpoint. 0 if there was no checkpoint.
+	 * @throws Exception if the checkpoint is for a different input or cannot be read
+	 */
+	public long restore() throws Exception{
+		final File file = new File(checkpointPath);
+		final byte[] header = createHeader();
+		if(!file.exists() || file.length() == 0){
+			try(final FileOutputStream fileOutputStream = new FileOutputStream(file)){
+				fileOutputStream.write(header);
+				fileOutputStream.getChannel().force(true);
+			}
+			compactedFileSize = header.length;
+			intervaler.check();
+			logger.log(Level.INFO, "Created checkpoint file: '" + checkpointPath + "'");
+			return 0;
+		}
+		
+		Record lastRecord = null;
+		long validLength = header.length;
+		int recordCount = 0;
+		try(final DataInputStream dataInputStream = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)))){
+			readHeader(dataInputStream);
+			while(true){
+				final byte[] payload = readRecordPayload(dataInputStream);
+				if(payload == null){
+					break;
+				}
+				final Record record = new Record(payload);
+				for(int i = 0; i < record.artifactKeys.size(); i++){
+					final ArtifactIdentifier identifier = fromBytes(record.artifactKeys.get(i));
+					final ArtifactState state = fromBytes(record.artifactValues.get(i));
+					artifactManager.restoreArtifactState(identifier, state);
+				}
+				lastRecord = record;
+				validLength += getRecordSize(payload);
+				recordCount++;
+			}
+		}
+		
+		if(file.length() > validLength){
+			logger.log(Level.WARNING, "Truncating incomplete checkpoint record at the end of file: '" + checkpointPath + "'");
+			try(final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")){
+				randomAccessFile.setLength(validLength);
+			}
+		}
+		compactedFileSize = validLength;
+		intervaler.check();
+		
+		if(lastRecord == null){
+			logger.log(Level.INFO, "No checkpoint in file: '" + checkpointPath + "'");
+			return 0;
+		}
+		
+		processManager.readCheckpoint(new DataInputStream(new ByteArrayInputStream(lastRecord.processState)));
+		if(lastRecord.handleLocalEndpoints != null && !kernelModuleConfiguration.isHandleLocalEndpointsSpecified()){
+			kernelModuleConfiguration.setHandleLocalEndpoints(lastRecord.handleLocalEndpoints);
+		}
+		logger.log(Level.INFO, "Restored checkpoint of " + lastRecord.eventCount + " events written at '"
+				+ new Date(lastRecord.timeMillis) + "' from " + recordCount + " record(s) in file: '" + checkpointPath + "'");
+		return lastRecord.eventCount;
+	}
+	
+	/**
+	 * Tells if the interval has passed since the last checkpoint. The next interval starts if it has.
+	 * 
+	 * @return true if a checkpoint is to be written now
+	 */
+	public boolean isDue(){
+		return intervaler.check();
+	}
+	
+	/**
+	 * Appends a checkpoint record, and compacts the file if it has grown to twice its size after the last compaction.
+	 * 
+	 * Must be called between the events on the thread handling the events.
+	 * 
+	 * @param eventCount number of events handled so far
+	 * @throws Exception on write error
+	 */
+	public void checkpoint(final long eventCount) throws Exception{
+		final long startMillis = System.currentTimeMillis();
+		
+		final Map<ArtifactIdentifier, ArtifactState> changedArtifactStates = artifactManager.takeChangedArtifactStates();
+		final List<byte[]> artifactKeys = new ArrayList<byte[]>(changedArtifactStates.size());
+		final List<byte[]> artifactValues = new ArrayList<byte[]>(changedArtifactStates.size());
+		for(Map.Entry<ArtifactIdentifier, ArtifactState> entry : changedArtifactStates.entrySet()){
+			artifactKeys.add(toBytes(entry.getKey()));
+			artifactValues.add(toBytes(entry.getValue()));
+		}
+		
+		final ByteArrayOutputStream processStateOutputStream = new ByteArrayOutputStream();
+		final DataOutputStream processStateDataOutputStream = new DataOutputStream(processStateOutputStream);
+		processManager.writeCheckpoint(processStateDataOutputStream);
+		processStateDataOutputStream.flush();
+		
+		final Record record = new Record(eventCount, System.currentTimeMillis(),
+				kernelModuleConfiguration.isHandleLocalEndpoints(), processStateOutputStream.toByteArray(),
+				artifactKeys, artifactValues);
+		final byte[] payload = record.toBytes();
+		
+		final File file = new File(checkpointPath);
+		final long fileSize = file.length() + getRecordSize(payload);
+		final boolean compact = fileSize >= Math.max(minimumCompactionSize, compactedFileSize * 2);
+		if(compact){
+			compact(file, record);
+		}else{
+			try(final FileOutputStream fileOutputStream = new FileOutputStream(file, true)){
+				final DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+				writeRecord(dataOutputStream, payload);
+				dataOutputStream.flush();
+				fileOutputStream.getChannel().force(true);
+			}
+		}
+		
+		logger.log(Level.INFO, "Checkpoint of " + eventCount + " events written in " 
+				+ (System.currentTimeMillis() - startMillis) + " ms. Changed artifacts: " + artifactKeys.size()
+				+ ". Compacted: " + compact + ". File size: " + file.length() + " bytes.");
+	}
+	
+	/**
+	 * Rewrites the file with one record which has the given record's process state and the latest states of all the
+	 * artifacts in the file and in the given record
+	 */
+	private void compact(final File file, final Record latestRecord) throws Exception{
+		final Map<ByteBuffer, byte[]> artifacts = new LinkedHashMap<ByteBuffer, byte[]>();
+		try(final DataInputStream dataInputStream = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)))){
+			readHeader(dataInputStream);
+			while(true){
+				final byte[] payload = readRecordPayload(dataInputStream);
+				if(payload == null){
+					break;
+				}
+				putArtifacts(artifacts, new Record(payload));
+			}
+		}
+		putArtifacts(artifacts, latestRecord);
+		
+		final List<byte[]> artifactKeys = new ArrayList<byte[]>(artifacts.size());
+		final List<byte[]> artifactValues = new ArrayList<byte[]>(artifacts.size());
+		for(Map.Entry<ByteBuffer, byte[]> entry : artifacts.entrySet()){
+			artifactKeys.add(entry.getKey().array());
+			artifactValues.add(entry.getValue());
+		}
+		artifacts.clear();
+		final Record compactedRecord = new Record(latestRecord.eventCount, latestRecord.timeMillis,
+				latestRecord.handleLocalEndpoints, latestRecord.processState, artifactKeys, artifactValues);
+		
+		final File temporaryFile = new File(checkpointPath + ".tmp");
+		try(final FileOutputStream fileOutputStream = new FileOutputStream(temporaryFile)){
+			final DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+			dataOutputStream.write(createHeader());
+			writeRecord(dataOutputStream, compactedRecord.toBytes());
+			dataOutputStream.flush();
+			fileOutputStream.getChannel().force(true);
+		}
+		Files.move(temporaryFile.toPath(), file.toPath(), 
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		compactedFileSize = file.length();
+	}
+	
+	private static void putArtifacts(final Map<ByteBuffer, byte[]> artifacts, final Record record){
+		for(int i = 0; i < record.artifactKeys.size(); i++){
+			final ByteBuffer key = ByteBuffer.wrap(record.artifactKeys.get(i));
+			// Keep the order of the latest changes
+			artifacts.remove(key);
+			artifacts.put(key, record.artifactValues.get(i));
+		}
+	}
+	
+	private byte[] createHeader() throws IOException{
+		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		final DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+		dataOutputStream.writeLong(magic);
+		dataOutputStream.writeInt(formatVersion);
+		writeString(dataOutputStream, inputId);
+		dataOutputStream.flush();
+		return byteArrayOutputStream.toByteArray();
+	}
+	
+	private void readHeader(final DataInputStream dataInputStream) throws Exception{
+		final long fileMagic;
+		final int fileFormatVersion;
+		final String fileInputId;
+		try{
+			fileMagic = dataInputStream.readLong();
+			fileFormatVersion = dataInputStream.readInt();
+			fileInputId = readString(dataInputStream);
+		}catch(EOFException eofe){
+			throw new Exception("Incomplete header in checkpoint file: '" + checkpointPath + "'", eofe);
+		}
+		if(fileMagic != magic){
+			throw new Exception("Not a checkpoint file: '" + checkpointPath + "'");
+		}
+		if(fileFormatVersion != formatVersion){
+			throw new Exception("Unsupported checkpoint format version '" + fileFormatVersion + "' in file: '" 
+					+ checkpointPath + "'");
+		}
+		if(!HelperFunctions.objectsEqual(fileInputId, inputId)){
+			throw new Exception("Checkpoint file '" + checkpointPath + "' is for a different input: '" + fileInputId 
+					+ "'. Remove the file to start over with the input: '" + inputId + "'");
+		}
+	}
+	
+	private static void writeRecord(final DataOutputStream dataOutputStream, final byte[] payload) throws IOException{
+		final CRC32 crc = new CRC32();
+		crc.update(payload);
+		writeVarInt(dataOutputStream, payload.length);
+		dataOutputStream.write(payload);
+		dataOutputStream.writeInt((int)crc.getValue());
+	}
+	
+	private static int getRecordSize(final byte[] payload) throws IOException{
+		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(5);
+		writeVarInt(new DataOutputStream(byteArrayOutputStream), payload.length);
+		return byteArrayOutputStream.size() + payload.length + Integer.BYTES;
+	}
+	
+	/**
+	 * @return the payload of the next record or null if there is no complete record with a matching checksum
+	 */
+	private byte[] readRecordPayload(final DataInputStream dataInputStream) throws IOException{
+		try{
+			final int length = readVarInt(dataInputStream);
+			final byte[] payload = new byte[length];
+			dataInputStream.readFully(payload);
+			final int checksum = dataInputStream.readInt();
+			final CRC32 crc = new CRC32();
+			crc.update(payload);
+			if(checksum != (int)crc.getValue()){
+				logger.log(Level.WARNING, "Checksum mismatch for checkpoint record in file: '" + checkpointPath + "'");
+				return null;
+			}
+			return payload;
+		}catch(EOFException eofe){
+			return null;
+		}
+	}
+	
+	private static byte[] toBytes(final Serializable value) throws IOException{
+		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		final DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+		writeObject(dataOutputStream, value);
+		dataOutputStream.flush();
+		return byteArrayOutputStream.toByteArray();
+	}
+	
+	private static <T> T fromBytes(final byte[] bytes) throws IOException{
+		return readObject(new DataInputStream(new ByteArrayInputStream(bytes)));
+	}
+	
+	@Override
+	public String toString(){
+		return "AuditCheckpoint [enabled=" + enabled + ", checkpointPath=" + checkpointPath
+				+ ", intervalTimeMillis=" + intervaler.intervalTimeMillis + "]";
+	}
+	
+	public static AuditCheckpoint instance(final Map<String, String> map) throws Exception{
+		final String valueCheckpoint = map.get(keyCheckpoint);
+		if(HelperFunctions.isNullOrEmpty(valueCheckpoint)){
+			return new AuditCheckpoint(false, null, new Intervaler(0));
+		}
+		final String checkpointPath = Settings.getPathRelativeToSPADERootIfNotAbsolute(valueCheckpoint);
+		try{
+			FileUtility.pathMustBeAWritableFile(checkpointPath);
+		}catch(Exception e){
+			throw new Exception("Invalid value for key '" + keyCheckpoint + "': '" + checkpointPath + "'", e);
+		}
+		final Intervaler intervaler = Intervaler.instance(map, keyCheckpointInterval);
+		if(!intervaler.isEnabled()){
+			throw new Exception("Value for key '" + keyCheckpointInterval + "' must be greater than 0");
+		}
+		return new AuditCheckpoint(true, checkpointPath, intervaler);
+	}
+	
+	/**
+	 * Contents of a checkpoint record. Artifact keys and values are kept serialized.
+	 */
+	private static class Record{
+		private final long eventCount;
+		private final long timeMillis;
+		private final Boolean handleLocalEndpoints;
+		private final byte[] processState;
+		private final List<byte[]> artifactKeys;
+		private final List<byte[]> artifactValues;
+		
+		private Record(final long eventCount, final long timeMillis, final Boolean handleLocalEndpoints,
+				final byte[] processState, final List<byte[]> artifactKeys, final List<byte[]> artifactValues){
+			this.eventCount = eventCount;
+			this.timeMillis = timeMillis;
+			this.handleLocalEndpoints = handleLocalEndpoints;
+			this.processState = processState;
+			this.artifactKeys = artifactKeys;
+			this.artifactValues = artifactValues;
+		}
+		
+		private Record(final byte[] payload) throws IOException{
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+			this.eventCount = in.readLong();
+			this.timeMillis = in.readLong();
+			this.handleLocalEndpoints = readNullableBoolean(in);
+			this.processState = readBytes(in);
+			final int artifactCount = readVarInt(in);
+			this.artifactKeys = new ArrayList<byte[]>(artifactCount);
+			this.artifactValues = new ArrayList<byte[]>(artifactCount);
+			for(int i = 0; i < artifactCount; i++){
+				artifactKeys.add(readBytes(in));
+				artifactValues.add(readBytes(in));
+			}
+		}
+		
+		private byte[] toBytes() throws IOException{
+			final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream(byteArrayOutputStream);
+			out.writeLong(eventCount);
+			out.writeLong(timeMillis);
+			writeNullableBoolean(out, handleLocalEndpoints);
+			writeBytes(out, processState);
+			writeVarInt(out, artifactKeys.size());
+			for(int i = 0; i < artifactKeys.size(); i++){
+				writeBytes(out, artifactKeys.get(i));
+				writeBytes(out, artifactValues.get(i));
+			}
+			out.flush();
+			return byteArrayOutputStream.toByteArray();
+		}
+		
+		private static void writeBytes(final DataOutputStream out, final byte[] bytes) throws IOException{
+			writeVarInt(out, bytes.length);
+			out.write(bytes);
+		}
+		
+		private static byte[] readBytes(final DataInputStream in) throws IOException{
+			final byte[] bytes = new byte[readVarInt(in)];
+			in.readFully(bytes);
+			return bytes;
+		}
+	}
+}
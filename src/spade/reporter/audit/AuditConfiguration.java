@@ -34,12 +34,14 @@ public class AuditConfiguration{
 			keyFailfast = "failfast",
 			keyFileIO = "fileIO",			
 			keyFsids = "fsids",
+			keyHandlerThreads = "handlerThreads",
 			keyInode = "inode",
 			keyIPC = "IPC",
 			keyMemorySyscalls = "memorySyscalls",
 			keyMergeUnit = "mergeUnit",
 			keyNamespaces = "namespaces",
 			keyNetIO = "netIO",
+			keyParserThreads = "parserThreads",
 			keyReportKill = "reportKill",
 			keyRootFS = "rootFS",
 			keySimplify = "simplify",
@@ -54,12 +56,14 @@ public class AuditConfiguration{
 	private boolean failfast;
 	private boolean fileIO;
 	private boolean fsids;
+	private int handlerThreads;
 	private boolean inode;
 	private boolean IPC;
 	private boolean memorySyscalls;
 	private int mergeUnit;
 	private boolean namespaces;
 	private boolean netIO;
+	private int parserThreads;
 	private boolean reportKill;
 	private boolean rootFS;
 	private boolean simplify;
@@ -80,6 +84,14 @@ public class AuditConfiguration{
 		instance.units = ArgumentFunctions.mustParseBoolean(keyUnits, map);
 		instance.namespaces = ArgumentFunctions.mustParseBoolean(keyNamespaces, map);
 		instance.netIO = ArgumentFunctions.mustParseBoolean(keyNetIO, map);
+		instance.parserThreads = ArgumentFunctions.mustParseInteger(keyParserThreads, map);
+		if(instance.parserThreads < 0){
+			throw new Exception("'" + keyParserThreads + "' must be greater than or equal to 0");
+		}
+		instance.handlerThreads = ArgumentFunctions.mustParseInteger(keyHandlerThreads, map);
+		if(instance.handlerThreads < 0){
+			throw new Exception("'" + keyHandlerThreads + "' must be greater than or equal to 0");
+		}
 		instance.reportKill = ArgumentFunctions.mustParseBoolean(keyReportKill, map);
 		instance.rootFS = ArgumentFunctions.mustParseBoolean(keyRootFS, map);
 		instance.simplify = ArgumentFunctions.mustParseBoolean(keySimplify, map);
@@ -138,6 +150,13 @@ public class AuditConfiguration{
 		return fsids;
 	}
 
+	/**
+	 * @return number of threads to handle events on. 0 if handled on the event loop thread.
+	 */
+	public int getHandlerThreads(){
+		return handlerThreads;
+	}
+
 	public boolean isInode(){
 		return inode;
 	}
@@ -162,6 +181,13 @@ public class AuditConfiguration{
 		return netIO;
 	}
 
+	/**
+	 * @return number of threads to parse events on ahead of handling them. 0 if parsed on the handling thread.
+	 */
+	public int getParserThreads(){
+		return parserThreads;
+	}
+
 	public boolean isReportKill(){
 		return reportKill;
 	}
@@ -193,12 +219,14 @@ public class AuditConfiguration{
 				+ ", " + keyFailfast + "=" + failfast
 				+ ", " + keyFileIO + "=" + fileIO
 				+ ", " + keyFsids + "=" + fsids
+				+ ", " + keyHandlerThreads + "=" + handlerThreads
 				+ ", " + keyInode + "=" + inode
 				+ ", " + keyIPC + "=" + IPC
 				+ ", " + keyMemorySyscalls + "=" + memorySyscalls
 				+ ", " + keyMergeUnit + "=" + mergeUnit
 				+ ", " + keyNamespaces + "=" + namespaces
 				+ ", " + keyNetIO + "=" + netIO
+				+ ", " + keyParserThreads + "=" + parserThreads
 				+ ", " + keyReportKill +"=" + reportKill
 				+ ", " + keyRootFS + "=" + rootFS
 				+ ", " + keySimplify + "=" + simplify
@@ -0,0 +1,240 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.reporter.audit.AuditEventReader.RecordParser;
+
+/**
+ * Reads and parses audit events on separate threads ahead of the thread handling them.
+ * 
+ * Stages:
+ * 1) A reader thread reads the lines from the stream and groups the records of an event
+ * 2) A pool of parser threads parses the grouped records into event maps
+ * 3) The caller of 'readEventData' gets the event maps in the same order as in the stream
+ * 
+ * The caller can hand the events on to 'AuditEventShards' to handle them on more than one thread.
+ * 
+ * At most 'capacity' events are buffered between the reader and the caller.
+ */
+public class AuditEventPipeline{
+
+	private static final Logger logger = Logger.getLogger(AuditEventPipeline.class.getName());
+
+	/**
+	 * Maximum number of recycled event maps kept for reuse
+	 */
+	private static final int eventDataPoolSize = 1024;
+
+	private static final Future<Map<String, String>> endOfStream = CompletableFuture.completedFuture(null);
+
+	private final AuditEventReader reader;
+
+	/**
+	 * Events in the order of the stream. Completed when parsed.
+	 */
+	private final BlockingQueue<Future<Map<String, String>>> events;
+
+	private final ExecutorService parserExecutor;
+	private final ThreadLocal<RecordParser> recordParsers = ThreadLocal.withInitial(AuditEventReader::createRecordParser);
+
+	private final ConcurrentLinkedQueue<Map<String, String>> eventDataPool = new ConcurrentLinkedQueue<Map<String, String>>();
+	private final AtomicInteger eventDataPoolCount = new AtomicInteger(0);
+
+	private final Thread readerThread;
+	private volatile boolean shutdown = false;
+	private boolean ended = false;
+
+	/**
+	 * @param reader reader to read the records from. Must not be read from by anything else.
+	 * @param parserThreads number of threads to parse the events on
+	 * @param capacity maximum number of events read but not yet returned by 'readEventData'
+	 */
+	public AuditEventPipeline(final AuditEventReader reader, final int parserThreads, final int capacity){
+		if(reader == null){
+			throw new IllegalArgumentException("NULL audit event reader");
+		}
+		if(parserThreads < 1){
+			throw new IllegalArgumentException("Parser threads must be greater than 0. Input: " + parserThreads);
+		}
+		if(capacity < 1){
+			throw new IllegalArgumentException("Capacity must be greater than 0. Input: " + capacity);
+		}
+		this.reader = reader;
+		this.events = new ArrayBlockingQueue<Future<Map<String, String>>>(capacity);
+
+		final AtomicInteger parserThreadCount = new AtomicInteger(0);
+		this.parserExecutor = Executors.newFixedThreadPool(parserThreads, runnable -> {
+			final Thread thread = new Thread(runnable, "Audit-Event-Parser-Thread-" + parserThreadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		this.readerThread = new Thread(new Runnable(){
+			@Override
+			public void run(){
+				readEvents();
+			}
+		}, "Audit-Event-Reader-Thread");
+		this.readerThread.setDaemon(true);
+	}
+
+	public void start(){
+		readerThread.start();
+	}
+
+	private void readEvents(){
+		try{
+			while(!shutdown){
+				final List<byte[]> eventRecords;
+				try{
+					eventRecords = reader.readEventRecords();
+				}catch(MalformedAuditDataException made){
+					// Reported in order. The stream can still be read.
+					events.put(failed(made));
+					continue;
+				}
+				if(eventRecords == null){
+					break;
+				}
+				final Future<Map<String, String>> event = parserExecutor.submit(() -> parseEvent(eventRecords));
+				events.put(event);
+			}
+			events.put(endOfStream);
+		}catch(InterruptedException ie){
+			// Closed
+		}catch(Exception e){
+			if(!shutdown){
+				try{
+					events.put(failed(e));
+				}catch(InterruptedException ie){
+					// Closed
+				}
+			}
+		}
+	}
+
+	private Map<String, String> parseEvent(final List<byte[]> eventRecords) throws MalformedAuditDataException{
+		Map<String, String> eventData = eventDataPool.poll();
+		if(eventData == null){
+			eventData = new HashMap<String, String>();
+		}else{
+			eventDataPoolCount.decrementAndGet();
+		}
+		try{
+			AuditEventReader.parseEventRecords(recordParsers.get(), eventRecords, eventData);
+			return eventData;
+		}catch(MalformedAuditDataException made){
+			recycleEventData(eventData);
+			throw made;
+		}
+	}
+
+	private static Future<Map<String, String>> failed(final Exception exception){
+		final CompletableFuture<Map<String, String>> future = new CompletableFuture<Map<String, String>>();
+		future.completeExceptionally(exception);
+		return future;
+	}
+
+	/**
+	 * Same as 'AuditEventReader.readEventData'. Must only be called by one thread.
+	 * 
+	 * @return the event key-values or null on end of stream
+	 * @throws Exception MalformedAuditDataException, IOException or InterruptedException
+	 */
+	public Map<String, String> readEventData() throws Exception{
+		if(ended){
+			return null;
+		}
+		final Future<Map<String, String>> event = events.take();
+		try{
+			final Map<String, String> eventData = event.get();
+			if(eventData == null){
+				ended = true;
+			}
+			return eventData;
+		}catch(CancellationException ce){
+			// Cancelled by 'close'
+			ended = true;
+			return null;
+		}catch(ExecutionException ee){
+			final Throwable cause = ee.getCause();
+			if(cause instanceof Exception){
+				if(!(cause instanceof MalformedAuditDataException)){
+					ended = true;
+				}
+				throw (Exception)cause;
+			}else{
+				ended = true;
+				throw ee;
+			}
+		}
+	}
+
+	/**
+	 * Gives back the map returned by 'readEventData' for reuse. The map must not be used after this call.
+	 * 
+	 * @param eventData map returned by 'readEventData'
+	 */
+	public void recycleEventData(final Map<String, String> eventData){
+		if(eventData != null && eventDataPoolCount.get() < eventDataPoolSize){
+			eventData.clear();
+			eventDataPoolCount.incrementAndGet();
+			eventDataPool.offer(eventData);
+		}
+	}
+
+	/**
+	 * Stops the threads and closes the reader. Events not read yet are discarded.
+	 */
+	public void close(){
+		shutdown = true;
+		reader.close();
+		readerThread.interrupt();
+		for(final Runnable pending : parserExecutor.shutdownNow()){
+			// Unblock the caller if waiting on it
+			if(pending instanceof Future){
+				((Future<?>)pending).cancel(false);
+			}
+		}
+		try{
+			readerThread.join(1000);
+		}catch(InterruptedException ie){
+			logger.log(Level.WARNING, "Interrupted while waiting for the audit event reader thread to exit");
+		}
+		events.clear();
+		events.offer(endOfStream);
+	}
+}
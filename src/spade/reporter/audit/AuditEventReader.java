@@ -19,17 +19,15 @@
  */
 package spade.reporter.audit;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -175,14 +173,35 @@ public class AuditEventReader{
 	private long lastReportedRecordCount, recordCount;
 
 	/**
-	 * Buffers all the records for the current event being read
+	 * Maximum number of recycled event maps kept for reuse
 	 */
-	private final Set<AuditRecord> currentEventRecords = new HashSet<AuditRecord>();
+	private static final int EVENT_DATA_POOL_SIZE = 64;
+
+	/**
+	 * Event maps returned through 'recycleEventData' to be reused
+	 */
+	private final ArrayDeque<Map<String, String>> eventDataPool = new ArrayDeque<Map<String, String>>();
+
+	/**
+	 * Key-values of all the records for the current event being read. Null if no event is being read.
+	 */
+	private Map<String, String> currentEventData = null;
 
 	/**
 	 * Keeps track of the current event id being buffered
 	 */
-	private String currentEventIdString = null;
+	private byte[] currentEventId = null;
+	private int currentEventIdLength = 0;
+
+	/**
+	 * The first failure in parsing the records of the current event. Thrown when the event is complete.
+	 */
+	private MalformedAuditDataException currentEventFailure = null;
+
+	/**
+	 * Raw records of the current event being read by 'readEventRecords'. Null if no event is being read.
+	 */
+	private List<byte[]> currentEventRecords = null;
 
 	/**
 	 * Id of the stream that is read by this class
@@ -192,7 +211,17 @@ public class AuditEventReader{
 	/**
 	 *	The stream to read from by this class
 	 */
-	private BufferedReader stream;
+	private InputStream stream;
+
+	/**
+	 * Reads and tokenizes the records from the stream
+	 */
+	private AuditRecordTokenizer tokenizer;
+
+	/**
+	 * Parses the current record of the tokenizer
+	 */
+	private RecordParser recordParser;
 
 	private long rotateAfterRecordCount = 0;
 	private String outputLogFile = null;
@@ -205,6 +234,11 @@ public class AuditEventReader{
 	 */
 	private boolean EOF = false;
 
+	/**
+	 * Set if the current record of the tokenizer was read by 'skipEvents' but belongs to the next event
+	 */
+	private boolean pendingRecord = false;
+
 	/**
 	 * Create instance of the class that reads from the given stream
 	 * 
@@ -220,7 +254,10 @@ public class AuditEventReader{
 			throw new IllegalArgumentException("The stream to read from cannot be NULL");
 		}
 
-		stream = new BufferedReader(new InputStreamReader(streamToReadFrom));
+		this.streamId = streamId;
+		this.stream = streamToReadFrom;
+		this.tokenizer = new AuditRecordTokenizer(streamToReadFrom);
+		this.recordParser = new RecordParser(tokenizer);
 
 		setGlobalsFromConfig();
 	}
@@ -315,7 +352,175 @@ public class AuditEventReader{
 		}
 	}
 
+
+	/**
+	 * Reads the records of the next event and returns all their key-values in one map
+	 * 
+	 * The returned map can be given back through 'recycleEventData' once it is not needed anymore
+	 * 
+	 * Must not be mixed with 'readEventRecords' on the same reader
+	 * 
+	 * @return the event key-values or null on end of stream
+	 * @throws Exception MalformedAuditDataException or IOException
+	 */
 	public final Map<String, String> readEventData() throws Exception{
+		reportStatsIfDue();
+
+		while(readRecord()){
+			if(currentEventData == null){
+				// First event
+				startEvent();
+				parseRecordIntoCurrentEvent();
+				continue;
+			}
+
+			if(tokenizer.isId(currentEventId, currentEventIdLength)){
+				parseRecordIntoCurrentEvent();
+				continue;
+			}else{
+				final Map<String, String> eventData = currentEventData;
+				final MalformedAuditDataException eventFailure = currentEventFailure;
+
+				startEvent();
+				parseRecordIntoCurrentEvent();
+
+				return completeEvent(eventData, eventFailure);
+			}
+		}
+
+		if(currentEventData == null){
+			return null;
+		}
+
+		final Map<String, String> eventData = currentEventData;
+		final MalformedAuditDataException eventFailure = currentEventFailure;
+		currentEventData = null;
+		currentEventFailure = null;
+
+		return completeEvent(eventData, eventFailure);
+	}
+
+	/**
+	 * Reads the records of the next event without parsing them. The records are parsed later by 'parseEventRecords'
+	 * which can be called on any thread.
+	 * 
+	 * Must not be mixed with 'readEventData' on the same reader
+	 * 
+	 * @return copies of the raw records of the event or null on end of stream
+	 * @throws Exception MalformedAuditDataException or IOException
+	 */
+	public final List<byte[]> readEventRecords() throws Exception{
+		reportStatsIfDue();
+
+		while(readRecord()){
+			if(currentEventRecords == null){
+				// First event
+				startEventRecords();
+				continue;
+			}
+
+			if(tokenizer.isId(currentEventId, currentEventIdLength)){
+				currentEventRecords.add(tokenizer.copyLine());
+				continue;
+			}else{
+				final List<byte[]> eventRecords = currentEventRecords;
+				startEventRecords();
+				return eventRecords;
+			}
+		}
+
+		final List<byte[]> eventRecords = currentEventRecords;
+		currentEventRecords = null;
+		return eventRecords;
+	}
+
+	/**
+	 * Reads and drops the records of the given number of events. Used to resume from a checkpoint.
+	 * 
+	 * Must be called before 'readEventData', 'readEventRecords' and 'setOutputLog'
+	 * 
+	 * @param eventCount number of events to skip
+	 * @return number of events skipped. Less than the given number only on end of stream.
+	 * @throws Exception MalformedAuditDataException or IOException
+	 */
+	public final long skipEvents(final long eventCount) throws Exception{
+		long skippedCount = 0;
+		boolean inEvent = false;
+		while(skippedCount < eventCount){
+			try{
+				if(!readRecord()){
+					if(inEvent){
+						// Last event ended by the end of stream
+						skippedCount++;
+					}
+					break;
+				}
+			}catch(MalformedAuditDataException made){
+				// Counted in the same way as by the event loop which continues after malformed data
+				skippedCount++;
+				continue;
+			}
+			if(inEvent){
+				if(tokenizer.isId(currentEventId, currentEventIdLength)){
+					continue;
+				}
+				skippedCount++;
+				if(skippedCount == eventCount){
+					// The record is the first one of the next event
+					pendingRecord = true;
+					break;
+				}
+			}
+			currentEventId = tokenizer.copyId(currentEventId);
+			currentEventIdLength = tokenizer.getIdLength();
+			inEvent = true;
+		}
+		return skippedCount;
+	}
+
+	/**
+	 * Parses the records returned by 'readEventRecords' in the same way as 'readEventData'
+	 * 
+	 * @param recordParser parser owned by the calling thread. Created by 'createRecordParser'.
+	 * @param eventRecords records returned by 'readEventRecords'
+	 * @param eventData map to put the event key-values in
+	 * @throws MalformedAuditDataException if any of the records is malformed
+	 */
+	public static void parseEventRecords(final RecordParser recordParser, final List<byte[]> eventRecords,
+			final Map<String, String> eventData) throws MalformedAuditDataException{
+		final AuditRecordTokenizer recordTokenizer = recordParser.tokenizer;
+		for(final byte[] record : eventRecords){
+			recordTokenizer.setLine(record);
+			try{
+				recordTokenizer.parseHeader();
+				recordParser.parse(eventData);
+			}catch(Exception e){
+				throw new MalformedAuditDataException(
+						"Failed to create event map from audit records", recordTokenizer.getLine(), e);
+			}
+		}
+	}
+
+	/**
+	 * @return a new parser for 'parseEventRecords'. Must only be used by one thread.
+	 */
+	public static RecordParser createRecordParser(){
+		return new RecordParser(new AuditRecordTokenizer());
+	}
+
+	/**
+	 * Gives back the map returned by 'readEventData' for reuse. The map must not be used after this call.
+	 * 
+	 * @param eventData map returned by 'readEventData'
+	 */
+	public final void recycleEventData(final Map<String, String> eventData){
+		if(eventData != null && eventDataPool.size() < EVENT_DATA_POOL_SIZE){
+			eventData.clear();
+			eventDataPool.addLast(eventData);
+		}
+	}
+
+	private final void reportStatsIfDue(){
 		if(reportingEnabled){
 			long currentTime = System.currentTimeMillis();
 			if((currentTime - lastReportedTime) >= reportEveryMs){
@@ -324,452 +529,536 @@ public class AuditEventReader{
 				lastReportedRecordCount = recordCount;
 			}
 		}
+	}
 
+	/**
+	 * Reads lines until a record which is part of an event
+	 * 
+	 * @return false on end of stream
+	 * @throws Exception MalformedAuditDataException or IOException
+	 */
+	private final boolean readRecord() throws Exception{
+		if(pendingRecord){
+			pendingRecord = false;
+			return true;
+		}
 		while(!EOF){
-			final String line = stream.readLine();
-			if(line == null){
+			if(!tokenizer.nextLine()){
 				EOF = true;
 				break;
 			}
-			writeToOutputLog(line);
+			if(outputLogWriter != null){
+				writeToOutputLog(tokenizer.getLine());
+			}
 
 			if(reportingEnabled){
 				recordCount++;
 			}
 
 			// Can throw the malformed audit data exception
-			final AuditRecord record = new AuditRecord(line);
+			tokenizer.parseHeader();
 
-			if(record.type.equals(RECORD_TYPE_EOE)
-					|| record.type.equals(RECORD_TYPE_PROCTITLE)
-					|| record.type.startsWith(RECORD_TYPE_UNKNOWN_PREFIX)){
-				continue;
-			}
-
-			if(currentEventIdString == null){
-				// First event
-				currentEventIdString = record.id;
-				currentEventRecords.add(record);
+			if(tokenizer.isType(RECORD_TYPE_EOE)
+					|| tokenizer.isType(RECORD_TYPE_PROCTITLE)
+					|| tokenizer.isTypeWithPrefix(RECORD_TYPE_UNKNOWN_PREFIX)){
 				continue;
 			}
+			return true;
+		}
+		return false;
+	}
 
-			if(currentEventIdString.equals(record.id)){
-				currentEventRecords.add(record);
-				continue;
-			}else{
-				final Set<AuditRecord> auditRecordsToFlush = new HashSet<AuditRecord>();
-				auditRecordsToFlush.addAll(currentEventRecords);
+	private final void startEvent(){
+		final Map<String, String> pooled = eventDataPool.pollLast();
+		currentEventData = pooled == null ? new HashMap<String, String>() : pooled;
+		currentEventFailure = null;
+		currentEventId = tokenizer.copyId(currentEventId);
+		currentEventIdLength = tokenizer.getIdLength();
+	}
 
-				currentEventRecords.clear();
-				currentEventRecords.add(record);
-				currentEventIdString = record.id;
+	private final void startEventRecords(){
+		currentEventRecords = new ArrayList<byte[]>();
+		currentEventRecords.add(tokenizer.copyLine());
+		currentEventId = tokenizer.copyId(currentEventId);
+		currentEventIdLength = tokenizer.getIdLength();
+	}
 
-				return convertAuditRecordsToEventMap(auditRecordsToFlush);
-			}
+	private final Map<String, String> completeEvent(final Map<String, String> eventData,
+			final MalformedAuditDataException eventFailure) throws MalformedAuditDataException{
+		if(eventFailure != null){
+			recycleEventData(eventData);
+			throw eventFailure;
 		}
+		return eventData;
+	}
 
-		if(currentEventRecords.isEmpty()){
-			return null;
+	private final void parseRecordIntoCurrentEvent(){
+		if(currentEventFailure != null){
+			// Event already failed
+			return;
+		}
+		try{
+			recordParser.parse(currentEventData);
+		}catch(Exception e){
+			currentEventFailure = new MalformedAuditDataException(
+					"Failed to create event map from audit records", tokenizer.getLine(), e);
 		}
+	}
 
-		final Set<AuditRecord> auditRecordsToFlush = new HashSet<AuditRecord>();
-		auditRecordsToFlush.addAll(currentEventRecords);
+	/**
+	 * Parses the current record of a tokenizer into the key-values of the event it belongs to.
+	 * 
+	 * Not thread-safe. Each thread must use its own parser and tokenizer.
+	 */
+	public static final class RecordParser{
 
-		currentEventRecords.clear();
+		private final AuditRecordTokenizer tokenizer;
 
-		return convertAuditRecordsToEventMap(auditRecordsToFlush);
-	}
+		/**
+		 * Reusable map for the key-values of a single record
+		 */
+		private final Map<String, String> recordData = new HashMap<String, String>();
 
-	private final Map<String, String> convertAuditRecordsToEventMap(final Set<AuditRecord> auditRecords)
-			throws Exception{
-		try{
-			final Map<String, String> eventMap = new HashMap<String, String>();
-			for(final AuditRecord auditRecord : auditRecords){
-				final Map<String, String> recordMap = parseAuditRecord(auditRecord);
-				if(recordMap != null){
-					eventMap.putAll(recordMap);
-				}
+		private static final byte[] COMM_BYTES = (COMM + "=").getBytes(StandardCharsets.US_ASCII),
+				CWD_BYTES = (CWD + "=").getBytes(StandardCharsets.US_ASCII),
+				NAME_BYTES = (NAME + "=").getBytes(StandardCharsets.US_ASCII),
+				KMODULE_DATA_BYTES = (KMODULE_DATA_KEY + "=\"").getBytes(StandardCharsets.US_ASCII),
+				UBSI_INTERCEPTED_DATA_BYTES = (UBSI_INTERCEPTED_DATA_KEY + "=\"").getBytes(StandardCharsets.US_ASCII);
+
+		/**
+		 * Keys which are suffixed by an index. Cached to avoid creating the same strings for every record.
+		 */
+		private static final int INDEXED_KEYS_CACHE_SIZE = 64;
+		private static final String[] MODE_KEYS = new String[INDEXED_KEYS_CACHE_SIZE],
+				NAMETYPE_KEYS = new String[INDEXED_KEYS_CACHE_SIZE],
+				PATH_KEYS = new String[INDEXED_KEYS_CACHE_SIZE],
+				INODE_KEYS = new String[INDEXED_KEYS_CACHE_SIZE],
+				EXECVE_ARG_KEYS = new String[INDEXED_KEYS_CACHE_SIZE];
+		private static final byte[][] EXECVE_ARG_BYTES = new byte[INDEXED_KEYS_CACHE_SIZE][];
+		static{
+			for(int i = 0; i < INDEXED_KEYS_CACHE_SIZE; i++){
+				MODE_KEYS[i] = MODE_PREFIX + i;
+				NAMETYPE_KEYS[i] = NAMETYPE_PREFIX + i;
+				PATH_KEYS[i] = PATH_PREFIX + i;
+				INODE_KEYS[i] = INODE_PREFIX + i;
+				EXECVE_ARG_KEYS[i] = EXECVE_PREFIX + "a" + i;
+				EXECVE_ARG_BYTES[i] = ("a" + i + "=").getBytes(StandardCharsets.US_ASCII);
 			}
-			return eventMap;
-		}catch(Exception e){
-			throw new MalformedAuditDataException(
-					"Failed to create event map from audit records", String.valueOf(auditRecords), e);
 		}
-	}
-
-	private final Map<String, String> parseDaemonStartRecord(final AuditRecord auditRecord) throws Exception{
-		final Map<String, String> auditRecordKeyValues = new HashMap<String, String>();
-		auditRecordKeyValues.put(TIME, auditRecord.time);
-		auditRecordKeyValues.put(EVENT_ID, auditRecord.id);
-		auditRecordKeyValues.put(RECORD_TYPE_KEY, RECORD_TYPE_DAEMON_START);
-		return auditRecordKeyValues;
-	}
-	
-	private final Map<String, String> parseUBSIRecord(final AuditRecord auditRecord) throws Exception{
-		final Map<String, String> auditRecordKeyValues = new HashMap<String, String>();
 
-		final String dataAfterUnit;
 
-		if(auditRecord.type.equals(RECORD_TYPE_UBSI_ENTRY)){
-			/*
-			 * UBSI_ENTRY format:
-			 * -> type=UBSI_ENTRY msg=ubsi(1601572509.571:501): 
-			 * 		unit=(pid=701 thread_time=1601572509.571 unitid=901 iteration=0 time=1601572509.571 count=0) 
-			 * 		ppid=700 pid=701 auid=1000 uid=1000 gid=1000 euid=1000 suid=1000 fsuid=1000 egid=1000 sgid=1000 fsgid=1000 
-			 * 		tty=pts0 ses=3 comm="synth" exe="" key=(null)
-			 */
-			auditRecordKeyValues.putAll(parseUnitKeyValuePairs(auditRecord, "unit", ""));
-			dataAfterUnit = StringUtils.substringAfter(auditRecord.data, ") ");
-		}else if(auditRecord.type.equals(RECORD_TYPE_UBSI_EXIT)){
-			/*
-			 * UBSI_EXIT format:
-			 * -> type=UBSI_EXIT msg=ubsi(1601572509.571:507): 
-			 * 		ppid=700 pid=701 auid=1000 uid=1000 gid=1000 euid=1000 suid=1000 fsuid=1000 egid=1000 sgid=1000 fsgid=1000 
-			 * 		tty=pts0 ses=3 comm="synth" exe="" key=(null)
-			 */
-			dataAfterUnit = auditRecord.data;
-		}else if(auditRecord.type.equals(RECORD_TYPE_UBSI_DEP)){
-			/*
-			 * UBSI_DEP format:
-			 * -> type=UBSI_DEP msg=ubsi(1601572509.571:506): 
-			 * 		dep=(pid=701 thread_time=1601572509.571 unitid=901 iteration=0 time=1601572509.571 count=0), 
-			 * 		unit=(pid=702 thread_time=1601572509.571 unitid=898 iteration=0 time=1601572509.571 count=0) 
-			 * 		ppid=700 pid=702 auid=1000 uid=1000 gid=1000 euid=1000 suid=1000 fsuid=1000 egid=1000 sgid=1000 fsgid=1000 
-			 * 		tty=pts0 ses=3 comm="synth" exe="" key=(null)
-			 */
-			auditRecordKeyValues.putAll(parseUnitKeyValuePairs(auditRecord, "dep", "0"));
-			auditRecordKeyValues.putAll(parseUnitKeyValuePairs(auditRecord, "unit", ""));
-			dataAfterUnit = StringUtils.substringAfter(auditRecord.data, ") ");
-		}else{
-			dataAfterUnit = null;
-			throw new MalformedAuditDataException("Unexpected UBSI record type '" + auditRecord.type + "'", auditRecord.toString());
+		RecordParser(final AuditRecordTokenizer tokenizer){
+			this.tokenizer = tokenizer;
 		}
 
-		if(dataAfterUnit == null){
-			throw new MalformedAuditDataException("Missing process data in '" + auditRecord.type + "' record", auditRecord.toString());
+		private final void parseDaemonStartRecord(final Map<String, String> eventData) throws Exception{
+			eventData.put(TIME, tokenizer.getTime());
+			eventData.put(EVENT_ID, tokenizer.getId());
+			eventData.put(RECORD_TYPE_KEY, RECORD_TYPE_DAEMON_START);
 		}
+	
+		private final void parseUBSIRecord(final Map<String, String> eventData) throws Exception{
+			// Not frequent enough to tokenize in place
+			final AuditRecord auditRecord = new AuditRecord(tokenizer.getLine());
 
-		final Map<String, String> processMap = HelperFunctions.parseKeyValPairs(dataAfterUnit);
-		processMap.put(COMM, mustParseAuditString(dataAfterUnit, COMM));
+			final String dataAfterUnit;
 
-		auditRecordKeyValues.putAll(processMap);
+			if(auditRecord.type.equals(RECORD_TYPE_UBSI_ENTRY)){
+				/*
+				 * UBSI_ENTRY format:
+				 * -> type=UBSI_ENTRY msg=ubsi(1601572509.571:501): 
+				 * 		unit=(pid=701 thread_time=1601572509.571 unitid=901 iteration=0 time=1601572509.571 count=0) 
+				 * 		ppid=700 pid=701 auid=1000 uid=1000 gid=1000 euid=1000 suid=1000 fsuid=1000 egid=1000 sgid=1000 fsgid=1000 
+				 * 		tty=pts0 ses=3 comm="synth" exe="" key=(null)
+				 */
+				eventData.putAll(parseUnitKeyValuePairs(auditRecord, "unit", ""));
+				dataAfterUnit = StringUtils.substringAfter(auditRecord.data, ") ");
+			}else if(auditRecord.type.equals(RECORD_TYPE_UBSI_EXIT)){
+				/*
+				 * UBSI_EXIT format:
+				 * -> type=UBSI_EXIT msg=ubsi(1601572509.571:507): 
+				 * 		ppid=700 pid=701 auid=1000 uid=1000 gid=1000 euid=1000 suid=1000 fsuid=1000 egid=1000 sgid=1000 fsgid=1000 
+				 * 		tty=pts0 ses=3 comm="synth" exe="" key=(null)
+				 */
+				dataAfterUnit = auditRecord.data;
+			}else if(auditRecord.type.equals(RECORD_TYPE_UBSI_DEP)){
+				/*
+				 * UBSI_DEP format:
+				 * -> type=UBSI_DEP msg=ubsi(1601572509.571:506): 
+				 * 		dep=(pid=701 thread_time=1601572509.571 unitid=901 iteration=0 time=1601572509.571 count=0), 
+				 * 		unit=(pid=702 thread_time=1601572509.571 unitid=898 iteration=0 time=1601572509.571 count=0) 
+				 * 		ppid=700 pid=702 auid=1000 uid=1000 gid=1000 euid=1000 suid=1000 fsuid=1000 egid=1000 sgid=1000 fsgid=1000 
+				 * 		tty=pts0 ses=3 comm="synth" exe="" key=(null)
+				 */
+				eventData.putAll(parseUnitKeyValuePairs(auditRecord, "dep", "0"));
+				eventData.putAll(parseUnitKeyValuePairs(auditRecord, "unit", ""));
+				dataAfterUnit = StringUtils.substringAfter(auditRecord.data, ") ");
+			}else{
+				dataAfterUnit = null;
+				throw new MalformedAuditDataException("Unexpected UBSI record type '" + auditRecord.type + "'", auditRecord.toString());
+			}
+
+			if(dataAfterUnit == null){
+				throw new MalformedAuditDataException("Missing process data in '" + auditRecord.type + "' record", auditRecord.toString());
+			}
 
-		auditRecordKeyValues.put(TIME, auditRecord.time);
-		auditRecordKeyValues.put(EVENT_ID, auditRecord.id);
-		auditRecordKeyValues.put(RECORD_TYPE_KEY, auditRecord.type);
+			final Map<String, String> processMap = HelperFunctions.parseKeyValPairs(dataAfterUnit);
+			processMap.put(COMM, mustParseAuditString(dataAfterUnit, COMM));
 
-		return auditRecordKeyValues;
-	}
+			eventData.putAll(processMap);
+
+			eventData.put(TIME, auditRecord.time);
+			eventData.put(EVENT_ID, auditRecord.id);
+			eventData.put(RECORD_TYPE_KEY, auditRecord.type);
+		}
 	
-	private final Map<String, String> parseNetioInterceptedRecord(final AuditRecord auditRecord,
-			final String netioInterceptedSubRecord) throws Exception{
-		/*
-		 * netio_intercepted format
-		 * -> type=USER msg=audit(1601572509.571:501): 
-		 * 		netio_intercepted="syscall=%d exit=%ld success=%d fd=%d pid=%d ppid=%d 
-		 * 		uid=%u euid=%u suid=%u fsuid=%u gid=%u egid=%u sgid=%u fsgid=%u 
-		 * 		comm=%s sock_type=%d local_saddr=%s remote_saddr=%s remote_saddr_size=%d net_ns_inum=%ld"
-		 */
-		final Map<String, String> auditRecordKeyValues = HelperFunctions.parseKeyValPairs(netioInterceptedSubRecord);
-		auditRecordKeyValues.put(COMM, mustParseAuditString(netioInterceptedSubRecord, COMM));
-		auditRecordKeyValues.put(TIME, auditRecord.time);
-		auditRecordKeyValues.put(EVENT_ID, auditRecord.id);
-		auditRecordKeyValues.put(RECORD_TYPE_KEY, KMODULE_RECORD_TYPE);
-		return auditRecordKeyValues;
-	}
+		private final void parseNetioInterceptedRecord(final Map<String, String> eventData,
+				final int subRecordStart, final int subRecordEnd) throws Exception{
+			/*
+			 * netio_intercepted format
+			 * -> type=USER msg=audit(1601572509.571:501): 
+			 * 		netio_intercepted="syscall=%d exit=%ld success=%d fd=%d pid=%d ppid=%d 
+			 * 		uid=%u euid=%u suid=%u fsuid=%u gid=%u egid=%u sgid=%u fsgid=%u 
+			 * 		comm=%s sock_type=%d local_saddr=%s remote_saddr=%s remote_saddr_size=%d net_ns_inum=%ld"
+			 */
+			tokenizer.putKeyValues(subRecordStart, subRecordEnd, eventData);
+			eventData.put(COMM, mustParseAuditString(subRecordStart, subRecordEnd, COMM_BYTES, COMM));
+			eventData.put(TIME, tokenizer.getTime());
+			eventData.put(EVENT_ID, tokenizer.getId());
+			eventData.put(RECORD_TYPE_KEY, KMODULE_RECORD_TYPE);
+		}
 	
-	private final Map<String, String> parseUbsiInterceptedRecord(final AuditRecord auditRecord,
-			final String ubsiInterceptedSubRecord) throws Exception{
-		/*
-		 * ubsi_intercepted format
-		 * -> type=USER msg=audit(1601572509.571:501): 
-		 * 		ubsi_intercepted="syscall=%d success=%s exit=%ld a0=%x a1=%x a2=0 a3=0 
-	 	 * 		items=0 ppid=%d pid=%d uid=%u gid=%u euid=%u suid=%u fsuid=%u egid=%u sgid=%u fsgid=%u comm=%s"
-	 	 * 
-	 	 */
-		final Map<String, String> auditRecordKeyValues = HelperFunctions.parseKeyValPairs(ubsiInterceptedSubRecord);
-		auditRecordKeyValues.put(COMM, mustParseAuditString(ubsiInterceptedSubRecord, COMM));
-		auditRecordKeyValues.put(TIME, auditRecord.time);
-		auditRecordKeyValues.put(EVENT_ID, auditRecord.id);
-		auditRecordKeyValues.put(RECORD_TYPE_KEY, RECORD_TYPE_SYSCALL);
-		return auditRecordKeyValues;
-	}
+		private final void parseUbsiInterceptedRecord(final Map<String, String> eventData,
+				final int subRecordStart, final int subRecordEnd) throws Exception{
+			/*
+			 * ubsi_intercepted format
+			 * -> type=USER msg=audit(1601572509.571:501): 
+			 * 		ubsi_intercepted="syscall=%d success=%s exit=%ld a0=%x a1=%x a2=0 a3=0 
+		 	 * 		items=0 ppid=%d pid=%d uid=%u gid=%u euid=%u suid=%u fsuid=%u egid=%u sgid=%u fsgid=%u comm=%s"
+		 	 * 
+		 	 */
+			tokenizer.putKeyValues(subRecordStart, subRecordEnd, eventData);
+			eventData.put(COMM, mustParseAuditString(subRecordStart, subRecordEnd, COMM_BYTES, COMM));
+			eventData.put(TIME, tokenizer.getTime());
+			eventData.put(EVENT_ID, tokenizer.getId());
+			eventData.put(RECORD_TYPE_KEY, RECORD_TYPE_SYSCALL);
+		}
 	
-	private final Map<String, String> parseNamespaceRecord(final AuditRecord auditRecord, final Map<String, String> dataMap){
-		/*
-		 * namespaces format
-		 * -> type=USER msg=audit(1601572509.571:501): 
-		 * 		ns_syscall=%d ns_subtype=ns_namespaces ns_operation=ns_%s ns_ns_pid=%ld ns_host_pid=%ld 
-		 * 		ns_inum_mnt=%ld ns_inum_net=%ld ns_inum_pid=%ld ns_inum_pid_children=%ld ns_inum_usr=%ld ns_inum_ipc=%ld
-		 */
-		final Map<String, String> auditRecordKeyValues = new HashMap<String, String>();
-		auditRecordKeyValues.putAll(dataMap);
-		return auditRecordKeyValues;
-	}
+		private final void parseNamespaceRecord(final Map<String, String> eventData, final Map<String, String> dataMap){
+			/*
+			 * namespaces format
+			 * -> type=USER msg=audit(1601572509.571:501): 
+			 * 		ns_syscall=%d ns_subtype=ns_namespaces ns_operation=ns_%s ns_ns_pid=%ld ns_host_pid=%ld 
+			 * 		ns_inum_mnt=%ld ns_inum_net=%ld ns_inum_pid=%ld ns_inum_pid_children=%ld ns_inum_usr=%ld ns_inum_ipc=%ld
+			 */
+			eventData.putAll(dataMap);
+		}
 
-	private final Map<String, String> parseNetfilterRecord(final AuditRecord auditRecord, final Map<String, String> dataMap){
-		/* 
-		 * netfilter (1) format
-		 * -> type=USER msg=audit(1601572509.571:501): 
-		 * 		version=%s nf_subtype=nf_netfilter nf_hook=%s nf_priority=%s nf_id=%p nf_src_ip=%s nf_src_port=%d 
-		 * 		nf_dst_ip=%s nf_dst_port=%d nf_protocol=%s nf_ip_version=%s nf_net_ns=%u
-		 * 
-		 * netfilter (2) format
-		 * -> type=USER msg=audit(1601572509.571:501): 
-		 * 		version=%s nf_subtype=nf_netfilter nf_hook=%s nf_priority=%s nf_id=%p nf_src_ip=%s nf_src_port=%d 
-		 * 		nf_dst_ip=%s nf_dst_port=%d nf_protocol=%s nf_ip_version=%s nf_net_ns=-1
-		 * 
-		 * netfilter (3) format
-		 * -> type=USER msg=audit(1601572509.571:501): 
-		 * 		version=%s nf_subtype=nf_netfilter nf_hook=%s nf_priority=%s nf_id=%p nf_src_ip=%s nf_src_port=%d 
-		 * 		nf_dst_ip=%s nf_dst_port=%d nf_protocol=%s nf_ip_version=%s
-		 */
-		final Map<String, String> auditRecordKeyValues = new HashMap<String, String>();
-		auditRecordKeyValues.putAll(dataMap);
-		auditRecordKeyValues.put(TIME, auditRecord.time);
-		auditRecordKeyValues.put(EVENT_ID, auditRecord.id);
-		auditRecordKeyValues.put(RECORD_TYPE_KEY, RECORD_TYPE_NETFILTER_HOOK);
-		return auditRecordKeyValues;
-	}
+		private final void parseNetfilterRecord(final Map<String, String> eventData, final Map<String, String> dataMap){
+			/* 
+			 * netfilter (1) format
+			 * -> type=USER msg=audit(1601572509.571:501): 
+			 * 		version=%s nf_subtype=nf_netfilter nf_hook=%s nf_priority=%s nf_id=%p nf_src_ip=%s nf_src_port=%d 
+			 * 		nf_dst_ip=%s nf_dst_port=%d nf_protocol=%s nf_ip_version=%s nf_net_ns=%u
+			 * 
+			 * netfilter (2) format
+			 * -> type=USER msg=audit(1601572509.571:501): 
+			 * 		version=%s nf_subtype=nf_netfilter nf_hook=%s nf_priority=%s nf_id=%p nf_src_ip=%s nf_src_port=%d 
+			 * 		nf_dst_ip=%s nf_dst_port=%d nf_protocol=%s nf_ip_version=%s nf_net_ns=-1
+			 * 
+			 * netfilter (3) format
+			 * -> type=USER msg=audit(1601572509.571:501): 
+			 * 		version=%s nf_subtype=nf_netfilter nf_hook=%s nf_priority=%s nf_id=%p nf_src_ip=%s nf_src_port=%d 
+			 * 		nf_dst_ip=%s nf_dst_port=%d nf_protocol=%s nf_ip_version=%s
+			 */
+			eventData.putAll(dataMap);
+			eventData.put(TIME, tokenizer.getTime());
+			eventData.put(EVENT_ID, tokenizer.getId());
+			eventData.put(RECORD_TYPE_KEY, RECORD_TYPE_NETFILTER_HOOK);
+		}
 	
-	private final Map<String, String> parseSyscallRecord(final AuditRecord auditRecord) throws Exception{
-		/*
-		 * -> node=ubuntu-bionic type=SYSCALL msg=audit(1601587102.900:16403): 
-		 * 		arch=c000003e syscall=0 success=yes exit=30 a0=6 a1=7fff06b61700 a2=1000 a3=0 items=0 
-		 * 		ppid=26414 pid=26415 auid=1000 uid=1002 gid=1002 euid=1002 suid=1002 fsuid=1002 egid=1002 sgid=1002 fsgid=1002 
-		 * 		tty=(none) ses=3 comm="screen" exe="/usr/bin/screen" key=(null)
-		 */
-		final Map<String, String> auditRecordKeyValues = HelperFunctions.parseKeyValPairs(auditRecord.data);
-		auditRecordKeyValues.put(COMM, mustParseAuditString(auditRecord.data, COMM));
-		auditRecordKeyValues.put(TIME, auditRecord.time);
-		auditRecordKeyValues.put(EVENT_ID, auditRecord.id);
-		auditRecordKeyValues.put(RECORD_TYPE_KEY, RECORD_TYPE_SYSCALL);
-		return auditRecordKeyValues;
-	}
+		private final void parseSyscallRecord(final Map<String, String> eventData) throws Exception{
+			/*
+			 * -> node=ubuntu-bionic type=SYSCALL msg=audit(1601587102.900:16403): 
+			 * 		arch=c000003e syscall=0 success=yes exit=30 a0=6 a1=7fff06b61700 a2=1000 a3=0 items=0 
+			 * 		ppid=26414 pid=26415 auid=1000 uid=1002 gid=1002 euid=1002 suid=1002 fsuid=1002 egid=1002 sgid=1002 fsgid=1002 
+			 * 		tty=(none) ses=3 comm="screen" exe="/usr/bin/screen" key=(null)
+			 */
+			final int dataStart = tokenizer.getDataStart(), dataEnd = tokenizer.getDataEnd();
+			tokenizer.putKeyValues(dataStart, dataEnd, eventData);
+			eventData.put(COMM, mustParseAuditString(dataStart, dataEnd, COMM_BYTES, COMM));
+			eventData.put(TIME, tokenizer.getTime());
+			eventData.put(EVENT_ID, tokenizer.getId());
+			eventData.put(RECORD_TYPE_KEY, RECORD_TYPE_SYSCALL);
+		}
 	
-	private final Map<String, String> parseCwdRecord(final AuditRecord auditRecord) throws Exception{
-		/*
-		 * -> node=ubuntu-bionic type=CWD msg=audit(1601587106.252:16451): cwd="/"
-		 */
-		final Map<String, String> auditRecordKeyValues = HelperFunctions.parseKeyValPairs(auditRecord.data);
-		auditRecordKeyValues.put(CWD, mustParseAuditString(auditRecord.data, CWD));
-		return auditRecordKeyValues;
-	}
+		private final void parseCwdRecord(final Map<String, String> eventData) throws Exception{
+			/*
+			 * -> node=ubuntu-bionic type=CWD msg=audit(1601587106.252:16451): cwd="/"
+			 */
+			final int dataStart = tokenizer.getDataStart(), dataEnd = tokenizer.getDataEnd();
+			tokenizer.putKeyValues(dataStart, dataEnd, eventData);
+			eventData.put(CWD, mustParseAuditString(dataStart, dataEnd, CWD_BYTES, CWD));
+		}
 	
-	private final Map<String, String> parsePathRecord(final AuditRecord auditRecord) throws Exception{
-		/*
-		 * -> node=ubuntu-bionic type=PATH msg=audit(1601587106.252:16451): 
-		 * 		item=0 name="/usr/share/dbus-1/system-services" inode=32602 dev=08:01 mode=040755 
-		 * 		ouid=0 ogid=0 rdev=00:00 nametype=NORMAL cap_fp=0000000000000000 cap_fi=0000000000000000 
-		 * 		cap_fe=0 cap_fver=0
-		 */
-		final Map<String, String> auditRecordKeyValues = new HashMap<String, String>();
-		final Map<String, String> tempMap = HelperFunctions.parseKeyValPairs(auditRecord.data);
-
-		final String itemNumber = tempMap.get(ITEM);
-		final String mode = tempMap.get(MODE_PREFIX) == null ? "0" : tempMap.get(MODE_PREFIX);
-		final String nametype = tempMap.get(NAMETYPE_PREFIX);
-		final String name = parseAuditString(auditRecord.data, NAME);
-		final String inode = tempMap.get(INODE_PREFIX) == null ? "-1" : tempMap.get(INODE_PREFIX);
-
-		auditRecordKeyValues.put(MODE_PREFIX + itemNumber, mode);
-		auditRecordKeyValues.put(NAMETYPE_PREFIX + itemNumber, nametype);
-		auditRecordKeyValues.put(PATH_PREFIX + itemNumber, name);
-		auditRecordKeyValues.put(INODE_PREFIX + itemNumber, inode);
-		return auditRecordKeyValues;
-	}
+		private final void parsePathRecord(final Map<String, String> eventData) throws Exception{
+			/*
+			 * -> node=ubuntu-bionic type=PATH msg=audit(1601587106.252:16451): 
+			 * 		item=0 name="/usr/share/dbus-1/system-services" inode=32602 dev=08:01 mode=040755 
+			 * 		ouid=0 ogid=0 rdev=00:00 nametype=NORMAL cap_fp=0000000000000000 cap_fi=0000000000000000 
+			 * 		cap_fe=0 cap_fver=0
+			 */
+			final int dataStart = tokenizer.getDataStart(), dataEnd = tokenizer.getDataEnd();
+			recordData.clear();
+			tokenizer.putKeyValues(dataStart, dataEnd, recordData);
+
+			final String itemNumber = recordData.get(ITEM);
+			final String mode = recordData.get(MODE_PREFIX) == null ? "0" : recordData.get(MODE_PREFIX);
+			final String nametype = recordData.get(NAMETYPE_PREFIX);
+			final String name = tokenizer.getAuditString(dataStart, dataEnd, NAME_BYTES);
+			final String inode = recordData.get(INODE_PREFIX) == null ? "-1" : recordData.get(INODE_PREFIX);
+
+			final Integer index = HelperFunctions.parseInt(itemNumber, null);
+			if(index != null && index >= 0 && index < INDEXED_KEYS_CACHE_SIZE && String.valueOf(index).equals(itemNumber)){
+				eventData.put(MODE_KEYS[index], mode);
+				eventData.put(NAMETYPE_KEYS[index], nametype);
+				eventData.put(PATH_KEYS[index], name);
+				eventData.put(INODE_KEYS[index], inode);
+			}else{
+				eventData.put(MODE_PREFIX + itemNumber, mode);
+				eventData.put(NAMETYPE_PREFIX + itemNumber, nametype);
+				eventData.put(PATH_PREFIX + itemNumber, name);
+				eventData.put(INODE_PREFIX + itemNumber, inode);
+			}
+		}
 	
-	private final Map<String, String> parseExecveRecord(final AuditRecord auditRecord) throws Exception{
-		/*
-		 * -> node=ubuntu-bionic type=EXECVE msg=audit(1601587110.584:16741): argc=1 a0="./server_mq"
-		 */
-		final Map<String, String> auditRecordKeyValues = new HashMap<String, String>();
-		final Map<String, String> tempMap = HelperFunctions.parseKeyValPairs(auditRecord.data);
-
-		final String argcString = tempMap.get(ARGC);
-		final Integer argc = HelperFunctions.parseInt(argcString, null);
-		if(argc != null){
-			for(int i = 0; i < argc; i++){
-				final String key = "a" + i;
-				final String prefixedKey = EXECVE_PREFIX + key;
-				final String value = parseAuditString(auditRecord.data, key);
-				if(value != null){
-					auditRecordKeyValues.put(prefixedKey, value);
-				}else{
-					auditRecordKeyValues.put(prefixedKey, "");
+		private final void parseExecveRecord(final Map<String, String> eventData) throws Exception{
+			/*
+			 * -> node=ubuntu-bionic type=EXECVE msg=audit(1601587110.584:16741): argc=1 a0="./server_mq"
+			 */
+			final int dataStart = tokenizer.getDataStart(), dataEnd = tokenizer.getDataEnd();
+			recordData.clear();
+			tokenizer.putKeyValues(dataStart, dataEnd, recordData);
+
+			final String argcString = recordData.get(ARGC);
+			final Integer argc = HelperFunctions.parseInt(argcString, null);
+			if(argc != null){
+				for(int i = 0; i < argc; i++){
+					final String prefixedKey;
+					final byte[] keyBytes;
+					if(i < INDEXED_KEYS_CACHE_SIZE){
+						prefixedKey = EXECVE_ARG_KEYS[i];
+						keyBytes = EXECVE_ARG_BYTES[i];
+					}else{
+						prefixedKey = EXECVE_PREFIX + "a" + i;
+						keyBytes = ("a" + i + "=").getBytes(StandardCharsets.US_ASCII);
+					}
+					final String value = tokenizer.getAuditString(dataStart, dataEnd, keyBytes);
+					if(value != null){
+						eventData.put(prefixedKey, value);
+					}else{
+						eventData.put(prefixedKey, "");
+					}
 				}
 			}
+			eventData.put(EXECVE_ARGC, argcString);
 		}
-		auditRecordKeyValues.put(EXECVE_ARGC, argcString);
-		return auditRecordKeyValues;
-	}
 	
-	private final Map<String, String> parseSimpleKeyValuePairRecord(final AuditRecord auditRecord) throws Exception{
-		/*
-		 * -> node=ubuntu-bionic type=FD_PAIR msg=audit(1601587107.820:16569): fd0=3 fd1=4
-		 * 
-		 * -> node=ubuntu-bionic type=SOCKADDR msg=audit(1601587107.820:16569): saddr=0100
-		 * 
-		 * -> node=ubuntu-bionic type=MMAP msg=audit(1601587110.584:16743): fd=3 flags=0x2
-		 * 
-		 * -> node=ubuntu-bionic type=IPC msg=audit(1601587136.164:19493): ouid=1000 ogid=1000 mode=0666
+		private final void parseSimpleKeyValuePairRecord(final Map<String, String> eventData) throws Exception{
+			/*
+			 * -> node=ubuntu-bionic type=FD_PAIR msg=audit(1601587107.820:16569): fd0=3 fd1=4
+			 * 
+			 * -> node=ubuntu-bionic type=SOCKADDR msg=audit(1601587107.820:16569): saddr=0100
+			 * 
+			 * -> node=ubuntu-bionic type=MMAP msg=audit(1601587110.584:16743): fd=3 flags=0x2
+			 * 
+			 * -> node=ubuntu-bionic type=IPC msg=audit(1601587136.164:19493): ouid=1000 ogid=1000 mode=0666
+			 * 
+			 * -> node=ubuntu-bionic type=MQ_SENDRECV msg=audit(1601587110.592:16933): 
+			 * 		mqdes=3 msg_len=266 msg_prio=0 abs_timeout_sec=0 abs_timeout_nsec=0
+			 */
+			tokenizer.putKeyValues(tokenizer.getDataStart(), tokenizer.getDataEnd(), eventData);
+		}
+	
+		/**
+		 * Parses the current record of the tokenizer and puts its key-values in the event map
 		 * 
-		 * -> node=ubuntu-bionic type=MQ_SENDRECV msg=audit(1601587110.592:16933): 
-		 * 		mqdes=3 msg_len=266 msg_prio=0 abs_timeout_sec=0 abs_timeout_nsec=0
+		 * @param eventData key-values of the event that the record belongs to
+		 * @throws Exception MalformedAuditDataException if a required field is missing
 		 */
-		return HelperFunctions.parseKeyValPairs(auditRecord.data);
-	}
-	
-	private final Map<String, String> parseAuditRecord(final AuditRecord auditRecord) throws Exception{
-		switch(auditRecord.type){
-			case RECORD_TYPE_DAEMON_START:
-				return parseDaemonStartRecord(auditRecord);
-			case RECORD_TYPE_UBSI_ENTRY:
-			case RECORD_TYPE_UBSI_EXIT:
-			case RECORD_TYPE_UBSI_DEP:
-				return parseUBSIRecord(auditRecord);
-			case RECORD_TYPE_USER:{
-				final String netioInterceptedSubRecord = 
-						StringUtils.substringBetween(auditRecord.data, KMODULE_DATA_KEY + "=\"", "\"");
-				if(netioInterceptedSubRecord != null){
-					return parseNetioInterceptedRecord(auditRecord, netioInterceptedSubRecord);
-				}
+		final void parse(final Map<String, String> eventData) throws Exception{
+			switch(tokenizer.getType()){
+				case RECORD_TYPE_DAEMON_START:
+					parseDaemonStartRecord(eventData);
+					break;
+				case RECORD_TYPE_UBSI_ENTRY:
+				case RECORD_TYPE_UBSI_EXIT:
+				case RECORD_TYPE_UBSI_DEP:
+					parseUBSIRecord(eventData);
+					break;
+				case RECORD_TYPE_USER:{
+					final int dataStart = tokenizer.getDataStart(), dataEnd = tokenizer.getDataEnd();
+					final int netioInterceptedStart = tokenizer.getQuotedValueStart(dataStart, dataEnd, KMODULE_DATA_BYTES);
+					if(netioInterceptedStart > -1){
+						parseNetioInterceptedRecord(eventData, netioInterceptedStart, 
+								tokenizer.getQuotedValueEnd(netioInterceptedStart, dataEnd));
+						break;
+					}
 				
-				final String ubsiInterceptedSubRecord = 
-						StringUtils.substringBetween(auditRecord.data, UBSI_INTERCEPTED_DATA_KEY + "=\"", "\"");
-				if(ubsiInterceptedSubRecord != null){
-					return parseUbsiInterceptedRecord(auditRecord, ubsiInterceptedSubRecord);
-				}
+					final int ubsiInterceptedStart = tokenizer.getQuotedValueStart(dataStart, dataEnd, UBSI_INTERCEPTED_DATA_BYTES);
+					if(ubsiInterceptedStart > -1){
+						parseUbsiInterceptedRecord(eventData, ubsiInterceptedStart, 
+								tokenizer.getQuotedValueEnd(ubsiInterceptedStart, dataEnd));
+						break;
+					}
 				
-				final Map<String, String> dataMap = HelperFunctions.parseKeyValPairs(auditRecord.data);
-				if(NS_SUBTYPE_VALUE.equals(dataMap.get(NS_SUBTYPE_KEY))){
-					return parseNamespaceRecord(auditRecord, dataMap);
-				}
+					recordData.clear();
+					tokenizer.putKeyValues(dataStart, dataEnd, recordData);
+					if(NS_SUBTYPE_VALUE.equals(recordData.get(NS_SUBTYPE_KEY))){
+						parseNamespaceRecord(eventData, recordData);
+						break;
+					}
 
-				if(NF_SUBTYPE_VALUE.equals(dataMap.get(NF_SUBTYPE_KEY))){
-					return parseNetfilterRecord(auditRecord, dataMap);
+					if(NF_SUBTYPE_VALUE.equals(recordData.get(NF_SUBTYPE_KEY))){
+						parseNetfilterRecord(eventData, recordData);
+						break;
+					}
 				}
+				break;
+				case RECORD_TYPE_SYSCALL:
+					parseSyscallRecord(eventData);
+					break;
+				case RECORD_TYPE_CWD:
+					parseCwdRecord(eventData);
+					break;
+				case RECORD_TYPE_PATH:
+					parsePathRecord(eventData);
+					break;
+				case RECORD_TYPE_EXECVE:
+					parseExecveRecord(eventData);
+					break;
+				case RECORD_TYPE_FD_PAIR:
+				case RECORD_TYPE_SOCKADDR:
+				case RECORD_TYPE_MMAP:
+				case RECORD_TYPE_IPC:
+				case RECORD_TYPE_MQ_SENDRECV:
+					parseSimpleKeyValuePairRecord(eventData);
+					break;
 			}
-			break;
-			case RECORD_TYPE_SYSCALL:
-				return parseSyscallRecord(auditRecord);
-			case RECORD_TYPE_CWD:
-				return parseCwdRecord(auditRecord);
-			case RECORD_TYPE_PATH:
-				return parsePathRecord(auditRecord);
-			case RECORD_TYPE_EXECVE:
-				return parseExecveRecord(auditRecord);
-			case RECORD_TYPE_FD_PAIR:
-			case RECORD_TYPE_SOCKADDR:
-			case RECORD_TYPE_MMAP:
-			case RECORD_TYPE_IPC:
-			case RECORD_TYPE_MQ_SENDRECV:
-				return parseSimpleKeyValuePairRecord(auditRecord);
-		}
-		return null;
-	}
-
-	private Map<String, String> parseUnitKeyValuePairs(final AuditRecord auditRecord, final String unitKey,
-			final String keysSuffix)
-			throws Exception{
-		final String unitKeyValuesString = StringUtils.substringBetween(auditRecord.data, unitKey + "=(", ")"); 
-		if(unitKeyValuesString == null){
-			throw new MalformedAuditDataException(
-					"Record doesn't contain the unit in the format '"+unitKey+"=(<key-value-pairs>)'", auditRecord.toString());
 		}
 
-		final List<String> missingUnitFields = new ArrayList<String>();
-		final String pid = StringUtils.substringBetween(unitKeyValuesString, "pid=", " ");
-		if(pid == null){
-			missingUnitFields.add("pid");
-		}
-		final String threadTime = StringUtils.substringBetween(unitKeyValuesString, " thread_time=", " ");
-		if(threadTime == null){
-			missingUnitFields.add("thread_time");
-		}
-		final String unitId = StringUtils.substringBetween(unitKeyValuesString, " unitid=", " ");
-		if(unitId == null){
-			missingUnitFields.add("unitid");
-		}
-		final String iteration = StringUtils.substringBetween(unitKeyValuesString, " iteration=", " ");
-		if(iteration == null){
-			missingUnitFields.add("iteration");
-		}
-		final String time = StringUtils.substringBetween(unitKeyValuesString, " time=", " ");
-		if(time == null){
-			missingUnitFields.add("time");
-		}
-		final String count = StringUtils.substringAfter(unitKeyValuesString, " count=");
-		if(count == null){
-			missingUnitFields.add("count");
-		}
+		private Map<String, String> parseUnitKeyValuePairs(final AuditRecord auditRecord, final String unitKey,
+				final String keysSuffix)
+				throws Exception{
+			final String unitKeyValuesString = StringUtils.substringBetween(auditRecord.data, unitKey + "=(", ")"); 
+			if(unitKeyValuesString == null){
+				throw new MalformedAuditDataException(
+						"Record doesn't contain the unit in the format '"+unitKey+"=(<key-value-pairs>)'", auditRecord.toString());
+			}
+
+			final List<String> missingUnitFields = new ArrayList<String>();
+			final String pid = StringUtils.substringBetween(unitKeyValuesString, "pid=", " ");
+			if(pid == null){
+				missingUnitFields.add("pid");
+			}
+			final String threadTime = StringUtils.substringBetween(unitKeyValuesString, " thread_time=", " ");
+			if(threadTime == null){
+				missingUnitFields.add("thread_time");
+			}
+			final String unitId = StringUtils.substringBetween(unitKeyValuesString, " unitid=", " ");
+			if(unitId == null){
+				missingUnitFields.add("unitid");
+			}
+			final String iteration = StringUtils.substringBetween(unitKeyValuesString, " iteration=", " ");
+			if(iteration == null){
+				missingUnitFields.add("iteration");
+			}
+			final String time = StringUtils.substringBetween(unitKeyValuesString, " time=", " ");
+			if(time == null){
+				missingUnitFields.add("time");
+			}
+			final String count = StringUtils.substringAfter(unitKeyValuesString, " count=");
+			if(count == null){
+				missingUnitFields.add("count");
+			}
+
+			if(!missingUnitFields.isEmpty()){
+				throw new MalformedAuditDataException(
+						"Record doesn't contain the unit in the format "
+						+ "'"+unitKey+"=(pid=<int> thread_time=<float> unitid=<int> iteration=<int> time=<float> count=<int>)'."
+						+ " Missing fields: " + missingUnitFields, auditRecord.toString());
+			}
 
-		if(!missingUnitFields.isEmpty()){
-			throw new MalformedAuditDataException(
-					"Record doesn't contain the unit in the format "
-					+ "'"+unitKey+"=(pid=<int> thread_time=<float> unitid=<int> iteration=<int> time=<float> count=<int>)'."
-					+ " Missing fields: " + missingUnitFields, auditRecord.toString());
+			final Map<String, String> map = new HashMap<String, String>();
+			map.put(UNIT_PID + keysSuffix, pid);
+			map.put(UNIT_THREAD_START_TIME + keysSuffix, threadTime);
+			map.put(UNIT_UNITID + keysSuffix, unitId);
+			map.put(UNIT_ITERATION + keysSuffix, iteration);
+			map.put(UNIT_TIME + keysSuffix, time);
+			map.put(UNIT_COUNT + keysSuffix, count);
+			return map;
 		}
 
-		final Map<String, String> map = new HashMap<String, String>();
-		map.put(UNIT_PID + keysSuffix, pid);
-		map.put(UNIT_THREAD_START_TIME + keysSuffix, threadTime);
-		map.put(UNIT_UNITID + keysSuffix, unitId);
-		map.put(UNIT_ITERATION + keysSuffix, iteration);
-		map.put(UNIT_TIME + keysSuffix, time);
-		map.put(UNIT_COUNT + keysSuffix, count);
-		return map;
-	}
+		private final String mustParseAuditString(final int from, final int to, final byte[] keyBytes, final String key)
+				throws Exception{
+			final String value = tokenizer.getAuditString(from, to, keyBytes);
+			if(value == null){
+				throw new MalformedAuditDataException("Missing field: " + key);
+			}else{
+				return value;
+			}
+		}
 
-	private final String mustParseAuditString(final String recordData, final String key) throws Exception{
-		final String value = parseAuditString(recordData, key);
-		if(value == null){
-			throw new MalformedAuditDataException("Missing field: " + key);
-		}else{
-			return value;
+		private final String mustParseAuditString(final String recordData, final String key) throws Exception{
+			final String value = parseAuditString(recordData, key);
+			if(value == null){
+				throw new MalformedAuditDataException("Missing field: " + key);
+			}else{
+				return value;
+			}
 		}
-	}
 
-	private final String parseAuditString(final String recordData, final String key){
-		final String formattedKey = key + "=";
-		final int keyStartIndex = recordData.indexOf(formattedKey);
-		if(keyStartIndex < 0){
-			return null;
-		}else{
-			final int valueStartIndex = keyStartIndex + formattedKey.length();
-			if(valueStartIndex >= recordData.length()){
+		private final String parseAuditString(final String recordData, final String key){
+			final String formattedKey = key + "=";
+			final int keyStartIndex = recordData.indexOf(formattedKey);
+			if(keyStartIndex < 0){
 				return null;
 			}else{
-				final char valueFirstChar = recordData.charAt(valueStartIndex);
-				if(valueFirstChar == '"'){
-					// is quoted string
-					final int valueEndIndex = recordData.indexOf('"', valueStartIndex + 1);
-					if(valueEndIndex < 0){
-						return null;
-					}else{
-						return recordData.substring(valueStartIndex+1, valueEndIndex);
-					}
-				}else if(valueFirstChar == '('){
-					// is quoted string
-					final int valueEndIndex = recordData.indexOf(')', valueStartIndex + 1);
-					if(valueEndIndex < 0){
-						return null;
-					}else{
-						final String value = recordData.substring(valueStartIndex+1, valueEndIndex);
-						if(value.equals("null")){
+				final int valueStartIndex = keyStartIndex + formattedKey.length();
+				if(valueStartIndex >= recordData.length()){
+					return null;
+				}else{
+					final char valueFirstChar = recordData.charAt(valueStartIndex);
+					if(valueFirstChar == '"'){
+						// is quoted string
+						final int valueEndIndex = recordData.indexOf('"', valueStartIndex + 1);
+						if(valueEndIndex < 0){
 							return null;
 						}else{
-							return value;
+							return recordData.substring(valueStartIndex+1, valueEndIndex);
 						}
+					}else if(valueFirstChar == '('){
+						// is quoted string
+						final int valueEndIndex = recordData.indexOf(')', valueStartIndex + 1);
+						if(valueEndIndex < 0){
+							return null;
+						}else{
+							final String value = recordData.substring(valueStartIndex+1, valueEndIndex);
+							if(value.equals("null")){
+								return null;
+							}else{
+								return value;
+							}
+						}
+					}else{
+						// is hex string
+						int valueEndIndex = recordData.indexOf(' ', valueStartIndex + 1);
+						if(valueEndIndex < 0){
+							valueEndIndex = recordData.length();
+						}
+						final String hexValue = recordData.substring(valueStartIndex, valueEndIndex);
+						return HelperFunctions.decodeHex(hexValue);
 					}
-				}else{
-					// is hex string
-					int valueEndIndex = recordData.indexOf(' ', valueStartIndex + 1);
-					if(valueEndIndex < 0){
-						valueEndIndex = recordData.length();
-					}
-					final String hexValue = recordData.substring(valueStartIndex, valueEndIndex);
-					return HelperFunctions.decodeHex(hexValue);
 				}
 			}
 		}
@@ -0,0 +1,194 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Handles audit events on a fixed number of threads (shards).
+ *
+ * Each event is given with a key and all the events with the same key are handled on the same shard in the order they
+ * were given. Events with different keys can be handled in any order relative to each other.
+ *
+ * The caller decides the keys (i.e. which events are independent), and calls 'await' before doing anything that
+ * must see all the events given so far as handled.
+ */
+public class AuditEventShards{
+
+	private static final Logger logger = Logger.getLogger(AuditEventShards.class.getName());
+
+	/**
+	 * Tells a shard thread to exit. Compared by reference.
+	 */
+	private final Map<String, String> stop = new HashMap<String, String>();
+
+	private final Consumer<Map<String, String>> handler;
+	private final BlockingQueue<Map<String, String>>[] queues;
+	private final Thread[] threads;
+
+	/**
+	 * Events given but not handled yet
+	 */
+	private final AtomicLong pending = new AtomicLong(0);
+	private final Object idleLock = new Object();
+
+	private volatile boolean failed = false;
+	private boolean closed = false;
+
+	/**
+	 * @param shards number of threads to handle the events on
+	 * @param capacity maximum number of events given but not handled yet per shard
+	 * @param handler handles an event. Called on the shard threads. Must not keep the event after returning.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public AuditEventShards(final int shards, final int capacity, final Consumer<Map<String, String>> handler){
+		if(shards < 1){
+			throw new IllegalArgumentException("Shards must be greater than 0. Input: " + shards);
+		}
+		if(capacity < 1){
+			throw new IllegalArgumentException("Capacity must be greater than 0. Input: " + capacity);
+		}
+		if(handler == null){
+			throw new IllegalArgumentException("NULL event handler");
+		}
+		this.handler = handler;
+		this.queues = new BlockingQueue[shards];
+		this.threads = new Thread[shards];
+		for(int i = 0; i < shards; i++){
+			final BlockingQueue<Map<String, String>> queue = new ArrayBlockingQueue<Map<String, String>>(capacity);
+			queues[i] = queue;
+			threads[i] = new Thread(new Runnable(){
+				@Override
+				public void run(){
+					handleEvents(queue);
+				}
+			}, "Audit-Event-Handler-Thread-" + (i + 1));
+			threads[i].setDaemon(true);
+		}
+	}
+
+	public void start(){
+		for(final Thread thread : threads){
+			thread.start();
+		}
+	}
+
+	private void handleEvents(final BlockingQueue<Map<String, String>> queue){
+		while(true){
+			final Map<String, String> eventData;
+			try{
+				eventData = queue.take();
+			}catch(InterruptedException ie){
+				break;
+			}
+			if(eventData == stop){
+				break;
+			}
+			try{
+				handler.accept(eventData);
+			}catch(Exception e){
+				failed = true;
+				logger.log(Level.SEVERE, "Failed to handle event", e);
+			}finally{
+				if(pending.decrementAndGet() == 0){
+					synchronized(idleLock){
+						idleLock.notifyAll();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gives the event to the shard of the key. Blocks if the shard has 'capacity' events not handled yet.
+	 *
+	 * Must only be called by one thread.
+	 *
+	 * @param key events with the same key are handled in order on the same shard
+	 * @param eventData event to handle
+	 * @throws InterruptedException if interrupted while waiting for space in the shard
+	 */
+	public void handle(final String key, final Map<String, String> eventData) throws InterruptedException{
+		if(closed){
+			throw new IllegalStateException("Closed");
+		}
+		final int shard = (key == null ? 0 : (key.hashCode() & Integer.MAX_VALUE)) % queues.length;
+		pending.incrementAndGet();
+		try{
+			queues[shard].put(eventData);
+		}catch(InterruptedException ie){
+			pending.decrementAndGet();
+			throw ie;
+		}
+	}
+
+	/**
+	 * Waits until all the events given so far have been handled. The changes made by the handler are visible to the
+	 * caller after this returns.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void await() throws InterruptedException{
+		synchronized(idleLock){
+			while(pending.get() > 0){
+				idleLock.wait();
+			}
+		}
+	}
+
+	/**
+	 * @return true if the handler threw an exception for any event
+	 */
+	public boolean hasFailed(){
+		return failed;
+	}
+
+	/**
+	 * Handles the events given so far and stops the threads. Nothing can be given after this.
+	 */
+	public void close(){
+		if(closed){
+			return;
+		}
+		closed = true;
+		for(int i = 0; i < queues.length; i++){
+			try{
+				queues[i].put(stop);
+			}catch(InterruptedException ie){
+				threads[i].interrupt();
+			}
+		}
+		for(final Thread thread : threads){
+			try{
+				thread.join();
+			}catch(InterruptedException ie){
+				logger.log(Level.WARNING, "Interrupted while waiting for the audit event handler threads to exit");
+				break;
+			}
+		}
+	}
+}
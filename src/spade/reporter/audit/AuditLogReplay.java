@@ -0,0 +1,539 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.core.Settings;
+import spade.utility.FileUtility;
+import spade.utility.profile.Intervaler;
+
+/**
+ * Replays audit logs through concurrent SPADE audit bridge processes.
+ * 
+ * The logs (in time order) are the partitions of the log set by time range. Each partition is read and reordered by
+ * its own SPADE audit bridge process and the output is spooled to a temporary file. The spooled output is read back
+ * through a single stream in the order of the partitions. The process and artifact state at the end of one partition
+ * is the state at the start of the next one.
+ * 
+ * SPADE audit bridge reorders events by id through a buffer which a serial replay carries from one log to the next.
+ * To get the same order at the boundaries, each partition is replayed with the tail of the previous log in front of it
+ * (the overlap). The events in the overlap with ids below the id in the middle of the overlap are emitted by the
+ * previous partition, and the rest (including the ones whose records continue into the next log) by the next
+ * partition. The output can still differ from a serial replay if the records of an event are further apart than half
+ * the overlap.
+ * 
+ * At most twice the number of threads partitions are replayed or spooled ahead of the partition being read.
+ * 
+ * Not supported with units because SPADE audit bridge keeps the unit state across logs.
+ */
+public class AuditLogReplay{
+
+	private static final Logger logger = Logger.getLogger(AuditLogReplay.class.getName());
+
+	private static final int copyBufferSize = 64 * 1024;
+	private static final int spoolBufferSize = 1024 * 1024;
+	// Lines of the previous log replayed before each log. A few times the reordering window of SPADE audit bridge
+	// (10000 events) at a few records per event.
+	private static final int overlapLines = 100000;
+
+	private final class Partition{
+		private final int index;
+		private final String logPath;
+		private final long logSize;
+		private final File spoolFile, overlapFile, logListFile;
+		// Guarded by the replay
+		private boolean started = false;
+		private boolean done = false;
+		private SPADEAuditBridgeProcess process = null;
+		private Exception failure = null;
+
+		private Partition(final int index, final String logPath){
+			this.index = index;
+			this.logPath = logPath;
+			this.logSize = new File(logPath).length();
+			this.spoolFile = new File(spoolDirectory, "partition." + index);
+			this.overlapFile = new File(spoolDirectory, "partition." + index + ".overlap");
+			this.logListFile = new File(spoolDirectory, "partition." + index + ".logs");
+		}
+	}
+
+	/*
+	 * Ids of the events in the tail of a log split at the id in the middle of the tail
+	 */
+	private static final class Overlap{
+		// Events emitted by the partition of the log
+		private final Set<Long> earlierIds = new HashSet<Long>();
+		// Events emitted by the partition of the next log
+		private final Set<Long> laterIds = new HashSet<Long>();
+	}
+
+	private final String spadeAuditBridgePath;
+	private final int threads;
+	private final List<Partition> partitions = new ArrayList<Partition>();
+	private final long totalLogBytes;
+	private final File spoolDirectory;
+
+	private final ExecutorService replayExecutor;
+	private final Semaphore lookahead;
+	private final Thread schedulerThread;
+	private final ReplayInputStream stream = new ReplayInputStream();
+
+	private final Intervaler reportingIntervaler;
+	private long startTimeMillis;
+	// Guarded by this
+	private int partitionsReplayed = 0;
+
+	private volatile boolean stopped = false;
+
+	/**
+	 * @param spadeAuditBridgePath path of the SPADE audit bridge executable
+	 * @param logPaths logs in time order (oldest first)
+	 * @param threads number of SPADE audit bridge processes to run concurrently
+	 * @param reportingIntervalMillis interval to log the progress at. Not logged if less than 1.
+	 * @throws Exception if the spool directory cannot be created
+	 */
+	public AuditLogReplay(final String spadeAuditBridgePath, final List<String> logPaths, final int threads,
+			final long reportingIntervalMillis) throws Exception{
+		if(logPaths == null){
+			throw new IllegalArgumentException("NULL list of logs to replay");
+		}
+		if(threads < 1){
+			throw new IllegalArgumentException("Replay threads must be greater than 0. Input: " + threads);
+		}
+		this.spadeAuditBridgePath = spadeAuditBridgePath;
+		this.threads = threads;
+
+		final String spoolDirectoryPath = Settings.getPathRelativeToTemporaryDirectory("audit.replay." + System.nanoTime());
+		this.spoolDirectory = new File(spoolDirectoryPath);
+		if(!spoolDirectory.mkdirs()){
+			throw new Exception("Failed to create replay spool directory: '" + spoolDirectoryPath + "'");
+		}
+
+		long totalLogBytes = 0;
+		for(int i = 0; i < logPaths.size(); i++){
+			final Partition partition = new Partition(i, logPaths.get(i));
+			partitions.add(partition);
+			totalLogBytes += partition.logSize;
+		}
+		this.totalLogBytes = totalLogBytes;
+
+		final AtomicInteger replayThreadCount = new AtomicInteger(0);
+		this.replayExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+			final Thread thread = new Thread(runnable, "Audit-Log-Replay-Thread-" + replayThreadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.lookahead = new Semaphore(threads * 2);
+		this.schedulerThread = new Thread(new Runnable(){
+			@Override
+			public void run(){
+				schedulePartitions();
+			}
+		}, "Audit-Log-Replay-Scheduler-Thread");
+		this.schedulerThread.setDaemon(true);
+
+		this.reportingIntervaler = new Intervaler(reportingIntervalMillis);
+	}
+
+	public void start(){
+		startTimeMillis = System.currentTimeMillis();
+		logger.log(Level.INFO, "Replaying " + partitions.size() + " log(s) (" + totalLogBytes + " bytes) using "
+				+ threads + " SPADE audit bridge process(es) at a time");
+		schedulerThread.start();
+	}
+
+	/**
+	 * @return the output of SPADE audit bridge for all the logs in order
+	 */
+	public InputStream getStream(){
+		return stream;
+	}
+
+	private void schedulePartitions(){
+		for(final Partition partition : partitions){
+			try{
+				lookahead.acquire();
+			}catch(InterruptedException ie){
+				break;
+			}
+			if(stopped){
+				break;
+			}
+			replayExecutor.execute(() -> replayPartition(partition));
+		}
+	}
+
+	private void replayPartition(final Partition partition){
+		synchronized(this){
+			if(stopped){
+				// Marked done by stop
+				return;
+			}
+			partition.started = true;
+		}
+		Exception failure = null;
+		try{
+			// Events emitted by the previous partition
+			final Set<Long> previousIds;
+			if(partition.index > 0){
+				final Overlap overlap = readOverlap(partitions.get(partition.index - 1).logPath, partition.overlapFile);
+				previousIds = overlap.earlierIds;
+				FileUtility.writeLines(partition.logListFile.getAbsolutePath(), 
+						Arrays.asList(partition.overlapFile.getAbsolutePath(), partition.logPath));
+			}else{
+				previousIds = Collections.emptySet();
+				FileUtility.writeLines(partition.logListFile.getAbsolutePath(), Arrays.asList(partition.logPath));
+			}
+			// Events emitted by the next partition
+			final Set<Long> nextIds;
+			if(partition.index < partitions.size() - 1){
+				nextIds = readOverlap(partition.logPath, null).laterIds;
+			}else{
+				nextIds = Collections.emptySet();
+			}
+
+			final SPADEAuditBridgeProcess process = SPADEAuditBridgeProcess.launchForLogList(spadeAuditBridgePath, 
+					partition.logListFile.getAbsolutePath());
+			synchronized(this){
+				partition.process = process;
+				if(stopped){
+					process.stop(true);
+				}
+			}
+			process.consumeStdErr((msg, exception) -> {
+				if(exception != null){
+					logger.log(Level.WARNING, "[SPADE audit bridge] [" + partition.logPath + "] " + msg, exception);
+				}else if(msg != null){
+					logger.log(Level.FINE, "[SPADE audit bridge] [" + partition.logPath + "] " + msg);
+				}
+			});
+			// Latin-1 to pass the bytes through as they are
+			try(final BufferedReader reader = new BufferedReader(new InputStreamReader(
+					process.getStdOutStreamOfExited(), StandardCharsets.ISO_8859_1), copyBufferSize);
+					final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+							new FileOutputStream(partition.spoolFile), StandardCharsets.ISO_8859_1), spoolBufferSize)){
+				String line;
+				while((line = reader.readLine()) != null){
+					final long eventId = parseEventId(line);
+					if(eventId < 0 || (!previousIds.contains(eventId) && !nextIds.contains(eventId))){
+						writer.write(line);
+						writer.write('\n');
+					}
+				}
+			}
+			final int exitValue = process.waitFor();
+			if(exitValue != 0 && !stopped){
+				throw new Exception("SPADE audit bridge exited with value: " + exitValue);
+			}
+		}catch(Exception e){
+			failure = e;
+		}finally{
+			markDone(partition, failure);
+		}
+	}
+
+	/*
+	 * Event id in an audit record the same way as SPADE audit bridge i.e. the number after the first ':'.
+	 * Returns -1 if none.
+	 */
+	private static long parseEventId(final String line){
+		final int colon = line.indexOf(':');
+		if(colon < 0){
+			return -1;
+		}
+		int i = colon + 1;
+		while(i < line.length() && Character.isWhitespace(line.charAt(i))){
+			i++;
+		}
+		long id = 0;
+		final int start = i;
+		while(i < line.length() && line.charAt(i) >= '0' && line.charAt(i) <= '9' && i - start < 18){
+			id = id * 10 + (line.charAt(i) - '0');
+			i++;
+		}
+		return i == start ? -1 : id;
+	}
+
+	/*
+	 * Offset of the first of the last 'lines' lines in the file
+	 */
+	private static long findTailOffset(final File file, final int lines) throws IOException{
+		try(final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")){
+			final long length = randomAccessFile.length();
+			final byte[] buffer = new byte[copyBufferSize];
+			long position = length;
+			int newLines = 0;
+			while(position > 0){
+				final int read = (int)Math.min(buffer.length, position);
+				position -= read;
+				randomAccessFile.seek(position);
+				randomAccessFile.readFully(buffer, 0, read);
+				for(int i = read - 1; i >= 0; i--){
+					// The new line at the end of the last line does not start a line
+					if(buffer[i] == '\n' && position + i != length - 1){
+						if(++newLines == lines){
+							return position + i + 1;
+						}
+					}
+				}
+			}
+			return 0;
+		}
+	}
+
+	/*
+	 * Reads the event ids in the tail of the log, and copies the tail to the given file (if not null)
+	 */
+	private static Overlap readOverlap(final String logPath, final File copyFile) throws Exception{
+		final File logFile = new File(logPath);
+		final long offset = findTailOffset(logFile, overlapLines);
+		final long[] ids = new long[overlapLines];
+		int count = 0;
+		try(final FileInputStream in = new FileInputStream(logFile)){
+			in.getChannel().position(offset);
+			try(final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.ISO_8859_1), copyBufferSize);
+					final BufferedWriter writer = copyFile == null ? null : new BufferedWriter(new OutputStreamWriter(
+							new FileOutputStream(copyFile), StandardCharsets.ISO_8859_1), spoolBufferSize)){
+				String line;
+				while(count < ids.length && (line = reader.readLine()) != null){
+					ids[count++] = parseEventId(line);
+					if(writer != null){
+						writer.write(line);
+						writer.write('\n');
+					}
+				}
+			}
+		}catch(Exception e){
+			throw new Exception("Failed to read the tail of log: '" + logPath + "'", e);
+		}
+		// Split by id (instead of by line) because SPADE audit bridge emits the events in the order of the ids
+		long splitId = Long.MAX_VALUE;
+		for(int i = count / 2; i < count; i++){
+			if(ids[i] >= 0){
+				splitId = ids[i];
+				break;
+			}
+		}
+		final Overlap overlap = new Overlap();
+		for(int i = 0; i < count; i++){
+			if(ids[i] >= 0){
+				if(ids[i] < splitId){
+					overlap.earlierIds.add(ids[i]);
+				}else{
+					overlap.laterIds.add(ids[i]);
+				}
+			}
+		}
+		return overlap;
+	}
+
+	private synchronized void markDone(final Partition partition, final Exception failure){
+		partition.done = true;
+		partition.failure = failure;
+		partition.process = null;
+		partitionsReplayed++;
+		notifyAll();
+	}
+
+	private synchronized Partition waitForPartition(final int index) throws IOException{
+		final Partition partition = partitions.get(index);
+		while(!partition.done){
+			try{
+				wait();
+			}catch(InterruptedException ie){
+				throw new IOException("Interrupted while waiting for log to be replayed: '" + partition.logPath + "'", ie);
+			}
+		}
+		if(partition.failure != null && !stopped){
+			throw new IOException("Failed to replay log: '" + partition.logPath + "'", partition.failure);
+		}
+		return partition;
+	}
+
+	/**
+	 * Stops replaying. The stream ends after the output already replayed.
+	 * 
+	 * @param force if true then SPADE audit bridge processes are killed otherwise they are interrupted to flush
+	 */
+	public void stop(final boolean force){
+		stopped = true;
+		schedulerThread.interrupt();
+		synchronized(this){
+			for(final Partition partition : partitions){
+				if(!partition.started){
+					partition.done = true;
+				}else if(!partition.done && partition.process != null){
+					try{
+						partition.process.stop(force);
+					}catch(Exception e){
+						logger.log(Level.WARNING, "Failed to stop SPADE audit bridge for log: '" + partition.logPath + "'", e);
+					}
+				}
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Stops replaying and deletes the spooled output
+	 */
+	public void close(){
+		stop(true);
+		replayExecutor.shutdownNow();
+		try{
+			stream.close();
+		}catch(Exception e){
+			// ignore
+		}
+		try{
+			FileUtility.deleteDirectory(spoolDirectory.getAbsolutePath());
+		}catch(Exception e){
+			logger.log(Level.WARNING, "Failed to delete replay spool directory: '" + spoolDirectory.getAbsolutePath() + "'", e);
+		}
+	}
+
+	private void logProgress(final int partitionsRead, final long logBytesRead, final boolean done){
+		final int partitionsReplayedSnapshot;
+		synchronized(this){
+			partitionsReplayedSnapshot = partitionsReplayed;
+		}
+		final double elapsedSeconds = Math.max(1, System.currentTimeMillis() - startTimeMillis) / 1000.0;
+		final double bytesPerSecond = logBytesRead / elapsedSeconds;
+		final String remaining;
+		if(done){
+			remaining = "0s";
+		}else if(bytesPerSecond <= 0){
+			remaining = "unknown";
+		}else{
+			remaining = ((long)((totalLogBytes - logBytesRead) / bytesPerSecond)) + "s";
+		}
+		logger.log(Level.INFO, String.format(
+				"Log replay %s: logs read=%d/%d, logs replayed=%d, log bytes read=%d/%d (%.1f%%), "
+				+ "throughput=%.2f MB/s, elapsed=%ds, remaining=%s",
+				done ? "completed" : "progress",
+				partitionsRead, partitions.size(), partitionsReplayedSnapshot,
+				logBytesRead, totalLogBytes, totalLogBytes == 0 ? 100.0 : (logBytesRead * 100.0) / totalLogBytes,
+				bytesPerSecond / (1024 * 1024), (long)elapsedSeconds, remaining));
+	}
+
+	/**
+	 * Reads the spooled output of the partitions one after the other. Must only be read by one thread.
+	 */
+	private final class ReplayInputStream extends InputStream{
+
+		private int index = 0;
+		private InputStream current = null;
+		private long currentSpoolSize = 0, currentSpoolRead = 0;
+		// Log bytes of the partitions read completely
+		private long logBytesRead = 0;
+		private boolean closed = false;
+
+		@Override
+		public int read() throws IOException{
+			final byte[] single = new byte[1];
+			final int read = read(single, 0, 1);
+			return read < 0 ? -1 : (single[0] & 0xff);
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException{
+			if(length == 0){
+				return 0;
+			}
+			while(!closed){
+				if(current == null){
+					if(index >= partitions.size()){
+						return -1;
+					}
+					final Partition partition = waitForPartition(index);
+					currentSpoolSize = partition.spoolFile.length();
+					currentSpoolRead = 0;
+					current = partition.spoolFile.exists() ? new FileInputStream(partition.spoolFile) : null;
+					if(current == null){
+						nextPartition(partition);
+						continue;
+					}
+				}
+				final int read = current.read(buffer, offset, length);
+				if(read < 0){
+					current.close();
+					current = null;
+					nextPartition(partitions.get(index));
+					continue;
+				}
+				currentSpoolRead += read;
+				if(reportingIntervaler.check()){
+					final Partition partition = partitions.get(index);
+					final long partialLogBytes = currentSpoolSize <= 0 ? 0 
+							: (long)(partition.logSize * ((double)currentSpoolRead / currentSpoolSize));
+					logProgress(index, logBytesRead + partialLogBytes, false);
+				}
+				return read;
+			}
+			throw new IOException("Stream closed");
+		}
+
+		private void nextPartition(final Partition partition){
+			for(final File file : new File[]{partition.spoolFile, partition.overlapFile, partition.logListFile}){
+				if(!file.delete() && file.exists()){
+					logger.log(Level.WARNING, "Failed to delete replay spool file: '" + file.getAbsolutePath() + "'");
+				}
+			}
+			logBytesRead += partition.logSize;
+			index++;
+			lookahead.release();
+			if(index >= partitions.size()){
+				logProgress(index, logBytesRead, true);
+			}
+		}
+
+		@Override
+		public void close() throws IOException{
+			closed = true;
+			if(current != null){
+				current.close();
+				current = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,476 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Single-pass byte-level reader and tokenizer of audit records.
+ * 
+ * Lines are read into a reusable buffer. Only the values are materialized as strings. Keys and record types are
+ * interned by their bytes so that the same string instance is returned for every record.
+ * 
+ * Splits the record in the same way as AuditRecord and the key-values in the same way as
+ * 'HelperFunctions.parseKeyValPairs'.
+ * 
+ * Not thread-safe.
+ */
+public class AuditRecordTokenizer{
+
+	private static final int readBufferSize = 64 * 1024;
+	private static final int initialLineBufferSize = 4 * 1024;
+	private static final int internTableCapacity = 4096; // power of 2
+	private static final int maximumInternedCount = internTableCapacity / 2;
+	
+	private static final byte[] typeKey = "type=".getBytes(StandardCharsets.US_ASCII),
+			headerEnd = "):".getBytes(StandardCharsets.US_ASCII);
+	
+	private final InputStream stream;
+	private final byte[] readBuffer = new byte[readBufferSize];
+	private int readPosition = 0, readLimit = 0;
+	private boolean streamEnded = false;
+	
+	private byte[] line = new byte[initialLineBufferSize];
+	private int lineLength = 0;
+	
+	private int typeStart, typeEnd, timeStart, timeEnd, idStart, idEnd, dataStart, dataEnd;
+	
+	private final byte[][] internedBytes = new byte[internTableCapacity][];
+	private final String[] internedStrings = new String[internTableCapacity];
+	private int internedCount = 0;
+	
+	public AuditRecordTokenizer(final InputStream stream){
+		this.stream = stream;
+	}
+	
+	/**
+	 * Tokenizer for records which are given through 'setLine' instead of being read from a stream
+	 */
+	public AuditRecordTokenizer(){
+		this(null);
+	}
+	
+	/**
+	 * Reads the next line without the line terminator
+	 * 
+	 * @return false if the stream ended
+	 * @throws IOException on read failure
+	 */
+	public boolean nextLine() throws IOException{
+		lineLength = 0;
+		boolean readAny = false;
+		while(true){
+			if(readPosition == readLimit){
+				if(streamEnded || !fillReadBuffer()){
+					return readAny;
+				}
+			}
+			readAny = true;
+			int newline = readPosition;
+			while(newline < readLimit && readBuffer[newline] != '\n'){
+				newline++;
+			}
+			appendToLine(readPosition, newline - readPosition);
+			if(newline < readLimit){
+				readPosition = newline + 1;
+				if(lineLength > 0 && line[lineLength - 1] == '\r'){
+					lineLength--;
+				}
+				return true;
+			}
+			readPosition = readLimit;
+		}
+	}
+	
+	private boolean fillReadBuffer() throws IOException{
+		if(stream == null){
+			streamEnded = true;
+			return false;
+		}
+		final int read = stream.read(readBuffer, 0, readBuffer.length);
+		if(read < 0){
+			streamEnded = true;
+			return false;
+		}
+		readPosition = 0;
+		readLimit = read;
+		return true;
+	}
+	
+	private void appendToLine(final int from, final int length){
+		if(lineLength + length > line.length){
+			line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+		}
+		System.arraycopy(readBuffer, from, line, lineLength, length);
+		lineLength += length;
+	}
+	
+	/**
+	 * Makes a copy of the given record the current line
+	 * 
+	 * @param record record without the line terminator
+	 */
+	public void setLine(final byte[] record){
+		if(record.length > line.length){
+			line = new byte[Math.max(line.length * 2, record.length)];
+		}
+		System.arraycopy(record, 0, line, 0, record.length);
+		lineLength = record.length;
+	}
+	
+	/**
+	 * @return copy of the current line
+	 */
+	public byte[] copyLine(){
+		return Arrays.copyOf(line, lineLength);
+	}
+	
+	/**
+	 * Finds the type, the time, the event id and the data of the current line
+	 * 
+	 * @throws MalformedAuditDataException if any is missing
+	 */
+	public void parseHeader() throws MalformedAuditDataException{
+		if(isBlank(0, lineLength)){
+			throw new MalformedAuditDataException("NULL/Empty audit record", getLine());
+		}
+		final int typeKeyIndex = indexOf(typeKey, 0, lineLength);
+		typeStart = typeKeyIndex < 0 ? -1 : typeKeyIndex + typeKey.length;
+		typeEnd = typeStart < 0 ? -1 : indexOf((byte)' ', typeStart, lineLength);
+		if(typeEnd < 0){
+			throw new MalformedAuditDataException("No 'type' in the audit record", getLine());
+		}
+		// msg=audit(<time>:<id>): <data>
+		final int open = indexOf((byte)'(', 0, lineLength);
+		final int colon = open < 0 ? -1 : indexOf((byte)':', open + 1, lineLength);
+		final int close = colon < 0 ? -1 : indexOf(headerEnd, colon + 1, lineLength);
+		if(close < 0){
+			throw new MalformedAuditDataException("No event id in the audit record", getLine());
+		}
+		timeStart = open + 1;
+		timeEnd = colon;
+		idStart = colon + 1;
+		idEnd = close;
+		dataStart = close + headerEnd.length;
+		dataEnd = lineLength;
+		while(dataStart < dataEnd && isControlOrSpace(line[dataStart])){
+			dataStart++;
+		}
+		while(dataEnd > dataStart && isControlOrSpace(line[dataEnd - 1])){
+			dataEnd--;
+		}
+	}
+	
+	public String getLine(){
+		return newString(0, lineLength);
+	}
+	
+	public String getType(){
+		return intern(typeStart, typeEnd);
+	}
+	
+	public boolean isType(final String type){
+		return equalsAscii(typeStart, typeEnd, type, false);
+	}
+	
+	public boolean isTypeWithPrefix(final String prefix){
+		return equalsAscii(typeStart, typeEnd, prefix, true);
+	}
+	
+	public String getTime(){
+		return newString(timeStart, timeEnd);
+	}
+	
+	public String getId(){
+		return newString(idStart, idEnd);
+	}
+	
+	/**
+	 * @param id bytes of the event id
+	 * @param length length of the event id in the array
+	 * @return true if the current record has the same event id
+	 */
+	public boolean isId(final byte[] id, final int length){
+		return Arrays.equals(line, idStart, idEnd, id, 0, length);
+	}
+	
+	/**
+	 * Copies the event id of the current record into the given array, growing it if needed
+	 * 
+	 * @param id array to copy to
+	 * @return the given array or a bigger one
+	 */
+	public byte[] copyId(byte[] id){
+		final int length = idEnd - idStart;
+		if(id == null || id.length < length){
+			id = new byte[Math.max(length, 32)];
+		}
+		System.arraycopy(line, idStart, id, 0, length);
+		return id;
+	}
+	
+	public int getIdLength(){
+		return idEnd - idStart;
+	}
+	
+	public int getDataStart(){
+		return dataStart;
+	}
+	
+	public int getDataEnd(){
+		return dataEnd;
+	}
+	
+	/**
+	 * @return data after the header (trimmed) as in AuditRecord
+	 */
+	public String getData(){
+		return newString(dataStart, dataEnd);
+	}
+	
+	/**
+	 * Puts all the key-values in the range into the map. Keys are interned.
+	 * 
+	 * A key is a run of word characters followed by '='. A value is either the text between double quotes or the
+	 * text until the next whitespace.
+	 */
+	public void putKeyValues(final int from, final int to, final Map<String, String> map){
+		int i = from;
+		while(i < to){
+			int equals = i;
+			while(equals < to && (line[equals] != '=' || equals == i || !isWordCharacter(line[equals - 1]))){
+				equals++;
+			}
+			if(equals >= to){
+				return;
+			}
+			int keyStart = equals - 1;
+			while(keyStart > i && isWordCharacter(line[keyStart - 1])){
+				keyStart--;
+			}
+			final int valueStart = equals + 1;
+			int valueEnd;
+			int next;
+			int quotesEnd = valueStart;
+			while(quotesEnd < to && line[quotesEnd] == '"'){
+				quotesEnd++;
+			}
+			// Even number of quotes is an empty quoted value
+			final boolean emptyQuoted = quotesEnd - valueStart >= 2;
+			final int closingQuote = (quotesEnd > valueStart && !emptyQuoted) ? indexOf((byte)'"', quotesEnd, to) : -1;
+			if(emptyQuoted){
+				valueEnd = quotesEnd;
+				next = quotesEnd;
+			}else if(closingQuote > quotesEnd){
+				valueEnd = closingQuote;
+				next = closingQuote;
+				while(next < to && line[next] == '"'){
+					next++;
+				}
+			}else{
+				valueEnd = quotesEnd;
+				while(valueEnd < to && !isWhitespace(line[valueEnd])){
+					valueEnd++;
+				}
+				next = valueEnd;
+				if(quotesEnd == valueStart && valueEnd == valueStart){
+					// No value
+					i = valueStart;
+					continue;
+				}
+			}
+			int trimmedStart = quotesEnd, trimmedEnd = valueEnd;
+			while(trimmedStart < trimmedEnd && isControlOrSpace(line[trimmedStart])){
+				trimmedStart++;
+			}
+			while(trimmedEnd > trimmedStart && isControlOrSpace(line[trimmedEnd - 1])){
+				trimmedEnd--;
+			}
+			map.put(intern(keyStart, equals), newString(trimmedStart, trimmedEnd));
+			i = next;
+		}
+	}
+	
+	/**
+	 * Same as 'AuditEventReader.parseAuditString' but on the range of the current line.
+	 * 
+	 * @param from start of the range
+	 * @param to end of the range
+	 * @param keyWithEquals key followed by '=' in bytes
+	 * @return value, or null if missing or not decodable
+	 */
+	public String getAuditString(final int from, final int to, final byte[] keyWithEquals){
+		final int keyStart = indexOf(keyWithEquals, from, to);
+		if(keyStart < 0){
+			return null;
+		}
+		final int valueStart = keyStart + keyWithEquals.length;
+		if(valueStart >= to){
+			return null;
+		}
+		final byte first = line[valueStart];
+		if(first == '"'){
+			final int valueEnd = indexOf((byte)'"', valueStart + 1, to);
+			return valueEnd < 0 ? null : newString(valueStart + 1, valueEnd);
+		}else if(first == '('){
+			final int valueEnd = indexOf((byte)')', valueStart + 1, to);
+			if(valueEnd < 0 || equalsAscii(valueStart + 1, valueEnd, "null", false)){
+				return null;
+			}
+			return newString(valueStart + 1, valueEnd);
+		}else{
+			int valueEnd = indexOf((byte)' ', valueStart + 1, to);
+			if(valueEnd < 0){
+				valueEnd = to;
+			}
+			return decodeHex(valueStart, valueEnd);
+		}
+	}
+	
+	/**
+	 * @return start of the text between 'key="' and the next '"' in the range, or -1
+	 */
+	public int getQuotedValueStart(final int from, final int to, final byte[] keyWithEqualsAndQuote){
+		final int keyStart = indexOf(keyWithEqualsAndQuote, from, to);
+		if(keyStart < 0){
+			return -1;
+		}
+		final int valueStart = keyStart + keyWithEqualsAndQuote.length;
+		return indexOf((byte)'"', valueStart, to) < 0 ? -1 : valueStart;
+	}
+	
+	/**
+	 * @return end of the quoted text which starts at the given index
+	 */
+	public int getQuotedValueEnd(final int valueStart, final int to){
+		return indexOf((byte)'"', valueStart, to);
+	}
+	
+	private String decodeHex(final int from, final int to){
+		final int length = to - from;
+		if(length % 2 != 0){
+			return null;
+		}
+		final byte[] bytes = new byte[length / 2];
+		for(int i = 0; i < bytes.length; i++){
+			final int high = Character.digit(line[from + 2 * i], 16);
+			final int low = Character.digit(line[from + 2 * i + 1], 16);
+			if(high < 0 || low < 0){
+				return null;
+			}
+			bytes[i] = (byte)((high << 4) | low);
+		}
+		return new String(bytes);
+	}
+	
+	private String intern(final int from, final int to){
+		int hash = 1;
+		for(int i = from; i < to; i++){
+			hash = 31 * hash + line[i];
+		}
+		hash ^= (hash >>> 16);
+		int slot = hash & (internTableCapacity - 1);
+		while(internedBytes[slot] != null){
+			if(Arrays.equals(internedBytes[slot], 0, internedBytes[slot].length, line, from, to)){
+				return internedStrings[slot];
+			}
+			slot = (slot + 1) & (internTableCapacity - 1);
+		}
+		final String string = newString(from, to);
+		if(internedCount < maximumInternedCount){
+			internedBytes[slot] = Arrays.copyOfRange(line, from, to);
+			internedStrings[slot] = string;
+			internedCount++;
+		}
+		return string;
+	}
+	
+	private String newString(final int from, final int to){
+		for(int i = from; i < to; i++){
+			if(line[i] < 0){
+				return new String(line, from, to - from, StandardCharsets.UTF_8);
+			}
+		}
+		// ASCII
+		return new String(line, from, to - from, StandardCharsets.ISO_8859_1);
+	}
+	
+	private boolean equalsAscii(final int from, final int to, final String string, final boolean prefix){
+		final int length = string.length();
+		if(prefix ? (to - from < length) : (to - from != length)){
+			return false;
+		}
+		for(int i = 0; i < length; i++){
+			if(line[from + i] != string.charAt(i)){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private boolean isBlank(final int from, final int to){
+		for(int i = from; i < to; i++){
+			if(!isWhitespace(line[i])){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private int indexOf(final byte b, final int from, final int to){
+		for(int i = from; i < to; i++){
+			if(line[i] == b){
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private int indexOf(final byte[] pattern, final int from, final int to){
+		final int last = to - pattern.length;
+		outer:
+		for(int i = from; i <= last; i++){
+			for(int j = 0; j < pattern.length; j++){
+				if(line[i + j] != pattern[j]){
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+	
+	// Same as the characters removed by String.trim. Bytes of multi-byte characters are negative.
+	private static boolean isControlOrSpace(final byte b){
+		return b >= 0 && b <= ' ';
+	}
+	
+	private static boolean isWhitespace(final byte b){
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f' || b == 0x0B;
+	}
+	
+	private static boolean isWordCharacter(final byte b){
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_';
+	}
+}
@@ -21,9 +21,15 @@ package spade.reporter.audit;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
 
@@ -44,9 +50,13 @@ public class Input{
 			keyInputDirTime = "inputTime",
 			keySPADEAuditBridge = "spadeAuditBridge",
 			keyLinuxAuditSocket = "linuxAuditSocket",
-			keyWaitForLog = "waitForLog";
+			keyWaitForLog = "waitForLog",
+			keyReplayThreads = "replayThreads";
 
 	private final static String inputDirTimeFormat = "yyyy-MM-dd:HH:mm:ss";
+	// Same as the time zone used by SPADE audit bridge to parse the input dir time
+	private final static String inputDirTimeZone = "EST5EDT";
+	private final static int maxReplayThreads = 1024;
 	
 	private String spadeAuditBridgePath;
 	private String spadeAuditBridgeName;
@@ -59,11 +69,14 @@ public class Input{
 	private String inputDir;
 	private String inputDirTime;
 	private boolean waitForLog;
+	private int replayThreads;
+	private List<String> replayLogList;
 	
 	private Input(String spadeAuditBridgePath, Mode mode, 
 			String linuxAuditSocketPath,
 			String inputLog, boolean inputLogRotate, List<String> inputLogList, String inputLogListFile, 
-			String inputDir, String inputDirTime, boolean waitForLog){
+			String inputDir, String inputDirTime, boolean waitForLog,
+			int replayThreads, List<String> replayLogList){
 		this.spadeAuditBridgePath = spadeAuditBridgePath;
 		final String spadeAuditBridgePathTokens[] = spadeAuditBridgePath.split(File.separator);
 		this.spadeAuditBridgeName = spadeAuditBridgePathTokens[spadeAuditBridgePathTokens.length - 1].trim();
@@ -77,6 +90,8 @@ public class Input{
 		this.inputDir = inputDir;
 		this.inputDirTime = inputDirTime;
 		this.waitForLog = waitForLog;
+		this.replayThreads = replayThreads;
+		this.replayLogList = replayLogList;
 	}
 
 	public String getSPADEAuditBridgePath(){
@@ -144,6 +159,24 @@ public class Input{
 	public boolean isWaitForLog(){
 		return waitForLog;
 	}
+	
+	/**
+	 * @return number of SPADE audit bridge processes to replay the logs with concurrently. 0 if not replayed concurrently.
+	 */
+	public int getReplayThreads(){
+		return replayThreads;
+	}
+	
+	public boolean isParallelReplay(){
+		return replayThreads > 0;
+	}
+	
+	/**
+	 * @return logs to replay in time order (oldest first) if parallel replay. Otherwise null.
+	 */
+	public List<String> getReplayLogList(){
+		return replayLogList;
+	}
 
 	@Override
 	public String toString(){
@@ -151,7 +184,7 @@ public class Input{
 				+ ", mode=" + mode + ", linuxAuditSocketPath=" + linuxAuditSocketPath
 				+ ", inputLog=" + inputLog + ", inputLogRotate=" + inputLogRotate + ", inputLogList=" + inputLogList
 				+ ", inputLogListFile=" + inputLogListFile + ", inputDir=" + inputDir + ", inputDirTime=" + inputDirTime
-				+ ", waitForLog=" + waitForLog + "]";
+				+ ", waitForLog=" + waitForLog + ", replayThreads=" + replayThreads + ", replayLogList=" + replayLogList + "]";
 	}
 
 	private static List<String> getListOfRotatedAuditLogs(final String inputLog, final boolean rotate) throws Exception{
@@ -206,6 +239,56 @@ public class Input{
 		}
 	}
 	
+	/**
+	 * Lists the logs in the directory in the same order as read by SPADE audit bridge i.e. by last modified time.
+	 * 
+	 * Only the regular files modified after the input dir time (if specified) are listed. SPADE audit bridge moves on
+	 * to a log modified strictly later (in seconds) than the current one, so of the logs modified in the same second
+	 * only the first one in the directory order is listed.
+	 * 
+	 * @param inputDir directory with the logs
+	 * @param inputDirTime time in the format 'inputDirTimeFormat' or null
+	 * @return list of paths of the logs
+	 */
+	private static List<String> getListOfAuditLogsInDirectory(final String inputDir, final String inputDirTime) throws Exception{
+		final long minimumModifiedTime;
+		if(inputDirTime == null){
+			minimumModifiedTime = 0;
+		}else{
+			final SimpleDateFormat dateFormat = new SimpleDateFormat(inputDirTimeFormat);
+			dateFormat.setTimeZone(TimeZone.getTimeZone(inputDirTimeZone));
+			// Modified time compared in seconds by SPADE audit bridge
+			minimumModifiedTime = dateFormat.parse(inputDirTime).getTime() / 1000;
+		}
+		final File[] children = new File(inputDir).listFiles();
+		if(children == null){
+			throw new Exception("Failed to list files in input log directory: '" + inputDir + "'");
+		}
+		final Map<Long, File> modifiedTimeToLogFile = new HashMap<Long, File>();
+		for(final File child : children){
+			final long modifiedTime = child.lastModified() / 1000;
+			if(child.isFile() && modifiedTime > minimumModifiedTime){
+				final File existing = modifiedTimeToLogFile.get(modifiedTime);
+				if(existing != null){
+					Logger.getLogger(Input.class.getName()).log(Level.WARNING, "Log '" + child.getAbsolutePath() + "' skipped "
+							+ "because it was modified in the same second as log '" + existing.getAbsolutePath() + "'");
+					continue;
+				}
+				if(!child.canRead()){
+					throw new Exception("Log in input log directory exists but not readable: '" + child.getAbsolutePath() + "'");
+				}
+				modifiedTimeToLogFile.put(modifiedTime, child);
+			}
+		}
+		final List<File> logFiles = new ArrayList<File>(modifiedTimeToLogFile.values());
+		logFiles.sort(Comparator.comparingLong(file -> file.lastModified() / 1000));
+		final List<String> paths = new ArrayList<String>();
+		for(final File logFile : logFiles){
+			paths.add(logFile.getAbsolutePath());
+		}
+		return paths;
+	}
+	
 	public static Input instance(final Map<String, String> map) throws Exception{
 		final String spadeAuditBridgePath;
 		final Mode mode;
@@ -217,6 +300,8 @@ public class Input{
 		final String inputDir;
 		final String inputDirTime;
 		final boolean waitForLog;
+		final int replayThreads;
+		final List<String> replayLogList;
 		
 		final String valueSpadeAuditBridgePath = map.get(keySPADEAuditBridge);
 		if(HelperFunctions.isNullOrEmpty(valueSpadeAuditBridgePath)){
@@ -316,12 +401,40 @@ public class Input{
 				throw new Exception("Invalid wait for log value specified by '" + keyWaitForLog + "'. Error: " + resultWaitForLog.toErrorString());
 			}
 			waitForLog = resultWaitForLog.result;
+			
+			final String valueReplayThreads = map.get(keyReplayThreads);
+			if(valueReplayThreads == null){
+				replayThreads = 0;
+			}else{
+				final Result<Long> resultReplayThreads = HelperFunctions.parseLong(valueReplayThreads, 10, 0, maxReplayThreads);
+				if(resultReplayThreads.error){
+					throw new Exception("Invalid replay threads value specified by '" + keyReplayThreads + "'. Error: " + resultReplayThreads.toErrorString());
+				}
+				replayThreads = resultReplayThreads.result.intValue();
+			}
+			
+			if(replayThreads > 0){
+				if(mode == Mode.FILE){
+					replayLogList = inputLogList;
+				}else{
+					try{
+						replayLogList = getListOfAuditLogsInDirectory(inputDir, inputDirTime);
+					}catch(Exception e){
+						throw new Exception("Failed to list logs to replay in input log directory: '" + inputDir + "'", e);
+					}
+				}
+			}else{
+				replayLogList = null;
+			}
 		}else{
 			waitForLog = false;
+			replayThreads = 0;
+			replayLogList = null;
 		}
 		
 		return new Input(spadeAuditBridgePath, mode, 
 				linuxAuditSocketPath, 
-				inputLog, inputLogRotate, inputLogList, inputLogListFile, inputDir, inputDirTime, waitForLog);
+				inputLog, inputLogRotate, inputLogList, inputLogListFile, inputDir, inputDirTime, waitForLog,
+				replayThreads, replayLogList);
 	}
 }
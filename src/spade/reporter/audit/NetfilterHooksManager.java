@@ -19,17 +19,16 @@
  */
 package spade.reporter.audit;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -72,20 +71,28 @@ public class NetfilterHooksManager{
 
 	////////////////////////////////////////////
 
-	private PreparedStatement 
-			__syscall_statement_0 = null, __syscall_statement_1 = null, __syscall_statement_2 = null,
-			__syscall_statement_3 = null, __syscall_statement_4 = null, __syscall_statement_5 = null,
-			__localout_statement_0 = null, __localout_statement_1 = null, __localout_statement_2 = null,
-			__localout_statement_3 = null, __localout_statement_4 = null,
-			__postroute_statement_0 = null, __postroute_statement_1 = null, __postroute_statement_2 = null,
-			__postroute_statement_3 = null,
-			__preroute_statement_0 = null, __preroute_statement_1 = null, __preroute_statement_2 = null,
-			__localin_statement_0 = null, __localin_statement_1 = null, __localin_statement_2 = null, 
-			__localin_statement_3 = null, __localin_statement_4 = null;
-
-	private final Map<String, PreparedStatement> __delete_row_by_id_statements = new HashMap<String, PreparedStatement>();
-	private final Map<String, PreparedStatement> __delete_expired_statements = new HashMap<String, PreparedStatement>();
-	private final Map<String, PreparedStatement> __delete_min_statements = new HashMap<String, PreparedStatement>();
+	private static final String 
+		tableNameSyscall = "SPADE_SYSCALL",
+		tableNameLocalOut = "SPADE_LOCAL_OUT",
+		tableNamePostRouting = "SPADE_POST_ROUTING",
+		tableNameLocalIn = "SPADE_LOCAL_IN",
+		tableNamePreRouting = "SPADE_PRE_ROUTING";
+
+	/*
+	 * Lookups done on the tables. A table keeps one hash index per lookup.
+	 * All the hook tables are looked up by (skb id, is first, protocol) at 'indexSkb'.
+	 */
+	private static final int
+		indexSyscallAddresses = 0, // (is ingress, netns, protocol, remote ip, remote port, local ip, local port)
+		indexSkb = 0, // (skb id, is first, protocol)
+		indexLocalOutAddresses = 1, // (is first, netns, protocol, remote ip, remote port, local ip, local port)
+		indexLocalOutSkbLastAddresses = 2, // (skb id, is first, updated by syscall, protocol, last addresses)
+		indexPostRoutingAddresses = 1, // (is first, skb id, protocol, remote ip, remote port, local ip, local port)
+		indexPreRoutingLastAddresses = 1, // (is first, skb id, protocol, last addresses)
+		indexLocalInLastAddresses = 1; // (is first, netns, protocol, last addresses)
+
+	// Number of expiry buckets spanned by the ttl of a table
+	private static final long expiryBucketsPerTtl = 64;
 
 	////////////////////////////////////////////
 
@@ -96,11 +103,8 @@ public class NetfilterHooksManager{
 
 	private final boolean namespaces;
 	private final Audit reporter;
-	private final Connection connection;
 
-	private final Map<String, Long> perTableTtlMillis = new HashMap<String, Long>();
-	private final Map<String, Long> perTableMaxCounts = new HashMap<String, Long>();
-	private final Map<String, Long> perTableCurrentCounts = new HashMap<String, Long>();
+	private final Table syscallTable, localOutTable, postRoutingTable, localInTable, preRoutingTable;
 
 	public NetfilterHooksManager(final Audit reporter, final boolean namespaces) throws Exception{
 		this.namespaces = namespaces;
@@ -166,32 +170,55 @@ public class NetfilterHooksManager{
 				+ ""+keySyscallEntryTtlMillis+"="+syscallEntryTtlMillis
 				+"]");
 
-		this.connection = DriverManager.getConnection("jdbc:h2:mem:");
-		sqlCreateLocalInTable();
-		sqlCreateLocalOutTable();
-		sqlCreatePostRoutingTable();
-		sqlCreatePreRoutingTable();
-		sqlCreateSyscallTable();
-		
-		initializePreparedStatements();
-
-		perTableCurrentCounts.put(sqlGetLocalInTableName(), 0L);
-		perTableCurrentCounts.put(sqlGetLocalOutTableName(), 0L);
-		perTableCurrentCounts.put(sqlGetPostRoutingTableName(), 0L);
-		perTableCurrentCounts.put(sqlGetPreRoutingTableName(), 0L);
-		perTableCurrentCounts.put(sqlGetSyscallTableName(), 0L);
-
-		perTableMaxCounts.put(sqlGetLocalInTableName(), maxPerHookEntries);
-		perTableMaxCounts.put(sqlGetLocalOutTableName(), maxPerHookEntries);
-		perTableMaxCounts.put(sqlGetPostRoutingTableName(), maxPerHookEntries);
-		perTableMaxCounts.put(sqlGetPreRoutingTableName(), maxPerHookEntries);
-		perTableMaxCounts.put(sqlGetSyscallTableName(), maxSyscallEntries);
-
-		perTableTtlMillis.put(sqlGetLocalInTableName(), hookEntryTtlMillis);
-		perTableTtlMillis.put(sqlGetLocalOutTableName(), hookEntryTtlMillis);
-		perTableTtlMillis.put(sqlGetPostRoutingTableName(), hookEntryTtlMillis);
-		perTableTtlMillis.put(sqlGetPreRoutingTableName(), hookEntryTtlMillis);
-		perTableTtlMillis.put(sqlGetSyscallTableName(), syscallEntryTtlMillis);
+
+		this.syscallTable = new Table(tableNameSyscall, 1, maxSyscallEntries, syscallEntryTtlMillis){
+			@Override
+			Object indexKey(final int index, final Entry e){
+				return key(e.isIngress, e.netNs, e.protocol, e.remoteIp, e.remotePort, e.localIp, e.localPort);
+			}
+		};
+		this.localOutTable = new Table(tableNameLocalOut, 3, maxPerHookEntries, hookEntryTtlMillis){
+			@Override
+			Object indexKey(final int index, final Entry e){
+				switch(index){
+					case indexSkb: return key(e.skbId, e.isFirst, e.protocol);
+					case indexLocalOutAddresses: 
+						return key(e.isFirst, e.netNs, e.protocol, e.remoteIp, e.remotePort, e.localIp, e.localPort);
+					default: 
+						return key(e.skbId, e.isFirst, e.updatedBySyscall, e.protocol, 
+								e.remoteIpLast, e.remotePortLast, e.localIpLast, e.localPortLast);
+				}
+			}
+		};
+		this.postRoutingTable = new Table(tableNamePostRouting, 2, maxPerHookEntries, hookEntryTtlMillis){
+			@Override
+			Object indexKey(final int index, final Entry e){
+				switch(index){
+					case indexSkb: return key(e.skbId, e.isFirst, e.protocol);
+					default: return key(e.isFirst, e.skbId, e.protocol, e.remoteIp, e.remotePort, e.localIp, e.localPort);
+				}
+			}
+		};
+		this.preRoutingTable = new Table(tableNamePreRouting, 2, maxPerHookEntries, hookEntryTtlMillis){
+			@Override
+			Object indexKey(final int index, final Entry e){
+				switch(index){
+					case indexSkb: return key(e.skbId, e.isFirst, e.protocol);
+					default: 
+						return key(e.isFirst, e.skbId, e.protocol, e.remoteIpLast, e.remotePortLast, e.localIpLast, e.localPortLast);
+				}
+			}
+		};
+		this.localInTable = new Table(tableNameLocalIn, 2, maxPerHookEntries, hookEntryTtlMillis){
+			@Override
+			Object indexKey(final int index, final Entry e){
+				switch(index){
+					case indexSkb: return key(e.skbId, e.isFirst, e.protocol);
+					default: 
+						return key(e.isFirst, e.netNs, e.protocol, e.remoteIpLast, e.remotePortLast, e.localIpLast, e.localPortLast);
+				}
+			}
+		};
 	}
 
 	private final void incrementStats(String statId, long incrementBy){
@@ -202,20 +229,21 @@ public class NetfilterHooksManager{
 	}
 
 	public final synchronized void printStats(){
+		final Map<String, Long> perTableCurrentCounts = new LinkedHashMap<String, Long>();
+		for(final Table table : Arrays.asList(localInTable, localOutTable, postRoutingTable, preRoutingTable, syscallTable)){
+			perTableCurrentCounts.put(table.name, table.count);
+		}
 		logger.log(Level.INFO, "Netfilter entries: " + perTableCurrentCounts + "]");
 		logger.log(Level.INFO, "NetfilterStats[" + statsMap + "]");
 	}
 
 	public synchronized final void shutdown(){
-		if(this.connection != null){
-			try{
-				this.connection.close();
-			}catch(Exception e){
-				logger.log(Level.WARNING, "Failed to close database connection", e);
-			}
+		for(final Table table : Arrays.asList(localInTable, localOutTable, postRoutingTable, preRoutingTable, syscallTable)){
+			table.clear();
 		}
 	}
 
+
 	private final long parseAuditEventTimeToMillis(String seconds) throws Exception{
 		try{
 			Double d = Double.parseDouble(seconds);
@@ -232,11 +260,11 @@ public class NetfilterHooksManager{
 		return String.format("%.3f", eventTimeDouble);
 	}
 
-	private final boolean areTheFirstAndTheLastAddressesTheSame(Map<String, Object> row){
-		return HelperFunctions.objectsEqual(row.get(sqlColumnNameRemoteIp), row.get(sqlColumnNameRemoteIpLast))
-				&& HelperFunctions.objectsEqual(row.get(sqlColumnNameRemotePort), row.get(sqlColumnNameRemotePortLast))
-				&& HelperFunctions.objectsEqual(row.get(sqlColumnNameLocalIp), row.get(sqlColumnNameLocalIpLast))
-				&& HelperFunctions.objectsEqual(row.get(sqlColumnNameLocalPort), row.get(sqlColumnNameLocalPortLast));
+	private final boolean areTheFirstAndTheLastAddressesTheSame(Entry row){
+		return HelperFunctions.objectsEqual(row.remoteIp, row.remoteIpLast)
+				&& HelperFunctions.objectsEqual(row.remotePort, row.remotePortLast)
+				&& HelperFunctions.objectsEqual(row.localIp, row.localIpLast)
+				&& HelperFunctions.objectsEqual(row.localPort, row.localPortLast);
 	}
 
 	private final Artifact __createNetworkArtifact(final Object netNs, final Object protocol, final Object remoteIp,
@@ -263,11 +291,11 @@ public class NetfilterHooksManager{
 				OPMConstants.SOURCE_AUDIT_NETFILTER);
 	}
 
-	private final Artifact createSyscallNetworkArtifact(final Map<String, Object> syscallTableRow){
-		return __createNetworkArtifact(syscallTableRow.get(sqlColumnNameNetns), syscallTableRow.get(sqlColumnNameProtocol), 
-				syscallTableRow.get(sqlColumnNameRemoteIp), syscallTableRow.get(sqlColumnNameRemotePort), 
-				syscallTableRow.get(sqlColumnNameLocalIp), syscallTableRow.get(sqlColumnNameLocalPort), 
-				syscallTableRow.get(sqlColumnNameEpoch), syscallTableRow.get(sqlColumnNameVersion), 
+	private final Artifact createSyscallNetworkArtifact(final Entry syscallTableRow){
+		return __createNetworkArtifact(syscallTableRow.netNs, syscallTableRow.protocol, 
+				syscallTableRow.remoteIp, syscallTableRow.remotePort, 
+				syscallTableRow.localIp, syscallTableRow.localPort, 
+				syscallTableRow.epoch, syscallTableRow.version, 
 				OPMConstants.SOURCE_AUDIT_SYSCALL);
 	}
 
@@ -278,8 +306,8 @@ public class NetfilterHooksManager{
 		}
 	}
 
-	private final void putNetfilterWasDerivedFromEdge(final Artifact from, final Artifact to, Map<String, Object> row){
-		putNetfilterWasDerivedFromEdge(from, to, sqlGetEventTime(row), row.get(sqlColumnNameEventId));
+	private final void putNetfilterWasDerivedFromEdge(final Artifact from, final Artifact to, Entry row){
+		putNetfilterWasDerivedFromEdge(from, to, row.eventTime, row.eventId);
 	}
 
 	private final void putNetfilterWasDerivedFromEdge(final Artifact from, final Artifact to, final long eventTime, final Object eventId){
@@ -294,477 +322,249 @@ public class NetfilterHooksManager{
 		}
 	}
 
-	private final void sqlInsertSyscallTable(final long eventTime, final String eventId,
-			final String version, final String epoch, final String netNs, final String protocol,
-			final String remoteIp, final String remotePort, final String localIp, final String localPort,
-			final boolean ingress) throws Exception{
-		sm_syscallEventInsertSyscall(eventTime, eventId, version, epoch, netNs, protocol, remoteIp, remotePort, localIp, localPort, ingress);
-	}
-
 	////// function calls to implement new storage of data
 
-	private final List<Map<String, Object>> sm_syscallEventFindLocalOut(final boolean isFirst, final String netNs,
-			final String protocol, final String remoteIp, final String remotePort, final String localIp, final String localPort) 
-					throws Exception{
-		//__syscall_statement_0
-		__syscall_statement_0.setBoolean(1, isFirst); 
-		__syscall_statement_0.setString(2, netNs); 
-		__syscall_statement_0.setString(3, protocol); 
-		__syscall_statement_0.setString(4, remoteIp); 
-		__syscall_statement_0.setString(5, remotePort); 
-		__syscall_statement_0.setString(6, localIp);
-		__syscall_statement_0.setString(7, localPort);
-		return sqlGetResult(__syscall_statement_0);
+	private final List<Entry> sm_syscallEventFindLocalOut(final boolean isFirst, final String netNs,
+			final String protocol, final String remoteIp, final String remotePort, final String localIp, final String localPort){
+		return localOutTable.find(indexLocalOutAddresses, 
+				key(isFirst, netNs, protocol, remoteIp, remotePort, localIp, localPort));
 	}
 
-	private final List<Map<String, Object>> sm_syscallEventFindPostRouting(final boolean isFirst, final Object skbId, 
-			final Object protocol, final Object remoteIp, final Object remotePort, final Object localIp, final Object localPort)
-					throws Exception{
-		//__syscall_statement_1
-		__syscall_statement_1.setBoolean(1, isFirst);
-		__syscall_statement_1.setObject(2, skbId);
-		__syscall_statement_1.setObject(3, protocol);
-		__syscall_statement_1.setObject(4, remoteIp);
-		__syscall_statement_1.setObject(5, remotePort);
-		__syscall_statement_1.setObject(6, localIp);
-		__syscall_statement_1.setObject(7, localPort);
-		return sqlGetResult(__syscall_statement_1);
+	private final List<Entry> sm_syscallEventFindPostRouting(final boolean isFirst, final String skbId, 
+			final String protocol, final String remoteIp, final String remotePort, final String localIp, final String localPort){
+		return postRoutingTable.find(indexPostRoutingAddresses, 
+				key(isFirst, skbId, protocol, remoteIp, remotePort, localIp, localPort));
 	}
 
 	private final void sm_syscallEventUpdateLocalOut(final String version, final String epoch, 
-			final boolean updatedBySyscall, final long rowId) throws Exception{
-		//__syscall_statement_2
-		__syscall_statement_2.setString(1, version);
-		__syscall_statement_2.setString(2, epoch); 
-		__syscall_statement_2.setBoolean(3, updatedBySyscall);
-		__syscall_statement_2.setLong(4, rowId);
-		sqlUpdate(sqlGetLocalOutTableName(), __syscall_statement_2);
+			final boolean updatedBySyscall, final Entry row){
+		localOutTable.beginUpdate(row);
+		row.version = version;
+		row.epoch = epoch;
+		row.updatedBySyscall = updatedBySyscall;
+		localOutTable.endUpdate(row);
 	}
 
-	private final List<Map<String, Object>> sm_syscallEventFindLocalIn(final boolean isFirst, final String netNs, final String protocol,
-			final String remoteIpLast, final String remotePortLast, final String localIpLast, final String localPortLast)
-					throws Exception{
-		//__syscall_statement_3
-		__syscall_statement_3.setBoolean(1, isFirst);
-		__syscall_statement_3.setString(2, netNs);
-		__syscall_statement_3.setString(3, protocol); 
-		__syscall_statement_3.setString(4, remoteIpLast);
-		__syscall_statement_3.setString(5, remotePortLast);
-		__syscall_statement_3.setString(6, localIpLast);
-		__syscall_statement_3.setString(7, localPortLast);
-		return sqlGetResult(__syscall_statement_3);
+	private final List<Entry> sm_syscallEventFindLocalIn(final boolean isFirst, final String netNs, final String protocol,
+			final String remoteIpLast, final String remotePortLast, final String localIpLast, final String localPortLast){
+		return localInTable.find(indexLocalInLastAddresses, 
+				key(isFirst, netNs, protocol, remoteIpLast, remotePortLast, localIpLast, localPortLast));
 	}
 
-	private final List<Map<String, Object>> sm_syscallEventFindPreRouting(final boolean isFirst, final Object skbId, final Object protocol,
-			final Object remoteIpLast, final Object remotePortLast, final Object localIpLast, final Object localPortLast)
-				throws Exception{
-		//__syscall_statement_4
-		__syscall_statement_4.setBoolean(1, isFirst);
-		__syscall_statement_4.setObject(2, skbId); 
-		__syscall_statement_4.setObject(3, protocol);
-		__syscall_statement_4.setObject(4, remoteIpLast);
-		__syscall_statement_4.setObject(5, remotePortLast);
-		__syscall_statement_4.setObject(6, localIpLast);
-		__syscall_statement_4.setObject(7, localPortLast);
-		return sqlGetResult(__syscall_statement_4);
+	private final List<Entry> sm_syscallEventFindPreRouting(final boolean isFirst, final String skbId, final String protocol,
+			final String remoteIpLast, final String remotePortLast, final String localIpLast, final String localPortLast){
+		return preRoutingTable.find(indexPreRoutingLastAddresses, 
+				key(isFirst, skbId, protocol, remoteIpLast, remotePortLast, localIpLast, localPortLast));
 	}
 
 	private final void sm_syscallEventInsertSyscall(final long eventTime, final String eventId, final String version,
 			final String epoch, final String netNs, final String protocol, final String remoteIp, final String remotePort,
-			final String localIp, final String localPort, final boolean isIngress) throws Exception{
-		//__syscall_statement_5
-		__syscall_statement_5.setLong(1, eventTime);
-		__syscall_statement_5.setString(2, eventId);
-		__syscall_statement_5.setString(3, version);
-		__syscall_statement_5.setString(4, epoch);
-		__syscall_statement_5.setString(5, netNs);
-		__syscall_statement_5.setString(6, protocol);
-		__syscall_statement_5.setString(7, remoteIp);
-		__syscall_statement_5.setString(8, remotePort);
-		__syscall_statement_5.setString(9, localIp);
-		__syscall_statement_5.setString(10, localPort);
-		__syscall_statement_5.setBoolean(11, isIngress);
-		sqlInsert(sqlGetSyscallTableName(), eventTime, __syscall_statement_5);
+			final String localIp, final String localPort, final boolean isIngress){
+		final Entry row = new Entry(eventTime, eventId);
+		row.version = version;
+		row.epoch = epoch;
+		row.netNs = netNs;
+		row.protocol = protocol;
+		row.remoteIp = remoteIp;
+		row.remotePort = remotePort;
+		row.localIp = localIp;
+		row.localPort = localPort;
+		row.isIngress = isIngress;
+		syscallTable.insert(row);
 	}
 
 	//////
 
 	private final void sm_localOutEventInsertLocalOut(final long eventTime, final String eventId,
 			final String netNs, final String protocol, final String remoteIp, final String remotePort,
-			final String localIp, final String localPort, final String skbId, final boolean isFirst, final boolean updatedBySyscall)
-				throws Exception{
-		//__localout_statement_0
-		__localout_statement_0.setLong(1, eventTime);
-		__localout_statement_0.setString(2, eventId);
-		__localout_statement_0.setString(3, netNs);
-		__localout_statement_0.setString(4, protocol);
-		__localout_statement_0.setString(5, remoteIp);
-		__localout_statement_0.setString(6, remotePort);
-		__localout_statement_0.setString(7, localIp);
-		__localout_statement_0.setString(8, localPort);
-		__localout_statement_0.setString(9, skbId);
-		__localout_statement_0.setBoolean(10, isFirst);
-		__localout_statement_0.setBoolean(11, updatedBySyscall);
-		sqlInsert(sqlGetLocalOutTableName(), eventTime, __localout_statement_0);
+			final String localIp, final String localPort, final String skbId, final boolean isFirst, final boolean updatedBySyscall){
+		final Entry row = new Entry(eventTime, eventId);
+		row.netNs = netNs;
+		row.protocol = protocol;
+		row.remoteIp = remoteIp;
+		row.remotePort = remotePort;
+		row.localIp = localIp;
+		row.localPort = localPort;
+		row.skbId = skbId;
+		row.isFirst = isFirst;
+		row.updatedBySyscall = updatedBySyscall;
+		localOutTable.insert(row);
 	}
 
-	private final List<Map<String, Object>> sm_localOutEventFindLocalOut(final String skbId, final boolean isFirst, final String protocol)
-		throws Exception{
-		//__localout_statement_1
-		__localout_statement_1.setString(1, skbId);
-		__localout_statement_1.setBoolean(2, isFirst);
-		__localout_statement_1.setString(3, protocol);
-		return sqlGetResult(__localout_statement_1);
+	private final List<Entry> sm_localOutEventFindLocalOut(final String skbId, final boolean isFirst, final String protocol){
+		return localOutTable.find(indexSkb, key(skbId, isFirst, protocol));
 	}
 
-	private final List<Map<String, Object>> sm_localOutEventFindSyscall(final boolean isIngress, final Object netNs, final Object protocol,
-			final Object remoteIp, final Object remotePort, final Object localIp, final Object localPort) throws Exception{
-		//__localout_statement_2
-		__localout_statement_2.setBoolean(1, isIngress);
-		__localout_statement_2.setObject(2, netNs);
-		__localout_statement_2.setObject(3, protocol);
-		__localout_statement_2.setObject(4, remoteIp);
-		__localout_statement_2.setObject(5, remotePort);
-		__localout_statement_2.setObject(6, localIp);
-		__localout_statement_2.setObject(7, localPort);
-		return sqlGetResult(__localout_statement_2);
+	private final List<Entry> sm_localOutEventFindSyscall(final boolean isIngress, final String netNs, final String protocol,
+			final String remoteIp, final String remotePort, final String localIp, final String localPort){
+		return syscallTable.find(indexSyscallAddresses, 
+				key(isIngress, netNs, protocol, remoteIp, remotePort, localIp, localPort));
 	}
 
 	private final void sm_localOutEventUpdateLocalOutByLast(final long eventTime, final String eventId, final String remoteIpLast,
 			final String remotePortLast, final String localIpLast, final String localPortLast, final boolean isFirst,
-			final long rowId) throws Exception{
-		//__localout_statement_3
-		__localout_statement_3.setLong(1, eventTime);
-		__localout_statement_3.setString(2, eventId);
-		__localout_statement_3.setString(3, remoteIpLast);
-		__localout_statement_3.setString(4, remotePortLast);
-		__localout_statement_3.setString(5, localIpLast);
-		__localout_statement_3.setString(6, localPortLast);
-		__localout_statement_3.setBoolean(7, isFirst);
-		__localout_statement_3.setLong(8, rowId);
-		sqlUpdate(sqlGetLocalOutTableName(), __localout_statement_3);
+			final Entry row){
+		localOutTable.beginUpdate(row);
+		row.eventTime = eventTime;
+		row.eventId = eventId;
+		row.remoteIpLast = remoteIpLast;
+		row.remotePortLast = remotePortLast;
+		row.localIpLast = localIpLast;
+		row.localPortLast = localPortLast;
+		row.isFirst = isFirst;
+		localOutTable.endUpdate(row);
 	}
 
 	private final void sm_localOutEventUpdateLocalOutBySyscall(final long eventTime, final String eventId, final String remoteIpLast,
 			final String remotePortLast, final String localIpLast, final String localPortLast, final boolean isFirst,
-			final Object version, final Object epoch, final boolean updatedBySyscall, final long rowId) throws Exception{
-		//__localout_statement_4
-		__localout_statement_4.setLong(1, eventTime);
-		__localout_statement_4.setString(2, eventId);
-		__localout_statement_4.setString(3, remoteIpLast);
-		__localout_statement_4.setString(4, remotePortLast);
-		__localout_statement_4.setString(5, localIpLast);
-		__localout_statement_4.setString(6, localPortLast);
-		__localout_statement_4.setBoolean(7, isFirst);
-		__localout_statement_4.setObject(8, version);
-		__localout_statement_4.setObject(9, epoch);
-		__localout_statement_4.setBoolean(10, updatedBySyscall);
-		__localout_statement_4.setLong(11, rowId);
-		sqlUpdate(sqlGetLocalOutTableName(), __localout_statement_4);
+			final String version, final String epoch, final boolean updatedBySyscall, final Entry row){
+		localOutTable.beginUpdate(row);
+		row.eventTime = eventTime;
+		row.eventId = eventId;
+		row.remoteIpLast = remoteIpLast;
+		row.remotePortLast = remotePortLast;
+		row.localIpLast = localIpLast;
+		row.localPortLast = localPortLast;
+		row.isFirst = isFirst;
+		row.version = version;
+		row.epoch = epoch;
+		row.updatedBySyscall = updatedBySyscall;
+		localOutTable.endUpdate(row);
 	}
 
 	//////
 
 	private final void sm_postRoutingEventInsertPostRouting(final long eventTime, final String eventId, final String protocol,
 			final String remoteIp, final String remotePort, final String localIp, final String localPort, final String skbId,
-			final boolean isFirst) throws Exception{
-		//__postroute_statement_0
-		__postroute_statement_0.setLong(1, eventTime);
-		__postroute_statement_0.setString(2, eventId); 
-		__postroute_statement_0.setString(3, protocol);
-		__postroute_statement_0.setString(4, remoteIp);
-		__postroute_statement_0.setString(5, remotePort);
-		__postroute_statement_0.setString(6, localIp);
-		__postroute_statement_0.setString(7, localPort);
-		__postroute_statement_0.setString(8, skbId);
-		__postroute_statement_0.setBoolean(9, isFirst);
-		sqlInsert(sqlGetPostRoutingTableName(), eventTime, __postroute_statement_0);
+			final boolean isFirst){
+		final Entry row = new Entry(eventTime, eventId);
+		row.protocol = protocol;
+		row.remoteIp = remoteIp;
+		row.remotePort = remotePort;
+		row.localIp = localIp;
+		row.localPort = localPort;
+		row.skbId = skbId;
+		row.isFirst = isFirst;
+		postRoutingTable.insert(row);
 	}
 
-	private final List<Map<String, Object>> sm_postRoutingEventFindPostRouting(final String skbId, final boolean isFirst,
-			final String protocol) throws Exception{
-		//__postroute_statement_1
-		__postroute_statement_1.setString(1, skbId);
-		__postroute_statement_1.setBoolean(2, isFirst);
-		__postroute_statement_1.setString(3, protocol);
-		return sqlGetResult(__postroute_statement_1);
+	private final List<Entry> sm_postRoutingEventFindPostRouting(final String skbId, final boolean isFirst,
+			final String protocol){
+		return postRoutingTable.find(indexSkb, key(skbId, isFirst, protocol));
 	}
 
-	private final List<Map<String, Object>> sm_postRoutingEventFindLocalOut(final String skbId, final boolean isFirst,
-			final boolean updatedBySyscall, final String protocol, final Object remoteIpLast, final Object remotePortLast,
-			final Object localIpLast, final Object localPortLast) throws Exception{
-		//__postroute_statement_2
-		__postroute_statement_2.setString(1, skbId);
-		__postroute_statement_2.setBoolean(2, isFirst);
-		__postroute_statement_2.setBoolean(3, updatedBySyscall);
-		__postroute_statement_2.setString(4, protocol);
-		__postroute_statement_2.setObject(5, remoteIpLast);
-		__postroute_statement_2.setObject(6, remotePortLast);
-		__postroute_statement_2.setObject(7, localIpLast);
-		__postroute_statement_2.setObject(8, localPortLast);
-		return sqlGetResult(__postroute_statement_2);
+	private final List<Entry> sm_postRoutingEventFindLocalOut(final String skbId, final boolean isFirst,
+			final boolean updatedBySyscall, final String protocol, final String remoteIpLast, final String remotePortLast,
+			final String localIpLast, final String localPortLast){
+		return localOutTable.find(indexLocalOutSkbLastAddresses, 
+				key(skbId, isFirst, updatedBySyscall, protocol, remoteIpLast, remotePortLast, localIpLast, localPortLast));
 	}
 
 	private final void sm_postRoutingEventUpdatePostRouting(final long eventTime, final String eventId, final String remoteIpLast,
 			final String remotePortLast, final String localIpLast, final String localPortLast, final boolean isFirst,
-			final long rowId) throws Exception{
-		//__postroute_statement_3
-		__postroute_statement_3.setLong(1, eventTime);
-		__postroute_statement_3.setString(2, eventId);
-		__postroute_statement_3.setString(3, remoteIpLast);
-		__postroute_statement_3.setString(4, remotePortLast);
-		__postroute_statement_3.setString(5, localIpLast);
-		__postroute_statement_3.setString(6, localPortLast);
-		__postroute_statement_3.setBoolean(7, isFirst);
-		__postroute_statement_3.setLong(8, rowId);
-		sqlUpdate(sqlGetPostRoutingTableName(), __postroute_statement_3);
+			final Entry row){
+		postRoutingTable.beginUpdate(row);
+		row.eventTime = eventTime;
+		row.eventId = eventId;
+		row.remoteIpLast = remoteIpLast;
+		row.remotePortLast = remotePortLast;
+		row.localIpLast = localIpLast;
+		row.localPortLast = localPortLast;
+		row.isFirst = isFirst;
+		postRoutingTable.endUpdate(row);
 	}
 
 	//////
 
 	private final void sm_preRoutingEventInsertPreRouting(final long eventTime, final String eventId, final String protocol,
 			final String remoteIp, final String remotePort, final String localIp, final String localPort, final String skbId,
-			final boolean isFirst) throws Exception{
-		//__preroute_statement_0
-		__preroute_statement_0.setLong(1, eventTime);
-		__preroute_statement_0.setString(2, eventId); 
-		__preroute_statement_0.setString(3, protocol);
-		__preroute_statement_0.setString(4, remoteIp);
-		__preroute_statement_0.setString(5, remotePort);
-		__preroute_statement_0.setString(6, localIp);
-		__preroute_statement_0.setString(7, localPort);
-		__preroute_statement_0.setString(8, skbId);
-		__preroute_statement_0.setBoolean(9, isFirst);
-		sqlInsert(sqlGetPreRoutingTableName(), eventTime, __preroute_statement_0);
+			final boolean isFirst){
+		final Entry row = new Entry(eventTime, eventId);
+		row.protocol = protocol;
+		row.remoteIp = remoteIp;
+		row.remotePort = remotePort;
+		row.localIp = localIp;
+		row.localPort = localPort;
+		row.skbId = skbId;
+		row.isFirst = isFirst;
+		preRoutingTable.insert(row);
 	}
 
-	private final List<Map<String, Object>> sm_preRoutingEventFindPreRoutingBySkb(final String skbId, final boolean isFirst,
-			final String protocol) throws Exception{
-		//__preroute_statement_1
-		__preroute_statement_1.setString(1, skbId);
-		__preroute_statement_1.setBoolean(2, isFirst);
-		__preroute_statement_1.setString(3, protocol);
-		return sqlGetResult(__preroute_statement_1);
+	private final List<Entry> sm_preRoutingEventFindPreRoutingBySkb(final String skbId, final boolean isFirst,
+			final String protocol){
+		return preRoutingTable.find(indexSkb, key(skbId, isFirst, protocol));
 	}
 
 	private final void sm_preRoutingEventUpdatePreRouting(final long eventTime, final String eventId,
 			final String remoteIpLast, final String remotePortLast, final String localIpLast, final String localPortLast,
-			final boolean isFirst, final long rowId) throws Exception{
-		//__preroute_statement_2
-		__preroute_statement_2.setLong(1, eventTime);
-		__preroute_statement_2.setString(2, eventId);
-		__preroute_statement_2.setString(3, remoteIpLast);
-		__preroute_statement_2.setString(4, remotePortLast);
-		__preroute_statement_2.setString(5, localIpLast);
-		__preroute_statement_2.setString(6, localPortLast);
-		__preroute_statement_2.setBoolean(7, isFirst);
-		__preroute_statement_2.setLong(8, rowId);
-		sqlUpdate(sqlGetPostRoutingTableName(), __preroute_statement_2);
+			final boolean isFirst, final Entry row){
+		preRoutingTable.beginUpdate(row);
+		row.eventTime = eventTime;
+		row.eventId = eventId;
+		row.remoteIpLast = remoteIpLast;
+		row.remotePortLast = remotePortLast;
+		row.localIpLast = localIpLast;
+		row.localPortLast = localPortLast;
+		row.isFirst = isFirst;
+		preRoutingTable.endUpdate(row);
 	}
 
 	//////
 
 	private final void sm_localInEventInsertLocalIn(final long eventTime, final String eventId, final String netNs, final String protocol,
 			final String remoteIp, final String remotePort, final String localIp, final String localPort, final String skbId,
-			final boolean isFirst) throws Exception{
-		//__localin_statement_0
-		__localin_statement_0.setLong(1, eventTime);
-		__localin_statement_0.setString(2, eventId);
-		__localin_statement_0.setString(3, netNs);
-		__localin_statement_0.setString(4, protocol);
-		__localin_statement_0.setString(5, remoteIp);
-		__localin_statement_0.setString(6, remotePort);
-		__localin_statement_0.setString(7, localIp);
-		__localin_statement_0.setString(8, localPort);
-		__localin_statement_0.setString(9, skbId);
-		__localin_statement_0.setBoolean(10, isFirst);
-		sqlInsert(sqlGetLocalInTableName(), eventTime, __localin_statement_0);
+			final boolean isFirst){
+		final Entry row = new Entry(eventTime, eventId);
+		row.netNs = netNs;
+		row.protocol = protocol;
+		row.remoteIp = remoteIp;
+		row.remotePort = remotePort;
+		row.localIp = localIp;
+		row.localPort = localPort;
+		row.skbId = skbId;
+		row.isFirst = isFirst;
+		localInTable.insert(row);
 	}
 
-	private final List<Map<String, Object>> sm_localInEventFindLocalIn(final String skbId, final boolean isFirst, final String protocol)
-		throws Exception{
-		//__localin_statement_1
-		__localin_statement_1.setString(1, skbId);
-		__localin_statement_1.setBoolean(2, isFirst);
-		__localin_statement_1.setString(3, protocol);
-		return sqlGetResult(__localin_statement_1);
+	private final List<Entry> sm_localInEventFindLocalIn(final String skbId, final boolean isFirst, final String protocol){
+		return localInTable.find(indexSkb, key(skbId, isFirst, protocol));
 	}
 
-	private final List<Map<String, Object>> sm_localInEventFindSyscall(final boolean isIngress, final String netNs, final String protocol,
-			final String remoteIp, final String remotePort, final String localIp, final String localPort) throws Exception{
-		//__localin_statement_2
-		__localin_statement_2.setBoolean(1, isIngress);
-		__localin_statement_2.setString(2, netNs);
-		__localin_statement_2.setString(3, protocol);
-		__localin_statement_2.setString(4, remoteIp);
-		__localin_statement_2.setString(5, remotePort);
-		__localin_statement_2.setString(6, localIp);
-		__localin_statement_2.setString(7, localPort);
-		return sqlGetResult(__localin_statement_2);
+	private final List<Entry> sm_localInEventFindSyscall(final boolean isIngress, final String netNs, final String protocol,
+			final String remoteIp, final String remotePort, final String localIp, final String localPort){
+		return syscallTable.find(indexSyscallAddresses, 
+				key(isIngress, netNs, protocol, remoteIp, remotePort, localIp, localPort));
 	}
 
 	private final void sm_localInEventUpdateLocalIn(final long eventTime, final String eventId, final String remoteIpLast,
 			final String remotePortLast, final String localIpLast, final String localPortLast, final boolean isFirst,
-			final String netNs, final long rowId) throws Exception{
-		//__localin_statement_3
-		__localin_statement_3.setLong(1, eventTime);
-		__localin_statement_3.setString(2, eventId);
-		__localin_statement_3.setString(3, remoteIpLast);
-		__localin_statement_3.setString(4, remotePortLast);
-		__localin_statement_3.setString(5, localIpLast);
-		__localin_statement_3.setString(6, localPortLast);
-		__localin_statement_3.setBoolean(7, isFirst);
-		__localin_statement_3.setString(8, netNs); 
-		__localin_statement_3.setLong(9, rowId);
-		sqlUpdate(sqlGetLocalInTableName(), __localin_statement_3);
+			final String netNs, final Entry row){
+		localInTable.beginUpdate(row);
+		row.eventTime = eventTime;
+		row.eventId = eventId;
+		row.remoteIpLast = remoteIpLast;
+		row.remotePortLast = remotePortLast;
+		row.localIpLast = localIpLast;
+		row.localPortLast = localPortLast;
+		row.isFirst = isFirst;
+		row.netNs = netNs;
+		localInTable.endUpdate(row);
 	}
 
-	private final List<Map<String, Object>> sm_localInEventFindPreRouting(final String skbId, final boolean isFirst, final String protocol)
-		throws Exception{
-		//__localin_statement_4
-		__localin_statement_4.setString(1, skbId);
-		__localin_statement_4.setBoolean(2, isFirst);
-		__localin_statement_4.setString(3, protocol);
-		return sqlGetResult(__localin_statement_4);
+	private final List<Entry> sm_localInEventFindPreRouting(final String skbId, final boolean isFirst, final String protocol){
+		return preRoutingTable.find(indexSkb, key(skbId, isFirst, protocol));
 	}
 
 	//////
 
-	private final int sm_deleteRowById(final String tableName, final long rowId) throws Exception{
-		PreparedStatement statement = __delete_row_by_id_statements.get(tableName);
-		statement.setLong(1, rowId);
-		return statement.executeUpdate();
-	}
-
-	private final int sm_deleteExpiredRows(final String tableName, final long olderThanEventTime) throws Exception{
-		final PreparedStatement deleteStatement0 = __delete_expired_statements.get(tableName);
-		deleteStatement0.setLong(1, olderThanEventTime);
-		return deleteStatement0.executeUpdate();
-	}
-
-	private final int sm_deleteOldestRows(final String tableName) throws Exception{
-		final PreparedStatement deleteStatement1 = __delete_min_statements.get(tableName);
-		return deleteStatement1.executeUpdate();
+	private final void deleteEntry(final Table table, final Entry row){
+		final int deletedRows = table.remove(row);
+		incrementStats("deleted(total)", deletedRows);
+		incrementStats("deleted("+table.name+")", deletedRows);
 	}
 
 	////// function calls to implement new storage of data
 
-	private final synchronized void initializePreparedStatements() throws Exception{
-		__syscall_statement_0 = connection.prepareStatement("select * from " + sqlGetLocalOutTableName() + " where"
-				+ " ("+sqlColumnNameIsFirst+"=?) and " + sqlColumnNameNetns + "=? and " + sqlColumnNameProtocol + "=? and "
-				+ sqlColumnNameRemoteIp + "=? and " + sqlColumnNameRemotePort + "=? and " + sqlColumnNameLocalIp + "=? and " 
-				+ sqlColumnNameLocalPort + "=?");
-		__syscall_statement_1 = connection.prepareStatement("select * from " + sqlGetPostRoutingTableName() + " where"
-				+ " ("+sqlColumnNameIsFirst+"=?) and " + sqlColumnNameSkbId + "=? and " + sqlColumnNameProtocol + "=? and "
-				+ sqlColumnNameRemoteIp + "=? and " + sqlColumnNameRemotePort + "=? and " + sqlColumnNameLocalIp + "=? and " 
-				+ sqlColumnNameLocalPort + "=?");
-		__syscall_statement_2 = connection.prepareStatement("update " + sqlGetLocalOutTableName() + " set"
-				+ " " + sqlColumnNameVersion + "=?," + " " + sqlColumnNameEpoch + "=?,"
-				+ " " + sqlColumnNameUpdatedBySyscall + "=?" + " where " + sqlColumnNameRowId + "=?");
-		__syscall_statement_3 = connection.prepareStatement("select * from " + sqlGetLocalInTableName() + " where"
-				+ " ("+sqlColumnNameIsFirst+"=?) and " + sqlColumnNameNetns + "=? and " + sqlColumnNameProtocol + "=? and "
-				+ sqlColumnNameRemoteIpLast + "=? and " + sqlColumnNameRemotePortLast + "=? and " + sqlColumnNameLocalIpLast + "=? and " 
-				+ sqlColumnNameLocalPortLast + "=?");
-		__syscall_statement_4 = connection.prepareStatement("select * from " + sqlGetPreRoutingTableName() + " where "
-				+ "(" + sqlColumnNameIsFirst + "=?) and " + sqlColumnNameSkbId + "=? and " + sqlColumnNameProtocol + "=? and "
-				+ sqlColumnNameRemoteIpLast + "=? and " + sqlColumnNameRemotePortLast + "=? and " + sqlColumnNameLocalIpLast + "=? and "
-				+ sqlColumnNameLocalPortLast + "=?");
-		__syscall_statement_5 = connection.prepareStatement("insert into " + sqlGetSyscallTableName()
-				+ " (" + sqlColumnNameEventTime + ", " + sqlColumnNameEventId + ", " + sqlColumnNameVersion + ", " + sqlColumnNameEpoch
-				+ ", " + sqlColumnNameNetns + ", " + sqlColumnNameProtocol + ", " + sqlColumnNameRemoteIp
-				+ ", " + sqlColumnNameRemotePort + ", " + sqlColumnNameLocalIp + ", " + sqlColumnNameLocalPort
-				+ ", " + sqlColumnNameIsIngress
-				+ ") values (?, ? ,?, ?, ? ,?, ?, ? ,?, ?, ?)");
-		////
-		__localout_statement_0 = connection.prepareStatement("insert into " + sqlGetLocalOutTableName() 
-				+ "(" + sqlColumnNameEventTime + ", " + sqlColumnNameEventId + ", " + sqlColumnNameNetns + ", " + sqlColumnNameProtocol
-				+ ", " + sqlColumnNameRemoteIp + ", " + sqlColumnNameRemotePort + ", " + sqlColumnNameLocalIp + ", " + sqlColumnNameLocalPort
-				+ ", " + sqlColumnNameSkbId + ", " + sqlColumnNameIsFirst + ", " + sqlColumnNameUpdatedBySyscall
-				+ ") values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-		__localout_statement_1 = connection.prepareStatement("select * from " + sqlGetLocalOutTableName() + " where "
-				+ sqlColumnNameSkbId + "=? and " + sqlColumnNameIsFirst + "=? and " + sqlColumnNameProtocol + "=?");
-		__localout_statement_2 = connection.prepareStatement("select * from " + sqlGetSyscallTableName() + " where "
-				+ sqlColumnNameIsIngress + "=? and " + sqlColumnNameNetns + "=? and " + sqlColumnNameProtocol + "=? and "
-				+ sqlColumnNameRemoteIp + "=? and " + sqlColumnNameRemotePort + "=? and " + sqlColumnNameLocalIp + "=? and "
-				+ sqlColumnNameLocalPort + "=?"
-				);
-		__localout_statement_3 = connection.prepareStatement("update " + sqlGetLocalOutTableName() + " set "
-				+ sqlColumnNameEventTime + "=?, " + sqlColumnNameEventId + "=?, " + sqlColumnNameRemoteIpLast + "=?, "
-				+ sqlColumnNameRemotePortLast + "=?, " + sqlColumnNameLocalIpLast + "=?, " + sqlColumnNameLocalPortLast + "=?, "
-				+ sqlColumnNameIsFirst + "=? where " + sqlColumnNameRowId + "=?");
-		__localout_statement_4 = connection.prepareStatement("update " + sqlGetLocalOutTableName() + " set "
-				+ sqlColumnNameEventTime + "=?, " + sqlColumnNameEventId + "=?, " + sqlColumnNameRemoteIpLast + "=?, "
-				+ sqlColumnNameRemotePortLast + "=?, " + sqlColumnNameLocalIpLast + "=?, " + sqlColumnNameLocalPortLast + "=?, "
-				+ sqlColumnNameIsFirst + "=?, " + sqlColumnNameVersion + "=?, " + sqlColumnNameEpoch + "=?, "
-				+ sqlColumnNameUpdatedBySyscall + "=? where " + sqlColumnNameRowId + "=?");
-		////
-		__postroute_statement_0 = connection.prepareStatement("insert into " + sqlGetPostRoutingTableName()
-				+ "(" + sqlColumnNameEventTime + ", " + sqlColumnNameEventId + ", " + sqlColumnNameProtocol
-				+ ", " + sqlColumnNameRemoteIp + ", " + sqlColumnNameRemotePort + ", " + sqlColumnNameLocalIp + ", " + sqlColumnNameLocalPort
-				+ ", " + sqlColumnNameSkbId + ", " + sqlColumnNameIsFirst
-				+ ") values (?, ?, ?, ?, ?, ?, ?, ?, ?)");
-		__postroute_statement_1 = connection.prepareStatement("select * from " + sqlGetPostRoutingTableName() + " where "
-				+ sqlColumnNameSkbId + "=? and " + sqlColumnNameIsFirst + "=? and " + sqlColumnNameProtocol + "=?");
-		__postroute_statement_2 = connection.prepareStatement("select * from " + sqlGetLocalOutTableName() + " where "
-				+ sqlColumnNameSkbId + "=? and " + sqlColumnNameIsFirst + "=? and " + sqlColumnNameUpdatedBySyscall + "=? and "
-				+ sqlColumnNameProtocol + "=? and " + sqlColumnNameRemoteIpLast + "=? and "
-				+ sqlColumnNameRemotePortLast + "=? and " + sqlColumnNameLocalIpLast + "=? and " + sqlColumnNameLocalPortLast + "=?");
-		__postroute_statement_3 = connection.prepareStatement("update " + sqlGetPostRoutingTableName() + " set "
-				+ sqlColumnNameEventTime + "=?, " + sqlColumnNameEventId + "=?, " + sqlColumnNameRemoteIpLast + "=?, "
-				+ sqlColumnNameRemotePortLast + "=?, " + sqlColumnNameLocalIpLast + "=?, " + sqlColumnNameLocalPortLast + "=?, "
-				+ sqlColumnNameIsFirst + "=? where " + sqlColumnNameRowId + "=?");
-		////
-		__preroute_statement_0 = connection.prepareStatement("insert into " + sqlGetPreRoutingTableName()
-				+ "(" + sqlColumnNameEventTime + ", " + sqlColumnNameEventId + ", " + sqlColumnNameProtocol
-				+ ", " + sqlColumnNameRemoteIp + ", " + sqlColumnNameRemotePort + ", " + sqlColumnNameLocalIp + ", " + sqlColumnNameLocalPort
-				+ ", " + sqlColumnNameSkbId + ", " + sqlColumnNameIsFirst
-				+ ") values (?, ?, ?, ?, ?, ?, ?, ?, ?)");
-		__preroute_statement_1 = connection.prepareStatement("select * from " + sqlGetPreRoutingTableName() + " where "
-				+ sqlColumnNameSkbId + "=? and " + sqlColumnNameIsFirst + "=? and " + sqlColumnNameProtocol + "=?");
-		__preroute_statement_2 = connection.prepareStatement("update " + sqlGetPreRoutingTableName() + " set "
-				+ sqlColumnNameEventTime + "=?, " + sqlColumnNameEventId + "=?, " + sqlColumnNameRemoteIpLast + "=?, "
-				+ sqlColumnNameRemotePortLast + "=?, " + sqlColumnNameLocalIpLast + "=?, " + sqlColumnNameLocalPortLast + "=?, "
-				+ sqlColumnNameIsFirst + "=? where " + sqlColumnNameRowId + "=?");
-		////
-		__localin_statement_0 = connection.prepareStatement("insert into " + sqlGetLocalInTableName()
-				+ "(" + sqlColumnNameEventTime + ", " + sqlColumnNameEventId + ", " + sqlColumnNameNetns + ", " + sqlColumnNameProtocol
-				+ ", " + sqlColumnNameRemoteIp + ", " + sqlColumnNameRemotePort + ", " + sqlColumnNameLocalIp + ", " + sqlColumnNameLocalPort
-				+ ", " + sqlColumnNameSkbId + ", " + sqlColumnNameIsFirst
-				+ ") values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-		__localin_statement_1 = connection.prepareStatement("select * from " + sqlGetLocalInTableName() + " where "
-				+ sqlColumnNameSkbId + "=? and " + sqlColumnNameIsFirst + "=? and " + sqlColumnNameProtocol + "=?");
-		__localin_statement_2 = connection.prepareStatement("select * from " + sqlGetSyscallTableName() + " where "
-				+ sqlColumnNameIsIngress + "=? and " + sqlColumnNameNetns + "=? and " + sqlColumnNameProtocol + "=? and "
-				+ sqlColumnNameRemoteIp + "=? and " + sqlColumnNameRemotePort + "=? and " + sqlColumnNameLocalIp + "=? and "
-				+ sqlColumnNameLocalPort + "=?");
-		__localin_statement_3 = connection.prepareStatement("update " + sqlGetLocalInTableName() + " set "
-				+ sqlColumnNameEventTime + "=?, " + sqlColumnNameEventId + "=?, " 
-				+ sqlColumnNameRemoteIpLast + "=?, " + sqlColumnNameRemotePortLast + "=?, "
-				+ sqlColumnNameLocalIpLast + "=?, " + sqlColumnNameLocalPortLast + "=?, "
-				+ sqlColumnNameIsFirst + "=?, " + sqlColumnNameNetns + "=? where "
-				+ sqlColumnNameRowId + "=?");
-		__localin_statement_4 = connection.prepareStatement("select * from " + sqlGetPreRoutingTableName() + " where "
-				+ sqlColumnNameSkbId + "=? and " + sqlColumnNameIsFirst + "=? and " + sqlColumnNameProtocol + "=?");
-		////
-		__delete_row_by_id_statements.put(sqlGetSyscallTableName(), connection.prepareStatement("delete from " + sqlGetSyscallTableName() + " where " + sqlColumnNameRowId + "=?"));
-		__delete_row_by_id_statements.put(sqlGetLocalOutTableName(), connection.prepareStatement("delete from " + sqlGetLocalOutTableName() + " where " + sqlColumnNameRowId + "=?"));
-		__delete_row_by_id_statements.put(sqlGetLocalInTableName(), connection.prepareStatement("delete from " + sqlGetLocalInTableName() + " where " + sqlColumnNameRowId + "=?"));
-		__delete_row_by_id_statements.put(sqlGetPostRoutingTableName(), connection.prepareStatement("delete from " + sqlGetPostRoutingTableName() + " where " + sqlColumnNameRowId + "=?"));
-		__delete_row_by_id_statements.put(sqlGetPreRoutingTableName(), connection.prepareStatement("delete from " + sqlGetPreRoutingTableName() + " where " + sqlColumnNameRowId + "=?"));
-		////
-		__delete_expired_statements.put(sqlGetSyscallTableName(), connection.prepareStatement("delete from "+ sqlGetSyscallTableName() + " where " + sqlColumnNameEventTime + " < ?"));
-		__delete_expired_statements.put(sqlGetLocalOutTableName(), connection.prepareStatement("delete from "+ sqlGetLocalOutTableName() + " where " + sqlColumnNameEventTime + " < ?"));
-		__delete_expired_statements.put(sqlGetLocalInTableName(), connection.prepareStatement("delete from "+ sqlGetLocalInTableName() + " where " + sqlColumnNameEventTime + " < ?"));
-		__delete_expired_statements.put(sqlGetPostRoutingTableName(), connection.prepareStatement("delete from "+ sqlGetPostRoutingTableName() + " where " + sqlColumnNameEventTime + " < ?"));
-		__delete_expired_statements.put(sqlGetPreRoutingTableName(), connection.prepareStatement("delete from "+ sqlGetPreRoutingTableName() + " where " + sqlColumnNameEventTime + " < ?"));
-		////
-		__delete_min_statements.put(sqlGetSyscallTableName(), connection.prepareStatement("delete from "+ sqlGetSyscallTableName() + " where " + sqlColumnNameEventTime + " in (select min("+sqlColumnNameEventTime+") from "+sqlGetSyscallTableName()+")"));
-		__delete_min_statements.put(sqlGetLocalOutTableName(), connection.prepareStatement("delete from "+ sqlGetLocalOutTableName() + " where " + sqlColumnNameEventTime + " in (select min("+sqlColumnNameEventTime+") from "+sqlGetLocalOutTableName()+")"));
-		__delete_min_statements.put(sqlGetLocalInTableName(), connection.prepareStatement("delete from "+ sqlGetLocalInTableName() + " where " + sqlColumnNameEventTime + " in (select min("+sqlColumnNameEventTime+") from "+sqlGetLocalInTableName()+")"));
-		__delete_min_statements.put(sqlGetPostRoutingTableName(), connection.prepareStatement("delete from "+ sqlGetPostRoutingTableName() + " where " + sqlColumnNameEventTime + " in (select min("+sqlColumnNameEventTime+") from "+sqlGetPostRoutingTableName()+")"));
-		__delete_min_statements.put(sqlGetPreRoutingTableName(), connection.prepareStatement("delete from "+ sqlGetPreRoutingTableName() + " where " + sqlColumnNameEventTime + " in (select min("+sqlColumnNameEventTime+") from "+sqlGetPreRoutingTableName()+")"));
-	}
-
 	public synchronized final void handleNetworkSyscallEvent(final String eventTimeString, final String eventId, final boolean ingress,
 			final Artifact syscallArtifact) throws Exception{
 		final long eventTime = parseAuditEventTimeToMillis(eventTimeString);
@@ -782,36 +582,36 @@ public class NetfilterHooksManager{
 		final String remotePort = syscallArtifact.getAnnotation(OPMConstants.ARTIFACT_REMOTE_PORT);
 
 		if(!ingress){ // outgoing
-			final List<Map<String, Object>> result0 =
+			final List<Entry> result0 =
 					sm_syscallEventFindLocalOut(false, netNs, protocol, remoteIp, remotePort, localIp, localPort);
 			if(result0.size() == 0){
-				sqlInsertSyscallTable(eventTime, eventId, version, epoch, netNs, protocol, remoteIp, remotePort, localIp, localPort, ingress);
+				sm_syscallEventInsertSyscall(eventTime, eventId, version, epoch, netNs, protocol, remoteIp, remotePort, localIp, localPort, ingress);
 			}else{
-				final Map<String, Object> row0 = result0.get(0);
+				final Entry row0 = result0.get(0);
 				if(result0.size() > 1){
-					debug("Expected only one match in "+sqlGetLocalOutTableName()+" but found '"+result0.size()+"' for: " + syscallArtifact);
+					debug("Expected only one match in "+localOutTable.name+" but found '"+result0.size()+"' for: " + syscallArtifact);
 				}
 				final boolean row0AddressesAreSame = areTheFirstAndTheLastAddressesTheSame(row0);
 				if(row0AddressesAreSame){
 					// Don't draw an edge
 				}else{
 					final Artifact netfilterArtifact0 = createNetfilterNetworkArtifact(
-							row0.get(sqlColumnNameNetns), row0.get(sqlColumnNameProtocol), row0.get(sqlColumnNameRemoteIpLast), 
-							row0.get(sqlColumnNameRemotePortLast), row0.get(sqlColumnNameLocalIpLast), row0.get(sqlColumnNameLocalPortLast), 
+							row0.netNs, row0.protocol, row0.remoteIpLast, 
+							row0.remotePortLast, row0.localIpLast, row0.localPortLast, 
 							epoch, version);
 					putNetfilterArtifact(netfilterArtifact0);
 					putNetfilterWasDerivedFromEdge(netfilterArtifact0, syscallArtifact, row0);
 				}
-				final List<Map<String, Object>> result1 = 
-						sm_syscallEventFindPostRouting(false, row0.get(sqlColumnNameSkbId), row0.get(sqlColumnNameProtocol), 
-								row0.get(sqlColumnNameRemoteIpLast), row0.get(sqlColumnNameRemotePortLast), 
-								row0.get(sqlColumnNameLocalIpLast), row0.get(sqlColumnNameLocalPortLast));
+				final List<Entry> result1 = 
+						sm_syscallEventFindPostRouting(false, row0.skbId, row0.protocol, 
+								row0.remoteIpLast, row0.remotePortLast, 
+								row0.localIpLast, row0.localPortLast);
 				if(result1.size() == 0){
-					sm_syscallEventUpdateLocalOut(version, epoch, true, sqlGetRowIdForSql(row0));
+					sm_syscallEventUpdateLocalOut(version, epoch, true, row0);
 				}else{
-					final Map<String, Object> row1 = result1.get(0);
+					final Entry row1 = result1.get(0);
 					if(result1.size() > 1){
-						debug("Expected only one match in "+sqlGetPostRoutingTableName()+" but found '"+result1.size()+"' for: " 
+						debug("Expected only one match in "+postRoutingTable.name+" but found '"+result1.size()+"' for: " 
 								+ syscallArtifact);
 					}
 					final boolean row1AddressesAreSame = areTheFirstAndTheLastAddressesTheSame(row1);
@@ -820,34 +620,34 @@ public class NetfilterHooksManager{
 					}else{
 						final Artifact sourceArtifact = row0AddressesAreSame ? syscallArtifact 
 								: createNetfilterNetworkArtifact(
-										row0.get(sqlColumnNameNetns), row0.get(sqlColumnNameProtocol), 
-										row0.get(sqlColumnNameRemoteIpLast), row0.get(sqlColumnNameRemotePortLast), 
-										row0.get(sqlColumnNameLocalIpLast), row0.get(sqlColumnNameLocalPortLast), 
+										row0.netNs, row0.protocol, 
+										row0.remoteIpLast, row0.remotePortLast, 
+										row0.localIpLast, row0.localPortLast, 
 										epoch, version);
 						final Artifact netfilterArtifact1 = createNetfilterNetworkArtifact(
 								sourceArtifact.getAnnotation(OPMConstants.PROCESS_NET_NAMESPACE), 
-								row1.get(sqlColumnNameProtocol), 
-								row1.get(sqlColumnNameRemoteIpLast), row1.get(sqlColumnNameRemotePortLast), 
-								row1.get(sqlColumnNameLocalIpLast), row1.get(sqlColumnNameLocalPortLast), 
+								row1.protocol, 
+								row1.remoteIpLast, row1.remotePortLast, 
+								row1.localIpLast, row1.localPortLast, 
 								sourceArtifact.getAnnotation(OPMConstants.ARTIFACT_EPOCH), 
 								sourceArtifact.getAnnotation(OPMConstants.ARTIFACT_VERSION));
 						putNetfilterArtifact(netfilterArtifact1);
 						putNetfilterWasDerivedFromEdge(netfilterArtifact1, sourceArtifact, row1);
 					}
-					sqlDeleteRowByRowId(sqlGetLocalOutTableName(), row0);
-					sqlDeleteRowByRowId(sqlGetPostRoutingTableName(), row1);
+					deleteEntry(localOutTable, row0);
+					deleteEntry(postRoutingTable, row1);
 				}
 			}
 		}else{
 			// incoming i.e. ingress = true
-			final List<Map<String, Object>> result0 = 
+			final List<Entry> result0 = 
 					sm_syscallEventFindLocalIn(false, netNs, protocol, remoteIp, remotePort, localIp, localPort);
 			if(result0.size() == 0){
-				sqlInsertSyscallTable(eventTime, eventId, version, epoch, netNs, protocol, remoteIp, remotePort, localIp, localPort, ingress);
+				sm_syscallEventInsertSyscall(eventTime, eventId, version, epoch, netNs, protocol, remoteIp, remotePort, localIp, localPort, ingress);
 			}else{
-				final Map<String, Object> row0 = result0.get(0);
+				final Entry row0 = result0.get(0);
 				if(result0.size() > 1){
-					debug("Expected only one match in "+sqlGetLocalInTableName()+" but found '"+result0.size()+"' for: " 
+					debug("Expected only one match in "+localInTable.name+" but found '"+result0.size()+"' for: " 
 							+ syscallArtifact);
 				}
 				final boolean areFirstAndLastAddressesSame = areTheFirstAndTheLastAddressesTheSame(row0);
@@ -855,41 +655,41 @@ public class NetfilterHooksManager{
 					// Don't draw an edge
 				}else{
 					final Artifact netfilterArtifact0 = createNetfilterNetworkArtifact(
-							row0.get(sqlColumnNameNetns), row0.get(sqlColumnNameProtocol), row0.get(sqlColumnNameRemoteIp), 
-							row0.get(sqlColumnNameRemotePort), row0.get(sqlColumnNameLocalIp), row0.get(sqlColumnNameLocalPort), 
+							row0.netNs, row0.protocol, row0.remoteIp, 
+							row0.remotePort, row0.localIp, row0.localPort, 
 							epoch, version);
 					putNetfilterArtifact(netfilterArtifact0);
 					putNetfilterWasDerivedFromEdge(syscallArtifact, netfilterArtifact0, row0);
 				}
-				final List<Map<String, Object>> result1 = 
-						sm_syscallEventFindPreRouting(false, row0.get(sqlColumnNameSkbId), row0.get(sqlColumnNameProtocol), 
-								row0.get(sqlColumnNameRemoteIp), row0.get(sqlColumnNameRemotePort), row0.get(sqlColumnNameLocalIp), 
-								row0.get(sqlColumnNameLocalPort));
+				final List<Entry> result1 = 
+						sm_syscallEventFindPreRouting(false, row0.skbId, row0.protocol, 
+								row0.remoteIp, row0.remotePort, row0.localIp, 
+								row0.localPort);
 		
 				if(result1.size() == 0){
 					// nothing to do
 				}else{
-					final Map<String, Object> row1 = result1.get(0);
+					final Entry row1 = result1.get(0);
 					if(result1.size() > 1){
-						debug("Expected only one match in "+sqlGetPreRoutingTableName()+" but found '"+result1.size()+"' for: " 
+						debug("Expected only one match in "+preRoutingTable.name+" but found '"+result1.size()+"' for: " 
 								+ syscallArtifact);
 					}
 					final Artifact sourceArtifact = areFirstAndLastAddressesSame ? syscallArtifact :
 						createNetfilterNetworkArtifact(
-								row0.get(sqlColumnNameNetns), row0.get(sqlColumnNameProtocol), row0.get(sqlColumnNameRemoteIp), 
-								row0.get(sqlColumnNameRemotePort), row0.get(sqlColumnNameLocalIp), row0.get(sqlColumnNameLocalPort), 
+								row0.netNs, row0.protocol, row0.remoteIp, 
+								row0.remotePort, row0.localIp, row0.localPort, 
 								epoch, version);
 					final Artifact netfilterArtifact1 = createNetfilterNetworkArtifact(
 							sourceArtifact.getAnnotation(OPMConstants.PROCESS_NET_NAMESPACE), 
-							row1.get(sqlColumnNameProtocol), row1.get(sqlColumnNameRemoteIp), 
-							row1.get(sqlColumnNameRemotePort), row1.get(sqlColumnNameLocalIp), 
-							row1.get(sqlColumnNameLocalPort), sourceArtifact.getAnnotation(OPMConstants.ARTIFACT_EPOCH), 
+							row1.protocol, row1.remoteIp, 
+							row1.remotePort, row1.localIp, 
+							row1.localPort, sourceArtifact.getAnnotation(OPMConstants.ARTIFACT_EPOCH), 
 							sourceArtifact.getAnnotation(OPMConstants.ARTIFACT_VERSION));
 					putNetfilterArtifact(netfilterArtifact1);
 					putNetfilterWasDerivedFromEdge(sourceArtifact, netfilterArtifact1, row1);
-					sqlDeleteRowByRowId(sqlGetPreRoutingTableName(), row1);
+					deleteEntry(preRoutingTable, row1);
 				}
-				sqlDeleteRowByRowId(sqlGetLocalInTableName(), row0);
+				deleteEntry(localInTable, row0);
 			}
 		}
 	}
@@ -1036,7 +836,7 @@ public class NetfilterHooksManager{
 		}
 	}
 	
-	private synchronized final void handleNetfilterLocalOutEvent(final Map<String, String> eventData, 
+	private final void handleNetfilterLocalOutEvent(final Map<String, String> eventData, 
 			final boolean isFirst, final String localIp, 
 			final String localPort, final String remoteIp, final String remotePort, final String protocol,
 			final String netNs, final String skbId, final long eventTime, final String eventId) throws Exception{
@@ -1044,445 +844,456 @@ public class NetfilterHooksManager{
 			sm_localOutEventInsertLocalOut(eventTime, eventId, netNs, protocol, remoteIp, remotePort, localIp, localPort, 
 					skbId, isFirst, false);
 		}else{
-			final List<Map<String, Object>> result0 = sm_localOutEventFindLocalOut(skbId, true, protocol);
+			final List<Entry> result0 = sm_localOutEventFindLocalOut(skbId, true, protocol);
 			if(result0.size() == 0){
-				debug("Missing first entry in "+sqlGetLocalOutTableName()+" for: " + eventData);
+				debug("Missing first entry in "+localOutTable.name+" for: " + eventData);
 			}else{
-				final Map<String, Object> row0 = result0.get(0);
+				final Entry row0 = result0.get(0);
 				if(result0.size() > 1){
-					debug("Expected only one first entry match in "+sqlGetLocalOutTableName()+" but found '"+result0.size()+"' for: " 
+					debug("Expected only one first entry match in "+localOutTable.name+" but found '"+result0.size()+"' for: " 
 							+ eventData);
 				}
-				final List<Map<String, Object>> result1 = 
-						sm_localOutEventFindSyscall(false, row0.get(sqlColumnNameNetns), row0.get(sqlColumnNameProtocol), 
-								row0.get(sqlColumnNameRemoteIp), row0.get(sqlColumnNameRemotePort), 
-								row0.get(sqlColumnNameLocalIp), row0.get(sqlColumnNameLocalPort));
+				final List<Entry> result1 = 
+						sm_localOutEventFindSyscall(false, row0.netNs, row0.protocol, 
+								row0.remoteIp, row0.remotePort, 
+								row0.localIp, row0.localPort);
 				if(result1.size() == 0){
 					sm_localOutEventUpdateLocalOutByLast(eventTime, eventId, remoteIp, remotePort, localIp, localPort, 
-							isFirst, sqlGetRowIdForSql(row0));
+							isFirst, row0);
 				}else{
-					final Map<String, Object> row1 = result1.get(0);
+					final Entry row1 = result1.get(0);
 					if(result1.size() > 1){
-						debug("Unexpected multiple entries in " + sqlGetSyscallTableName() + " for: " + eventData);
+						debug("Unexpected multiple entries in " + syscallTable.name + " for: " + eventData);
 					}
-					if(HelperFunctions.objectsEqual(row0.get(sqlColumnNameRemoteIp), remoteIp)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameRemotePort), remotePort)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameLocalIp), localIp)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameLocalPort), localPort)){
+					if(HelperFunctions.objectsEqual(row0.remoteIp, remoteIp)
+							&& HelperFunctions.objectsEqual(row0.remotePort, remotePort)
+							&& HelperFunctions.objectsEqual(row0.localIp, localIp)
+							&& HelperFunctions.objectsEqual(row0.localPort, localPort)){
 						// Don't draw the edge
 					}else{
 						final Artifact syscallArtifact = createSyscallNetworkArtifact(row1);
-						final Artifact netfilterArtifact = createNetfilterNetworkArtifact(row0.get(sqlColumnNameNetns), 
-								protocol, remoteIp, remotePort, localIp, localPort, row1.get(sqlColumnNameEpoch), 
-								row1.get(sqlColumnNameVersion));
+						final Artifact netfilterArtifact = createNetfilterNetworkArtifact(row0.netNs, 
+								protocol, remoteIp, remotePort, localIp, localPort, row1.epoch, 
+								row1.version);
 						putNetfilterArtifact(netfilterArtifact);
 						putNetfilterWasDerivedFromEdge(netfilterArtifact, syscallArtifact, eventTime, eventId);
-						sqlDeleteRowByRowId(sqlGetSyscallTableName(), row1);
+						deleteEntry(syscallTable, row1);
 					}
 					sm_localOutEventUpdateLocalOutBySyscall(eventTime, eventId, remoteIp, remotePort, localIp, localPort, 
-							isFirst, row1.get(sqlColumnNameVersion), row1.get(sqlColumnNameEpoch), true, sqlGetRowIdForSql(row0));
+							isFirst, row1.version, row1.epoch, true, row0);
 				}
 			}
 		}
 	}
 	
-	private synchronized final void handleNetfilterPostRoutingEvent(final Map<String, String> eventData, 
+	private final void handleNetfilterPostRoutingEvent(final Map<String, String> eventData, 
 			final boolean isFirst, final String localIp, 
 			final String localPort, final String remoteIp, final String remotePort, final String protocol,
 			final String netNs, final String skbId, final long eventTime, final String eventId) throws Exception{
 		if(isFirst){
 			sm_postRoutingEventInsertPostRouting(eventTime, eventId, protocol, remoteIp, remotePort, localIp, localPort, skbId, isFirst);
 		}else{
-			final List<Map<String, Object>> result0 = sm_postRoutingEventFindPostRouting(skbId, true, protocol);
+			final List<Entry> result0 = sm_postRoutingEventFindPostRouting(skbId, true, protocol);
 			if(result0.size() == 0){
-				debug("Missing first entry in "+sqlGetPostRoutingTableName()+" for: " + eventData);
+				debug("Missing first entry in "+postRoutingTable.name+" for: " + eventData);
 			}else{
-				final Map<String, Object> row0 = result0.get(0);
+				final Entry row0 = result0.get(0);
 				if(result0.size() > 1){
-					debug("Expected only one first entry match in "+sqlGetPostRoutingTableName()+" but found '"+result0.size()+"' for: " 
+					debug("Expected only one first entry match in "+postRoutingTable.name+" but found '"+result0.size()+"' for: " 
 							+ eventData);
 				}
-				final List<Map<String, Object>> result1 = 
-						sm_postRoutingEventFindLocalOut(skbId, false, true, protocol, row0.get(sqlColumnNameRemoteIp), 
-								row0.get(sqlColumnNameRemotePort), row0.get(sqlColumnNameLocalIp), row0.get(sqlColumnNameLocalPort));
+				final List<Entry> result1 = 
+						sm_postRoutingEventFindLocalOut(skbId, false, true, protocol, row0.remoteIp, 
+								row0.remotePort, row0.localIp, row0.localPort);
 				if(result1.size() == 0){
 					sm_postRoutingEventUpdatePostRouting(eventTime, eventId, remoteIp, remotePort, localIp, localPort, false, 
-							sqlGetRowIdForSql(row0));
+							row0);
 				}else{
-					final Map<String, Object> row1 = result1.get(0);
+					final Entry row1 = result1.get(0);
 					if(result1.size() > 1){
-						debug("Unexpected multiple entries in " + sqlGetLocalOutTableName() + " for: " + eventData);
+						debug("Unexpected multiple entries in " + localOutTable.name + " for: " + eventData);
 					}
-					if(HelperFunctions.objectsEqual(row0.get(sqlColumnNameRemoteIp), remoteIp)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameRemotePort), remotePort)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameLocalIp), localIp)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameLocalPort), localPort)){
+					if(HelperFunctions.objectsEqual(row0.remoteIp, remoteIp)
+							&& HelperFunctions.objectsEqual(row0.remotePort, remotePort)
+							&& HelperFunctions.objectsEqual(row0.localIp, localIp)
+							&& HelperFunctions.objectsEqual(row0.localPort, localPort)){
 						// Don't draw the edge
 					}else{
-						final Artifact netfilterArtifactFromLocalOut = createNetfilterNetworkArtifact(row1.get(sqlColumnNameNetns),
-								row1.get(sqlColumnNameProtocol), row1.get(sqlColumnNameRemoteIpLast), 
-								row1.get(sqlColumnNameRemotePortLast), row1.get(sqlColumnNameLocalIpLast), 
-								row1.get(sqlColumnNameLocalPortLast), row1.get(sqlColumnNameEpoch), row1.get(sqlColumnNameVersion));
-						final Artifact netfilterArtifactFromPostRouting = createNetfilterNetworkArtifact(row1.get(sqlColumnNameNetns), 
-								protocol, remoteIp, remotePort, localIp, localPort, row1.get(sqlColumnNameEpoch), 
-								row1.get(sqlColumnNameVersion));
+						final Artifact netfilterArtifactFromLocalOut = createNetfilterNetworkArtifact(row1.netNs,
+								row1.protocol, row1.remoteIpLast, 
+								row1.remotePortLast, row1.localIpLast, 
+								row1.localPortLast, row1.epoch, row1.version);
+						final Artifact netfilterArtifactFromPostRouting = createNetfilterNetworkArtifact(row1.netNs, 
+								protocol, remoteIp, remotePort, localIp, localPort, row1.epoch, 
+								row1.version);
 						putNetfilterArtifact(netfilterArtifactFromPostRouting);
 						putNetfilterWasDerivedFromEdge(netfilterArtifactFromPostRouting, netfilterArtifactFromLocalOut, eventTime, eventId);
-						sqlDeleteRowByRowId(sqlGetPostRoutingTableName(), row0);
-						sqlDeleteRowByRowId(sqlGetLocalOutTableName(), row1);
+						deleteEntry(postRoutingTable, row0);
+						deleteEntry(localOutTable, row1);
 					}
 				}
 			}
 		}
 	}
 	
-	private synchronized final void handleNetfilterPreRoutingEvent(final Map<String, String> eventData, 
+	private final void handleNetfilterPreRoutingEvent(final Map<String, String> eventData, 
 			final boolean isFirst, final String localIp, 
 			final String localPort, final String remoteIp, final String remotePort, final String protocol,
 			final String netNs, final String skbId, final long eventTime, final String eventId) throws Exception{
 		if(isFirst){
 			sm_preRoutingEventInsertPreRouting(eventTime, eventId, protocol, remoteIp, remotePort, localIp, localPort, skbId, isFirst);
 		}else{
-			final List<Map<String, Object>> result0 = sm_preRoutingEventFindPreRoutingBySkb(skbId, true, protocol);
+			final List<Entry> result0 = sm_preRoutingEventFindPreRoutingBySkb(skbId, true, protocol);
 			if(result0.size() == 0){
-				debug("Missing first entry in "+sqlGetPreRoutingTableName()+" for: " + eventData);
+				debug("Missing first entry in "+preRoutingTable.name+" for: " + eventData);
 			}else{
-				final Map<String, Object> row0 = result0.get(0);
+				final Entry row0 = result0.get(0);
 				if(result0.size() > 1){
-					debug("Unexpected multiple entries in " + sqlGetPreRoutingTableName() + " for: " + eventData);
+					debug("Unexpected multiple entries in " + preRoutingTable.name + " for: " + eventData);
 				}
-				if(HelperFunctions.objectsEqual(row0.get(sqlColumnNameRemoteIp), remoteIp)
-						&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameRemotePort), remotePort)
-						&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameLocalIp), localIp)
-						&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameLocalPort), localPort)){
-					sqlDeleteRowByRowId(sqlGetPreRoutingTableName(), row0);
+				if(HelperFunctions.objectsEqual(row0.remoteIp, remoteIp)
+						&& HelperFunctions.objectsEqual(row0.remotePort, remotePort)
+						&& HelperFunctions.objectsEqual(row0.localIp, localIp)
+						&& HelperFunctions.objectsEqual(row0.localPort, localPort)){
+					deleteEntry(preRoutingTable, row0);
 				}else{
 					sm_preRoutingEventUpdatePreRouting(eventTime, eventId, remoteIp, remotePort, localIp, localPort, 
-							false, sqlGetRowIdForSql(row0));
+							false, row0);
 				}
 			}
 		}
 	}
 	
-	private synchronized final void handleNetfilterLocalInEvent(final Map<String, String> eventData, 
+	private final void handleNetfilterLocalInEvent(final Map<String, String> eventData, 
 			final boolean isFirst, final String localIp, 
 			final String localPort, final String remoteIp, final String remotePort, final String protocol,
 			final String netNs, final String skbId, final long eventTime, final String eventId) throws Exception{
 		if(isFirst){
 			sm_localInEventInsertLocalIn(eventTime, eventId, netNs, protocol, remoteIp, remotePort, localIp, localPort, skbId, isFirst);
 		}else{
-			final List<Map<String, Object>> result0 = sm_localInEventFindLocalIn(skbId, true, protocol);
+			final List<Entry> result0 = sm_localInEventFindLocalIn(skbId, true, protocol);
 			if(result0.size() == 0){
-				debug("Missing first entry in "+sqlGetLocalInTableName()+" for: " + eventData);
+				debug("Missing first entry in "+localInTable.name+" for: " + eventData);
 			}else{
-				final Map<String, Object> row0 = result0.get(0);
+				final Entry row0 = result0.get(0);
 				if(result0.size() > 1){
-					debug("Unexpected multiple entries in " + sqlGetLocalInTableName() + " for: " + eventData);
+					debug("Unexpected multiple entries in " + localInTable.name + " for: " + eventData);
 				}
-				final List<Map<String, Object>> result1 = 
+				final List<Entry> result1 = 
 						sm_localInEventFindSyscall(true, netNs, protocol, remoteIp, remotePort, localIp, localPort);
 				if(result1.size() == 0){
 					sm_localInEventUpdateLocalIn(eventTime, eventId, remoteIp, remotePort, localIp, localPort, false, 
-							netNs, sqlGetRowIdForSql(row0));
+							netNs, row0);
 				}else{
-					final Map<String, Object> row1 = result1.get(0);
+					final Entry row1 = result1.get(0);
 					if(result1.size() > 1){
-						debug("Unexpected multiple entries in " + sqlGetSyscallTableName() + " for: " + eventData);
+						debug("Unexpected multiple entries in " + syscallTable.name + " for: " + eventData);
 					}
 					final boolean areFirstAndLastAddressSame;
-					if(HelperFunctions.objectsEqual(row0.get(sqlColumnNameRemoteIp), remoteIp)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameRemotePort), remotePort)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameLocalIp), localIp)
-							&& HelperFunctions.objectsEqual(row0.get(sqlColumnNameLocalPort), localPort)){
+					if(HelperFunctions.objectsEqual(row0.remoteIp, remoteIp)
+							&& HelperFunctions.objectsEqual(row0.remotePort, remotePort)
+							&& HelperFunctions.objectsEqual(row0.localIp, localIp)
+							&& HelperFunctions.objectsEqual(row0.localPort, localPort)){
 						// Don't draw an edge
 						areFirstAndLastAddressSame = true;
 					}else{
 						final Artifact syscallArtifact = createSyscallNetworkArtifact(row1);
 						final Artifact netfilterArtifact = createNetfilterNetworkArtifact(netNs, protocol, 
-								row0.get(sqlColumnNameRemoteIp), row0.get(sqlColumnNameRemotePort), 
-								row0.get(sqlColumnNameLocalIp), row0.get(sqlColumnNameLocalPort), 
-								row1.get(sqlColumnNameEpoch), row1.get(sqlColumnNameVersion));
+								row0.remoteIp, row0.remotePort, 
+								row0.localIp, row0.localPort, 
+								row1.epoch, row1.version);
 						putNetfilterArtifact(netfilterArtifact);
 						putNetfilterWasDerivedFromEdge(syscallArtifact, netfilterArtifact, eventTime, eventId);
-						sqlDeleteRowByRowId(sqlGetSyscallTableName(), row1);
+						deleteEntry(syscallTable, row1);
 						areFirstAndLastAddressSame = false;
 					}
-					final List<Map<String, Object>> result2 = sm_localInEventFindPreRouting(skbId, false, protocol);
+					final List<Entry> result2 = sm_localInEventFindPreRouting(skbId, false, protocol);
 					if(result2.size() == 0){
 						// Nothing to do
 					}else{
-						final Map<String, Object> row2 = result2.get(0);
+						final Entry row2 = result2.get(0);
 						if(result2.size() > 1){
-							debug("Unexpected multiple entries in " + sqlGetPreRoutingTableName() + " for: " + eventData);
+							debug("Unexpected multiple entries in " + preRoutingTable.name + " for: " + eventData);
 						}
 						final Artifact sourceArtifact = areFirstAndLastAddressSame ? createSyscallNetworkArtifact(row1)
 								: createNetfilterNetworkArtifact(netNs, protocol, 
-										row0.get(sqlColumnNameRemoteIp), row0.get(sqlColumnNameRemotePort), 
-										row0.get(sqlColumnNameLocalIp), row0.get(sqlColumnNameLocalPort), 
-										row1.get(sqlColumnNameEpoch), row1.get(sqlColumnNameVersion));
+										row0.remoteIp, row0.remotePort, 
+										row0.localIp, row0.localPort, 
+										row1.epoch, row1.version);
 						final Artifact netfilterArtifact1 = createNetfilterNetworkArtifact(
 								sourceArtifact.getAnnotation(OPMConstants.PROCESS_NET_NAMESPACE), 
-								row2.get(sqlColumnNameProtocol), row2.get(sqlColumnNameRemoteIp), 
-								row2.get(sqlColumnNameRemotePort), row2.get(sqlColumnNameLocalIp), 
-								row2.get(sqlColumnNameLocalPort), sourceArtifact.getAnnotation(OPMConstants.ARTIFACT_EPOCH), 
+								row2.protocol, row2.remoteIp, 
+								row2.remotePort, row2.localIp, 
+								row2.localPort, sourceArtifact.getAnnotation(OPMConstants.ARTIFACT_EPOCH), 
 								sourceArtifact.getAnnotation(OPMConstants.ARTIFACT_VERSION));
 						putNetfilterArtifact(netfilterArtifact1);
 						putNetfilterWasDerivedFromEdge(sourceArtifact, netfilterArtifact1, row2);
-						sqlDeleteRowByRowId(sqlGetPreRoutingTableName(), row2);
+						deleteEntry(preRoutingTable, row2);
 					}
-					sqlDeleteRowByRowId(sqlGetLocalInTableName(), row0);
+					deleteEntry(localInTable, row0);
 				}
 			}
 		}
 	}
 
+
 	//////////////////////////////////////////////////////////////////////////////////
-	// ***************** SQL **********************
-	//////////////////////////////////////////////////////////////////////////////////
-	
-	private static final String 
-		sqlKeywordAutoIncrement = "auto_increment",
-		sqlDataTypeLong = "long",
-		sqlDataTypeVarChar = "varchar",
-		sqlDataTypeBoolean = "boolean";
-
-	private static final String
-		sqlColumnNameRowId = "ROW_ID",
-		sqlColumnNameEventTime = "EVENT_TIME",
-		sqlColumnNameEventId = "EVENT_ID",
-		sqlColumnNameVersion = "VERSION",
-		sqlColumnNameEpoch = "EPOCH",
-		sqlColumnNameNetns = "NETNS",
-		sqlColumnNameProtocol = "PROTOCOL",
-		sqlColumnNameRemoteIp = "REMOTE_IP",
-		sqlColumnNameRemotePort = "REMOTE_PORT",
-		sqlColumnNameLocalIp = "LOCAL_IP",
-		sqlColumnNameLocalPort = "LOCAL_PORT",
-		sqlColumnNameRemoteIpLast = "REMOTE_IP_LAST",
-		sqlColumnNameRemotePortLast = "REMOTE_PORT_LAST",
-		sqlColumnNameLocalIpLast = "LOCAL_IP_LAST",
-		sqlColumnNameLocalPortLast = "LOCAL_PORT_LAST",
-		sqlColumnNameSkbId = "SKB_ID",
-		sqlColumnNameIsFirst = "IS_FIRST",
-		sqlColumnNameIsIngress = "IS_INGRESS",
-		sqlColumnNameUpdatedBySyscall = "UPDATED_BY_SYSCALL";
-	
-	private final String sqlGetRowIdColumnDefinition(){ return sqlColumnNameRowId + " " + sqlDataTypeLong + " " + sqlKeywordAutoIncrement; }
-	private final String sqlGetEventTimeColumnDefinition(){ return sqlColumnNameEventTime + " " + sqlDataTypeLong; }
-	private final String __sqlGetVarcharColumnDefinition(String columnName){ return columnName + " " + sqlDataTypeVarChar; }
-	private final String sqlGetEventIdColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameEventId); }
-	private final String sqlGetVersionColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameVersion); }
-	private final String sqlGetEpochColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameEpoch); }
-	private final String sqlGetNetnsColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameNetns); }
-	private final String sqlGetProtocolColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameProtocol); }
-	private final String sqlGetRemoteIpColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameRemoteIp); }
-	private final String sqlGetRemotePortColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameRemotePort); }
-	private final String sqlGetLocalIpColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameLocalIp); }
-	private final String sqlGetLocalPortColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameLocalPort); }
-	private final String sqlGetRemoteIpLastColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameRemoteIpLast); }
-	private final String sqlGetRemotePortLastColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameRemotePortLast); }
-	private final String sqlGetLocalIpLastColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameLocalIpLast); }
-	private final String sqlGetLocalPortLastColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameLocalPortLast); }
-	private final String sqlGetSkbIdColumnDefinition(){ return __sqlGetVarcharColumnDefinition(sqlColumnNameSkbId); }
-	private final String sqlGetIsFirstColumnDefinition(){ return sqlColumnNameIsFirst + " " + sqlDataTypeBoolean; }
-	private final String sqlGetIsIngressColumnDefinition(){ return sqlColumnNameIsIngress + " " + sqlDataTypeBoolean; }
-	private final String sqlGetUpdatedBySyscallColumnDefinition(){ return sqlColumnNameUpdatedBySyscall + " " + sqlDataTypeBoolean; }
-	
-	private final String sqlGetSyscallTableName(){ return "SPADE_SYSCALL"; }
-	private final String sqlGetLocalOutTableName(){ return "SPADE_LOCAL_OUT"; }
-	private final String sqlGetPostRoutingTableName(){ return "SPADE_POST_ROUTING"; }
-	private final String sqlGetLocalInTableName(){ return "SPADE_LOCAL_IN"; }
-	private final String sqlGetPreRoutingTableName(){ return "SPADE_PRE_ROUTING"; }
-	
-	//////////////////////////////////////////////////////////////////////////////////
-	// ***************** CREATE **********************
+	// ***************** STORAGE **********************
 	//////////////////////////////////////////////////////////////////////////////////
-	
-	private final void sqlCreateSyscallTable() throws Exception{
-		try(Statement statement = connection.createStatement()){
-			statement.execute(
-					String.format(
-								"create table %s ("
-								+ " %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s "
-								+ ")", 
-								sqlGetSyscallTableName(),
-								sqlGetRowIdColumnDefinition(), sqlGetEventIdColumnDefinition(),
-								sqlGetEventTimeColumnDefinition(), sqlGetVersionColumnDefinition(),
-								sqlGetEpochColumnDefinition(), sqlGetNetnsColumnDefinition(),
-								sqlGetProtocolColumnDefinition(), sqlGetRemoteIpColumnDefinition(),
-								sqlGetRemotePortColumnDefinition(), sqlGetLocalIpColumnDefinition(),
-								sqlGetLocalPortColumnDefinition(), sqlGetIsIngressColumnDefinition()
-								)
-							);
-		}catch(Exception e){
-			throw e;
+
+	/**
+	 * @param parts parts of the key
+	 * @return key or null if any part is null. A null part matches nothing just like the SQL equality.
+	 */
+	private static final Object key(final Object... parts){
+		for(final Object part : parts){
+			if(part == null){
+				return null;
+			}
 		}
+		return Arrays.asList(parts);
 	}
 
-	private final void sqlCreateLocalOutTable() throws Exception{
-		try(Statement statement = connection.createStatement()){
-			statement.execute(
-					String.format(
-								"create table %s ("
-								+ " %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s "
-								+ ")", 
-								sqlGetLocalOutTableName(),
-								sqlGetRowIdColumnDefinition(), sqlGetEventIdColumnDefinition(),
-								sqlGetEventTimeColumnDefinition(), sqlGetVersionColumnDefinition(),
-								sqlGetEpochColumnDefinition(), sqlGetNetnsColumnDefinition(),
-								sqlGetProtocolColumnDefinition(), sqlGetRemoteIpColumnDefinition(),
-								sqlGetRemotePortColumnDefinition(), sqlGetLocalIpColumnDefinition(),
-								sqlGetLocalPortColumnDefinition(), sqlGetRemoteIpLastColumnDefinition(),
-								sqlGetRemotePortLastColumnDefinition(), sqlGetLocalIpLastColumnDefinition(),
-								sqlGetLocalPortLastColumnDefinition(), sqlGetSkbIdColumnDefinition(),
-								sqlGetIsFirstColumnDefinition(), sqlGetUpdatedBySyscallColumnDefinition()
-								)
-							);
-		}catch(Exception e){
-			throw e;
+	/**
+	 * A row in one of the tables.
+	 */
+	private static final class Entry{
+		private long rowId;
+		private long eventTime;
+		private String eventId, version, epoch, netNs, protocol,
+			remoteIp, remotePort, localIp, localPort,
+			remoteIpLast, remotePortLast, localIpLast, localPortLast,
+			skbId;
+		private boolean isFirst, isIngress, updatedBySyscall;
+
+		// Keys in the indexes of the table at the time the entry was indexed
+		private Object[] indexKeys;
+		private long expiryBucket;
+		private boolean removed = false;
+
+		private Entry(final long eventTime, final String eventId){
+			this.eventTime = eventTime;
+			this.eventId = eventId;
 		}
 	}
-	
-	private final void sqlCreatePostRoutingTable() throws Exception{
-		try(Statement statement = connection.createStatement()){
-			statement.execute(
-					String.format(
-								"create table %s ("
-								+ " %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s "
-								+ ")", 
-								sqlGetPostRoutingTableName(),
-								sqlGetRowIdColumnDefinition(), sqlGetEventIdColumnDefinition(),
-								sqlGetEventTimeColumnDefinition(), sqlGetProtocolColumnDefinition(), 
-								sqlGetRemoteIpColumnDefinition(), sqlGetRemotePortColumnDefinition(), 
-								sqlGetLocalIpColumnDefinition(), sqlGetLocalPortColumnDefinition(), 
-								sqlGetRemoteIpLastColumnDefinition(), sqlGetRemotePortLastColumnDefinition(), 
-								sqlGetLocalIpLastColumnDefinition(), sqlGetLocalPortLastColumnDefinition(), 
-								sqlGetSkbIdColumnDefinition(), sqlGetIsFirstColumnDefinition()
-								)
-							);
-		}catch(Exception e){
-			throw e;
+
+	/**
+	 * Entries of a hook (or of the syscalls) with a hash index for each lookup done on them.
+	 * 
+	 * The entries with the same key are returned in the order of insertion. Entries are also grouped in buckets of
+	 * event time so that the expired entries, or the oldest ones, are found without going over all the entries.
+	 * When the table is full, the expired entries are discarded before an insert, and if there are none then the entries
+	 * with the least event time.
+	 */
+	private abstract class Table{
+		private final String name;
+		private final long maxCount, ttlMillis, bucketMillis;
+		private final List<Map<Object, List<Entry>>> indexes;
+		private final TreeMap<Long, Set<Entry>> expiryBuckets = new TreeMap<Long, Set<Entry>>();
+		private long count = 0;
+		private long nextRowId = 1;
+
+		private Table(final String name, final int indexCount, final long maxCount, final long ttlMillis){
+			this.name = name;
+			this.maxCount = maxCount;
+			this.ttlMillis = ttlMillis;
+			this.bucketMillis = Math.max(1, ttlMillis / expiryBucketsPerTtl);
+			this.indexes = new ArrayList<Map<Object, List<Entry>>>(indexCount);
+			for(int i = 0; i < indexCount; i++){
+				this.indexes.add(new HashMap<Object, List<Entry>>());
+			}
 		}
-	}
-	
-	private final void sqlCreateLocalInTable() throws Exception{
-		try(Statement statement = connection.createStatement()){
-			statement.execute(
-					String.format(
-								"create table %s ("
-								+ " %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s "
-								+ ")", 
-								sqlGetLocalInTableName(),
-								sqlGetRowIdColumnDefinition(), sqlGetEventIdColumnDefinition(),
-								sqlGetEventTimeColumnDefinition(), sqlGetNetnsColumnDefinition(),
-								sqlGetProtocolColumnDefinition(), sqlGetRemoteIpColumnDefinition(),
-								sqlGetRemotePortColumnDefinition(), sqlGetLocalIpColumnDefinition(),
-								sqlGetLocalPortColumnDefinition(), sqlGetRemoteIpLastColumnDefinition(),
-								sqlGetRemotePortLastColumnDefinition(), sqlGetLocalIpLastColumnDefinition(),
-								sqlGetLocalPortLastColumnDefinition(), sqlGetSkbIdColumnDefinition(),
-								sqlGetIsFirstColumnDefinition()
-								)
-							);
-		}catch(Exception e){
-			throw e;
+
+		/**
+		 * @param index index number
+		 * @param entry the entry
+		 * @return key of the entry in the index or null if the entry must not be in the index
+		 */
+		abstract Object indexKey(final int index, final Entry entry);
+
+		/**
+		 * The returned list is a read-only view of the index and not a copy. It is only valid until the next insert,
+		 * update or remove on this table. Read what is needed from it (i.e. the first entry and the size) before
+		 * changing the table.
+		 * 
+		 * @param index index number
+		 * @param key key in the index
+		 * @return entries with the key in the order of insertion
+		 */
+		private final List<Entry> find(final int index, final Object key){
+			if(key == null){
+				return Collections.emptyList();
+			}
+			final List<Entry> entries = indexes.get(index).get(key);
+			return entries == null ? Collections.<Entry>emptyList() : Collections.unmodifiableList(entries);
 		}
-	}
-	
-	private final void sqlCreatePreRoutingTable() throws Exception{
-		try(Statement statement = connection.createStatement()){
-			statement.execute(
-					String.format(
-								"create table %s ("
-								+ " %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s "
-								+ ")", 
-								sqlGetPreRoutingTableName(),
-								sqlGetRowIdColumnDefinition(), sqlGetEventIdColumnDefinition(),
-								sqlGetEventTimeColumnDefinition(), sqlGetProtocolColumnDefinition(), 
-								sqlGetRemoteIpColumnDefinition(), sqlGetRemotePortColumnDefinition(), 
-								sqlGetLocalIpColumnDefinition(), sqlGetLocalPortColumnDefinition(), 
-								sqlGetRemoteIpLastColumnDefinition(), sqlGetRemotePortLastColumnDefinition(), 
-								sqlGetLocalIpLastColumnDefinition(), sqlGetLocalPortLastColumnDefinition(), 
-								sqlGetSkbIdColumnDefinition(), sqlGetIsFirstColumnDefinition()
-								)
-							);
-		}catch(Exception e){
-			throw e;
+
+		private final void insert(final Entry entry){
+			if(count >= maxCount){
+				final int expiredRows = removeExpired(entry.eventTime - ttlMillis);
+				if(expiredRows > 0){
+					debug("Cleanup(expired): Discarded " + expiredRows + " entries from " + name);
+					incrementStats("expired(total)", expiredRows);
+					incrementStats("expired("+name+")", expiredRows);
+				}else{
+					final int deletedRows = removeOldest();
+					incrementStats("evicted(total)", deletedRows);
+					incrementStats("evicted("+name+")", deletedRows);
+					debug("Cleanup(forced): Discarded " + deletedRows + " entries from " + name);
+				}
+			}
+			entry.rowId = nextRowId++;
+			link(entry);
+			count++;
+			incrementStats("inserted(total)", 1);
+			incrementStats("inserted("+name+")", 1);
 		}
-	}
-	
-	private final List<Map<String, Object>> sqlMapifyResultSet(final ResultSet resultSet) throws Exception{
-		final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
-		final ResultSetMetaData resultSetMetadata = resultSet.getMetaData();
-		final int columnCount = resultSetMetadata.getColumnCount();
-		final String[] columnNames = new String[columnCount];
-		for(int a = 0; a < columnCount; a++){
-			columnNames[a] = resultSetMetadata.getColumnLabel(a+1).toUpperCase();
+
+		/**
+		 * Must be followed by 'endUpdate' after the entry has been updated
+		 */
+		private final void beginUpdate(final Entry entry){
+			if(!entry.removed){
+				unlink(entry);
+			}
 		}
-		if(resultSet.next()){
-			final Map<String, Object> map = new HashMap<String, Object>();
-			for(String columnName : columnNames){
-				map.put(columnName, resultSet.getObject(columnName));
+
+		private final void endUpdate(final Entry entry){
+			if(!entry.removed){
+				link(entry);
 			}
-			rows.add(map);
 		}
-		return rows;
-	}
-	
-	private final List<Map<String, Object>> sqlGetResult(PreparedStatement statement) throws Exception{
-		ResultSet resultSet = statement.executeQuery();
-		List<Map<String, Object>> result = sqlMapifyResultSet(resultSet);
-		resultSet.close();
-		return result;
-	}
-	
-	private final void sqlInsert(String tableName, long eventTime, PreparedStatement statement) throws Exception{
-		long currentCount = perTableCurrentCounts.get(tableName);
-		final long maxCount = perTableMaxCounts.get(tableName);
-		if(currentCount >= maxCount){
-			final int expiredRows = sm_deleteExpiredRows(tableName, eventTime - perTableTtlMillis.get(tableName));
-			
-			if(expiredRows > 0){
-				currentCount -= expiredRows;
-				debug("Cleanup(expired): Discarded " + expiredRows + " entries from " + tableName);
-				incrementStats("expired(total)", expiredRows);
-				incrementStats("expired("+tableName+")", expiredRows);
-			}else{
-				final int deletedRows = sm_deleteOldestRows(tableName);
-				//deleteStatement1.close();
-				currentCount -= deletedRows;
-				incrementStats("evicted(total)", deletedRows);
-				incrementStats("evicted("+tableName+")", deletedRows);
-				debug("Cleanup(forced): Discarded " + deletedRows + " entries from " + tableName);
+
+		/**
+		 * @return 1 if removed otherwise 0
+		 */
+		private final int remove(final Entry entry){
+			if(entry.removed){
+				return 0;
 			}
-			perTableCurrentCounts.put(tableName, currentCount);
+			unlink(entry);
+			entry.removed = true;
+			count--;
+			return 1;
 		}
-		
-		int rowsInserted = statement.executeUpdate();
-		perTableCurrentCounts.put(tableName, currentCount + rowsInserted);
-		incrementStats("inserted(total)", rowsInserted);
-		incrementStats("inserted("+tableName+")", rowsInserted);
-	}
 
-	private final void sqlUpdate(String tableName, PreparedStatement statement) throws Exception{
-		statement.execute();
-	}
-	
-	private final void sqlDeleteRowByRowId(String tableName, Map<String, Object> row) throws Exception{
-		final int deletedRows = sm_deleteRowById(tableName, sqlGetRowIdForSql(row));
-		long currentCount = perTableCurrentCounts.get(tableName);
-		currentCount -= deletedRows;
-		perTableCurrentCounts.put(tableName, currentCount);
-		incrementStats("deleted(total)", deletedRows);
-		incrementStats("deleted("+tableName+")", deletedRows);
-	}
-	
-	private final long sqlGetRowIdForSql(Map<String, Object> row){
-		return (long)row.get(sqlColumnNameRowId);
-	}
-	
-	private final long sqlGetEventTime(Map<String, Object> row){
-		return (long)row.get(sqlColumnNameEventTime);
-	}
+		/**
+		 * @param olderThanEventTime entries with event time less than this are removed
+		 * @return count of removed entries
+		 */
+		private final int removeExpired(final long olderThanEventTime){
+			int removed = 0;
+			while(!expiryBuckets.isEmpty()){
+				final Map.Entry<Long, Set<Entry>> bucket = expiryBuckets.firstEntry();
+				final long bucketStartTime = bucket.getKey() * bucketMillis;
+				if(bucketStartTime >= olderThanEventTime){
+					break;
+				}
+				final boolean wholeBucket = bucketStartTime + bucketMillis <= olderThanEventTime;
+				for(final Entry entry : new ArrayList<Entry>(bucket.getValue())){
+					if(wholeBucket || entry.eventTime < olderThanEventTime){
+						removed += remove(entry);
+					}
+				}
+				if(!wholeBucket){
+					break;
+				}
+			}
+			return removed;
+		}
 
-	///////////////////////
+		/**
+		 * @return count of removed entries i.e. all the entries with the least event time
+		 */
+		private final int removeOldest(){
+			if(expiryBuckets.isEmpty()){
+				return 0;
+			}
+			final Set<Entry> bucket = expiryBuckets.firstEntry().getValue();
+			long oldestEventTime = Long.MAX_VALUE;
+			for(final Entry entry : bucket){
+				oldestEventTime = Math.min(oldestEventTime, entry.eventTime);
+			}
+			int removed = 0;
+			for(final Entry entry : new ArrayList<Entry>(bucket)){
+				if(entry.eventTime == oldestEventTime){
+					removed += remove(entry);
+				}
+			}
+			return removed;
+		}
+
+		private final void clear(){
+			for(final Map<Object, List<Entry>> index : indexes){
+				index.clear();
+			}
+			expiryBuckets.clear();
+			count = 0;
+		}
+
+		private final void link(final Entry entry){
+			if(entry.indexKeys == null){
+				entry.indexKeys = new Object[indexes.size()];
+			}
+			for(int i = 0; i < indexes.size(); i++){
+				final Object key = indexKey(i, entry);
+				entry.indexKeys[i] = key;
+				if(key != null){
+					List<Entry> entries = indexes.get(i).get(key);
+					if(entries == null){
+						entries = new ArrayList<Entry>(2);
+						indexes.get(i).put(key, entries);
+					}
+					entries.add(insertionPoint(entries, entry.rowId), entry);
+				}
+			}
+			entry.expiryBucket = Math.floorDiv(entry.eventTime, bucketMillis);
+			Set<Entry> bucket = expiryBuckets.get(entry.expiryBucket);
+			if(bucket == null){
+				bucket = new HashSet<Entry>();
+				expiryBuckets.put(entry.expiryBucket, bucket);
+			}
+			bucket.add(entry);
+		}
+
+		private final void unlink(final Entry entry){
+			for(int i = 0; i < indexes.size(); i++){
+				final Object key = entry.indexKeys[i];
+				if(key != null){
+					final List<Entry> entries = indexes.get(i).get(key);
+					entries.remove(insertionPoint(entries, entry.rowId) - 1);
+					if(entries.isEmpty()){
+						indexes.get(i).remove(key);
+					}
+				}
+			}
+			final Set<Entry> bucket = expiryBuckets.get(entry.expiryBucket);
+			bucket.remove(entry);
+			if(bucket.isEmpty()){
+				expiryBuckets.remove(entry.expiryBucket);
+			}
+		}
+
+		/**
+		 * @param entries entries in the increasing order of row id
+		 * @param rowId row id
+		 * @return index of the first entry with row id greater than the given one
+		 */
+		private final int insertionPoint(final List<Entry> entries, final long rowId){
+			int low = 0, high = entries.size();
+			// Usually the last one
+			if(high == 0 || entries.get(high - 1).rowId < rowId){
+				return high;
+			}
+			while(low < high){
+				final int mid = (low + high) >>> 1;
+				if(entries.get(mid).rowId <= rowId){
+					low = mid + 1;
+				}else{
+					high = mid;
+				}
+			}
+			return low;
+		}
+	}
 }
@@ -73,10 +73,27 @@ public class SPADEAuditBridgeProcess{
 			throw new Exception("Failed to build SPADE audit bridge arguments", e);
 		}
 
+		return launch(input.getSPADEAuditBridgePath(), arguments);
+	}
+
+	/**
+	 * Launches the SPADE audit bridge to read the logs listed in a file (one path per line) till the end.
+	 * The logs are reordered through the same buffer as if they were one log.
+	 * 
+	 * @param spadeAuditBridgePath path of the SPADE audit bridge executable
+	 * @param logListPath path of the file with the list of audit logs to read
+	 * @return the launched process
+	 * @throws Exception if failed to launch
+	 */
+	public static SPADEAuditBridgeProcess launchForLogList(final String spadeAuditBridgePath, final String logListPath) throws Exception{
+		return launch(spadeAuditBridgePath, " -f " + logListPath);
+	}
+
+	private static SPADEAuditBridgeProcess launch(final String spadeAuditBridgePath, final String arguments) throws Exception{
 		String command = null;
 		final SPADEAuditBridgeProcess process;
 		try{
-			command = input.getSPADEAuditBridgePath() + " " + arguments;
+			command = spadeAuditBridgePath + " " + arguments;
 			final Process p = Runtime.getRuntime().exec(command);
 			process = new SPADEAuditBridgeProcess(command, p);
 		}catch(Exception e){
@@ -208,6 +225,13 @@ public class SPADEAuditBridgeProcess{
 		
 	}
 
+	/**
+	 * @return STDOUT of the process even if the process has exited. Output written before the exit can still be read.
+	 */
+	InputStream getStdOutStreamOfExited(){
+		return this.process.getInputStream();
+	}
+
 	public void close() throws Exception{
 		try{
 			if(this.stdErrReader != null){
@@ -245,6 +269,16 @@ public class SPADEAuditBridgeProcess{
 		}
 	}
 
+	/**
+	 * Waits for the process to exit
+	 * 
+	 * @return exit value of the process
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public int waitFor() throws InterruptedException{
+		return this.process.waitFor();
+	}
+
 	public boolean isRunning() throws Exception{
 		return this.process != null && this.process.isAlive();
 	}
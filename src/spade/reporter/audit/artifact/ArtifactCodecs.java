@@ -0,0 +1,283 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit.artifact;
+
+import static spade.utility.map.external.codec.CompactCodecs.readString;
+import static spade.utility.map.external.codec.CompactCodecs.readVarInt;
+import static spade.utility.map.external.codec.CompactCodecs.writeString;
+import static spade.utility.map.external.codec.CompactCodecs.writeVarInt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.Set;
+
+import spade.utility.map.external.codec.Codec;
+import spade.utility.map.external.codec.CompactCodecs;
+
+/**
+ * Compact codecs for the artifact identifiers and the artifact state kept in the external map
+ */
+class ArtifactCodecs{
+
+	private static final int tagBlockDevice = 16,
+			tagCharacterDevice = 17,
+			tagDirectory = 18,
+			tagFile = 19,
+			tagLink = 20,
+			tagNamedPipe = 21,
+			tagUnixSocket = 22,
+			tagPosixMessageQueue = 23,
+			tagMemory = 24,
+			tagNetworkSocket = 25,
+			tagUnknown = 26,
+			tagUnnamedNetworkSocketPair = 27,
+			tagUnnamedPipe = 28,
+			tagUnnamedUnixSocketPair = 29,
+			tagSystemVMessageQueue = 30,
+			tagSystemVSharedMemory = 31,
+			tagArtifactState = 32;
+	
+	private static boolean registered = false;
+	
+	private interface PathIdentifierFactory<T extends PathIdentifier>{
+		T create(String path, String rootFSPath, String inode);
+	}
+	
+	private interface FdPairIdentifierFactory<T extends FdPairIdentifier>{
+		T create(String tgid, String fd0, String fd1);
+	}
+	
+	private interface SystemVArtifactIdentifierFactory<T extends SystemVArtifactIdentifier>{
+		T create(String id, String ouid, String ogid, String ipcNamespace);
+	}
+	
+	private static <T extends PathIdentifier> void registerPath(int tag, Class<T> type, PathIdentifierFactory<T> factory){
+		CompactCodecs.register(tag, type, new Codec<T>(){
+			@Override
+			public void write(DataOutput out, T value) throws IOException{
+				writeString(out, value.path);
+				writeString(out, value.rootFSPath);
+				writeString(out, value.inode);
+			}
+			@Override
+			public T read(DataInput in) throws IOException{
+				final String path = readString(in);
+				final String rootFSPath = readString(in);
+				return factory.create(path, rootFSPath, readString(in));
+			}
+		});
+	}
+	
+	private static <T extends FdPairIdentifier> void registerFdPair(int tag, Class<T> type, FdPairIdentifierFactory<T> factory){
+		CompactCodecs.register(tag, type, new Codec<T>(){
+			@Override
+			public void write(DataOutput out, T value) throws IOException{
+				writeString(out, value.tgid);
+				writeString(out, value.fd0);
+				writeString(out, value.fd1);
+			}
+			@Override
+			public T read(DataInput in) throws IOException{
+				final String tgid = readString(in);
+				final String fd0 = readString(in);
+				return factory.create(tgid, fd0, readString(in));
+			}
+		});
+	}
+	
+	private static <T extends SystemVArtifactIdentifier> void registerSystemV(int tag, Class<T> type, 
+			SystemVArtifactIdentifierFactory<T> factory){
+		CompactCodecs.register(tag, type, new Codec<T>(){
+			@Override
+			public void write(DataOutput out, T value) throws IOException{
+				writeString(out, value.id);
+				writeString(out, value.ouid);
+				writeString(out, value.ogid);
+				writeString(out, value.ipcNamespace);
+			}
+			@Override
+			public T read(DataInput in) throws IOException{
+				final String id = readString(in);
+				final String ouid = readString(in);
+				final String ogid = readString(in);
+				return factory.create(id, ouid, ogid, readString(in));
+			}
+		});
+	}
+	
+	// Zero for null otherwise length plus one followed by the two's-complement bytes
+	private static void writeBigInteger(DataOutput out, BigInteger value) throws IOException{
+		if(value == null){
+			writeVarInt(out, 0);
+		}else{
+			final byte[] bytes = value.toByteArray();
+			writeVarInt(out, bytes.length + 1);
+			out.write(bytes);
+		}
+	}
+	
+	private static BigInteger readBigInteger(DataInput in) throws IOException{
+		final int length = readVarInt(in) - 1;
+		if(length < 0){
+			return null;
+		}else{
+			final byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			return new BigInteger(bytes);
+		}
+	}
+	
+	/**
+	 * Registers all the codecs. Must be called before reading from an external map written with these codecs.
+	 */
+	static synchronized void register(){
+		if(registered){
+			return;
+		}
+		registerPath(tagBlockDevice, BlockDeviceIdentifier.class, BlockDeviceIdentifier::new);
+		registerPath(tagCharacterDevice, CharacterDeviceIdentifier.class, CharacterDeviceIdentifier::new);
+		registerPath(tagDirectory, DirectoryIdentifier.class, DirectoryIdentifier::new);
+		registerPath(tagFile, FileIdentifier.class, FileIdentifier::new);
+		registerPath(tagLink, LinkIdentifier.class, LinkIdentifier::new);
+		registerPath(tagNamedPipe, NamedPipeIdentifier.class, NamedPipeIdentifier::new);
+		registerPath(tagUnixSocket, UnixSocketIdentifier.class, UnixSocketIdentifier::new);
+		registerPath(tagPosixMessageQueue, PosixMessageQueue.class, PosixMessageQueue::new);
+		
+		registerFdPair(tagUnnamedPipe, UnnamedPipeIdentifier.class, UnnamedPipeIdentifier::new);
+		registerFdPair(tagUnnamedUnixSocketPair, UnnamedUnixSocketPairIdentifier.class, UnnamedUnixSocketPairIdentifier::new);
+		
+		registerSystemV(tagSystemVMessageQueue, SystemVMessageQueueIdentifier.class, SystemVMessageQueueIdentifier::new);
+		registerSystemV(tagSystemVSharedMemory, SystemVSharedMemoryIdentifier.class, SystemVSharedMemoryIdentifier::new);
+		
+		CompactCodecs.register(tagUnnamedNetworkSocketPair, UnnamedNetworkSocketPairIdentifier.class, 
+				new Codec<UnnamedNetworkSocketPairIdentifier>(){
+			@Override
+			public void write(DataOutput out, UnnamedNetworkSocketPairIdentifier value) throws IOException{
+				writeString(out, value.tgid);
+				writeString(out, value.fd0);
+				writeString(out, value.fd1);
+				writeString(out, value.protocol);
+			}
+			@Override
+			public UnnamedNetworkSocketPairIdentifier read(DataInput in) throws IOException{
+				final String tgid = readString(in);
+				final String fd0 = readString(in);
+				final String fd1 = readString(in);
+				return new UnnamedNetworkSocketPairIdentifier(tgid, fd0, fd1, readString(in));
+			}
+		});
+		
+		CompactCodecs.register(tagMemory, MemoryIdentifier.class, new Codec<MemoryIdentifier>(){
+			@Override
+			public void write(DataOutput out, MemoryIdentifier value) throws IOException{
+				writeString(out, value.getTgid());
+				writeString(out, value.getMemoryAddress());
+				writeString(out, value.getSize());
+			}
+			@Override
+			public MemoryIdentifier read(DataInput in) throws IOException{
+				final String tgid = readString(in);
+				final String memoryAddress = readString(in);
+				return new MemoryIdentifier(tgid, memoryAddress, readString(in));
+			}
+		});
+		
+		CompactCodecs.register(tagNetworkSocket, NetworkSocketIdentifier.class, new Codec<NetworkSocketIdentifier>(){
+			@Override
+			public void write(DataOutput out, NetworkSocketIdentifier value) throws IOException{
+				writeString(out, value.getLocalHost());
+				writeString(out, value.getLocalPort());
+				writeString(out, value.getRemoteHost());
+				writeString(out, value.getRemotePort());
+				writeString(out, value.getProtocol());
+				writeString(out, value.netNamespaceId);
+			}
+			@Override
+			public NetworkSocketIdentifier read(DataInput in) throws IOException{
+				final String localHost = readString(in);
+				final String localPort = readString(in);
+				final String remoteHost = readString(in);
+				final String remotePort = readString(in);
+				final String protocol = readString(in);
+				return new NetworkSocketIdentifier(localHost, localPort, remoteHost, remotePort, protocol, readString(in));
+			}
+		});
+		
+		CompactCodecs.register(tagUnknown, UnknownIdentifier.class, new Codec<UnknownIdentifier>(){
+			@Override
+			public void write(DataOutput out, UnknownIdentifier value) throws IOException{
+				writeString(out, value.getTgid());
+				writeString(out, value.getFD());
+			}
+			@Override
+			public UnknownIdentifier read(DataInput in) throws IOException{
+				final String tgid = readString(in);
+				return new UnknownIdentifier(tgid, readString(in));
+			}
+		});
+		
+		CompactCodecs.register(tagArtifactState, ArtifactState.class, new Codec<ArtifactState>(){
+			@Override
+			public void write(DataOutput out, ArtifactState value) throws IOException{
+				out.writeBoolean(value.hasBeenPut());
+				writeBigInteger(out, value.getEpoch());
+				writeBigInteger(out, value.getVersion());
+				writeBigInteger(out, value.getLastPutEpoch());
+				writeBigInteger(out, value.getLastPutVersion());
+				writeString(out, value.getPermissions());
+				writeString(out, value.getLastPutPermissions());
+				final Set<String> previousPutPermissions = value.getPreviousPutPermissions();
+				if(previousPutPermissions == null){
+					writeVarInt(out, 0);
+				}else{
+					writeVarInt(out, previousPutPermissions.size() + 1);
+					for(String permissions : previousPutPermissions){
+						writeString(out, permissions);
+					}
+				}
+			}
+			@Override
+			public ArtifactState read(DataInput in) throws IOException{
+				final boolean hasBeenPut = in.readBoolean();
+				final BigInteger epoch = readBigInteger(in);
+				final BigInteger version = readBigInteger(in);
+				final BigInteger lastPutEpoch = readBigInteger(in);
+				final BigInteger lastPutVersion = readBigInteger(in);
+				final String permissions = readString(in);
+				final String lastPutPermissions = readString(in);
+				final int previousPutPermissionsSize = readVarInt(in) - 1;
+				Set<String> previousPutPermissions = null;
+				if(previousPutPermissionsSize >= 0){
+					previousPutPermissions = new HashSet<String>();
+					for(int i = 0; i < previousPutPermissionsSize; i++){
+						previousPutPermissions.add(readString(in));
+					}
+				}
+				return new ArtifactState(hasBeenPut, epoch, version, lastPutEpoch, lastPutVersion, 
+						permissions, lastPutPermissions, previousPutPermissions);
+			}
+		});
+		
+		registered = true;
+	}
+}
@@ -24,6 +24,8 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -42,6 +44,7 @@ import spade.utility.Result;
 import spade.utility.map.external.ExternalMap;
 import spade.utility.map.external.ExternalMapArgument;
 import spade.utility.map.external.ExternalMapManager;
+import spade.utility.map.external.codec.CodecName;
 import spade.vertex.opm.Artifact;
 
 public class ArtifactManager{
@@ -313,12 +316,40 @@ public class ArtifactManager{
 	
 	private final Map<Class<? extends ArtifactIdentifier>, ArtifactConfig> artifactConfigs;
 	
-	private final String artifactsMapId = "AuditArtifactsMap";
+	private static final String artifactsMapId = "AuditArtifactsMap";
 	private ExternalMap<ArtifactIdentifier, ArtifactState> artifactsMap;
 	
+	/**
+	 * Artifacts whose state might have changed since the last checkpoint. Only kept if checkpoints are enabled.
+	 */
+	private Set<ArtifactIdentifier> changedArtifacts = null;
+	
+	/**
+	 * Locks for the states of the artifacts by the hash of the identifier. Only used if events are handled on more
+	 * than one thread.
+	 * 
+	 * The lock of an artifact is held from its first use in an event till the end of the event (see 'eventHandled') so
+	 * that the changes to an artifact by an event are seen together by the other threads. At most one lock is held by
+	 * a thread so that threads cannot wait on each other. The lock held is given up for the next artifact in the same
+	 * event.
+	 */
+	private ReentrantLock[] artifactLocks = null;
+	private final ThreadLocal<ReentrantLock> heldArtifactLock = new ThreadLocal<ReentrantLock>();
+	
 	private static final Logger logger = Logger.getLogger(ArtifactManager.class.getName());
 	
 	public ArtifactManager(Audit reporter, ArtifactConfiguration artifactConfiguration) throws Exception{
+		this(reporter, artifactConfiguration, parseArtifactsMapArgument(artifactConfiguration));
+	}
+	
+	/**
+	 * @param reporter the reporter to put the vertices and edges to
+	 * @param artifactConfiguration artifact configuration
+	 * @param artifactsMapArgument argument of the artifacts map. Not used if the map is not to be kept
+	 * @throws Exception if the artifacts map could not be created
+	 */
+	public ArtifactManager(Audit reporter, ArtifactConfiguration artifactConfiguration, 
+			ExternalMapArgument artifactsMapArgument) throws Exception{
 		if(reporter == null){
 			throw new IllegalArgumentException("NULL Audit reporter");
 		}
@@ -327,25 +358,24 @@ public class ArtifactManager{
 		}
 		this.reporter = reporter;
 		if(artifactConfiguration.isKeepingArtifactPropertiesMap()){
-			String defaultConfigFilePath = Settings.getDefaultConfigFilePath(this.getClass());
-
-			Result<ExternalMapArgument> externalMapArgumentResult = ExternalMapManager.parseArgumentFromFile(artifactsMapId, defaultConfigFilePath);
-			if(externalMapArgumentResult.error){
-				logger.log(Level.SEVERE, "Failed to parse argument for external map: '"+artifactsMapId+"'");
-				logger.log(Level.SEVERE, externalMapArgumentResult.toErrorString());
-				throw new Exception("Failed to parse external map arguments");
+			if(artifactsMapArgument == null){
+				throw new IllegalArgumentException("NULL external map argument: '"+artifactsMapId+"'");
+			}
+			Result<ExternalMap<ArtifactIdentifier, ArtifactState>> externalMapResult;
+			if(artifactsMapArgument.codecName == CodecName.Compact){
+				ArtifactCodecs.register();
+				externalMapResult = ExternalMapManager.create(artifactsMapArgument);
 			}else{
-				ExternalMapArgument externalMapArgument = externalMapArgumentResult.result;
-				Result<ExternalMap<ArtifactIdentifier, ArtifactState>> externalMapResult = ExternalMapManager.create(externalMapArgument,
+				externalMapResult = ExternalMapManager.create(artifactsMapArgument,
 						artifactIdentifierConverter, artifactStateConverter);
-				if(externalMapResult.error){
-					logger.log(Level.SEVERE, "Failed to create external map '"+artifactsMapId+"' from arguments: " + externalMapArgument);
-					logger.log(Level.SEVERE, externalMapResult.toErrorString());
-					throw new Exception("Failed to create external map");
-				}else{
-					logger.log(Level.INFO, artifactsMapId + ": " + externalMapArgument);
-					artifactsMap = externalMapResult.result;
-				}
+			}
+			if(externalMapResult.error){
+				logger.log(Level.SEVERE, "Failed to create external map '"+artifactsMapId+"' from arguments: " + artifactsMapArgument);
+				logger.log(Level.SEVERE, externalMapResult.toErrorString());
+				throw new Exception("Failed to create external map");
+			}else{
+				logger.log(Level.INFO, artifactsMapId + ": " + artifactsMapArgument);
+				artifactsMap = externalMapResult.result;
 			}
 		}else{
 			artifactsMap = null;
@@ -353,6 +383,23 @@ public class ArtifactManager{
 		artifactConfigs = getArtifactConfig(artifactConfiguration);
 	}
 	
+	/*
+	 * Reads the argument of the artifacts map from the default config file. Null if the map is not to be kept.
+	 */
+	private static ExternalMapArgument parseArtifactsMapArgument(ArtifactConfiguration artifactConfiguration) throws Exception{
+		if(artifactConfiguration == null || !artifactConfiguration.isKeepingArtifactPropertiesMap()){
+			return null;
+		}
+		String defaultConfigFilePath = Settings.getDefaultConfigFilePath(ArtifactManager.class);
+		Result<ExternalMapArgument> externalMapArgumentResult = ExternalMapManager.parseArgumentFromFile(artifactsMapId, defaultConfigFilePath);
+		if(externalMapArgumentResult.error){
+			logger.log(Level.SEVERE, "Failed to parse argument for external map: '"+artifactsMapId+"'");
+			logger.log(Level.SEVERE, externalMapArgumentResult.toErrorString());
+			throw new Exception("Failed to parse external map arguments");
+		}
+		return externalMapArgumentResult.result;
+	}
+	
 	private Map<Class<? extends ArtifactIdentifier>, ArtifactConfig> getArtifactConfig(ArtifactConfiguration artifactConfiguration){
 		final Map<Class<? extends ArtifactIdentifier>, ArtifactConfig> map = 
 				new HashMap<Class<? extends ArtifactIdentifier>, ArtifactConfig>();
@@ -450,23 +497,69 @@ public class ArtifactManager{
 		return artifactConfigs.get(identifier.getClass()).canBePermissioned;
 	}
 
+	/**
+	 * Makes the artifact states safe to change on more than one thread. Must be called before any event is handled.
+	 * 
+	 * Every thread handling events must call 'eventHandled' after each event.
+	 * 
+	 * @param locks number of locks to divide the artifacts over
+	 */
+	public void enableConcurrentHandling(int locks){
+		if(locks < 1){
+			throw new IllegalArgumentException("Locks must be greater than 0. Input: " + locks);
+		}
+		if(artifactLocks == null){
+			final ReentrantLock[] artifactLocks = new ReentrantLock[locks];
+			for(int i = 0; i < locks; i++){
+				artifactLocks[i] = new ReentrantLock();
+			}
+			this.artifactLocks = artifactLocks;
+		}
+	}
+	
+	/**
+	 * Gives up the lock held by the calling thread (if any). Must be called after each event if concurrent handling
+	 * is enabled.
+	 */
+	public void eventHandled(){
+		if(artifactLocks != null){
+			final ReentrantLock held = heldArtifactLock.get();
+			if(held != null){
+				heldArtifactLock.remove();
+				held.unlock();
+			}
+		}
+	}
+	
+	private void lockArtifact(ArtifactIdentifier identifier){
+		if(artifactLocks != null){
+			final ReentrantLock lock = artifactLocks[(identifier.hashCode() & Integer.MAX_VALUE) % artifactLocks.length];
+			final ReentrantLock held = heldArtifactLock.get();
+			if(held != lock){
+				if(held != null){
+					held.unlock();
+				}
+				lock.lock();
+				heldArtifactLock.set(lock);
+			}
+		}
+	}
+
 	public void artifactCreated(ArtifactIdentifier identifier){
 		boolean incrementEpoch = outputArtifact(identifier) && hasEpoch(identifier) 
 				&& isEpochUpdatable(identifier);
 		if(incrementEpoch){
 			if(artifactsMap != null){
-				boolean update = false;
+				lockArtifact(identifier);
 				ArtifactState state = artifactsMap.get(identifier);
 				if(state == null){
 					state = new ArtifactState();
-					artifactsMap.put(identifier, state);
-					update = false;
 				}else{
-					update = true;
-				}
-				if(update){
 					state.incrementEpoch();
 				}
+				// Put back because the map can return a copy of the state (i.e. with the off-heap cache)
+				artifactsMap.put(identifier, state);
+				artifactChanged(identifier);
 			}
 		}
 	}
@@ -476,18 +569,15 @@ public class ArtifactManager{
 				&& isVersionUpdatable(identifier);
 		if(incrementVersion){
 			if(artifactsMap != null){
-				boolean update = false;
+				lockArtifact(identifier);
 				ArtifactState state = artifactsMap.get(identifier);
 				if(state == null){
 					state = new ArtifactState();
-					artifactsMap.put(identifier, state);
-					update = false;
 				}else{
-					update = true;
-				}
-				if(update){
 					state.incrementVersion();
 				}
+				artifactsMap.put(identifier, state);
+				artifactChanged(identifier);
 			}
 		}
 	}
@@ -497,12 +587,14 @@ public class ArtifactManager{
 				&& isPermissionsUpdatable(identifier);
 		if(updatePermissions){
 			if(artifactsMap != null){
+				lockArtifact(identifier);
 				ArtifactState state = artifactsMap.get(identifier);
 				if(state == null){
 					state = new ArtifactState();
-					artifactsMap.put(identifier, state);
 				}
 				state.updatePermissions(permissions);
+				artifactsMap.put(identifier, state);
+				artifactChanged(identifier);
 			}
 		}
 	}
@@ -513,10 +605,11 @@ public class ArtifactManager{
 		String permissions = null;
 		if(outputArtifact(identifier)){
 			if(artifactsMap != null){
+				lockArtifact(identifier);
 				ArtifactState state = artifactsMap.get(identifier);
 				if(state == null){
+					// Added to the map below because a new state has not been put
 					state = new ArtifactState();
-					artifactsMap.put(identifier, state);
 				}
 				
 				boolean hasBeenPut = state.hasBeenPut();
@@ -557,6 +650,8 @@ public class ArtifactManager{
 				// Always call put to keep the state in sync
 				if(!hasBeenPut){
 					state.put();
+					artifactsMap.put(identifier, state);
+					artifactChanged(identifier);
 				}
 				return artifact;
 			}
@@ -564,6 +659,58 @@ public class ArtifactManager{
 		return getArtifact(identifier, epoch, version, permissions, source);
 	}
 	
+	private void artifactChanged(ArtifactIdentifier identifier){
+		if(changedArtifacts != null){
+			changedArtifacts.add(identifier);
+		}
+	}
+	
+	/**
+	 * Starts keeping the artifacts whose state changes for checkpoints. Must be called before any event is handled.
+	 */
+	public void enableCheckpoints(){
+		ArtifactCodecs.register();
+		if(changedArtifacts == null){
+			changedArtifacts = ConcurrentHashMap.newKeySet();
+		}
+	}
+	
+	/**
+	 * Returns the current states of the artifacts changed since the last call, and forgets the changes.
+	 * 
+	 * The states are the ones in use and must be written out before the next event is handled.
+	 * 
+	 * @return artifact states (empty if the artifact properties map is not kept)
+	 */
+	public Map<ArtifactIdentifier, ArtifactState> takeChangedArtifactStates(){
+		if(changedArtifacts == null){
+			throw new IllegalStateException("Checkpoints not enabled");
+		}
+		final Map<ArtifactIdentifier, ArtifactState> states = new HashMap<ArtifactIdentifier, ArtifactState>();
+		if(artifactsMap != null){
+			for(ArtifactIdentifier identifier : changedArtifacts){
+				final ArtifactState state = artifactsMap.get(identifier);
+				if(state != null){
+					states.put(identifier, state);
+				}
+			}
+		}
+		changedArtifacts.clear();
+		return states;
+	}
+	
+	/**
+	 * Sets the state of the artifact as read from a checkpoint
+	 * 
+	 * @param identifier artifact identifier
+	 * @param state artifact state
+	 */
+	public void restoreArtifactState(ArtifactIdentifier identifier, ArtifactState state){
+		if(artifactsMap != null){
+			artifactsMap.put(identifier, state);
+		}
+	}
+	
 	private Artifact getArtifact(ArtifactIdentifier identifier, BigInteger epoch, BigInteger version,
 			String permissions, String source){
 		Artifact artifact = new Artifact();
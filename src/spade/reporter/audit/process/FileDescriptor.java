@@ -33,7 +33,7 @@ public final class FileDescriptor{
 	 * 
 	 * Note: Value of this variable NOT to be used in {@link #equals(Object) equals} or {@link #hashCode() hashCode} function
 	 */
-	private Boolean wasOpenedForRead = null;
+	private volatile Boolean wasOpenedForRead = null;
 	
 	public FileDescriptor(ArtifactIdentifier identifier, Boolean wasOpenedForRead) throws RuntimeException{
 		this.identifier = identifier;
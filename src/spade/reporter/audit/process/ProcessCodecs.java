@@ -0,0 +1,212 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit.process;
+
+import static spade.utility.map.external.codec.CompactCodecs.readString;
+import static spade.utility.map.external.codec.CompactCodecs.writeString;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractMap.SimpleEntry;
+
+import spade.utility.map.external.codec.Codec;
+import spade.utility.map.external.codec.CompactCodecs;
+
+/**
+ * Compact codecs for the process keys and the process unit states kept in the external map.
+ * 
+ * Identifiers are written as a presence flag followed by their fields.
+ */
+class ProcessCodecs{
+
+	private static final int tagProcessKey = 48,
+			tagProcessUnitState = 49,
+			tagProcessWithAgentState = 50;
+	
+	private static boolean registered = false;
+	
+	/**
+	 * Registers all the codecs. Must be called before reading from an external map written with these codecs.
+	 */
+	static synchronized void register(){
+		if(registered){
+			return;
+		}
+		CompactCodecs.register(tagProcessKey, ProcessKey.class, new Codec<ProcessKey>(){
+			@Override
+			public void write(DataOutput out, ProcessKey value) throws IOException{
+				writeString(out, value.pid);
+				writeString(out, value.time);
+			}
+			@Override
+			public ProcessKey read(DataInput in) throws IOException{
+				final String pid = readString(in);
+				return new ProcessKey(pid, readString(in));
+			}
+		});
+		CompactCodecs.register(tagProcessUnitState, ProcessUnitState.class, new Codec<ProcessUnitState>(){
+			@Override
+			public void write(DataOutput out, ProcessUnitState value) throws IOException{
+				value.writeCompact(out);
+			}
+			@Override
+			public ProcessUnitState read(DataInput in) throws IOException{
+				return new ProcessUnitState(in);
+			}
+		});
+		CompactCodecs.register(tagProcessWithAgentState, ProcessWithAgentState.class, new Codec<ProcessWithAgentState>(){
+			@Override
+			public void write(DataOutput out, ProcessWithAgentState value) throws IOException{
+				value.writeCompact(out);
+			}
+			@Override
+			public ProcessWithAgentState read(DataInput in) throws IOException{
+				return new ProcessWithAgentState(in);
+			}
+		});
+		registered = true;
+	}
+	
+	static void writeProcess(DataOutput out, ProcessIdentifier process) throws IOException{
+		out.writeBoolean(process != null);
+		if(process != null){
+			writeString(out, process.pid);
+			writeString(out, process.ppid);
+			writeString(out, process.name);
+			writeString(out, process.cwd);
+			writeString(out, process.commandLine);
+			writeString(out, process.startTime);
+			writeString(out, process.seenTime);
+			writeString(out, process.processUnitId);
+			writeString(out, process.processSource);
+			writeString(out, process.nsPid);
+			writeString(out, process.exe);
+		}
+	}
+	
+	static ProcessIdentifier readProcess(DataInput in) throws IOException{
+		if(!in.readBoolean()){
+			return null;
+		}
+		final String pid = readString(in);
+		final String ppid = readString(in);
+		final String name = readString(in);
+		final String cwd = readString(in);
+		final String commandLine = readString(in);
+		final String startTime = readString(in);
+		final String seenTime = readString(in);
+		final String processUnitId = readString(in);
+		final String processSource = readString(in);
+		final String nsPid = readString(in);
+		final String exe = readString(in);
+		return new ProcessIdentifier(pid, ppid, name, cwd, commandLine, startTime, seenTime, 
+				processUnitId, processSource, nsPid, exe);
+	}
+	
+	static void writeAgent(DataOutput out, AgentIdentifier agent) throws IOException{
+		out.writeBoolean(agent != null);
+		if(agent != null){
+			writeString(out, agent.uid);
+			writeString(out, agent.euid);
+			writeString(out, agent.gid);
+			writeString(out, agent.egid);
+			writeString(out, agent.suid);
+			writeString(out, agent.fsuid);
+			writeString(out, agent.sgid);
+			writeString(out, agent.fsgid);
+		}
+	}
+	
+	static AgentIdentifier readAgent(DataInput in) throws IOException{
+		if(!in.readBoolean()){
+			return null;
+		}
+		final String uid = readString(in);
+		final String euid = readString(in);
+		final String gid = readString(in);
+		final String egid = readString(in);
+		final String suid = readString(in);
+		final String fsuid = readString(in);
+		final String sgid = readString(in);
+		final String fsgid = readString(in);
+		return new AgentIdentifier(uid, euid, gid, egid, suid, fsuid, sgid, fsgid);
+	}
+	
+	static void writeUnit(DataOutput out, UnitIdentifier unit) throws IOException{
+		out.writeBoolean(unit != null);
+		if(unit != null){
+			writeString(out, unit.id);
+			writeString(out, unit.iteration);
+			writeString(out, unit.count);
+			writeString(out, unit.startTime);
+			writeString(out, unit.eventId);
+		}
+	}
+	
+	static UnitIdentifier readUnit(DataInput in) throws IOException{
+		if(!in.readBoolean()){
+			return null;
+		}
+		final String id = readString(in);
+		final String iteration = readString(in);
+		final String count = readString(in);
+		final String startTime = readString(in);
+		final String eventId = readString(in);
+		return new UnitIdentifier(id, iteration, count, startTime, eventId);
+	}
+	
+	static void writeNamespace(DataOutput out, NamespaceIdentifier namespace) throws IOException{
+		out.writeBoolean(namespace != null);
+		if(namespace != null){
+			writeString(out, namespace.mount);
+			writeString(out, namespace.user);
+			writeString(out, namespace.net);
+			writeString(out, namespace.pid);
+			writeString(out, namespace.pid_children);
+			writeString(out, namespace.ipc);
+			writeString(out, namespace.cgroup);
+		}
+	}
+	
+	static NamespaceIdentifier readNamespace(DataInput in) throws IOException{
+		if(!in.readBoolean()){
+			return null;
+		}
+		final String mount = readString(in);
+		final String user = readString(in);
+		final String net = readString(in);
+		final String pid = readString(in);
+		final String pidChildren = readString(in);
+		final String ipc = readString(in);
+		final String cgroup = readString(in);
+		return new NamespaceIdentifier(mount, user, net, pid, pidChildren, ipc, cgroup);
+	}
+	
+	static void writeAgentAndNamespace(DataOutput out, SimpleEntry<AgentIdentifier, NamespaceIdentifier> entry) throws IOException{
+		writeAgent(out, entry == null ? null : entry.getKey());
+		writeNamespace(out, entry == null ? null : entry.getValue());
+	}
+	
+	static SimpleEntry<AgentIdentifier, NamespaceIdentifier> readAgentAndNamespace(DataInput in) throws IOException{
+		final AgentIdentifier agent = readAgent(in);
+		return new SimpleEntry<AgentIdentifier, NamespaceIdentifier>(agent, readNamespace(in));
+	}
+}
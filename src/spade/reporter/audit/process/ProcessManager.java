@@ -19,12 +19,22 @@
  */
 package spade.reporter.audit.process;
 
-import java.io.Serializable;
+import static spade.utility.map.external.codec.CompactCodecs.readObject;
+import static spade.utility.map.external.codec.CompactCodecs.readString;
+import static spade.utility.map.external.codec.CompactCodecs.readVarInt;
+import static spade.utility.map.external.codec.CompactCodecs.writeObject;
+import static spade.utility.map.external.codec.CompactCodecs.writeString;
+import static spade.utility.map.external.codec.CompactCodecs.writeVarInt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,6 +50,7 @@ import spade.utility.Result;
 import spade.utility.map.external.ExternalMap;
 import spade.utility.map.external.ExternalMapArgument;
 import spade.utility.map.external.ExternalMapManager;
+import spade.utility.map.external.codec.CodecName;
 import spade.vertex.opm.Process;
 
 public abstract class ProcessManager extends ProcessStateManager{
@@ -53,11 +64,12 @@ public abstract class ProcessManager extends ProcessStateManager{
 	/**
 	 * Contains a mapping from pid to the keys of currently active processes
 	 */
-	private Map<String, ProcessKey> activeProcesses = new HashMap<String, ProcessKey>();
+	private Map<String, ProcessKey> activeProcesses = new ConcurrentHashMap<String, ProcessKey>();
 
 	/**
 	 * Map from thread group id to set of active members of the thread group.
 	 * Since number of thread group ids is limited by the number of pids, not using an external memory map.
+	 * Only changed by fork/vfork/clone and exit which are handled after all the events before them.
 	 */
 	private Map<String, Set<ProcessKey>> activeThreadGroups = new HashMap<String, Set<ProcessKey>>();
 	
@@ -69,6 +81,12 @@ public abstract class ProcessManager extends ProcessStateManager{
 	private ExternalMap<ProcessKey, ProcessUnitState> processUnitStates;
 	private final String processUnitStateMapId = "AuditProcessesMap";
 	
+	/**
+	 * Keys of all the states in 'processUnitStates'. Only kept if checkpoints are enabled because the external map
+	 * cannot be iterated.
+	 */
+	private Set<ProcessKey> processUnitStateKeys = null;
+	
 	/**
 	 * Used to tell if simple agent or complete agent needs to be created
 	 */
@@ -106,6 +124,9 @@ public abstract class ProcessManager extends ProcessStateManager{
 			throw new Exception("Failed to parse external map arguments");
 		}else{
 			ExternalMapArgument externalMapArgument = externalMapArgumentResult.result;
+			if(externalMapArgument.codecName == CodecName.Compact){
+				ProcessCodecs.register();
+			}
 			Result<ExternalMap<ProcessKey, ProcessUnitState>> externalMapResult = ExternalMapManager.create(externalMapArgument);
 			if(externalMapResult.error){
 				logger.log(Level.SEVERE, "Failed to create external map '"+processUnitStateMapId+"' from arguments: " + externalMapArgument);
@@ -220,9 +241,10 @@ public abstract class ProcessManager extends ProcessStateManager{
 			ProcessUnitState state = processUnitStates.get(key);
 			if(state != null){
 				if(!state.hadUnits()){
-					processUnitStates.remove(key);
+					removeProcessUnitState(key);
 				}else{
 					state.partialClean();
+					processUnitStates.put(key, state);
 				}
 			}
 		}
@@ -270,9 +292,28 @@ public abstract class ProcessManager extends ProcessStateManager{
 		}
 		ProcessKey key = new ProcessKey(pid, time);
 		processUnitStates.put(key, state);
+		if(processUnitStateKeys != null){
+			processUnitStateKeys.add(key);
+		}
 		activeProcesses.put(pid, key);
 	}
 	
+	/**
+	 * Puts the changed state of the currently active process back in the map.
+	 * 
+	 * Must be called after every change to a state returned by 'getProcessUnitState' because the map can return a copy
+	 * of the state (i.e. with the off-heap cache) instead of the one in the map.
+	 * 
+	 * @param pid process id
+	 * @param state the changed state
+	 */
+	protected void updateProcessUnitState(String pid, ProcessUnitState state){
+		ProcessKey key = activeProcesses.get(pid);
+		if(key != null){
+			processUnitStates.put(key, state);
+		}
+	}
+	
 	/**
 	 * Returns the currently active process unit state
 	 * 
@@ -300,6 +341,13 @@ public abstract class ProcessManager extends ProcessStateManager{
 		return processUnitStates.get(key);
 	}
 	
+	private void removeProcessUnitState(ProcessKey key){
+		processUnitStates.remove(key);
+		if(processUnitStateKeys != null){
+			processUnitStateKeys.remove(key);
+		}
+	}
+	
 	/**
 	 * Returns the vertex for the currently active process with pid.
 	 * 
@@ -323,8 +371,121 @@ public abstract class ProcessManager extends ProcessStateManager{
 		clearAll();
 		activeProcesses.clear();
 		processUnitStates.clear();
+		if(processUnitStateKeys != null){
+			processUnitStateKeys.clear();
+		}
+	}
+	
+	/**
+	 * Starts keeping the keys of the process unit states for checkpoints. Must be called before any event is handled.
+	 */
+	public void enableCheckpoints(){
+		ProcessCodecs.register();
+		if(processUnitStateKeys == null){
+			processUnitStateKeys = ConcurrentHashMap.newKeySet();
+		}
+	}
+	
+	/**
+	 * Writes the complete state of all the processes. Includes the states of the exited processes kept for unit
+	 * dependency events.
+	 * 
+	 * @param out output to write to
+	 * @throws IOException on write error
+	 */
+	public void writeCheckpoint(DataOutput out) throws IOException{
+		if(processUnitStateKeys == null){
+			throw new IllegalStateException("Checkpoints not enabled");
+		}
+		writeProcessStates(out);
+		
+		writeVarInt(out, activeProcesses.size());
+		for(Map.Entry<String, ProcessKey> entry : activeProcesses.entrySet()){
+			writeString(out, entry.getKey());
+			writeObject(out, entry.getValue());
+		}
+		
+		writeVarInt(out, activeThreadGroups.size());
+		for(Map.Entry<String, Set<ProcessKey>> entry : activeThreadGroups.entrySet()){
+			writeString(out, entry.getKey());
+			writeVarInt(out, entry.getValue().size());
+			for(ProcessKey key : entry.getValue()){
+				writeObject(out, key);
+			}
+		}
+		
+		writeVarInt(out, processUnitStateKeys.size());
+		for(ProcessKey key : processUnitStateKeys){
+			writeObject(out, key);
+			writeObject(out, processUnitStates.get(key));
+		}
+		
+		writeManagerCheckpoint(out);
+	}
+	
+	/**
+	 * Replaces the state of all the processes with the one written by 'writeCheckpoint'
+	 * 
+	 * @param in input to read from
+	 * @throws IOException on read error or malformed data
+	 */
+	public void readCheckpoint(DataInput in) throws IOException{
+		if(processUnitStateKeys == null){
+			throw new IllegalStateException("Checkpoints not enabled");
+		}
+		readProcessStates(in);
+		
+		activeProcesses.clear();
+		final int activeProcessCount = readVarInt(in);
+		for(int i = 0; i < activeProcessCount; i++){
+			final String pid = readString(in);
+			final ProcessKey key = readObject(in);
+			activeProcesses.put(pid, key);
+		}
+		
+		activeThreadGroups.clear();
+		final int threadGroupCount = readVarInt(in);
+		for(int i = 0; i < threadGroupCount; i++){
+			final String threadGroupId = readString(in);
+			final int memberCount = readVarInt(in);
+			final Set<ProcessKey> members = new HashSet<ProcessKey>();
+			for(int j = 0; j < memberCount; j++){
+				members.add(readObject(in));
+			}
+			activeThreadGroups.put(threadGroupId, members);
+		}
+		
+		processUnitStates.clear();
+		processUnitStateKeys.clear();
+		final int stateCount = readVarInt(in);
+		for(int i = 0; i < stateCount; i++){
+			final ProcessKey key = readObject(in);
+			final ProcessUnitState state = readObject(in);
+			if(state != null){
+				processUnitStates.put(key, state);
+				processUnitStateKeys.add(key);
+			}
+		}
+		
+		readManagerCheckpoint(in);
 	}
 	
+	/**
+	 * Writes any state kept by the subclass. Nothing by default.
+	 * 
+	 * @param out output to write to
+	 * @throws IOException on write error
+	 */
+	protected void writeManagerCheckpoint(DataOutput out) throws IOException{}
+	
+	/**
+	 * Reads the state written by 'writeManagerCheckpoint'. Nothing by default.
+	 * 
+	 * @param in input to read from
+	 * @throws IOException on read error or malformed data
+	 */
+	protected void readManagerCheckpoint(DataInput in) throws IOException{}
+	
 	/**
 	 * Returns either null (if unit==false) or 0 (if unit==true)
 	 * 
@@ -595,6 +756,7 @@ public abstract class ProcessManager extends ProcessStateManager{
 				String threadGroupId = parentState.getThreadGroupId(); // Can't be null
 				ProcessUnitState childState = getProcessUnitState(childPid); // State already added above using putProcessVertex
 				childState.setThreadGroupId(threadGroupId); // Update the thread group id for child
+				updateProcessUnitState(childPid, childState);
 				if(activeThreadGroups.get(threadGroupId) == null){
 					activeThreadGroups.put(threadGroupId, new HashSet<ProcessKey>());
 				}
@@ -728,14 +890,14 @@ public abstract class ProcessManager extends ProcessStateManager{
 						if(threadGroupMemberKey.equals(activeThreadGroupMemberKey)){
 							activeProcesses.remove(threadGroupMemberPid);
 						}
-						processUnitStates.remove(threadGroupMemberKey);
+						removeProcessUnitState(threadGroupMemberKey);
 					}
 				}
 			}
 			activeThreadGroups.remove(threadGroupId);
 			activeProcesses.remove(pid);
 			if(activeKey != null){
-				processUnitStates.remove(activeKey);
+				removeProcessUnitState(activeKey);
 			}
 		}else if(syscall == SYSCALL.EXIT){
 			if(threadGroupsKeys != null){
@@ -749,7 +911,7 @@ public abstract class ProcessManager extends ProcessStateManager{
 			if(activeThreadGroups.get(threadGroupId) == null){
 				activeProcesses.remove(pid);
 				if(activeKey != null){
-					processUnitStates.remove(activeKey);
+					removeProcessUnitState(activeKey);
 				}
 			}else{
 				removeProcessUnitState(pid);
@@ -789,6 +951,7 @@ public abstract class ProcessManager extends ProcessStateManager{
 		if(state != null){
 			if(state.isUnitActive()){
 				state.unitExit();
+				updateProcessUnitState(pid, state);
 			}
 			processVertex = buildVertex(state.getProcess(), state.getAgent(), state.getUnit(), state.getNamespace());
 		}else{
@@ -817,6 +980,7 @@ public abstract class ProcessManager extends ProcessStateManager{
 		if(state != null){
 			if(state.isUnitActive()){
 				state.unitExit();
+				updateProcessUnitState(pid, state);
 				return true;
 			}else{
 				return false;
@@ -1150,53 +1314,3 @@ public abstract class ProcessManager extends ProcessStateManager{
 	}
 	*/
 }
-
-class ProcessKey implements Serializable{
-	
-	private static final long serialVersionUID = -5735819091990559950L;
-	
-	String pid;
-	String time; // starttime or null
-	
-	ProcessKey(String pid, String time){
-		this.pid = pid;
-		this.time = time;
-	}
-
-	@Override
-	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((pid == null) ? 0 : pid.hashCode());
-		result = prime * result + ((time == null) ? 0 : time.hashCode());
-		return result;
-	}
-
-	@Override
-	public boolean equals(Object obj) {
-		if (this == obj)
-			return true;
-		if (obj == null)
-			return false;
-		if (getClass() != obj.getClass())
-			return false;
-		ProcessKey other = (ProcessKey) obj;
-		if (pid == null) {
-			if (other.pid != null)
-				return false;
-		} else if (!pid.equals(other.pid))
-			return false;
-		if (time == null) {
-			if (other.time != null)
-				return false;
-		} else if (!time.equals(other.time))
-			return false;
-		return true;
-	}
-
-	@Override
-	public String toString() {
-		return "ProcessKey [pid=" + pid + ", time=" + time + "]";
-	}
-
-}
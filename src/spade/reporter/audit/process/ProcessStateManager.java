@@ -19,10 +19,27 @@
  */
 package spade.reporter.audit.process;
 
+import static spade.utility.map.external.codec.CompactCodecs.readNullableBoolean;
+import static spade.utility.map.external.codec.CompactCodecs.readObject;
+import static spade.utility.map.external.codec.CompactCodecs.readString;
+import static spade.utility.map.external.codec.CompactCodecs.readVarInt;
+import static spade.utility.map.external.codec.CompactCodecs.writeNullableBoolean;
+import static spade.utility.map.external.codec.CompactCodecs.writeObject;
+import static spade.utility.map.external.codec.CompactCodecs.writeString;
+import static spade.utility.map.external.codec.CompactCodecs.writeVarInt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import spade.reporter.audit.LinuxPathResolver;
+import spade.reporter.audit.artifact.ArtifactIdentifier;
 import spade.utility.HelperFunctions;
 
 /**
@@ -32,10 +49,13 @@ import spade.utility.HelperFunctions;
  * 2) Fd tgid
  * 3) Fd table
  * 
+ * The states of different processes can be changed on different threads. The state of a process, and of the processes
+ * sharing state with it (see 'isSharingState'), must only be changed by one thread at a time.
+ * 
  */
 public abstract class ProcessStateManager{
 	
-	private final Map<String, ProcessState> processStates = new HashMap<String, ProcessState>();
+	private final Map<String, ProcessState> processStates = new ConcurrentHashMap<String, ProcessState>();
 	
 	public void pivot_root(String pid, String root, String cwd){
 		String mntId = _getProcessState(pid).nsMntId;
@@ -215,6 +235,22 @@ public abstract class ProcessStateManager{
 		return state;
 	}
 	
+	/**
+	 * Returns true if the processes share the fd table or the filesystem state (i.e. cloned with them linked)
+	 * 
+	 * @param pid process id
+	 * @param otherPid process id of the other process
+	 * @return true/false
+	 */
+	public boolean isSharingState(String pid, String otherPid){
+		final ProcessState state = processStates.get(pid);
+		final ProcessState otherState = processStates.get(otherPid);
+		if(state == null || otherState == null){
+			return false;
+		}
+		return state.fds == otherState.fds || state.fs == otherState.fs;
+	}
+	
 	private void removeProcessState(String pid){
 		processStates.remove(pid);
 	}
@@ -272,6 +308,148 @@ public abstract class ProcessStateManager{
 	protected void clearAll(){
 		processStates.clear();
 	}
+	
+	/**
+	 * Writes the states of all the processes.
+	 * 
+	 * Fd tables, file descriptors and filesystem states shared by processes are written once and referred to by index
+	 * so that they are shared again when read.
+	 * 
+	 * @param out output to write to
+	 * @throws IOException on write error
+	 */
+	protected void writeProcessStates(DataOutput out) throws IOException{
+		final Map<Map<String, FileDescriptor>, Integer> fdsIndexes = new IdentityHashMap<Map<String, FileDescriptor>, Integer>();
+		final Map<ProcessFS, Integer> fsIndexes = new IdentityHashMap<ProcessFS, Integer>();
+		final List<Map<String, FileDescriptor>> fdsList = new ArrayList<Map<String, FileDescriptor>>();
+		final List<ProcessFS> fsList = new ArrayList<ProcessFS>();
+		for(ProcessState state : processStates.values()){
+			if(!fdsIndexes.containsKey(state.fds)){
+				fdsIndexes.put(state.fds, fdsList.size());
+				fdsList.add(state.fds);
+			}
+			if(!fsIndexes.containsKey(state.fs)){
+				fsIndexes.put(state.fs, fsList.size());
+				fsList.add(state.fs);
+			}
+		}
+		
+		// File descriptors are shared between fd tables after fork and dup
+		final Map<FileDescriptor, Integer> fileDescriptorIndexes = new IdentityHashMap<FileDescriptor, Integer>();
+		final List<FileDescriptor> fileDescriptorList = new ArrayList<FileDescriptor>();
+		for(Map<String, FileDescriptor> fds : fdsList){
+			for(FileDescriptor fileDescriptor : fds.values()){
+				if(!fileDescriptorIndexes.containsKey(fileDescriptor)){
+					fileDescriptorIndexes.put(fileDescriptor, fileDescriptorList.size());
+					fileDescriptorList.add(fileDescriptor);
+				}
+			}
+		}
+		
+		writeVarInt(out, fileDescriptorList.size());
+		for(FileDescriptor fileDescriptor : fileDescriptorList){
+			writeObject(out, fileDescriptor.identifier);
+			writeNullableBoolean(out, fileDescriptor.getWasOpenedForRead());
+		}
+		
+		writeVarInt(out, fdsList.size());
+		for(Map<String, FileDescriptor> fds : fdsList){
+			writeVarInt(out, fds.size());
+			for(Map.Entry<String, FileDescriptor> entry : fds.entrySet()){
+				writeString(out, entry.getKey());
+				writeVarInt(out, fileDescriptorIndexes.get(entry.getValue()));
+			}
+		}
+		
+		writeVarInt(out, fsList.size());
+		for(ProcessFS fs : fsList){
+			writeString(out, fs.root);
+			writeString(out, fs.cwdRoot);
+			writeString(out, fs.cwd);
+		}
+		
+		writeVarInt(out, processStates.size());
+		for(Map.Entry<String, ProcessState> entry : processStates.entrySet()){
+			final ProcessState state = entry.getValue();
+			writeString(out, entry.getKey());
+			writeString(out, state.nsMntId);
+			writeString(out, state.nsPidId);
+			writeString(out, state.nsUsrId);
+			writeString(out, state.nsIpcId);
+			writeString(out, state.nsNetId);
+			writeString(out, state.nsPidChildrenId);
+			writeString(out, state.nsCgroupId);
+			writeString(out, state.memoryTgid);
+			writeString(out, state.fdTgid);
+			writeVarInt(out, fdsIndexes.get(state.fds));
+			writeVarInt(out, fsIndexes.get(state.fs));
+		}
+	}
+	
+	/**
+	 * Replaces the states of all the processes with the ones written by 'writeProcessStates'
+	 * 
+	 * @param in input to read from
+	 * @throws IOException on read error or malformed data
+	 */
+	protected void readProcessStates(DataInput in) throws IOException{
+		final int fileDescriptorCount = readVarInt(in);
+		final List<FileDescriptor> fileDescriptorList = new ArrayList<FileDescriptor>(fileDescriptorCount);
+		for(int i = 0; i < fileDescriptorCount; i++){
+			final ArtifactIdentifier identifier = readObject(in);
+			fileDescriptorList.add(new FileDescriptor(identifier, readNullableBoolean(in)));
+		}
+		
+		final int fdsCount = readVarInt(in);
+		final List<Map<String, FileDescriptor>> fdsList = new ArrayList<Map<String, FileDescriptor>>(fdsCount);
+		for(int i = 0; i < fdsCount; i++){
+			final int size = readVarInt(in);
+			final Map<String, FileDescriptor> fds = new HashMap<String, FileDescriptor>();
+			for(int j = 0; j < size; j++){
+				final String fd = readString(in);
+				final int fileDescriptorIndex = readVarInt(in);
+				if(fileDescriptorIndex >= fileDescriptorList.size()){
+					throw new IOException("Malformed fd table entry for fd: " + fd);
+				}
+				fds.put(fd, fileDescriptorList.get(fileDescriptorIndex));
+			}
+			fdsList.add(fds);
+		}
+		
+		final int fsCount = readVarInt(in);
+		final List<ProcessFS> fsList = new ArrayList<ProcessFS>(fsCount);
+		for(int i = 0; i < fsCount; i++){
+			final ProcessFS fs = new ProcessFS();
+			fs.root = readString(in);
+			fs.cwdRoot = readString(in);
+			fs.cwd = readString(in);
+			fsList.add(fs);
+		}
+		
+		processStates.clear();
+		final int stateCount = readVarInt(in);
+		for(int i = 0; i < stateCount; i++){
+			final String pid = readString(in);
+			final ProcessState state = new ProcessState(null, null);
+			state.nsMntId = readString(in);
+			state.nsPidId = readString(in);
+			state.nsUsrId = readString(in);
+			state.nsIpcId = readString(in);
+			state.nsNetId = readString(in);
+			state.nsPidChildrenId = readString(in);
+			state.nsCgroupId = readString(in);
+			state.memoryTgid = readString(in);
+			state.fdTgid = readString(in);
+			final int fdsIndex = readVarInt(in);
+			final int fsIndex = readVarInt(in);
+			if(fdsIndex >= fdsList.size() || fsIndex >= fsList.size()){
+				throw new IOException("Malformed process state for pid: " + pid);
+			}
+			state.fds = fdsList.get(fdsIndex);
+			state.fs = fsList.get(fsIndex);
+			processStates.put(pid, state);
+		}
+	}
 }
 
 class ProcessState{
@@ -19,13 +19,18 @@
  */
 package spade.reporter.audit.process;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.AbstractMap.SimpleEntry;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import spade.utility.HelperFunctions;
 import spade.utility.Series;
+import spade.utility.map.external.codec.CompactCodecs;
 
 /**
  * Maintains the state to deduplicate, and manages process and unit vertices
@@ -74,6 +79,48 @@ public class ProcessUnitState implements Serializable{
 		}
 	}
 	
+	/**
+	 * Restores the state written by 'writeCompact'
+	 * 
+	 * @param in input to read from
+	 * @throws IOException on read failure
+	 */
+	protected ProcessUnitState(DataInput in) throws IOException{
+		process = ProcessCodecs.readProcess(in);
+		agent = ProcessCodecs.readAgent(in);
+		unit = ProcessCodecs.readUnit(in);
+		namespace = ProcessCodecs.readNamespace(in);
+		threadGroupId = CompactCodecs.readString(in);
+		hadUnits = in.readBoolean();
+		final int size = CompactCodecs.readVarInt(in);
+		for(int i = 0; i < size; i++){
+			final double time = in.readDouble();
+			timeToAgentAndNamespace.add(time, ProcessCodecs.readAgentAndNamespace(in));
+		}
+	}
+	
+	/**
+	 * Writes the state for the compact codec
+	 * 
+	 * @param out output to write to
+	 * @throws IOException on write failure
+	 */
+	protected void writeCompact(DataOutput out) throws IOException{
+		ProcessCodecs.writeProcess(out, process);
+		ProcessCodecs.writeAgent(out, agent);
+		ProcessCodecs.writeUnit(out, unit);
+		ProcessCodecs.writeNamespace(out, namespace);
+		CompactCodecs.writeString(out, threadGroupId);
+		out.writeBoolean(hadUnits);
+		final List<SimpleEntry<Double, SimpleEntry<AgentIdentifier, NamespaceIdentifier>>> entries = 
+				timeToAgentAndNamespace.getEntries();
+		CompactCodecs.writeVarInt(out, entries.size());
+		for(SimpleEntry<Double, SimpleEntry<AgentIdentifier, NamespaceIdentifier>> entry : entries){
+			out.writeDouble(entry.getKey());
+			ProcessCodecs.writeAgentAndNamespace(out, entry.getValue());
+		}
+	}
+	
 	protected void setThreadGroupId(String threadGroupId){
 		this.threadGroupId = threadGroupId;
 	}
@@ -71,6 +71,7 @@ public class ProcessWithAgentManager extends ProcessManager{
 	protected Process putUnitVertex(String time, String eventId, String pid, UnitIdentifier unit){
 		ProcessUnitState state = getProcessUnitState(pid);
 		state.unitEnter(unit);
+		updateProcessUnitState(pid, state);
 		
 		Process unitVertex = getVertex(pid);
 		getReporter().putVertex(unitVertex);
@@ -113,11 +114,13 @@ public class ProcessWithAgentManager extends ProcessManager{
 				// TODO order of vertices and edges
 				
 				state.setAgentAndNamespace(time, newAgent, namespace);
+				updateProcessUnitState(pid, state);
 			}else{
 				if(!state.isAgentAndNamespaceSeenBeforeForProcess(newAgent, namespace)){
 					getReporter().putVertex(newProcessVertex);
 				}
 				state.setAgentAndNamespace(time, newAgent, namespace);
+				updateProcessUnitState(pid, state);
 				WasTriggeredBy newToOldProcess = new WasTriggeredBy(newProcessVertex, oldProcessVertex);
 				getReporter().putEdge(newToOldProcess, operation, timeString, eventId, source);
 			}
@@ -161,11 +164,13 @@ public class ProcessWithAgentManager extends ProcessManager{
 				// TODO order of vertices and edges
 				
 				state.setAgentAndNamespace(time, agent, newNamespace);
+				updateProcessUnitState(pid, state);
 			}else{
 				if(!state.isAgentAndNamespaceSeenBeforeForProcess(agent, newNamespace)){
 					getReporter().putVertex(newProcessVertex);
 				}
 				state.setAgentAndNamespace(time, agent, newNamespace);
+				updateProcessUnitState(pid, state);
 				WasTriggeredBy newToOldProcess = new WasTriggeredBy(newProcessVertex, oldProcessVertex);
 				getReporter().putEdge(newToOldProcess, operation, timeString, eventId, source);
 			}
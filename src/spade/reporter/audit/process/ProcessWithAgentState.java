@@ -19,10 +19,15 @@
  */
 package spade.reporter.audit.process;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.HashSet;
 import java.util.Set;
 
+import spade.utility.map.external.codec.CompactCodecs;
+
 public class ProcessWithAgentState extends ProcessUnitState{
 
 	private static final long serialVersionUID = -614042966379285211L;
@@ -37,6 +42,41 @@ public class ProcessWithAgentState extends ProcessUnitState{
 		previousProcessAgentsAndNamespaces.add(new SimpleEntry<AgentIdentifier, NamespaceIdentifier>(agent, namespace));
 	}
 	
+	/**
+	 * Restores the state written by 'writeCompact'
+	 * 
+	 * @param in input to read from
+	 * @throws IOException on read failure
+	 */
+	protected ProcessWithAgentState(DataInput in) throws IOException{
+		super(in);
+		readAgentsAndNamespaces(in, previousProcessAgentsAndNamespaces);
+		readAgentsAndNamespaces(in, previousUnitAgentsAndNamespaces);
+	}
+	
+	@Override
+	protected void writeCompact(DataOutput out) throws IOException{
+		super.writeCompact(out);
+		writeAgentsAndNamespaces(out, previousProcessAgentsAndNamespaces);
+		writeAgentsAndNamespaces(out, previousUnitAgentsAndNamespaces);
+	}
+	
+	private static void writeAgentsAndNamespaces(DataOutput out, 
+			Set<SimpleEntry<AgentIdentifier, NamespaceIdentifier>> set) throws IOException{
+		CompactCodecs.writeVarInt(out, set.size());
+		for(SimpleEntry<AgentIdentifier, NamespaceIdentifier> entry : set){
+			ProcessCodecs.writeAgentAndNamespace(out, entry);
+		}
+	}
+	
+	private static void readAgentsAndNamespaces(DataInput in, 
+			Set<SimpleEntry<AgentIdentifier, NamespaceIdentifier>> set) throws IOException{
+		final int size = CompactCodecs.readVarInt(in);
+		for(int i = 0; i < size; i++){
+			set.add(ProcessCodecs.readAgentAndNamespace(in));
+		}
+	}
+	
 	protected void setAgentAndNamespace(Double time, AgentIdentifier agent, NamespaceIdentifier namespace){
 		super.setAgentAndNamespace(time, agent, namespace);
 		previousProcessAgentsAndNamespaces.add(new SimpleEntry<AgentIdentifier, NamespaceIdentifier>(agent, namespace));
@@ -19,8 +19,11 @@
  */
 package spade.reporter.audit.process;
 
-import java.util.HashMap;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 import spade.edge.opm.WasControlledBy;
@@ -29,6 +32,7 @@ import spade.reporter.Audit;
 import spade.reporter.audit.LinuxConstants;
 import spade.reporter.audit.OPMConstants;
 import spade.utility.HelperFunctions;
+import spade.utility.map.external.codec.CompactCodecs;
 import spade.vertex.opm.Agent;
 import spade.vertex.opm.Process;
 
@@ -40,7 +44,7 @@ public class ProcessWithoutAgentManager extends ProcessManager{
 	/**
 	 * Used to tell whether the agent has already be put or not. And also the source for the agent.
 	 */
-	private final Map<AgentIdentifier, String> agentToSource = new HashMap<AgentIdentifier, String>();
+	private final Map<AgentIdentifier, String> agentToSource = new ConcurrentHashMap<AgentIdentifier, String>();
 	
 	public ProcessWithoutAgentManager(Audit reporter, boolean simpleCreds, boolean fsids, boolean units, boolean namespaces, final LinuxConstants platformConstants) throws Exception{
 		super(reporter, simpleCreds, fsids, units, namespaces, platformConstants);
@@ -50,6 +54,25 @@ public class ProcessWithoutAgentManager extends ProcessManager{
 		agentToSource.clear();
 	}
 	
+	@Override
+	protected void writeManagerCheckpoint(DataOutput out) throws IOException{
+		CompactCodecs.writeVarInt(out, agentToSource.size());
+		for(Map.Entry<AgentIdentifier, String> entry : agentToSource.entrySet()){
+			ProcessCodecs.writeAgent(out, entry.getKey());
+			CompactCodecs.writeString(out, entry.getValue());
+		}
+	}
+	
+	@Override
+	protected void readManagerCheckpoint(DataInput in) throws IOException{
+		agentToSource.clear();
+		final int size = CompactCodecs.readVarInt(in);
+		for(int i = 0; i < size; i++){
+			final AgentIdentifier agent = ProcessCodecs.readAgent(in);
+			agentToSource.put(agent, CompactCodecs.readString(in));
+		}
+	}
+	
 	protected Process buildVertex(ProcessIdentifier process, AgentIdentifier agent, UnitIdentifier unit, NamespaceIdentifier namespace){
 		Process vertex = new Process();
 		vertex.addAnnotations(process.getAnnotationsMap());
@@ -86,8 +109,8 @@ public class ProcessWithoutAgentManager extends ProcessManager{
 	 * @return agent vertex
 	 */
 	private Agent putAgentVertex(AgentIdentifier agent, String source){
-		if(agentToSource.get(agent) == null){
-			agentToSource.put(agent, source);
+		// Put and checked at once because agents are shared by the processes handled on different threads
+		if(agentToSource.putIfAbsent(agent, source) == null){
 			Agent agentVertex = buildAgentVertex(agent);
 			getReporter().putVertex(agentVertex);
 			return agentVertex;
@@ -117,6 +140,7 @@ public class ProcessWithoutAgentManager extends ProcessManager{
 		String source = OPMConstants.SOURCE_AUDIT_SYSCALL;
 		ProcessUnitState state = getProcessUnitState(pid);
 		state.unitEnter(unit);
+		updateProcessUnitState(pid, state);
 		
 		Process unitVertex = buildVertex(state.getProcess(), state.getAgent(), state.getUnit(), state.getNamespace());
 		Agent agentVertex = putAgentVertex(state.getAgent(), source);
@@ -140,6 +164,7 @@ public class ProcessWithoutAgentManager extends ProcessManager{
 				Process unitVertex = buildVertex(state.getProcess(), null, state.getUnit(), namespace);
 				
 				state.setAgentAndNamespace(time, newAgent, namespace);
+				updateProcessUnitState(pid, state);
 				
 				WasControlledBy processToAgent = new WasControlledBy(processVertex, newAgentVertex);
 				WasControlledBy unitToAgent = new WasControlledBy(unitVertex, newAgentVertex);
@@ -148,6 +173,7 @@ public class ProcessWithoutAgentManager extends ProcessManager{
 				getReporter().putEdge(unitToAgent, operation, timeString, eventId, source);
 			}else{
 				state.setAgentAndNamespace(time, newAgent, namespace);
+				updateProcessUnitState(pid, state);
 				WasControlledBy processToAgent = new WasControlledBy(processVertex, newAgentVertex);
 				getReporter().putEdge(processToAgent, operation, timeString, eventId, source);
 			}
@@ -189,11 +215,13 @@ public class ProcessWithoutAgentManager extends ProcessManager{
 				// TODO order of vertices and edges
 				
 				state.setAgentAndNamespace(time, agent, newNamespace);
+				updateProcessUnitState(pid, state);
 			}else{
 				if(!state.hasTheNamespaceEverBeenSeenForProcess(newNamespace)){
 					getReporter().putVertex(newProcessVertex);
 				}
 				state.setAgentAndNamespace(time, agent, newNamespace);
+				updateProcessUnitState(pid, state);
 				WasTriggeredBy newToOldProcess = new WasTriggeredBy(newProcessVertex, oldProcessVertex);
 				getReporter().putEdge(newToOldProcess, operation, timeString, eventId, source);
 			}
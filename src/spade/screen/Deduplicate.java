@@ -24,8 +24,11 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,6 +41,14 @@ import spade.utility.HelperFunctions;
 import spade.utility.Result;
 import spade.utility.map.external.cache.LRUCache;
 
+/**
+ * Blocks vertices and edges which have been seen before using a BloomFilter and an LRU cache (for each of vertices
+ * and edges).
+ * 
+ * Safe to call concurrently. The BloomFilter is lock-free, and the cache is split into 'stripes' independently locked
+ * LRU caches. An element always goes to the same stripe (by its hash) so checking and updating an element is atomic.
+ * Reset and shutdown take the locks of all the stripes.
+ */
 public final class Deduplicate extends AbstractScreen{
 
 	private final static Logger logger = Logger.getLogger(Deduplicate.class.getName());
@@ -51,24 +62,27 @@ public final class Deduplicate extends AbstractScreen{
 	private final String keyFalsePositiveProbabilityEdge = "edge.bloomFilter.falsePositiveProbability";
 	private final String keyCacheSizeEdge = "edge.cache.size";
 	private final String keyReportingIntervalSeconds = "reportingIntervalSeconds";
+	private final String keyStripes = "stripes";
 
 	private final Object blankObject = new Object();
 	private final Object lockObject = new Object();
+	private final Object reportLock = new Object();
 	
+	private int stripes = 1;
 	private String loadSavePathVertex = null;
 	private spade.core.BloomFilter<String> bloomFilterVertex = null;
-	private LRUCache<String, Object> cacheVertex;
+	private StripedCache cacheVertex;
 	private String loadSavePathEdge = null;
 	private spade.core.BloomFilter<String> bloomFilterEdge = null;
-	private LRUCache<String, Object> cacheEdge;
+	private StripedCache cacheEdge;
 	
 	private boolean reportingEnabled;
 	private long reportingIntervalMillis;
-	private long lastReportedAtMillis;
-	private long verticesBlocked = 0;
-	private long verticesNotBlocked = 0;
-	private long edgeBlocked = 0;
-	private long edgesNotBlocked = 0;
+	private volatile long lastReportedAtMillis;
+	private final LongAdder verticesBlocked = new LongAdder();
+	private final LongAdder verticesNotBlocked = new LongAdder();
+	private final LongAdder edgeBlocked = new LongAdder();
+	private final LongAdder edgesNotBlocked = new LongAdder();
 	
 	@Override
 	public boolean initialize(final String argumentsString){
@@ -78,6 +92,7 @@ public final class Deduplicate extends AbstractScreen{
 					HelperFunctions.parseKeyValuePairsFrom(arguments, Settings.getDefaultConfigFilePath(this.getClass()), null);
 
 			final String reportingIntervalSecondsString = map.get(keyReportingIntervalSeconds);
+			final String stripesString = map.get(keyStripes);
 			final String vertexLoadSavePathString = map.get(keyLoadSavePathVertex);
 			final String vertexBloomFilterExpectedElementsString = map.get(keyExpectedElementsVertex);
 			final String vertexBloomFilterFalsePositiveProbabilityString = map.get(keyFalsePositiveProbabilityVertex);
@@ -87,7 +102,7 @@ public final class Deduplicate extends AbstractScreen{
 			final String edgeBloomFilterFalsePositiveProbabilityString = map.get(keyFalsePositiveProbabilityEdge);
 			final String edgeCacheSizeString = map.get(keyCacheSizeEdge);
 
-			initialize(reportingIntervalSecondsString, 
+			initialize(reportingIntervalSecondsString, stripesString,
 					vertexLoadSavePathString, 
 					vertexBloomFilterExpectedElementsString, vertexBloomFilterFalsePositiveProbabilityString, vertexCacheSizeString, 
 					edgeLoadSavePathString, 
@@ -102,7 +117,7 @@ public final class Deduplicate extends AbstractScreen{
 		}
 	}
 	
-	public final void initialize(final String reportingIntervalSecondsString, 
+	public final void initialize(final String reportingIntervalSecondsString, final String stripesString,
 			final String vertexLoadSavePathString, 
 			final String vertexBloomFilterExpectedElementsString, final String vertexBloomFilterFalsePositiveProbabilityString, final String vertexCacheSizeString,
 			final String edgeLoadSavePathString, 
@@ -122,6 +137,13 @@ public final class Deduplicate extends AbstractScreen{
 			this.reportingEnabled = false;
 		}
 		
+		final Result<Long> stripesResult = HelperFunctions.parseLong(stripesString, 10, 1, 4096);
+		if(stripesResult.error){
+			throw new Exception("Invalid value for '"+keyStripes+"'='"+stripesString+"'. "
+					+ stripesResult.errorMessage);
+		}
+		this.stripes = stripesResult.result.intValue();
+		
 		if(vertexLoadSavePathString != null && edgeLoadSavePathString != null){
 			if(vertexLoadSavePathString.equals(edgeLoadSavePathString)){
 				throw new Exception("The value for '"+keyLoadSavePathVertex+"' and '"+keyLoadSavePathEdge+"' cannot be the same");
@@ -255,23 +277,24 @@ public final class Deduplicate extends AbstractScreen{
 							+ "expectedElements=" + expectedElementsResult.result.intValue() + "]");
 		}
 
-		LRUCache<String, Object> cache = null;
+		StripedCache cache = null;
 
 		if(cacheEntries == null){
 			final Result<Long> cacheSizeResult = HelperFunctions.parseLong(cacheSizeString, 10, 0, Integer.MAX_VALUE);
 			if(cacheSizeResult.error){
 				throw new Exception("Invalid "+logName+" '"+getCacheSizeKeyFor(isForVertex)+"' value. Must be non-negative: " + cacheSizeResult.errorMessage);
 			}
-			cache = new LRUCache<String, Object>(cacheSizeResult.result.intValue());
+			cache = new StripedCache(cacheSizeResult.result.intValue(), stripes);
 		}else{
-			cache = new LRUCache<String, Object>(cacheSize);
+			cache = new StripedCache(cacheSize, stripes);
+			// Entries of each stripe are in their relative LRU order in the list
 			for(int x = cacheEntries.size() - 1; x >= 0; x--){
 				final String cacheEntryKey = cacheEntries.get(x);
 				if(cacheEntryKey != null){
-					cache.put(cacheEntryKey, blankObject);
-					if(cache.hasExceededMaximumSize()){
-						cache.evict();
-						break;
+					final LRUCache<String, Object> stripe = cache.getStripe(cacheEntryKey);
+					stripe.put(cacheEntryKey, blankObject);
+					while(stripe.hasExceededMaximumSize()){
+						stripe.evict();
 					}
 				}
 			}
@@ -293,7 +316,7 @@ public final class Deduplicate extends AbstractScreen{
 			logger.log(Level.INFO, logName + " BloomFilter would NOT be saved on shutdown");
 		}
 		
-		logger.log(Level.INFO, logName + " cache created with max size '"+cache.getMaximumSize()+"'");
+		logger.log(Level.INFO, logName + " cache created with max size '"+cache.getMaximumSize()+"' in '"+cache.getStripeCount()+"' stripe(s)");
 	}
 
 	@Override
@@ -301,14 +324,11 @@ public final class Deduplicate extends AbstractScreen{
 		if(vertex != null){
 			final String hashCode = vertex.bigHashCode();
 			if(hashCode != null){
-				final boolean block;
-				synchronized(lockObject){
-					block = block(hashCode, this.bloomFilterVertex, this.cacheVertex);
-				}
+				final boolean block = block(hashCode, this.bloomFilterVertex, this.cacheVertex);
 				if(block){
-					verticesBlocked++;
+					verticesBlocked.increment();
 				}else{
-					verticesNotBlocked++;
+					verticesNotBlocked.increment();
 				}
 				return block;
 			}
@@ -321,14 +341,11 @@ public final class Deduplicate extends AbstractScreen{
 		if(edge != null){
 			final String hashCode = edge.bigHashCode();
 			if(hashCode != null){
-				final boolean block;
-				synchronized(lockObject){
-					block = block(hashCode, this.bloomFilterEdge, this.cacheEdge);
-				}
+				final boolean block = block(hashCode, this.bloomFilterEdge, this.cacheEdge);
 				if(block){
-					edgeBlocked++;
+					edgeBlocked.increment();
 				}else{
-					edgesNotBlocked++;
+					edgesNotBlocked.increment();
 				}
 				return block;
 			}
@@ -336,79 +353,119 @@ public final class Deduplicate extends AbstractScreen{
 		return true;
 	}
 	
-	private final synchronized boolean block(final String hashCode, 
-			final spade.core.BloomFilter<String> bloomFilter, final LRUCache<String, Object> cache){
+	private final boolean block(final String hashCode, 
+			final spade.core.BloomFilter<String> bloomFilter, final StripedCache stripedCache){
 		printStats(false);
 		
-		if(bloomFilter.contains(hashCode)){
-			if(cache.get(hashCode) == null){
+		final LRUCache<String, Object> cache = stripedCache.getStripe(hashCode);
+		final ReentrantLock lock = stripedCache.getLock(hashCode);
+		lock.lock();
+		try{
+			if(bloomFilter.contains(hashCode)){
+				if(cache.get(hashCode) == null){
+					cache.put(hashCode, blankObject);
+					while(cache.hasExceededMaximumSize()){
+						cache.evict();
+					}
+					return false;
+				}else{
+					return true;
+				}
+			}else{
+				// Not in bloomfilter. Must put so do NOT block
+				bloomFilter.add(hashCode);
 				cache.put(hashCode, blankObject);
 				while(cache.hasExceededMaximumSize()){
 					cache.evict();
 				}
 				return false;
-			}else{
-				return true;
 			}
-		}else{
-			// Not in bloomfilter. Must put so do NOT block
-			bloomFilter.add(hashCode);
-			cache.put(hashCode, blankObject);
-			while(cache.hasExceededMaximumSize()){
-				cache.evict();
-			}
-			return false;
+		}finally{
+			lock.unlock();
 		}
 	}
 	
 	public final void reset(){
 		synchronized(lockObject){
-			this.bloomFilterVertex.clear();
-			this.bloomFilterEdge.clear();
-			this.cacheVertex.clear();
-			this.cacheEdge.clear();
+			lockAllStripes();
+			try{
+				this.bloomFilterVertex.clear();
+				this.bloomFilterEdge.clear();
+				this.cacheVertex.clear();
+				this.cacheEdge.clear();
+			}finally{
+				unlockAllStripes();
+			}
+		}
+	}
+
+	/*
+	 * Vertex stripes first and then edge stripes. Others only ever hold one stripe so there is no deadlock.
+	 */
+	private final void lockAllStripes(){
+		if(this.cacheVertex != null){
+			this.cacheVertex.lockAll();
+		}
+		if(this.cacheEdge != null){
+			this.cacheEdge.lockAll();
+		}
+	}
+
+	private final void unlockAllStripes(){
+		if(this.cacheEdge != null){
+			this.cacheEdge.unlockAll();
+		}
+		if(this.cacheVertex != null){
+			this.cacheVertex.unlockAll();
 		}
 	}
 	
 	public final Object getVertexCacheValueForStorage(final String hashCode){
-		synchronized(lockObject){
-			return getCacheValueForStorage(cacheVertex, hashCode);
-		}
+		return getCacheValueForStorage(cacheVertex, hashCode);
 	}
 	
 	public final Object getEdgeCacheValueForStorage(final String hashCode){
-		synchronized(lockObject){
-			return getCacheValueForStorage(cacheEdge, hashCode);
-		}
+		return getCacheValueForStorage(cacheEdge, hashCode);
 	}
 	
 	public final void setVertexCacheValueForStorage(final String hashCode, final Object value){
-		synchronized(lockObject){
-			setCacheValueForStorage(bloomFilterVertex, cacheVertex, hashCode, value);
-		}
+		setCacheValueForStorage(bloomFilterVertex, cacheVertex, hashCode, value);
 	}
 	
 	public final void setEdgeCacheValueForStorage(final String hashCode, final Object value){
-		synchronized(lockObject){
-			setCacheValueForStorage(bloomFilterEdge, cacheEdge, hashCode, value);
-		}
+		setCacheValueForStorage(bloomFilterEdge, cacheEdge, hashCode, value);
 	}
 	
 	public final void unsetAllVertexCacheValuesForStorage(){
-		synchronized(lockObject){
-			final List<String> keyList = cacheVertex.getKeysInLRUAccessOrder();
-			for(int x = keyList.size() - 1; x >= 0; x--){
-				final String key = keyList.get(x);
-				cacheVertex.put(key, blankObject);
+		for(int i = 0; i < cacheVertex.getStripeCount(); i++){
+			final LRUCache<String, Object> cache = cacheVertex.stripes.get(i);
+			final ReentrantLock lock = cacheVertex.locks.get(i);
+			lock.lock();
+			try{
+				final List<String> keyList = cache.getKeysInLRUAccessOrder();
+				for(int x = keyList.size() - 1; x >= 0; x--){
+					final String key = keyList.get(x);
+					cache.put(key, blankObject);
+				}
+			}finally{
+				lock.unlock();
 			}
 		}
 	}
 	
-	private final Object getCacheValueForStorage(final LRUCache<String, Object> cache, final String hashCode){
+	private final Object getCacheValueForStorage(final StripedCache stripedCache, final String hashCode){
 		if(hashCode == null){
 			return null;
 		}
-		final Object value = cache.get(hashCode);
+		final LRUCache<String, Object> cache = stripedCache.getStripe(hashCode);
+		final ReentrantLock lock = stripedCache.getLock(hashCode);
+		final Object value;
+		lock.lock();
+		try{
+			value = cache.get(hashCode);
+		}finally{
+			lock.unlock();
+		}
 		if(value == null){
 			return null;
 		}
@@ -419,47 +476,63 @@ public final class Deduplicate extends AbstractScreen{
 	}
 	
 	private final void setCacheValueForStorage(
-			final spade.core.BloomFilter<String> bloomFilter, final LRUCache<String, Object> cache, final String hashCode, final Object value){
+			final spade.core.BloomFilter<String> bloomFilter, final StripedCache stripedCache, final String hashCode, final Object value){
 		if(hashCode == null){
 			return;
 		}
-		if(value == null){
-			cache.put(hashCode, blankObject);
-		}else{
-			cache.put(hashCode, value);
-		}
-		if(!bloomFilter.contains(hashCode)){
-			bloomFilter.add(hashCode);
-		}
-		while(cache.hasExceededMaximumSize()){
-			cache.evict();
+		final LRUCache<String, Object> cache = stripedCache.getStripe(hashCode);
+		final ReentrantLock lock = stripedCache.getLock(hashCode);
+		lock.lock();
+		try{
+			if(value == null){
+				cache.put(hashCode, blankObject);
+			}else{
+				cache.put(hashCode, value);
+			}
+			if(!bloomFilter.contains(hashCode)){
+				bloomFilter.add(hashCode);
+			}
+			while(cache.hasExceededMaximumSize()){
+				cache.evict();
+			}
+		}finally{
+			lock.unlock();
 		}
 	}
 	
 	private final void printStats(final boolean force){
 		if(force || (reportingEnabled && (System.currentTimeMillis() - lastReportedAtMillis >= reportingIntervalMillis))){
-			logger.log(Level.INFO, "verticesBlocked=" + verticesBlocked + ", verticesNotBlocked=" + verticesNotBlocked + ", "
-					+ "edgesBlocked=" + edgeBlocked + ", edgesNotBlocked=" + edgesNotBlocked);
-			lastReportedAtMillis = System.currentTimeMillis();
+			synchronized(reportLock){
+				if(force || (System.currentTimeMillis() - lastReportedAtMillis >= reportingIntervalMillis)){
+					logger.log(Level.INFO, "verticesBlocked=" + verticesBlocked.sum() + ", verticesNotBlocked=" + verticesNotBlocked.sum() + ", "
+							+ "edgesBlocked=" + edgeBlocked.sum() + ", edgesNotBlocked=" + edgesNotBlocked.sum());
+					lastReportedAtMillis = System.currentTimeMillis();
+				}
+			}
 		}
 	}
 
 	@Override
 	public boolean shutdown(){
 		synchronized(lockObject){
-			if(this.loadSavePathVertex != null){
-				saveBloomFilterAndCache(this.bloomFilterVertex, this.cacheVertex, this.loadSavePathVertex, "Vertex");
-				this.bloomFilterVertex.clear();
-			}
-			if(this.loadSavePathEdge != null){
-				saveBloomFilterAndCache(this.bloomFilterEdge, this.cacheEdge, this.loadSavePathEdge, "Edge");
-				this.bloomFilterEdge.clear();
-			}
-			if(this.cacheEdge != null){
-				this.cacheEdge.clear();
-			}
-			if(this.cacheVertex != null){
-				this.cacheVertex.clear();
+			lockAllStripes();
+			try{
+				if(this.loadSavePathVertex != null){
+					saveBloomFilterAndCache(this.bloomFilterVertex, this.cacheVertex, this.loadSavePathVertex, "Vertex");
+					this.bloomFilterVertex.clear();
+				}
+				if(this.loadSavePathEdge != null){
+					saveBloomFilterAndCache(this.bloomFilterEdge, this.cacheEdge, this.loadSavePathEdge, "Edge");
+					this.bloomFilterEdge.clear();
+				}
+				if(this.cacheEdge != null){
+					this.cacheEdge.clear();
+				}
+				if(this.cacheVertex != null){
+					this.cacheVertex.clear();
+				}
+			}finally{
+				unlockAllStripes();
 			}
 		}
 		
@@ -469,7 +542,7 @@ public final class Deduplicate extends AbstractScreen{
 	}
 	
 	private final void saveBloomFilterAndCache(final spade.core.BloomFilter<String> bloomFilter, 
-			final LRUCache<String, Object> cache,
+			final StripedCache cache,
 			final String path, final String logName){
 		ObjectOutputStream objectOutputStream = null;
 		try{
@@ -487,4 +560,82 @@ public final class Deduplicate extends AbstractScreen{
 		}
 	}
 
+	/*
+	 * LRU cache split into stripes by the hash of the key. Each stripe is guarded by its own lock. Explicit locks
+	 * (instead of monitors) so that all of them can be held at once without nesting.
+	 */
+	private static final class StripedCache{
+		private final int maximumSize;
+		private final List<LRUCache<String, Object>> stripes = new ArrayList<LRUCache<String, Object>>();
+		// Lock at an index guards the stripe at the same index
+		private final List<ReentrantLock> locks = new ArrayList<ReentrantLock>();
+
+		private StripedCache(final int maximumSize, final int stripeCount){
+			this.maximumSize = maximumSize;
+			// No more stripes than entries
+			final int count = Math.max(1, Math.min(stripeCount, maximumSize));
+			for(int i = 0; i < count; i++){
+				// Remainder distributed over the first stripes so that the total is the maximum size
+				stripes.add(new LRUCache<String, Object>(maximumSize / count + (i < maximumSize % count ? 1 : 0)));
+				locks.add(new ReentrantLock());
+			}
+		}
+
+		private int getStripeIndex(final String key){
+			final int h = key.hashCode();
+			return ((h ^ (h >>> 16)) & 0x7fffffff) % stripes.size();
+		}
+
+		private LRUCache<String, Object> getStripe(final String key){
+			return stripes.get(getStripeIndex(key));
+		}
+
+		private ReentrantLock getLock(final String key){
+			return locks.get(getStripeIndex(key));
+		}
+
+		private void lockAll(){
+			for(final ReentrantLock lock : locks){
+				lock.lock();
+			}
+		}
+
+		private void unlockAll(){
+			for(int i = locks.size() - 1; i >= 0; i--){
+				locks.get(i).unlock();
+			}
+		}
+
+		private int getMaximumSize(){
+			return maximumSize;
+		}
+
+		private int getStripeCount(){
+			return stripes.size();
+		}
+
+		private List<String> getKeysInLRUAccessOrder(){
+			final List<String> keys = new ArrayList<String>();
+			for(int i = 0; i < stripes.size(); i++){
+				locks.get(i).lock();
+				try{
+					keys.addAll(stripes.get(i).getKeysInLRUAccessOrder());
+				}finally{
+					locks.get(i).unlock();
+				}
+			}
+			return keys;
+		}
+
+		private void clear(){
+			for(int i = 0; i < stripes.size(); i++){
+				locks.get(i).lock();
+				try{
+					stripes.get(i).clear();
+				}finally{
+					locks.get(i).unlock();
+				}
+			}
+		}
+	}
 }
@@ -19,15 +19,17 @@
  */
 package spade.storage;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -38,9 +40,11 @@ import org.neo4j.graphdb.schema.IndexDefinition;
 import spade.core.AbstractEdge;
 import spade.core.AbstractStorage;
 import spade.core.AbstractVertex;
+import spade.core.HashHelper;
 import spade.core.Settings;
 import spade.query.quickgrail.core.QueriedEdge;
 import spade.query.quickgrail.core.QueryInstructionExecutor;
+import spade.storage.neo4j.BulkImporter;
 import spade.storage.neo4j.CacheManager;
 import spade.storage.neo4j.Configuration;
 import spade.storage.neo4j.Configuration.IndexMode;
@@ -55,8 +59,10 @@ import spade.storage.neo4j.TaskCreateIndex;
 import spade.storage.neo4j.TaskExecuteQuery;
 import spade.storage.neo4j.TaskGetHashToVertexMap;
 import spade.storage.neo4j.TaskGetQueriedEdgeSet;
+import spade.storage.neo4j.TaskPutBatch;
 import spade.storage.neo4j.TaskPutEdge;
 import spade.storage.neo4j.TaskPutVertex;
+import spade.utility.FileUtility;
 import spade.utility.HelperFunctions;
 import spade.utility.Result;
 
@@ -80,6 +86,15 @@ public class Neo4j extends AbstractStorage{
 	private volatile boolean shutdown = false;
 	private final Object mainThreadRunningLock = new Object();
 	private volatile boolean mainThreadRunning = false;
+
+	// Not null only while staging for bulk import
+	private final Object bulkImportLock = new Object();
+	private BulkImporter bulkImporter = null;
+	// Checked before taking the lock so that the transactional path does not contend on it
+	private volatile boolean bulkImporting = false;
+	// Keys of the bulk imported data to be indexed once the main thread has loaded the existing keys
+	private volatile Set<String> bulkImportedNodePropertyNames = null;
+	private volatile Set<String> bulkImportedRelationshipPropertyNames = null;
 	
 	public final DatabaseManager getDatabaseManager(){
 		return databaseManager;
@@ -321,34 +336,83 @@ public class Neo4j extends AbstractStorage{
 
 	//////////////////////////////////
 
-	private final LinkedList<StorageTask<?>> neo4jDbTasksPending = new LinkedList<StorageTask<?>>();
+	// Queries and index creation. Not bounded because of high priority
+	private final LinkedBlockingDeque<StorageTask<?>> neo4jDbTasksPriorityPending = new LinkedBlockingDeque<StorageTask<?>>();
+	// Vertices and edges. Bounded by 'bufferLimit' in initialize. Putting blocks while full
+	private volatile LinkedBlockingDeque<StorageTask<?>> neo4jDbTasksPending = new LinkedBlockingDeque<StorageTask<?>>();
 
 	public final int getPendingTasksSize(){
-		synchronized(neo4jDbTasksPending){
-			return neo4jDbTasksPending.size();
-		}
+		return neo4jDbTasksPriorityPending.size() + neo4jDbTasksPending.size();
+	}
+
+	private final void clearPendingTasks(){
+		neo4jDbTasksPriorityPending.clear();
+		neo4jDbTasksPending.clear();
 	}
 
-	private final StorageTask<?> removeFirstPendingTask(){
+	// Waits for at most 'sleepWaitMillis' if there is no task
+	private final StorageTask<?> removeFirstPendingTask() throws InterruptedException{
 		if(isMainThreadRunning()){
-			synchronized(neo4jDbTasksPending){
-				final StorageTask<?> task = neo4jDbTasksPending.pollFirst();
-				if(task != null){
-					getStorageStats().pendingTasksOutgoing.increment();
-				}
-				return task;
+			StorageTask<?> task = neo4jDbTasksPriorityPending.pollFirst();
+			if(task == null){
+				task = neo4jDbTasksPending.pollFirst(getConfiguration().sleepWaitMillis, TimeUnit.MILLISECONDS);
+			}
+			if(task != null){
+				getStorageStats().pendingTasksOutgoing.increment();
 			}
+			return task;
 		}
 		return null;
 	}
 
+	// Groups the given task with the put tasks right after it. Returns the given task if nothing to group
+	private final StorageTask<?> removePendingTasksToBatchWith(final StorageTask<?> task){
+		final int putBatchSize = getConfiguration().putBatchSize;
+		if(putBatchSize <= 1 || !TaskPutBatch.isBatchable(task)){
+			return task;
+		}
+		final List<StorageTask<?>> tasks = new ArrayList<StorageTask<?>>();
+		tasks.add(task);
+		while(tasks.size() < putBatchSize){
+			final StorageTask<?> nextTask = neo4jDbTasksPending.peekFirst();
+			if(nextTask == null || !TaskPutBatch.isBatchable(nextTask)){
+				break;
+			}
+			// Only this thread removes
+			tasks.add(neo4jDbTasksPending.pollFirst());
+			getStorageStats().pendingTasksOutgoing.increment();
+		}
+		if(tasks.size() == 1){
+			return task;
+		}
+		return new TaskPutBatch(tasks);
+	}
+
 	private final void appendPendingTask(final StorageTask<?> task){
 		if(task != null){
 			if(isMainThreadRunning()){
-				enforceBufferLimit();
-				synchronized(neo4jDbTasksPending){
-					getStorageStats().pendingTasksIncoming.increment();
-					neo4jDbTasksPending.addLast(task);
+				getStorageStats().pendingTasksIncoming.increment();
+				long waitStartMillis = 0;
+				try{
+					while(!neo4jDbTasksPending.offerLast(task, getConfiguration().sleepWaitMillis, TimeUnit.MILLISECONDS)){
+						if(waitStartMillis == 0){
+							waitStartMillis = System.currentTimeMillis();
+						}
+						if(!isMainThreadRunning()){
+							debug("Task execution thread exited. Task discarded: " + task);
+							return;
+						}
+					}
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					debug("Interrupted while waiting for buffer space. Task discarded: " + task);
+					return;
+				}
+				if(waitStartMillis != 0){
+					final long diffMillis = (System.currentTimeMillis() - waitStartMillis);
+					if(diffMillis >= 10 * 1000){
+						debug("Buffer limit below in: " + diffMillis + " millis.");
+					}
 				}
 			}
 		}
@@ -357,15 +421,25 @@ public class Neo4j extends AbstractStorage{
 	private final void prependPendingTask(final StorageTask<?> task){
 		if(task != null){
 			if(isMainThreadRunning()){
-				// Don't enforce limit here because of high priority
-				synchronized(neo4jDbTasksPending){
-					getStorageStats().pendingTasksIncoming.increment();
-					neo4jDbTasksPending.addFirst(task);
-				}
+				getStorageStats().pendingTasksIncoming.increment();
+				neo4jDbTasksPriorityPending.addLast(task);
 			}
 		}
 	}
 
+	private final void createIndexesForBulkImportedKeys(){
+		final Set<String> nodeNames = bulkImportedNodePropertyNames;
+		final Set<String> relationshipNames = bulkImportedRelationshipPropertyNames;
+		bulkImportedNodePropertyNames = null;
+		bulkImportedRelationshipPropertyNames = null;
+		if(nodeNames != null){
+			updateNodePropertyNames(nodeNames);
+		}
+		if(relationshipNames != null){
+			updateRelationshipPropertyNames(relationshipNames);
+		}
+	}
+
 	private final void prependCreateIndexPendingTask(final boolean forNodes, final String key){
 		final IndexMode indexMode;
 		if(forNodes){
@@ -389,29 +463,6 @@ public class Neo4j extends AbstractStorage{
 		}
 	}
 
-	private final void enforceBufferLimit(){
-		if(getConfiguration().bufferLimit > -1){
-			long waitStartMillis = 0;
-			boolean needToWait = getPendingTasksSize() > getConfiguration().bufferLimit;
-			if(needToWait){
-				//debug("Buffer limit reached: " + bufferLimit + ". Current buffer size: " + getPendingTasksSize());
-				waitStartMillis = System.currentTimeMillis();
-			}
-			while(getPendingTasksSize() > getConfiguration().bufferLimit){
-				if(isShutdown() || !isMainThreadRunning()){
-					break;
-				}
-				HelperFunctions.sleepSafe(getConfiguration().sleepWaitMillis);
-			}
-			if(needToWait){
-				final long diffMillis = (System.currentTimeMillis() - waitStartMillis);
-				if(diffMillis >= 10 * 1000){
-					debug("Buffer limit below in: " + diffMillis + " millis.");
-				}
-			}
-		}
-	}
-	
 	private final Runnable dbPendingTasksRunner = new Runnable(){
 		// Globals
 		int tasksExecutedSinceLastFlush;
@@ -455,6 +506,7 @@ public class Neo4j extends AbstractStorage{
 
 			try(final Transaction tempTx = getDatabaseManager().beginANewTransaction()){
 				loadGlobalPropertyKeysAndIndexedKeys(tempTx); // Only read
+				createIndexesForBulkImportedKeys();
 				// No error
 				runTheMainLoop = true;
 			}catch(Exception e){
@@ -496,6 +548,7 @@ public class Neo4j extends AbstractStorage{
 
 						task = removeFirstPendingTask();
 						if(task != null){
+							task = removePendingTasksToBatchWith(task);
 							Timer timer = null;
 							try{
 								if(task.commitBeforeExecution){
@@ -537,7 +590,11 @@ public class Neo4j extends AbstractStorage{
 									}
 								}
 								getStorageStats().stopActionTimer("EXECUTE-" + task.getClass().getSimpleName());
-								tasksExecutedSinceLastFlush++;
+								if(task instanceof TaskPutBatch){
+									tasksExecutedSinceLastFlush += ((TaskPutBatch)task).size();
+								}else{
+									tasksExecutedSinceLastFlush++;
+								}
 								task.completed();
 							}
 						}
@@ -555,9 +612,7 @@ public class Neo4j extends AbstractStorage{
 						if(fatalErrorCount >= getConfiguration().maxRetries){
 							logger.log(Level.SEVERE, "Max retries (" + getConfiguration().maxRetries + ") exhausted. " + "Discarding "
 									+ getPendingTasksSize() + " tasks and shutting down.");
-							synchronized(neo4jDbTasksPending){
-								neo4jDbTasksPending.clear();
-							}
+							clearPendingTasks();
 							break;
 						}
 					}
@@ -591,6 +646,12 @@ public class Neo4j extends AbstractStorage{
 	@Override
 	public synchronized final boolean shutdown(){
 		if(!isShutdown()){
+			try{
+				handOverFromBulkImport();
+			}catch(Exception e){
+				logger.log(Level.SEVERE, "Failed to bulk import staged data", e);
+			}
+
 			setShutdown(true);
 
 			logger.log(Level.INFO,
@@ -604,9 +665,7 @@ public class Neo4j extends AbstractStorage{
 			}
 			logger.log(Level.INFO, "Pending tasks going to be discarded: '" + getPendingTasksSize() + "'. Continuing with shutdown ...");
 
-			synchronized(neo4jDbTasksPending){
-				neo4jDbTasksPending.clear();
-			}
+			clearPendingTasks();
 			
 			try{
 				getDatabaseManager().shutdown();
@@ -638,51 +697,36 @@ public class Neo4j extends AbstractStorage{
 
 			logger.log(Level.INFO, configuration.toString());
 
+			this.neo4jDbTasksPending = new LinkedBlockingDeque<StorageTask<?>>(
+					configuration.bufferLimit < 0 ? Integer.MAX_VALUE : Math.max(configuration.bufferLimit, 1));
+
 			this.neo4jStats = new StorageStats(
 					configuration.reportingEnabled, configuration.reportingIntervalSeconds, configuration.timeMe);
 
 			this.databaseManager = new DatabaseManager(this);
 			
-			this.databaseManager.initialize();
-			
 			this.cacheManager = new CacheManager(this);
 
 			logger.log(Level.INFO, "Database absolute path: " + configuration.finalConstructedDbPath.getAbsolutePath());
-			
-			if(configuration.reset){
-				final String resetTimerKey = "DATABASE-RESET";
-				try{
-					neo4jStats.startActionTimer(resetTimerKey);
-					databaseManager.resetDatabase();
-				}catch(Exception e){
-					throw new Exception("Failed to reset database", e);
-				}finally{
-					neo4jStats.stopActionTimer(resetTimerKey);
-				}
-			}
-			
-			final Thread thread = new Thread(dbPendingTasksRunner, "db-pending-task-runner");
-			thread.start();
 
-			// Wait for the main thread to reach a stable state
-			while(!isMainThreadRunning()){
-				if(isShutdown()){
-					throw new RuntimeException("Failed to start the main thread successfully");
-				}
-				HelperFunctions.sleepSafe(getConfiguration().sleepWaitMillis);
-			}
-			
-			if(configuration.test){
-				final StorageTest storageTest = new StorageTest();
-				storageTest.test(this);
-				//throw new RuntimeException("Shutting down after completing the test!");
-			}
-			
+			// Symbols are read when the database is started
 			this.queryEnvironment = new Neo4jQueryEnvironment(configuration.nodePrimaryLabelName, this, configuration.edgeSymbolsPropertyName,
 					configuration.querySymbolsNodeLabelName);
-			queryEnvironment.initialize();
 			this.queryInstructionExecutor = new Neo4jInstructionExecutor(this, queryEnvironment, configuration.hashPropertyName);
 
+			if(configuration.bulkImport){
+				final BulkImporter bulkImporter = new BulkImporter(this);
+				bulkImporter.initialize();
+				synchronized(bulkImportLock){
+					this.bulkImporter = bulkImporter;
+					this.bulkImporting = true;
+				}
+				logger.log(Level.INFO, "Staging for bulk import in: " + configuration.bulkImportDirectoryFile.getAbsolutePath()
+						+ ". Database started on the first query or at shutdown.");
+				return true;
+			}
+
+			startDatabase(configuration.reset, false);
 			return true;
 		}catch(Exception e){
 			logger.log(Level.SEVERE, "Failed to initialize storage", e);
@@ -691,9 +735,151 @@ public class Neo4j extends AbstractStorage{
 		}
 	}
 
+	private final void startDatabase(final boolean reset, final boolean newDatabase) throws Exception{
+		final boolean emptyDatabase = reset || newDatabase || !configuration.finalConstructedDbPath.exists();
+
+		this.databaseManager.initialize();
+
+		if(reset){
+			final String resetTimerKey = "DATABASE-RESET";
+			try{
+				neo4jStats.startActionTimer(resetTimerKey);
+				databaseManager.resetDatabase();
+			}catch(Exception e){
+				throw new Exception("Failed to reset database", e);
+			}finally{
+				neo4jStats.stopActionTimer(resetTimerKey);
+			}
+		}
+
+		setupHash(emptyDatabase);
+		
+		final Thread thread = new Thread(dbPendingTasksRunner, "db-pending-task-runner");
+		thread.start();
+
+		// Wait for the main thread to reach a stable state
+		while(!isMainThreadRunning()){
+			if(isShutdown()){
+				throw new RuntimeException("Failed to start the main thread successfully");
+			}
+			HelperFunctions.sleepSafe(getConfiguration().sleepWaitMillis);
+		}
+		
+		if(configuration.test){
+			final StorageTest storageTest = new StorageTest();
+			storageTest.test(this);
+			//throw new RuntimeException("Shutting down after completing the test!");
+		}
+		
+		queryEnvironment.initialize();
+	}
+
+	/*
+	 * Hashes are stored as strings so any algorithm fits. The hash in use is recorded in a file next to the database
+	 * so that a database is not silently filled with elements hashed in different ways.
+	 */
+	private final void setupHash(final boolean emptyDatabase) throws Exception{
+		final HashHelper hashHelper = HashHelper.defaultInstance;
+		final File hashFile = new File(configuration.finalConstructedDbPath.getParentFile().getParentFile(),
+				"spade_hash." + configuration.dbName);
+		try{
+			String storedDescriptor = null;
+			if(!emptyDatabase && hashFile.isFile()){
+				final List<String> lines = FileUtility.readLines(hashFile.getAbsolutePath());
+				if(!lines.isEmpty() && !lines.get(0).trim().isEmpty()){
+					storedDescriptor = lines.get(0).trim();
+				}
+			}
+			if(storedDescriptor == null){
+				// Databases created before the hash was recorded were always md5 with legacy encoding
+				storedDescriptor = emptyDatabase ? hashHelper.getDescriptor() : "md5/legacy";
+				FileUtility.writeLines(hashFile.getAbsolutePath(), Arrays.asList(storedDescriptor));
+			}
+			final Result<Boolean> validResult = hashHelper.validateStoredDescriptor(storedDescriptor);
+			if(validResult.error){
+				throw new Exception(validResult.errorMessage);
+			}
+			if(!validResult.result){
+				logger.log(Level.WARNING, "Database created with hash '" + storedDescriptor + "' but using '"
+						+ hashHelper.getDescriptor() + "'. Hashes of existing and new elements are not comparable");
+			}
+		}catch(Exception e){
+			throw new Exception("Failed to setup hash using file: " + hashFile.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Imports the staged data into the database, starts the database, and switches to the transactional path.
+	 * Nothing done if not staging for bulk import.
+	 *
+	 * @throws Exception on failure. Storage not usable.
+	 */
+	private final void handOverFromBulkImport() throws Exception{
+		if(!bulkImporting){
+			return;
+		}
+		synchronized(bulkImportLock){
+			if(bulkImporter == null){
+				return;
+			}
+			final BulkImporter importer = bulkImporter;
+			bulkImporter = null;
+
+			final String importTimerKey = "BULK-IMPORT";
+			try{
+				getStorageStats().startActionTimer(importTimerKey);
+				importer.importIntoDatabase();
+			}finally{
+				getStorageStats().stopActionTimer(importTimerKey);
+			}
+
+			final Set<String> nodeNames = importer.getVertexKeys();
+			nodeNames.add(getConfiguration().hashPropertyName);
+			final Set<String> relationshipNames = importer.getEdgeKeys();
+			relationshipNames.add(getConfiguration().hashPropertyName);
+			bulkImportedNodePropertyNames = nodeNames;
+			bulkImportedRelationshipPropertyNames = relationshipNames;
+
+			// Already a new database
+			startDatabase(false, true);
+
+			for(final AbstractVertex vertex : importer.getDeferredVertices()){
+				storeVertex(vertex);
+			}
+			for(final AbstractEdge edge : importer.getDeferredEdges()){
+				storeEdge(edge);
+			}
+			bulkImporting = false;
+		}
+	}
+
+	/**
+	 * Called before a query is resolved so that the query sees the staged data. Nothing done if not staging for bulk
+	 * import.
+	 */
+	public final void handOverFromBulkImportOrFail(){
+		try{
+			handOverFromBulkImport();
+		}catch(Exception e){
+			throw new RuntimeException("Failed to bulk import staged data", e);
+		}
+	}
+
 	// start - public
 	@Override
 	public final boolean storeVertex(final AbstractVertex vertex){
+		if(bulkImporting){
+			synchronized(bulkImportLock){
+				if(bulkImporter != null){
+					try{
+						bulkImporter.putVertex(vertex);
+					}catch(Exception e){
+						logger.log(Level.WARNING, "Failed to stage vertex for bulk import: " + vertex, e);
+					}
+					return true;
+				}
+			}
+		}
 		if(!isShutdown() && isMainThreadRunning()){
 			appendPendingTask(new TaskPutVertex(vertex));
 		}else{
@@ -704,6 +890,18 @@ public class Neo4j extends AbstractStorage{
 
 	@Override
 	public final boolean storeEdge(final AbstractEdge edge){
+		if(bulkImporting){
+			synchronized(bulkImportLock){
+				if(bulkImporter != null){
+					try{
+						bulkImporter.putEdge(edge);
+					}catch(Exception e){
+						logger.log(Level.WARNING, "Failed to stage edge for bulk import: " + edge, e);
+					}
+					return true;
+				}
+			}
+		}
 		if(!isShutdown() && isMainThreadRunning()){
 			appendPendingTask(new TaskPutEdge(edge));
 		}else{
@@ -741,6 +939,8 @@ public class Neo4j extends AbstractStorage{
 			throw new RuntimeException("NULL query object");
 		}
 
+		handOverFromBulkImportOrFail();
+
 		if(!isShutdown() && isMainThreadRunning()){
 			queryObject.setTransactionTimeoutInSeconds(getConfiguration().transactionTimeoutInSeconds);
 			prependPendingTask(queryObject);
@@ -19,8 +19,6 @@
  */
 package spade.storage;
 
-import java.io.BufferedReader;
-import java.io.StringReader;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
@@ -33,6 +31,15 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.logging.Level;
 
 import org.postgresql.copy.CopyManager;
@@ -40,13 +47,17 @@ import org.postgresql.core.BaseConnection;
 
 import spade.core.AbstractEdge;
 import spade.core.AbstractVertex;
+import spade.core.HashHelper;
 import spade.core.Settings;
 import spade.query.quickgrail.core.QueryInstructionExecutor;
 import spade.storage.postgresql.Configuration;
+import spade.storage.postgresql.CopyEncoder;
 import spade.storage.postgresql.PostgreSQLInstructionExecutor;
 import spade.storage.postgresql.PostgreSQLQueryEnvironment;
+import spade.storage.postgresql.TraversalFunctions;
 import spade.utility.GraphBuffer;
 import spade.utility.GraphBuffer.GraphSnapshot;
+import spade.utility.Result;
 
 /**
  * Basic PostgreSQL storage implementation.
@@ -61,18 +72,38 @@ public class PostgreSQL extends SQL{
 	private final String baseGraphName = "spade_base_graph";
 	private final String tableNameBaseVertex = PostgreSQLQueryEnvironment.getVertexTableName(baseGraphName);
 	private final String tableNameBaseEdge = PostgreSQLQueryEnvironment.getEdgeTableName(baseGraphName);
+	private final String tableNameHash = "spade_hash";
 
 	/*
 	 * Using LinkedHashSet to keep unique elements in their insertion order
 	 */
 	private final Set<String> vertexColumnNames = new LinkedHashSet<>();
 	private final Set<String> edgeColumnNames = new LinkedHashSet<>();
+	/*
+	 * Columns seen in buffered elements but not added to the tables yet. Added right before the batch is copied.
+	 * Guarded by 'columnsLock' along with the column names above.
+	 */
+	private final Set<String> pendingVertexColumnNames = new LinkedHashSet<>();
+	private final Set<String> pendingEdgeColumnNames = new LinkedHashSet<>();
+	private final Object columnsLock = new Object();
 
 	private final Configuration configuration = new Configuration();
 	private final GraphBuffer graphBuffer = new GraphBuffer();
 
 	private Connection connection = null;
 
+	// Connections used for queries. Created on demand up to the configured limit
+	private final LinkedBlockingQueue<Connection> idleQueryConnections = new LinkedBlockingQueue<>();
+	private final Object queryConnectionsLock = new Object();
+	private int openQueryConnections = 0;
+	// Connection bound to the thread by an open query session
+	private final ThreadLocal<Connection> querySessionConnection = new ThreadLocal<>();
+
+	private ExecutorService flushExecutor = null;
+	private Semaphore pendingFlushes = null;
+	private final Object flushLock = new Object();
+	private Future<?> lastFlush = null;
+
 	@Override
 	public boolean initialize(final String arguments){
 		try{
@@ -81,9 +112,7 @@ public class PostgreSQL extends SQL{
 
 			graphBuffer.setMaxSize(this.configuration.getBufferSize());
 
-			final String connectionURL = configuration.getConnectionURL();
-			final Connection connection = DriverManager.getConnection(
-					connectionURL, configuration.getDbUser(), configuration.getDbPassword());
+			final Connection connection = openConnection();
 			setConnection(connection);
 
 			if(configuration.isReset()){
@@ -91,6 +120,16 @@ public class PostgreSQL extends SQL{
 			}
 
 			setupDatabase(connection, configuration.isSecondaryIndexes());
+			setupHash(connection);
+
+			if(configuration.isAsyncFlush()){
+				pendingFlushes = new Semaphore(configuration.getMaxPendingFlushes());
+				flushExecutor = Executors.newSingleThreadExecutor(runnable -> {
+					final Thread thread = new Thread(runnable, "PostgreSQL-flush");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
 
 			logger.info(this.configuration.toString());
 			return true;
@@ -103,6 +142,15 @@ public class PostgreSQL extends SQL{
 	@Override
 	public boolean shutdown(){
 		flush();
+		if(flushExecutor != null){
+			flushExecutor.shutdown();
+			try{
+				flushExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}catch(InterruptedException e){
+				logger.log(Level.WARNING, "Interrupted while waiting for flush thread to stop", e);
+			}
+		}
+		closeQueryConnections();
 		try{
 			closeConnection();
 		}catch(Exception e){
@@ -111,6 +159,118 @@ public class PostgreSQL extends SQL{
 		return true;
 	}
 
+	private Connection openConnection() throws Exception{
+		return DriverManager.getConnection(
+				configuration.getConnectionURL(), configuration.getDbUser(), configuration.getDbPassword());
+	}
+
+	private Connection borrowQueryConnection() throws Exception{
+		if(!configuration.useQueryConnections()){
+			return connection;
+		}
+		while(true){
+			final Connection idleConnection = idleQueryConnections.poll();
+			if(idleConnection != null){
+				return idleConnection;
+			}
+			final boolean create;
+			synchronized(queryConnectionsLock){
+				create = openQueryConnections < configuration.getQueryConnections();
+				if(create){
+					openQueryConnections++;
+				}
+			}
+			if(create){
+				try{
+					return openConnection();
+				}catch(Exception e){
+					synchronized(queryConnectionsLock){
+						openQueryConnections--;
+					}
+					throw e;
+				}
+			}
+			// Poll with a timeout because a connection in use might be discarded instead of being returned
+			final Connection returnedConnection = idleQueryConnections.poll(100, TimeUnit.MILLISECONDS);
+			if(returnedConnection != null){
+				return returnedConnection;
+			}
+		}
+	}
+
+	private void releaseQueryConnection(final Connection queryConnection){
+		if(queryConnection == connection){
+			return;
+		}
+		boolean usable;
+		try{
+			usable = !queryConnection.isClosed();
+		}catch(Exception e){
+			usable = false;
+		}
+		if(usable){
+			idleQueryConnections.offer(queryConnection);
+		}else{
+			synchronized(queryConnectionsLock){
+				openQueryConnections--;
+			}
+		}
+	}
+
+	private void closeQueryConnections(){
+		Connection queryConnection;
+		while((queryConnection = idleQueryConnections.poll()) != null){
+			try{
+				queryConnection.close();
+			}catch(Exception e){
+				logger.log(Level.WARNING, "Failed to close query connection", e);
+			}
+			synchronized(queryConnectionsLock){
+				openQueryConnections--;
+			}
+		}
+	}
+
+	/**
+	 * Binds a query connection to the calling thread until the returned session is closed. All the queries executed by
+	 * the thread in between use that connection, so temporary tables created by them are not visible to other sessions.
+	 * A nested session uses the connection of the outermost one.
+	 * 
+	 * @return session to close once done
+	 */
+	public final QuerySession openQuerySession(){
+		if(querySessionConnection.get() != null){
+			return new QuerySession(null);
+		}
+		final Connection queryConnection;
+		try{
+			queryConnection = borrowQueryConnection();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a query connection", e);
+		}catch(Exception e){
+			throw new RuntimeException("Failed to get a query connection", e);
+		}
+		querySessionConnection.set(queryConnection);
+		return new QuerySession(queryConnection);
+	}
+
+	public final class QuerySession implements AutoCloseable{
+		private final Connection queryConnection;
+
+		private QuerySession(final Connection queryConnection){
+			this.queryConnection = queryConnection;
+		}
+
+		@Override
+		public void close(){
+			if(queryConnection != null){
+				querySessionConnection.remove();
+				releaseQueryConnection(queryConnection);
+			}
+		}
+	}
+
 	private void setConnection(final Connection connection){
 		this.connection = connection;
 	}
@@ -178,6 +338,7 @@ public class PostgreSQL extends SQL{
 					, getEdgeTableName()
 					, getBaseVertexTableName()
 					, getBaseEdgeTableName()
+					, tableNameHash
 					}){
 				dropTable(statement, tableName);
 			}
@@ -325,6 +486,46 @@ public class PostgreSQL extends SQL{
 		}
 	}
 
+	/*
+	 * Hashes are stored in UUID columns. The hash in use is recorded so that a database is not silently filled with
+	 * elements hashed in different ways.
+	 */
+	private void setupHash(final Connection connection) throws Exception{
+		final HashHelper hashHelper = HashHelper.defaultInstance;
+		if(hashHelper.bytesInHash != 16){
+			throw new Exception("Hash algorithm '" + hashHelper.hashAlgorithmName + "' not supported. "
+					+ "Only hash algorithms with 16 bytes in hash can be stored in UUID columns");
+		}
+		try(final Statement statement = connection.createStatement()){
+			statement.execute("create table if not exists " + tableNameHash + "(" + formatColumnName("descriptor") + " VARCHAR(64) not null)");
+			String storedDescriptor = null;
+			try(final ResultSet resultSet = statement.executeQuery("select " + formatColumnName("descriptor") + " from " + tableNameHash)){
+				if(resultSet.next()){
+					storedDescriptor = resultSet.getString(1);
+				}
+			}
+			if(storedDescriptor == null){
+				// Databases created before the hash was recorded were always md5 with legacy encoding
+				final boolean isEmpty;
+				try(final ResultSet resultSet = statement.executeQuery("select 1 from " + getVertexTableName() + " limit 1")){
+					isEmpty = !resultSet.next();
+				}
+				storedDescriptor = isEmpty ? hashHelper.getDescriptor() : "md5/legacy";
+				statement.execute("insert into " + tableNameHash + " values ('" + storedDescriptor + "')");
+			}
+			final Result<Boolean> validResult = hashHelper.validateStoredDescriptor(storedDescriptor);
+			if(validResult.error){
+				throw new Exception(validResult.errorMessage);
+			}
+			if(!validResult.result){
+				logger.log(Level.WARNING, "Database created with hash '" + storedDescriptor + "' but using '" 
+						+ hashHelper.getDescriptor() + "'. Hashes of existing and new elements are not comparable");
+			}
+		}catch(Exception e){
+			throw new Exception("Failed to setup hash", e);
+		}
+	}
+
 	private Set<String> getNewVertexColumns(final Set<String> columnNames){
 		final Set<String> newColumnNames = new HashSet<String>(columnNames);
 		newColumnNames.removeAll(getVertexColumnNames());
@@ -337,16 +538,63 @@ public class PostgreSQL extends SQL{
 		return newColumnNames;
 	}
 
-	private void updateTableColumns(
-			final Set<String> newColumnNames, final String tableName) throws Exception{
-		try(final Statement statement = createStatement()){
-			String query = "";
+	/*
+	 * Adds each column with a separate statement so that one failure does not fail the rest.
+	 * Returns the columns which could not be added. The batch needing them must be failed (see 'checkColumnsAdded').
+	 */
+	private List<String> updateTableColumns(
+			final List<String> newColumnNames, final String tableName){
+		return updateTableColumns(connection, newColumnNames, tableName);
+	}
+
+	private List<String> updateTableColumns(final Connection connection,
+			final List<String> newColumnNames, final String tableName){
+		final List<String> failedColumnNames = new ArrayList<String>();
+		if(newColumnNames.isEmpty()){
+			return failedColumnNames;
+		}
+		try(final Statement statement = connection.createStatement()){
 			for(final String newColumnName : newColumnNames){
-				query += "alter table " + tableName + " add column " + formatColumnName(newColumnName) + " varchar;";
+				try{
+					statement.execute("alter table " + tableName + " add column if not exists " + formatColumnName(newColumnName) + " varchar");
+				}catch(Exception e){
+					logger.log(Level.WARNING, "Failed to add column '" + newColumnName + "' to " + tableName + " table", e);
+					failedColumnNames.add(newColumnName);
+				}
+			}
+		}catch(Exception e){
+			logger.log(Level.WARNING, "Failed to add columns to " + tableName + " table", e);
+			failedColumnNames.addAll(newColumnNames);
+		}
+		return failedColumnNames;
+	}
+
+	/*
+	 * Columns which could not be added are forgotten so that they are tried again when seen next.
+	 */
+	private void forgetColumns(final List<String> failedColumnNames, final boolean isVertex){
+		if(!failedColumnNames.isEmpty()){
+			synchronized(columnsLock){
+				if(isVertex){
+					getVertexColumnNames().removeAll(failedColumnNames);
+				}else{
+					getEdgeColumnNames().removeAll(failedColumnNames);
+				}
 			}
-			statement.execute(query);
-		}catch(Exception e0){
-			throw new Exception("Failed to add columns to " + tableName + " table", e0);
+		}
+	}
+
+	/*
+	 * Forgets the columns which could not be added, and throws an exception if there are any because copying the batch
+	 * without those columns would drop the values in them without an error.
+	 */
+	private void checkColumnsAdded(final List<String> failedVertexColumnNames, 
+			final List<String> failedEdgeColumnNames) throws Exception{
+		forgetColumns(failedVertexColumnNames, true);
+		forgetColumns(failedEdgeColumnNames, false);
+		if(!failedVertexColumnNames.isEmpty() || !failedEdgeColumnNames.isEmpty()){
+			throw new Exception("Failed to add vertex columns " + failedVertexColumnNames 
+					+ " and edge columns " + failedEdgeColumnNames);
 		}
 	}
 
@@ -355,16 +603,12 @@ public class PostgreSQL extends SQL{
 		if(vertex == null){
 			return false;
 		}
-		final Set<String> newColumnNames = getNewVertexColumns(vertex.getAnnotationKeys());
-		if(!newColumnNames.isEmpty()){
-			// Flush existing data because schema needs to be updated
-			flush();
-			try{
-				updateTableColumns(newColumnNames, getVertexTableName());
+		synchronized(columnsLock){
+			final Set<String> newColumnNames = getNewVertexColumns(vertex.getAnnotationKeys());
+			if(!newColumnNames.isEmpty()){
+				// Added to the table when the batch with this vertex is persisted. No need to flush here.
 				addToVertexColumn(newColumnNames);
-			}catch(Exception e){
-				logger.log(Level.WARNING, "Vertex discarded because of PostgreSQL error", e);
-				return false;
+				pendingVertexColumnNames.addAll(newColumnNames);
 			}
 		}
 		addToBuffer(vertex);
@@ -376,16 +620,12 @@ public class PostgreSQL extends SQL{
 		if(edge == null || edge.getChildVertex() == null || edge.getParentVertex() == null){
 			return false;
 		}
-		final Set<String> newColumnNames = getNewEdgeColumns(edge.getAnnotationKeys());
-		if(!newColumnNames.isEmpty()){
-			// Flush existing data because schema needs to be updated
-			flush();
-			try{
-				updateTableColumns(newColumnNames, getEdgeTableName());
+		synchronized(columnsLock){
+			final Set<String> newColumnNames = getNewEdgeColumns(edge.getAnnotationKeys());
+			if(!newColumnNames.isEmpty()){
+				// Added to the table when the batch with this edge is persisted. No need to flush here.
 				addToEdgeColumn(newColumnNames);
-			}catch(Exception e){
-				logger.log(Level.WARNING, "Edge discarded because of PostgreSQL error", e);
-				return false;
+				pendingEdgeColumnNames.addAll(newColumnNames);
 			}
 		}
 		addToBuffer(edge);
@@ -395,57 +635,120 @@ public class PostgreSQL extends SQL{
 	private void addToBuffer(final AbstractVertex vertex){
 		graphBuffer.add(vertex);
 		if(graphBuffer.full()){
-			flush();
+			flushInBackground();
 		}
 	}
 
 	private void addToBuffer(final AbstractEdge edge){
 		graphBuffer.add(edge);
 		if(graphBuffer.full()){
-			flush();
+			flushInBackground();
+		}
+	}
+
+	private CopyEncoder startCopy(final String tableName, final List<String> columnNames) throws Exception{
+		return startCopy(createCopyManager(), tableName, columnNames);
+	}
+
+	private CopyEncoder startCopy(final CopyManager copyManager, final String tableName, 
+			final List<String> columnNames) throws Exception{
+		final List<String> formattedColumnNames = new ArrayList<String>();
+		for(final String columnName : columnNames){
+			formattedColumnNames.add(formatColumnName(columnName));
 		}
+		return CopyEncoder.start(copyManager, tableName, formattedColumnNames, 
+				configuration.getCopyFormat(), configuration.getCopyBufferSize());
 	}
 
-	private void persist(final GraphSnapshot graph){
+	private <T> void copyHashes(final String tableName, final Iterator<T> elements, final Function<T, byte[]> hashFunction) throws Exception{
+		final CopyEncoder encoder = startCopy(tableName, Arrays.asList(getPrimaryKeyName()));
+		try{
+			while(elements.hasNext()){
+				encoder.startRow();
+				encoder.writeUuid(hashFunction.apply(elements.next()));
+				encoder.endRow();
+			}
+			encoder.finish();
+		}catch(Exception e){
+			encoder.cancel();
+			throw e;
+		}
+	}
+
+	private void copyVertices(final GraphSnapshot graph, final List<String> vertexColumnNames) throws Exception{
+		copyVertices(startCopy(getVertexTableName(), vertexColumnNames), graph.vertices(), vertexColumnNames);
+	}
+
+	private void copyVertices(final CopyEncoder encoder, final Iterator<AbstractVertex> vertices, 
+			final List<String> vertexColumnNames) throws Exception{
+		try{
+			while(vertices.hasNext()){
+				final AbstractVertex vertex = vertices.next();
+				encoder.startRow();
+				for(final String vertexColumnName : vertexColumnNames){
+					switch(vertexColumnName){
+						case PRIMARY_KEY: encoder.writeUuid(vertex.bigHashCodeBytes()); break;
+						default: encoder.writeText(vertex.getAnnotation(vertexColumnName)); break;
+					}
+				}
+				encoder.endRow();
+			}
+			encoder.finish();
+		}catch(Exception e){
+			encoder.cancel();
+			throw e;
+		}
+	}
+
+	private void copyEdges(final GraphSnapshot graph, final List<String> edgeColumnNames) throws Exception{
+		copyEdges(startCopy(getEdgeTableName(), edgeColumnNames), graph.edges(), edgeColumnNames);
+	}
+
+	private void copyEdges(final CopyEncoder encoder, final Iterator<AbstractEdge> edges, 
+			final List<String> edgeColumnNames) throws Exception{
+		try{
+			while(edges.hasNext()){
+				final AbstractEdge edge = edges.next();
+				encoder.startRow();
+				for(final String edgeColumnName : edgeColumnNames){
+					switch(edgeColumnName){
+						case PRIMARY_KEY: encoder.writeUuid(edge.bigHashCodeBytes()); break;
+						case CHILD_VERTEX_KEY: encoder.writeUuid(edge.getChildVertex().bigHashCodeBytes()); break;
+						case PARENT_VERTEX_KEY: encoder.writeUuid(edge.getParentVertex().bigHashCodeBytes()); break;
+						default: encoder.writeText(edge.getAnnotation(edgeColumnName)); break;
+					}
+				}
+				encoder.endRow();
+			}
+			encoder.finish();
+		}catch(Exception e){
+			encoder.cancel();
+			throw e;
+		}
+	}
+
+	/*
+	 * Column names are passed as copies taken when the snapshot was taken because the columns can be updated while
+	 * the snapshot is being persisted in the background. New columns are the ones to add to the tables before copying.
+	 */
+	private void persist(final GraphSnapshot graph, 
+			final List<String> vertexColumnNames, final List<String> newVertexColumnNames,
+			final List<String> edgeColumnNames, final List<String> newEdgeColumnNames){
+		try{
+			checkColumnsAdded(updateTableColumns(newVertexColumnNames, getVertexTableName()), 
+					updateTableColumns(newEdgeColumnNames, getEdgeTableName()));
+		}catch(Exception e){
+			logger.log(Level.SEVERE, "Failed to persist " + graph.vertexSize() + " vertices and " 
+					+ graph.edgeSize() + " edges", e);
+			graph.clear();
+			return;
+		}
+
 		if(graph.vertexSize() > 0){
 			final int vertexBufferSize = graph.vertexSize();
 			try{
-				final StringBuffer csvHashes = new StringBuffer();
-				csvHashes.append(getCSVLine(Arrays.asList(getPrimaryKeyName())));
-	
-				final StringBuffer csvVertices = new StringBuffer();
-				csvVertices.append(getCSVLine(getVertexColumnNames()));
-	
-				final List<String> vertexValues = new ArrayList<>();
-				final Iterator<AbstractVertex> vertices = graph.vertices();
-				while(vertices.hasNext()){
-					final AbstractVertex vertex = vertices.next();
-					for(final String vertexColumnName : getVertexColumnNames()){
-						final String vertexValue;
-						switch(vertexColumnName){
-							case PRIMARY_KEY:{
-								vertexValue = vertex.bigHashCode();
-								csvHashes.append(getCSVLine(Arrays.asList(vertexValue)));
-								break;
-							}
-							default: vertexValue = vertex.getAnnotation(vertexColumnName); break;
-						}
-						vertexValues.add(vertexValue);
-					}
-					csvVertices.append(getCSVLine(vertexValues));
-					vertexValues.clear();
-				}
-	
-				final CopyManager copyManager = createCopyManager();
-				copyManager.copyIn(
-						"copy " + getVertexTableName() + " from stdin (format csv, header)", 
-						new BufferedReader(new StringReader(csvVertices.toString()))
-						);
-	
-				copyManager.copyIn(
-						"copy " + getBaseVertexTableName() + " from stdin (format csv, header)", 
-						new BufferedReader(new StringReader(csvHashes.toString()))
-						);
+				copyVertices(graph, vertexColumnNames);
+				copyHashes(getBaseVertexTableName(), graph.vertices(), AbstractVertex::bigHashCodeBytes);
 			}catch(Exception e){
 				logger.log(Level.WARNING, "Failed to persist " + vertexBufferSize + " vertices", e);
 			}
@@ -454,44 +757,8 @@ public class PostgreSQL extends SQL{
 		if(graph.edgeSize() > 0){
 			final int edgeBufferSize = graph.edgeSize();
 			try{
-				final StringBuffer csvHashes = new StringBuffer();
-				csvHashes.append(getCSVLine(Arrays.asList(getPrimaryKeyName())));
-	
-				final StringBuffer csvData = new StringBuffer();
-				csvData.append(getCSVLine(getEdgeColumnNames()));
-	
-				final List<String> edgesValues = new ArrayList<>();
-				final Iterator<AbstractEdge> edges = graph.edges();
-				while(edges.hasNext()){
-					final AbstractEdge edge = edges.next();
-					for(final String edgeColumnName : getEdgeColumnNames()){
-						final String edgeValue;
-						switch(edgeColumnName){
-							case PRIMARY_KEY:{
-								edgeValue = edge.bigHashCode();
-								csvHashes.append(getCSVLine(Arrays.asList(edgeValue)));
-								break;
-							}
-							case CHILD_VERTEX_KEY: edgeValue = edge.getChildVertex().bigHashCode(); break;
-							case PARENT_VERTEX_KEY: edgeValue = edge.getParentVertex().bigHashCode(); break;
-							default: edgeValue = edge.getAnnotation(edgeColumnName); break;
-						}
-						edgesValues.add(edgeValue);
-					}
-					csvData.append(getCSVLine(edgesValues));
-					edgesValues.clear();
-				}
-	
-				final CopyManager copyManager = createCopyManager();
-				copyManager.copyIn(
-						"copy " + getEdgeTableName() + " from stdin (format csv, header)", 
-						new BufferedReader(new StringReader(csvData.toString()))
-						);
-	
-				copyManager.copyIn(
-						"copy " + getBaseEdgeTableName() + " from stdin (format csv, header)", 
-						new BufferedReader(new StringReader(csvHashes.toString()))
-						);
+				copyEdges(graph, edgeColumnNames);
+				copyHashes(getBaseEdgeTableName(), graph.edges(), AbstractEdge::bigHashCodeBytes);
 	
 				if(BUILD_SCAFFOLD){
 					try{
@@ -511,27 +778,6 @@ public class PostgreSQL extends SQL{
 		graph.clear();
 	}
 
-	private String getCSVLine(final Iterable<String> iterable){
-		final StringBuffer str = new StringBuffer();
-		for(String item : iterable){
-			item = formatToCSV(item);
-			str.append(item).append(",");
-		}
-		if(str.length() > 0){
-			str.setCharAt(str.length() - 1, '\n');
-		}
-		return str.toString();
-	}
-
-	private String formatToCSV(String item){
-		if(item == null){
-			return ""; // NULL
-		}
-		item = item.replace('"', '\"');
-		item = '"' + item + '"';
-		return item;
-	}
-
 	@Override
 	public ResultSet executeQuery(String query){
 		flush();
@@ -549,14 +795,85 @@ public class PostgreSQL extends SQL{
 		return result;
 	}
 
+	/*
+	 * Hands the buffered elements to the flush thread (if asynchronous) without waiting for them to be persisted.
+	 * Blocks only if 'maxPendingFlushes' are already pending.
+	 */
+	private void flushInBackground(){
+		final GraphSnapshot graph = graphBuffer.flush();
+		if(graph.size() == 0){
+			return;
+		}
+		final List<String> vertexColumnNames, newVertexColumnNames, edgeColumnNames, newEdgeColumnNames;
+		synchronized(columnsLock){
+			vertexColumnNames = new ArrayList<String>(getVertexColumnNames());
+			newVertexColumnNames = new ArrayList<String>(pendingVertexColumnNames);
+			pendingVertexColumnNames.clear();
+			edgeColumnNames = new ArrayList<String>(getEdgeColumnNames());
+			newEdgeColumnNames = new ArrayList<String>(pendingEdgeColumnNames);
+			pendingEdgeColumnNames.clear();
+		}
+		if(flushExecutor == null){
+			persist(graph, vertexColumnNames, newVertexColumnNames, edgeColumnNames, newEdgeColumnNames);
+			return;
+		}
+		pendingFlushes.acquireUninterruptibly();
+		try{
+			synchronized(flushLock){
+				lastFlush = flushExecutor.submit(() -> {
+					try{
+						persist(graph, vertexColumnNames, newVertexColumnNames, edgeColumnNames, newEdgeColumnNames);
+					}finally{
+						pendingFlushes.release();
+					}
+				});
+			}
+		}catch(RejectedExecutionException e){
+			pendingFlushes.release();
+			persist(graph, vertexColumnNames, newVertexColumnNames, edgeColumnNames, newEdgeColumnNames);
+		}
+	}
+
+	/*
+	 * Persists the buffered elements and waits for all the pending flushes to complete.
+	 */
 	private void flush(){
-		persist(graphBuffer.flush());
+		flushInBackground();
+		final Future<?> future;
+		synchronized(flushLock){
+			future = lastFlush;
+		}
+		if(future != null){
+			try{
+				// Single flush thread hence all the flushes before the last one have completed too
+				future.get();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}catch(ExecutionException e){
+				logger.log(Level.WARNING, "Failed to flush", e.getCause());
+			}
+		}
 	}
 
 	public List<List<String>> executeQueryForResult(String query, boolean addColumnNames){
 		flush();
 
-		try(final Statement queryStatement = createStatement()){
+		final Connection sessionConnection = querySessionConnection.get();
+		final Connection queryConnection;
+		if(sessionConnection != null){
+			queryConnection = sessionConnection;
+		}else{
+			try{
+				queryConnection = borrowQueryConnection();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for a query connection", e);
+			}catch(Exception e){
+				throw new RuntimeException("Failed to get a query connection", e);
+			}
+		}
+
+		try(final Statement queryStatement = queryConnection.createStatement()){
 			if(configuration.useFetchSize()){
 				queryStatement.setFetchSize(configuration.getFetchSize());
 			}
@@ -602,9 +919,232 @@ public class PostgreSQL extends SQL{
 		}catch(Exception ex){
 			logger.log(Level.SEVERE, "PostgreSQL query execution not successful!", ex);
 			throw new RuntimeException("Query failed: " + query, ex);
+		}finally{
+			if(sessionConnection == null){
+				releaseQueryConnection(queryConnection);
+			}
+		}
+	}
+
+	public static interface RowHandler{
+		public void handle(final ResultSet resultSet) throws Exception;
+	}
+
+	/**
+	 * Executes the query with a cursor and passes the rows to the handler one by one, so that only 'exportFetch' rows
+	 * are held in memory at a time.
+	 * 
+	 * @param query select query
+	 * @param handler handler for each row
+	 */
+	public void executeQueryForEachRow(final String query, final RowHandler handler){
+		flush();
+
+		// pgjdbc only fetches with a cursor outside of auto-commit mode
+		final Connection queryConnection = borrowTransactionConnection();
+		try{
+			queryConnection.setAutoCommit(false);
+			try(final Statement queryStatement = queryConnection.createStatement(
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)){
+				queryStatement.setFetchSize(configuration.getExportFetchSize());
+				try(final ResultSet resultSet = queryStatement.executeQuery(query)){
+					while(resultSet.next()){
+						handler.handle(resultSet);
+					}
+				}
+			}finally{
+				queryConnection.rollback(); // read-only
+				queryConnection.setAutoCommit(true);
+			}
+		}catch(Exception ex){
+			logger.log(Level.SEVERE, "PostgreSQL query execution not successful!", ex);
+			throw new RuntimeException("Query failed: " + query, ex);
+		}finally{
+			releaseTransactionConnection(queryConnection);
+		}
+	}
+
+	/*
+	 * Auto-commit must not be turned off on the shared connection. Use a connection of its own if query connections
+	 * are not in use.
+	 */
+	private Connection borrowTransactionConnection(){
+		try{
+			return configuration.useQueryConnections() ? borrowQueryConnection() : openConnection();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a query connection", e);
+		}catch(Exception e){
+			throw new RuntimeException("Failed to get a query connection", e);
+		}
+	}
+
+	private void releaseTransactionConnection(final Connection transactionConnection){
+		if(configuration.useQueryConnections()){
+			releaseQueryConnection(transactionConnection);
+		}else{
+			try{
+				transactionConnection.close();
+			}catch(Exception e){
+				logger.log(Level.WARNING, "Failed to close query connection", e);
+			}
 		}
 	}
 
+	private List<String> registerColumns(final Set<String> annotationKeys, final boolean isVertex){
+		final Set<String> newColumnNames;
+		synchronized(columnsLock){
+			if(isVertex){
+				newColumnNames = getNewVertexColumns(annotationKeys);
+				addToVertexColumn(newColumnNames);
+				// Also pending so that a batch persisted in the meanwhile with these columns adds them first
+				pendingVertexColumnNames.addAll(newColumnNames);
+			}else{
+				newColumnNames = getNewEdgeColumns(annotationKeys);
+				addToEdgeColumn(newColumnNames);
+				pendingEdgeColumnNames.addAll(newColumnNames);
+			}
+		}
+		return new ArrayList<String>(newColumnNames);
+	}
+
+	/**
+	 * Adds the vertices and edges in the graph to the storage, and all of them to the given graph variable tables, in
+	 * one transaction. The elements are copied into temporary staging tables, and then only the ones not already in
+	 * the base graph are inserted into the storage tables.
+	 * 
+	 * Unlike storeVertex/storeEdge the elements are not buffered, and no flush or wait is needed before querying them.
+	 * 
+	 * @param graph elements to add
+	 * @param targetVertexTable vertex table of the variable to add all the vertices to. Not added to any if null.
+	 * @param targetEdgeTable edge table of the variable to add all the edges to. Not added to any if null.
+	 */
+	public void putGraph(final spade.core.Graph graph, final String targetVertexTable, final String targetEdgeTable){
+		flush();
+
+		final Set<String> vertexAnnotationKeys = new LinkedHashSet<String>();
+		for(final AbstractVertex vertex : graph.vertexSet()){
+			vertexAnnotationKeys.addAll(vertex.getAnnotationKeys());
+		}
+		final Set<String> edgeAnnotationKeys = new LinkedHashSet<String>();
+		for(final AbstractEdge edge : graph.edgeSet()){
+			edgeAnnotationKeys.addAll(edge.getAnnotationKeys());
+		}
+
+		final Connection putConnection = borrowTransactionConnection();
+		try{
+			// Added outside of the transaction so that one failed column does not abort the rest
+			checkColumnsAdded(
+					updateTableColumns(putConnection, registerColumns(vertexAnnotationKeys, true), getVertexTableName()), 
+					updateTableColumns(putConnection, registerColumns(edgeAnnotationKeys, false), getEdgeTableName()));
+
+			final List<String> vertexColumnNames = new ArrayList<String>();
+			vertexColumnNames.add(getPrimaryKeyName());
+			vertexColumnNames.addAll(vertexAnnotationKeys);
+			final List<String> edgeColumnNames = new ArrayList<String>();
+			edgeColumnNames.add(getPrimaryKeyName());
+			edgeColumnNames.add(getChildVertexKeyName());
+			edgeColumnNames.add(getParentVertexKeyName());
+			edgeColumnNames.addAll(edgeAnnotationKeys);
+
+			final Set<String> addedEdgeHashes = new HashSet<String>();
+			putConnection.setAutoCommit(false);
+			try(final Statement statement = putConnection.createStatement()){
+				final CopyManager copyManager = new CopyManager((BaseConnection)putConnection);
+				if(graph.vertexSet().size() > 0){
+					final String stagingTable = "spade_put_vertex";
+					createStagingTable(statement, stagingTable, getVertexTableName(), vertexColumnNames);
+					copyVertices(startCopy(copyManager, stagingTable, vertexColumnNames), 
+							graph.vertexSet().iterator(), vertexColumnNames);
+					statement.execute(getQueryInsertNewFromStaging(stagingTable, 
+							getVertexTableName(), getBaseVertexTableName(), vertexColumnNames, false));
+					if(targetVertexTable != null){
+						statement.execute(getQueryInsertHashesFromStaging(stagingTable, targetVertexTable));
+					}
+				}
+				if(graph.edgeSet().size() > 0){
+					final String stagingTable = "spade_put_edge";
+					createStagingTable(statement, stagingTable, getEdgeTableName(), edgeColumnNames);
+					copyEdges(startCopy(copyManager, stagingTable, edgeColumnNames), 
+							graph.edgeSet().iterator(), edgeColumnNames);
+					try(final ResultSet resultSet = statement.executeQuery(getQueryInsertNewFromStaging(stagingTable, 
+							getEdgeTableName(), getBaseEdgeTableName(), edgeColumnNames, true))){
+						while(resultSet.next()){
+							addedEdgeHashes.add(resultSet.getString(1).replace("-", ""));
+						}
+					}
+					if(targetEdgeTable != null){
+						statement.execute(getQueryInsertHashesFromStaging(stagingTable, targetEdgeTable));
+					}
+				}
+				putConnection.commit();
+			}catch(Exception e){
+				putConnection.rollback();
+				throw e;
+			}finally{
+				putConnection.setAutoCommit(true);
+			}
+
+			if(BUILD_SCAFFOLD){
+				try{
+					for(final AbstractEdge edge : graph.edgeSet()){
+						if(addedEdgeHashes.contains(edge.bigHashCode().toLowerCase())){
+							insertScaffoldEntry(edge);
+						}
+					}
+				}catch(Exception e){
+					logger.log(Level.WARNING, "Failed to update scaffold", e);
+				}
+			}
+
+			screenAndCountWrittenGraph(graph);
+		}catch(Exception e){
+			logger.log(Level.SEVERE, "Failed to put " + graph.vertexSet().size() + " vertices and " 
+					+ graph.edgeSet().size() + " edges", e);
+			throw new RuntimeException("Failed to put graph", e);
+		}finally{
+			releaseTransactionConnection(putConnection);
+		}
+	}
+
+	private void createStagingTable(final Statement statement, final String stagingTableName, 
+			final String tableName, final List<String> columnNames) throws Exception{
+		statement.execute("create temp table " + stagingTableName + " on commit drop as select " 
+				+ formatColumnNames(columnNames) + " from " + tableName + " where false");
+	}
+
+	/*
+	 * Inserts the staged elements which are not in the base table into the storage table and the base table.
+	 * There is no unique constraint on the hash to use 'on conflict' with.
+	 */
+	private String getQueryInsertNewFromStaging(final String stagingTableName, final String tableName, 
+			final String baseTableName, final List<String> columnNames, final boolean returnHashes){
+		final String hashColumnName = formatColumnName(getPrimaryKeyName());
+		final String formattedColumnNames = formatColumnNames(columnNames);
+		return "with added as ("
+				+ "insert into " + baseTableName + " (" + hashColumnName + ") "
+				+ "select distinct s." + hashColumnName + " from " + stagingTableName + " s "
+				+ "where not exists (select 1 from " + baseTableName + " b where b." + hashColumnName + " = s." + hashColumnName + ") "
+				+ "returning " + hashColumnName + ") "
+				+ "insert into " + tableName + " (" + formattedColumnNames + ") "
+				+ "select distinct on (" + hashColumnName + ") " + formattedColumnNames + " from " + stagingTableName + " "
+				+ "where " + hashColumnName + " in (select " + hashColumnName + " from added)"
+				+ (returnHashes ? " returning " + hashColumnName : "");
+	}
+
+	private String getQueryInsertHashesFromStaging(final String stagingTableName, final String targetTableName){
+		final String hashColumnName = formatColumnName(getPrimaryKeyName());
+		return "insert into " + targetTableName + " select distinct " + hashColumnName + " from " + stagingTableName;
+	}
+
+	private String formatColumnNames(final List<String> columnNames){
+		final List<String> formattedColumnNames = new ArrayList<String>();
+		for(final String columnName : columnNames){
+			formattedColumnNames.add(formatColumnName(columnName));
+		}
+		return String.join(", ", formattedColumnNames);
+	}
+
 	@Override
 	public synchronized QueryInstructionExecutor getQueryInstructionExecutor(){
 		if(queryEnvironment == null){
@@ -621,6 +1161,9 @@ public class PostgreSQL extends SQL{
 					getPrimaryKeyName(),
 					getChildVertexKeyName(), getParentVertexKeyName(), 
 					getVertexTableName(), getEdgeTableName());
+			if(configuration.getTraversal() == TraversalFunctions.Mode.NATIVE){
+				queryInstructionExecutor.installTraversalFunctions();
+			}
 		}
 		return queryInstructionExecutor;
 	}
@@ -26,7 +26,9 @@ import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.Callable;
@@ -41,6 +43,7 @@ import spade.core.AbstractEdge;
 import spade.core.AbstractScreen;
 import spade.core.AbstractStorage;
 import spade.core.AbstractVertex;
+import spade.core.HashHelper;
 import spade.core.Settings;
 import spade.query.quickgrail.core.QueryInstructionExecutor;
 import spade.screen.Deduplicate;
@@ -52,6 +55,8 @@ import spade.storage.quickstep.QuickstepFailure;
 import spade.storage.quickstep.QuickstepInstructionExecutor;
 import spade.storage.quickstep.QuickstepQueryEnvironment;
 import spade.storage.quickstep.QuickstepUtil;
+import spade.utility.Result;
+import spade.utility.map.external.HashIdDictionary;
 
 public class Quickstep extends AbstractStorage {
 	private QuickstepInstructionExecutor queryInstructionExecutor = null;
@@ -65,7 +70,8 @@ public class Quickstep extends AbstractStorage {
     		vertexTableName = "vertex",
     		edgeTableName = "edge",
     		vertexAnnotationsTableName = "vertex_anno",
-    		edgeAnnotationTableName = "edge_anno";
+    		edgeAnnotationTableName = "edge_anno",
+    		hashTableName = "spade_hash";
 	
   private PrintWriter debugLogWriter = null;
   private long timeExecutionStart;
@@ -77,6 +83,7 @@ public class Quickstep extends AbstractStorage {
 	private final Object screenLock = new Object();
 	private Deduplicate deduplicateScreen = null;
 	private final Map<String, Integer> shortLivedVertexHashToIdMap = new HashMap<String, Integer>();
+	private HashIdDictionary vertexIdDictionary = null;
 
 	public int getMaxEdgeValueLength(){
 		return conf.getMaxEdgeValueLength();
@@ -90,6 +97,10 @@ public class Quickstep extends AbstractStorage {
 		return conf.getMaxVertexValueLength();
 	}
 
+	public boolean getMembershipBitmaps(){
+		return conf.getMembershipBitmaps();
+	}
+
 	private final void garbageCollectVertexIds(){
 		synchronized(shortLivedVertexHashToIdMap){
 			shortLivedVertexHashToIdMap.clear();
@@ -103,7 +114,7 @@ public class Quickstep extends AbstractStorage {
 				idInTempMap = shortLivedVertexHashToIdMap.get(hashCode);
 			}
 			if(idInTempMap != null){
-				putVertexId(hashCode, idInTempMap);
+				// Not put in the screen again because ids of the batch being processed are put once it is stored
 				return idInTempMap;
 			}
 
@@ -124,6 +135,15 @@ public class Quickstep extends AbstractStorage {
 					return null;
 				}
 			}
+
+			if(vertexIdDictionary != null){
+				final Long idInDictionary = vertexIdDictionary.get(hashCode);
+				if(idInDictionary != null){
+					final Integer i = toVertexId(idInDictionary);
+					putVertexId(hashCode, i);
+					return i;
+				}
+			}
 			
 			final String query = "copy select id from " + vertexTableName + " where md5='" + hashCode + "' to stdout;";
 			final String queryResultString;
@@ -151,6 +171,16 @@ public class Quickstep extends AbstractStorage {
 		}
 	}
 
+	/*
+	 * Vertex ids are INT in the tables
+	 */
+	private static int toVertexId(final long id){
+		if(id < 1 || id > Integer.MAX_VALUE){
+			throw new RuntimeException("Vertex id '" + id + "' is out of the range of the vertex id column");
+		}
+		return (int)id;
+	}
+
 	private final void putVertexId(final String hashCode, final Integer value){
 		if(hashCode != null){
 			synchronized(shortLivedVertexHashToIdMap){
@@ -175,6 +205,8 @@ public class Quickstep extends AbstractStorage {
     private StringBuilder vertexAnnos = new StringBuilder();
     private StringBuilder edgeLinks = new StringBuilder();
     private StringBuilder edgeAnnos = new StringBuilder();
+    // Ids assigned to the new vertices in the batch. Put in the screen only after the batch is stored.
+    private final Map<String, Integer> newVertexIds = new LinkedHashMap<String, Integer>();
 
     private ExecutorService batchExecutor;
     private Future<Void> batchFuture;
@@ -250,6 +282,9 @@ public class Quickstep extends AbstractStorage {
         }
         executeQuery(dropQuery.toString());
       }
+      if (vertexIdDictionary != null) {
+        vertexIdDictionary.clear();
+      }
       initStorage();
     }
 
@@ -290,19 +325,28 @@ public class Quickstep extends AbstractStorage {
       batchFuture = batchExecutor.submit(this);
     }
 
-    private void finalizeBatch() {
+    /**
+     * Waits for the batch being processed (if any).
+     *
+     * @return false if the batch failed to load
+     */
+    private boolean finalizeBatch() {
+      boolean successful = true;
       if (batchFuture != null) {
         try {
           batchFuture.get();
         } catch (InterruptedException | ExecutionException e) {
           logger.log(Level.SEVERE, e.getMessage());
+          successful = false;
         }
         batchFuture = null;
       }
+      return successful;
     }
 
     @Override
-    public Void call() {
+    public Void call() throws Exception {
+      Exception failure = null;
       try {
     	  garbageCollectVertexIds();
         processBatch();
@@ -310,6 +354,7 @@ public class Quickstep extends AbstractStorage {
         StringWriter sw = new StringWriter();
         e.printStackTrace(new PrintWriter(sw));
         logger.log(Level.SEVERE, sw.toString());
+        failure = e;
       }
       garbageCollectVertexIds();
       totalNumVerticesProcessed += batchBuffer.getVertices().size();
@@ -317,6 +362,10 @@ public class Quickstep extends AbstractStorage {
       qs.logInfo("Total number of vertices processed: " + totalNumVerticesProcessed);
       qs.logInfo("Total number of edges processed: " + totalNumEdgesProcessed);
       batchBuffer.reset();
+      if (failure != null) {
+        // Reported to the one waiting in finalizeBatch
+        throw failure;
+      }
       return null;
     }
 
@@ -343,72 +392,114 @@ public class Quickstep extends AbstractStorage {
         return;
       }
 
-      int vertexIdCounter = lastNumVertices;
-      long edgeIdCounter = lastNumEdges;
-
-      vertexMD5.setLength(0);
-      vertexAnnos.setLength(0);
-      for (AbstractVertex vertex : batchBuffer.getVertices()) {
-        final String md5 = vertex.bigHashCode();
-        if(getVertexId(md5) != null){
-        	continue;
+      // Ids below the dictionary's next id may have been taken by a batch which was not committed.
+      // The largest id is used and not the count because rolled back batches leave gaps in the ids.
+      if (vertexIdDictionary != null) {
+        final long maxVertexId;
+        try {
+          String sn = qs.executeQuery("COPY SELECT MAX(id) FROM "+tableNameBaseVertex+" TO stdout;").trim();
+          // Empty (or NULL) if there are no vertices
+          maxVertexId = sn.isEmpty() || !Character.isDigit(sn.charAt(sn.length() - 1)) ? 0 : Long.parseLong(sn);
+        } catch (Exception e) {
+          logger.log(Level.SEVERE, e.getMessage());
+          return;
         }
-        appendVertex(vertex, md5, ++vertexIdCounter);
+        vertexIdDictionary.ensureNextIdAtLeast(Math.max(lastNumVertices, maxVertexId) + 1L);
       }
+      final int firstNewVertexId = vertexIdDictionary == null
+          ? lastNumVertices + 1 : toVertexId(vertexIdDictionary.getNextId());
+      int vertexIdCounter = firstNewVertexId - 1;
+      long edgeIdCounter = lastNumEdges;
 
-      edgeLinks.setLength(0);
-      edgeAnnos.setLength(0);
-      for (AbstractEdge edge : batchBuffer.getEdges()) {
-    	  final String md5 = edge.bigHashCode();
-        final AbstractVertex srcVertex = edge.getChildVertex();
-        final AbstractVertex dstVertex = edge.getParentVertex();
-        final String srcVertexMd5 = srcVertex.bigHashCode();
-        final String dstVertexMd5 = dstVertex.bigHashCode();
-
-        Integer srcVertexId = getVertexId(srcVertexMd5);
-        if (srcVertexId == null) {
-          srcVertexId = ++vertexIdCounter;
-          appendVertex(srcVertex, srcVertexMd5, srcVertexId);
+      newVertexIds.clear();
+      try {
+        vertexMD5.setLength(0);
+        vertexAnnos.setLength(0);
+        for (AbstractVertex vertex : batchBuffer.getVertices()) {
+          final String md5 = vertex.bigHashCode();
+          if(getVertexId(md5) != null){
+          	continue;
+          }
+          vertexIdCounter = nextVertexId(md5, vertexIdCounter);
+          appendVertex(vertex, md5, vertexIdCounter);
         }
-        Integer dstVertexId = getVertexId(dstVertexMd5);
-        if (dstVertexId == null) {
-          dstVertexId = ++vertexIdCounter;
-          appendVertex(dstVertex, dstVertexMd5, dstVertexId);
+
+        edgeLinks.setLength(0);
+        edgeAnnos.setLength(0);
+        for (AbstractEdge edge : batchBuffer.getEdges()) {
+      	  final String md5 = edge.bigHashCode();
+          final AbstractVertex srcVertex = edge.getChildVertex();
+          final AbstractVertex dstVertex = edge.getParentVertex();
+          final String srcVertexMd5 = srcVertex.bigHashCode();
+          final String dstVertexMd5 = dstVertex.bigHashCode();
+
+          Integer srcVertexId = getVertexId(srcVertexMd5);
+          if (srcVertexId == null) {
+            srcVertexId = vertexIdCounter = nextVertexId(srcVertexMd5, vertexIdCounter);
+            appendVertex(srcVertex, srcVertexMd5, srcVertexId);
+          }
+          Integer dstVertexId = getVertexId(dstVertexMd5);
+          if (dstVertexId == null) {
+            dstVertexId = vertexIdCounter = nextVertexId(dstVertexMd5, vertexIdCounter);
+            appendVertex(dstVertex, dstVertexMd5, dstVertexId);
+          }
+          appendEdge(edge, md5, ++edgeIdCounter, srcVertexId, dstVertexId);
         }
-        appendEdge(edge, md5, ++edgeIdCounter, srcVertexId, dstVertexId);
-      }
 
-      if (vertexIdCounter > lastNumVertices) {
-        qs.submitQuery("INSERT INTO "+tableNameBaseVertex+" SELECT idx" +
-                       " FROM generate_series(" + (lastNumVertices + 1) +
-                       ", " + vertexIdCounter +  ") AS t(idx);");
+        if (vertexIdCounter >= firstNewVertexId) {
+          qs.submitQuery("INSERT INTO "+tableNameBaseVertex+" SELECT idx" +
+                         " FROM generate_series(" + firstNewVertexId +
+                         ", " + vertexIdCounter +  ") AS t(idx);");
 
-        qs.submitQuery("COPY "+vertexTableName+" FROM stdin WITH (DELIMITER '|');",
-                       vertexMD5.toString());
+          qs.submitQuery("COPY "+vertexTableName+" FROM stdin WITH (DELIMITER '|');",
+                         vertexMD5.toString());
 
-        qs.submitQuery("COPY "+vertexAnnotationsTableName+" FROM stdin WITH (DELIMITER '|');",
-                       vertexAnnos.toString());
-      }
+          qs.submitQuery("COPY "+vertexAnnotationsTableName+" FROM stdin WITH (DELIMITER '|');",
+                         vertexAnnos.toString());
+        }
+
+        if (edgeIdCounter > lastNumEdges) {
+          qs.submitQuery("INSERT INTO "+tableNameBaseEdge+" SELECT idx" +
+                         " FROM generate_series(" + (lastNumEdges + 1) +
+                         ", " + edgeIdCounter +  ") AS t(idx);");
 
-      if (edgeIdCounter > lastNumEdges) {
-        qs.submitQuery("INSERT INTO "+tableNameBaseEdge+" SELECT idx" +
-                       " FROM generate_series(" + (lastNumEdges + 1) +
-                       ", " + edgeIdCounter +  ") AS t(idx);");
+          qs.submitQuery("COPY "+edgeTableName+" FROM stdin WITH (DELIMITER '|');",
+                         edgeLinks.toString());
 
-        qs.submitQuery("COPY "+edgeTableName+" FROM stdin WITH (DELIMITER '|');",
-                       edgeLinks.toString());
+          qs.submitQuery("COPY "+edgeAnnotationTableName+" FROM stdin WITH (DELIMITER '|');",
+                         edgeAnnos.toString());
+        }
 
-        qs.submitQuery("COPY "+edgeAnnotationTableName+" FROM stdin WITH (DELIMITER '|');",
-                       edgeAnnos.toString());
+        // For stable measurement of loading time, we just finalize each batch here ...
+        qs.finalizeQuery();
+      } catch (RuntimeException e) {
+        // The ids of the vertices in the failed batch must not be used for later batches
+        if (vertexIdDictionary != null) {
+          vertexIdDictionary.rollback();
+        }
+        newVertexIds.clear();
+        throw e;
       }
 
-      // For stable measurement of loading time, we just finalize each batch here ...
-      qs.finalizeQuery();
+      if (vertexIdDictionary != null) {
+        vertexIdDictionary.commit();
+      }
+      for (Map.Entry<String, Integer> newVertexId : newVertexIds.entrySet()) {
+        putVertexId(newVertexId.getKey(), newVertexId.getValue());
+      }
+      newVertexIds.clear();
 
       qs.logInfo("Done processing batch " + batchBuffer.getBatchID() + " at " +
                  formatTime(System.currentTimeMillis() - timeExecutionStart));
     }
 
+    private int nextVertexId(final String md5, final int lastVertexId) {
+      if (vertexIdDictionary == null) {
+        return lastVertexId + 1;
+      }
+      return toVertexId(vertexIdDictionary.assign(md5));
+    }
+
     private void appendVertex(AbstractVertex vertex, String md5, final int vertexId) {
       vertexMD5.append(vertexId);
       vertexMD5.append("|");
@@ -424,7 +515,10 @@ public class Quickstep extends AbstractStorage {
         vertexAnnos.append('\n');
       }
 
-      putVertexId(md5, vertexId);
+      synchronized (shortLivedVertexHashToIdMap) {
+        shortLivedVertexHashToIdMap.put(md5, vertexId);
+      }
+      newVertexIds.put(md5, vertexId);
     }
 
     private void appendEdge(AbstractEdge edge, final String md5, final long edgeId,
@@ -498,6 +592,12 @@ public class Quickstep extends AbstractStorage {
     String configFile = Settings.getDefaultConfigFilePath(Quickstep.class);
     conf = new QuickstepConfiguration(configFile, arguments);
 
+    if (HashHelper.defaultInstance.bytesInHash != 16) {
+      logger.log(Level.SEVERE, "Hash algorithm '" + HashHelper.defaultInstance.hashAlgorithmName + "' not supported. "
+          + "Only hash algorithms with 16 bytes in hash can be stored in 'md5' columns");
+      return false;
+    }
+
     // Initialize log file writer.
     String debugLogFilePath = conf.getDebugLogFilePath();
     if (debugLogFilePath != null) {
@@ -537,6 +637,16 @@ public class Quickstep extends AbstractStorage {
       });
     }
 
+    if (conf.getVertexIdDictionary()) {
+      final Result<HashIdDictionary> dictionaryResult = HashIdDictionary.create("QuickstepVertexIds", configFile);
+      if (dictionaryResult.error) {
+        logger.log(Level.SEVERE, "Failed to create vertex id dictionary");
+        logger.log(Level.SEVERE, dictionaryResult.toErrorString());
+        return false;
+      }
+      vertexIdDictionary = dictionaryResult.result;
+    }
+
     // Initialize copy manager.
     copyManager.initialize();
 
@@ -547,6 +657,10 @@ public class Quickstep extends AbstractStorage {
       copyManager.resetStorageIfInvalid();
     }
 
+    if (!setupHash()) {
+      return false;
+    }
+
     // Print all configurations for ease of debugging.
     qs.logInfo(conf.dump());
 
@@ -556,6 +670,42 @@ public class Quickstep extends AbstractStorage {
     return true;
   }
 
+  /*
+   * Hashes are stored in 'md5' columns. The hash in use is recorded so that a database is not silently filled with
+   * elements hashed in different ways. Byte length alone does not tell the algorithms apart.
+   */
+  private boolean setupHash() {
+    final HashHelper hashHelper = HashHelper.defaultInstance;
+    try {
+      if (!QuickstepUtil.GetAllTableNames(this).contains(hashTableName)) {
+        executeQuery("CREATE TABLE " + hashTableName + " (descriptor VARCHAR(64));");
+      }
+      String storedDescriptor =
+          qs.executeQuery("COPY SELECT descriptor FROM " + hashTableName + " TO stdout;").trim();
+      if (storedDescriptor.isEmpty()) {
+        // Databases created before the hash was recorded were always md5 with legacy encoding
+        final long vertexCount = executeQueryForLongResult("COPY SELECT COUNT(*) FROM " + tableNameBaseVertex + " TO stdout;");
+        storedDescriptor = vertexCount == 0 ? hashHelper.getDescriptor() : "md5/legacy";
+        executeQuery("INSERT INTO " + hashTableName + " VALUES ('" + storedDescriptor + "');");
+      } else {
+        storedDescriptor = storedDescriptor.split("\\R", 2)[0].trim();
+      }
+      final Result<Boolean> validResult = hashHelper.validateStoredDescriptor(storedDescriptor);
+      if (validResult.error) {
+        logger.log(Level.SEVERE, validResult.errorMessage);
+        return false;
+      }
+      if (!validResult.result) {
+        logger.log(Level.WARNING, "Database created with hash '" + storedDescriptor + "' but using '"
+            + hashHelper.getDescriptor() + "'. Hashes of existing and new elements are not comparable");
+      }
+      return true;
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, "Failed to setup hash", e);
+      return false;
+    }
+  }
+
   @Override
   public boolean shutdown() {
     if (!batch.isEmpty()) {
@@ -563,6 +713,10 @@ public class Quickstep extends AbstractStorage {
       copyManager.finalizeBatch();
     }
     copyManager.shutdown();
+    if (vertexIdDictionary != null) {
+      vertexIdDictionary.close();
+      vertexIdDictionary = null;
+    }
     qs.shutdown();
     if (debugLogWriter != null) {
       debugLogWriter.close();
@@ -584,6 +738,89 @@ public class Quickstep extends AbstractStorage {
 		return true;
 	}
 
+	/**
+	 * Loads the graph in one batch and waits for it, without going through the buffer. Vertices are deduplicated by
+	 * the loader, and edges are deduplicated against the base graph here. All the vertices and edges in the graph
+	 * are then added to the given graph variable tables.
+	 * 
+	 * @param graph elements to add
+	 * @param targetVertexTable vertex table of the variable to add all the vertices to. Not added to any if null.
+	 * @param targetEdgeTable edge table of the variable to add all the edges to. Not added to any if null.
+	 * @throws RuntimeException if the batch failed to load. Nothing is added to the variable tables then.
+	 */
+	public synchronized void putGraph(final spade.core.Graph graph, final String targetVertexTable, final String targetEdgeTable){
+		final String putVertexTable = "m_putvertexhash";
+		final String putEdgeTable = "m_putedgehash";
+		synchronized(batch){
+			// Buffered elements get their ids first
+			if(!batch.isEmpty()){
+				copyManager.submitBatch(batch);
+				resetForceSubmitTimer();
+			}
+			copyManager.finalizeBatch();
+
+			final StringBuilder vertexHashes = new StringBuilder();
+			for(final AbstractVertex vertex : graph.vertexSet()){
+				vertexHashes.append(vertex.bigHashCode()).append('\n');
+			}
+			final StringBuilder edgeHashes = new StringBuilder();
+			for(final AbstractEdge edge : graph.edgeSet()){
+				edgeHashes.append(edge.bigHashCode()).append('\n');
+			}
+			createHashTable(putVertexTable, vertexHashes.toString());
+			createHashTable(putEdgeTable, edgeHashes.toString());
+
+			final Set<String> existingEdgeHashes = new HashSet<String>();
+			final String existingEdgeHashesString = executeQuery("copy select md5 from " + edgeTableName 
+					+ " where md5 in (select md5 from " + putEdgeTable + " group by md5) to stdout;");
+			if(existingEdgeHashesString != null){
+				for(final String existingEdgeHash : existingEdgeHashesString.split("\n")){
+					existingEdgeHashes.add(existingEdgeHash.trim());
+				}
+			}
+
+			final GraphBatch putBatch = new GraphBatch();
+			for(final AbstractVertex vertex : graph.vertexSet()){
+				putBatch.addVertex(vertex);
+			}
+			for(final AbstractEdge edge : graph.edgeSet()){
+				if(existingEdgeHashes.add(edge.bigHashCode())){
+					putBatch.addEdge(edge);
+				}
+			}
+			if(!putBatch.isEmpty()){
+				copyManager.submitBatch(putBatch);
+				if(!copyManager.finalizeBatch()){
+					// The elements must not be added to the variables, or seen by the screens, if not stored
+					executeQuery("drop table " + putVertexTable + ";");
+					executeQuery("drop table " + putEdgeTable + ";");
+					throw new RuntimeException("Failed to put " + graph.vertexSet().size() + " vertices and " 
+							+ graph.edgeSet().size() + " edges");
+				}
+			}
+
+			if(targetVertexTable != null){
+				executeQuery("insert into " + targetVertexTable + " select id from " + vertexTableName 
+						+ " where md5 in (select md5 from " + putVertexTable + " group by md5);");
+			}
+			if(targetEdgeTable != null){
+				executeQuery("insert into " + targetEdgeTable + " select id from " + edgeTableName 
+						+ " where md5 in (select md5 from " + putEdgeTable + " group by md5);");
+			}
+			executeQuery("drop table " + putVertexTable + ";");
+			executeQuery("drop table " + putEdgeTable + ";");
+		}
+		screenAndCountWrittenGraph(graph);
+	}
+
+	private void createHashTable(final String tableName, final String hashes){
+		executeQuery("drop table " + tableName + ";");
+		executeQuery("create table " + tableName + " (md5 char(32));");
+		if(!hashes.isEmpty()){
+			qs.executeQuery("copy " + tableName + " from stdin with (delimiter '|');", hashes);
+		}
+	}
+
   @Override
   public synchronized boolean storeEdge(AbstractEdge incomingEdge) {
     synchronized (batch) {
@@ -0,0 +1,458 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.neo4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.storage.Neo4j;
+import spade.utility.FileUtility;
+
+/**
+ * Stages vertices and edges to files and loads them into a new database with 'neo4j-admin import'.
+ *
+ * Vertices and edges are staged with their annotations as they come because the set of annotation keys (i.e. the CSV
+ * header) is only known at the end. At import, the staged files are written out as CSV files with headers and the
+ * importer is run on the stopped database. Duplicate vertices are skipped by the importer. Edges are not deduplicated
+ * (same as edge cache find mode 'none').
+ *
+ * Vertices and edges with annotation keys which cannot be a CSV header column are kept in memory and must be put
+ * through the transactional path after import.
+ */
+public class BulkImporter{
+
+	private static final Logger logger = Logger.getLogger(BulkImporter.class.getName());
+
+	private static final String
+		vertexStagingFileName = "vertices.staged",
+		edgeStagingFileName = "edges.staged",
+		vertexHeaderFileName = "vertices.header.csv",
+		vertexDataFileName = "vertices.csv",
+		edgeHeaderFileName = "edges.header.csv",
+		edgeDataFileName = "edges.csv",
+		importConfigFileName = "import.conf",
+		importLogFileName = "import.log",
+		importReportFileName = "import.report";
+
+	// Exact set of vertices staged recently. Endpoints of an edge are staged only if not seen here
+	private static final int recentVertexHashesSize = 100000;
+
+	private final Neo4j storage;
+
+	private File directory;
+	private DataOutputStream vertexStagingOutput;
+	private DataOutputStream edgeStagingOutput;
+
+	// Annotation key to column index in the CSV
+	private final Map<String, Integer> vertexKeyColumns = new LinkedHashMap<String, Integer>();
+	private final Map<String, Integer> edgeKeyColumns = new LinkedHashMap<String, Integer>();
+
+	private final List<AbstractVertex> deferredVertices = new ArrayList<AbstractVertex>();
+	private final List<AbstractEdge> deferredEdges = new ArrayList<AbstractEdge>();
+	private final Set<String> deferredVertexHashes = new HashSet<String>();
+
+	private final Map<String, Boolean> recentVertexHashes = new LinkedHashMap<String, Boolean>(16, 0.75f, true){
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest){
+			return size() > recentVertexHashesSize;
+		}
+	};
+
+	private long stagedVertexCount = 0;
+	private long stagedEdgeCount = 0;
+
+	public BulkImporter(final Neo4j storage){
+		this.storage = storage;
+	}
+
+	private final File getDataDirectoryFile(){
+		// '<neo4j_home>/<database>/databases/<dbms.default_database>'
+		return storage.getConfiguration().finalConstructedDbPath.getParentFile().getParentFile();
+	}
+
+	private final File getTransactionsDirectoryFile(){
+		return new File(new File(getDataDirectoryFile(), "transactions"), storage.getConfiguration().dbName);
+	}
+
+	private static final boolean isNonEmptyDirectory(final File file){
+		final String[] children = file.list();
+		return children != null && children.length > 0;
+	}
+
+	public synchronized final void initialize() throws Exception{
+		final Configuration configuration = storage.getConfiguration();
+
+		final File databaseDirectory = configuration.finalConstructedDbPath;
+		final File transactionsDirectory = getTransactionsDirectoryFile();
+		if(isNonEmptyDirectory(databaseDirectory) || isNonEmptyDirectory(transactionsDirectory)){
+			if(!configuration.reset){
+				throw new Exception("Bulk import is only allowed into a new database. Database already exists at path: '"
+						+ databaseDirectory.getAbsolutePath() + "'. Set '" + Configuration.keyReset + "=true' to replace it");
+			}
+			if(databaseDirectory.exists()){
+				FileUtility.deleteDirectory(databaseDirectory.getAbsolutePath());
+			}
+			if(transactionsDirectory.exists()){
+				FileUtility.deleteDirectory(transactionsDirectory.getAbsolutePath());
+			}
+			logger.log(Level.INFO, "Deleted existing database for bulk import: '" + databaseDirectory.getAbsolutePath() + "'");
+		}
+
+		directory = configuration.bulkImportDirectoryFile;
+		if(!FileUtility.createDirectories(directory.getAbsolutePath())){
+			throw new Exception("Failed to create bulk import directory: '" + directory.getAbsolutePath() + "'");
+		}
+
+		vertexStagingOutput = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(directory, vertexStagingFileName)), 1 << 20));
+		edgeStagingOutput = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(directory, edgeStagingFileName)), 1 << 20));
+	}
+
+	// Header columns are separated by ',', quoted by '"', and typed by ':'
+	private static final boolean isValidHeaderKey(final String key){
+		if(key == null || key.isEmpty() || !key.trim().equals(key)){
+			return false;
+		}
+		for(int i = 0; i < key.length(); i++){
+			final char c = key.charAt(i);
+			if(c == ',' || c == '"' || c == ':' || c == '\n' || c == '\r'){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static final boolean areValidHeaderKeys(final Set<String> keys){
+		for(final String key : keys){
+			if(!isValidHeaderKey(key)){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static final void writeString(final DataOutputStream output, final String value) throws Exception{
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static final String readString(final DataInputStream input) throws Exception{
+		final int length = input.readInt();
+		final byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static final void writeAnnotations(final DataOutputStream output, final Map<String, String> annotations,
+			final Map<String, Integer> keyColumns) throws Exception{
+		output.writeInt(annotations.size());
+		for(final Map.Entry<String, String> entry : annotations.entrySet()){
+			final String key = entry.getKey();
+			if(!keyColumns.containsKey(key)){
+				keyColumns.put(key, keyColumns.size());
+			}
+			writeString(output, key);
+			writeString(output, entry.getValue() == null ? "" : entry.getValue());
+		}
+	}
+
+	private final void stageVertex(final String hashCode, final AbstractVertex vertex) throws Exception{
+		final Map<String, String> annotations = vertex.getCopyOfAnnotations();
+		storage.validateUpdateHashKeyAndKeysInAnnotationMap(vertex, "Vertex", annotations);
+		recentVertexHashes.put(hashCode, Boolean.TRUE);
+		if(!areValidHeaderKeys(annotations.keySet())){
+			deferredVertices.add(vertex);
+			deferredVertexHashes.add(hashCode);
+			return;
+		}
+		writeString(vertexStagingOutput, hashCode);
+		writeAnnotations(vertexStagingOutput, annotations, vertexKeyColumns);
+		stagedVertexCount++;
+	}
+
+	public synchronized final void putVertex(final AbstractVertex vertex) throws Exception{
+		if(vertex == null){
+			throw new Exception("NULL vertex to put");
+		}
+		final String hashCode = vertex.bigHashCode();
+		if(hashCode == null){
+			throw new Exception("NULL hash code for vertex to put: " + vertex);
+		}
+		stageVertex(hashCode, vertex);
+	}
+
+	public synchronized final void putEdge(final AbstractEdge edge) throws Exception{
+		if(edge == null){
+			throw new Exception("NULL edge to put");
+		}
+		final String hashCode = edge.bigHashCode();
+		if(hashCode == null){
+			throw new Exception("NULL hash code for edge to put: " + edge);
+		}
+		final AbstractVertex childVertex = edge.getChildVertex();
+		final AbstractVertex parentVertex = edge.getParentVertex();
+		if(childVertex == null){
+			throw new RuntimeException("Child vertex is NULL. Failed to put edge: " + edge);
+		}
+		if(parentVertex == null){
+			throw new RuntimeException("Parent vertex is NULL. Failed to put edge: " + edge);
+		}
+		final String childHashCode = childVertex.bigHashCode();
+		final String parentHashCode = parentVertex.bigHashCode();
+
+		// Same as the transactional path which creates the endpoints if missing. Duplicates skipped at import
+		if(recentVertexHashes.get(childHashCode) == null){
+			stageVertex(childHashCode, childVertex);
+		}
+		if(recentVertexHashes.get(parentHashCode) == null){
+			stageVertex(parentHashCode, parentVertex);
+		}
+
+		final Map<String, String> annotations = edge.getCopyOfAnnotations();
+		storage.validateUpdateHashKeyAndKeysInAnnotationMap(edge, "Edge", annotations);
+		// The importer would skip an edge with a missing endpoint
+		if(!areValidHeaderKeys(annotations.keySet())
+				|| deferredVertexHashes.contains(childHashCode) || deferredVertexHashes.contains(parentHashCode)){
+			deferredEdges.add(edge);
+			return;
+		}
+		writeString(edgeStagingOutput, hashCode);
+		writeString(edgeStagingOutput, childHashCode);
+		writeString(edgeStagingOutput, parentHashCode);
+		writeAnnotations(edgeStagingOutput, annotations, edgeKeyColumns);
+		stagedEdgeCount++;
+	}
+
+	private static final void writeCsvValue(final Writer writer, final String value) throws Exception{
+		// Unquoted empty value means no property
+		if(value == null){
+			return;
+		}
+		writer.write('"');
+		final int length = value.length();
+		for(int i = 0; i < length; i++){
+			final char c = value.charAt(i);
+			if(c == '"'){
+				writer.write('"');
+			}
+			writer.write(c);
+		}
+		writer.write('"');
+	}
+
+	private static final void writeHeaderFile(final File file, final List<String> fixedColumns,
+			final Map<String, Integer> keyColumns) throws Exception{
+		try(final Writer writer = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))){
+			writer.write(String.join(",", fixedColumns));
+			for(final String key : keyColumns.keySet()){
+				writer.write(',');
+				writer.write(key);
+			}
+			writer.write('\n');
+		}
+	}
+
+	/*
+	 * Converts the staged file to the CSV data file. Each staged record has 'fixedColumns' strings followed by the
+	 * annotations
+	 */
+	private static final void writeDataFile(final File stagedFile, final File dataFile, final int fixedColumns,
+			final Map<String, Integer> keyColumns) throws Exception{
+		final String[] values = new String[keyColumns.size()];
+		try(final DataInputStream input = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(stagedFile), 1 << 20));
+				final Writer writer = new BufferedWriter(
+						new OutputStreamWriter(new FileOutputStream(dataFile), StandardCharsets.UTF_8), 1 << 20)){
+			while(true){
+				final String firstValue;
+				try{
+					firstValue = readString(input);
+				}catch(EOFException eof){
+					break;
+				}
+				writeCsvValue(writer, firstValue);
+				for(int i = 1; i < fixedColumns; i++){
+					writer.write(',');
+					writeCsvValue(writer, readString(input));
+				}
+				Arrays.fill(values, null);
+				final int annotationsCount = input.readInt();
+				for(int i = 0; i < annotationsCount; i++){
+					final String key = readString(input);
+					final String value = readString(input);
+					values[keyColumns.get(key)] = value;
+				}
+				for(final String value : values){
+					writer.write(',');
+					writeCsvValue(writer, value);
+				}
+				writer.write('\n');
+			}
+		}
+	}
+
+	private final void runImportCommand() throws Exception{
+		final Configuration configuration = storage.getConfiguration();
+
+		final File importConfigFile = new File(directory, importConfigFileName);
+		FileUtility.writeLines(importConfigFile.getAbsolutePath(), Arrays.asList(
+				"dbms.directories.data=" + getDataDirectoryFile().getAbsolutePath()));
+
+		final List<String> command = new ArrayList<String>();
+		command.add(configuration.bulkImportCommandFile.getAbsolutePath());
+		command.add("import");
+		command.add("--database=" + configuration.dbName);
+		command.add("--additional-config=" + importConfigFile.getAbsolutePath());
+		command.add("--id-type=STRING");
+		command.add("--skip-duplicate-nodes=true");
+		command.add("--skip-bad-relationships=true");
+		command.add("--multiline-fields=true");
+		command.add("--report-file=" + new File(directory, importReportFileName).getAbsolutePath());
+		command.add("--nodes=" + configuration.nodePrimaryLabelName + "="
+				+ new File(directory, vertexHeaderFileName).getAbsolutePath() + ","
+				+ new File(directory, vertexDataFileName).getAbsolutePath());
+		command.add("--relationships=" + configuration.edgeRelationshipTypeName + "="
+				+ new File(directory, edgeHeaderFileName).getAbsolutePath() + ","
+				+ new File(directory, edgeDataFileName).getAbsolutePath());
+
+		final File importLogFile = new File(directory, importLogFileName);
+		final ProcessBuilder processBuilder = new ProcessBuilder(command);
+		processBuilder.environment().put("NEO4J_HOME", configuration.dbHomeDirectoryFile.getAbsolutePath());
+		processBuilder.redirectErrorStream(true);
+		processBuilder.redirectOutput(importLogFile);
+
+		logger.log(Level.INFO, "Running bulk import: " + String.join(" ", command));
+		final Process process = processBuilder.start();
+		final int exitValue = process.waitFor();
+		if(exitValue != 0){
+			throw new Exception("Bulk import failed with exit value '" + exitValue + "'. See: '"
+					+ importLogFile.getAbsolutePath() + "'");
+		}
+	}
+
+	/**
+	 * Stops staging and imports all staged vertices and edges into the database. The database must not be running.
+	 * Staged files are kept if the import fails.
+	 *
+	 * @throws Exception on failure
+	 */
+	public synchronized final void importIntoDatabase() throws Exception{
+		vertexStagingOutput.close();
+		edgeStagingOutput.close();
+		recentVertexHashes.clear();
+
+		if(stagedVertexCount == 0 && stagedEdgeCount == 0){
+			logger.log(Level.INFO, "Nothing staged for bulk import");
+			deleteFiles();
+			return;
+		}
+
+		final Configuration configuration = storage.getConfiguration();
+		final long startMillis = System.currentTimeMillis();
+
+		final List<String> vertexFixedColumns = new ArrayList<String>();
+		vertexFixedColumns.add(configuration.hashPropertyName + ":ID");
+		writeHeaderFile(new File(directory, vertexHeaderFileName), vertexFixedColumns, vertexKeyColumns);
+		writeDataFile(new File(directory, vertexStagingFileName), new File(directory, vertexDataFileName),
+				vertexFixedColumns.size(), vertexKeyColumns);
+
+		final List<String> edgeFixedColumns = new ArrayList<String>();
+		edgeFixedColumns.add(configuration.hashPropertyName);
+		edgeFixedColumns.add(":START_ID");
+		edgeFixedColumns.add(":END_ID");
+		writeHeaderFile(new File(directory, edgeHeaderFileName), edgeFixedColumns, edgeKeyColumns);
+		writeDataFile(new File(directory, edgeStagingFileName), new File(directory, edgeDataFileName),
+				edgeFixedColumns.size(), edgeKeyColumns);
+
+		runImportCommand();
+
+		logger.log(Level.INFO, "Bulk imported " + stagedVertexCount + " vertices (including duplicates) and "
+				+ stagedEdgeCount + " edges in " + (System.currentTimeMillis() - startMillis) + " millis");
+
+		deleteFiles();
+	}
+
+	private final void deleteFiles(){
+		for(final String fileName : new String[]{vertexStagingFileName, edgeStagingFileName, vertexHeaderFileName,
+				vertexDataFileName, edgeHeaderFileName, edgeDataFileName, importConfigFileName}){
+			final File file = new File(directory, fileName);
+			try{
+				if(file.exists()){
+					FileUtility.deleteFile(file.getAbsolutePath());
+				}
+			}catch(Exception e){
+				logger.log(Level.WARNING, "Failed to delete bulk import file: '" + file.getAbsolutePath() + "'", e);
+			}
+		}
+	}
+
+	/**
+	 * @return annotation keys of the imported vertices
+	 */
+	public synchronized final Set<String> getVertexKeys(){
+		return new HashSet<String>(vertexKeyColumns.keySet());
+	}
+
+	/**
+	 * @return annotation keys of the imported edges
+	 */
+	public synchronized final Set<String> getEdgeKeys(){
+		return new HashSet<String>(edgeKeyColumns.keySet());
+	}
+
+	/**
+	 * @return vertices which could not be staged and must be put after import
+	 */
+	public synchronized final List<AbstractVertex> getDeferredVertices(){
+		return new ArrayList<AbstractVertex>(deferredVertices);
+	}
+
+	/**
+	 * @return edges which could not be staged and must be put after import
+	 */
+	public synchronized final List<AbstractEdge> getDeferredEdges(){
+		return new ArrayList<AbstractEdge>(deferredEdges);
+	}
+}
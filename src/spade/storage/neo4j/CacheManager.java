@@ -92,6 +92,21 @@ public class CacheManager{
 		return true;
 	}
 
+	/**
+	 * @param hashCode hash of the edge
+	 * @return value in the cache only (not looked up in the database) or null
+	 */
+	public final Object edgeCacheGetCached(final String hashCode){
+		if(hashCode != null){
+			synchronized(screenLock){
+				if(deduplicateScreen != null){
+					return deduplicateScreen.getEdgeCacheValueForStorage(hashCode);
+				}
+			}
+		}
+		return null;
+	}
+
 	public final void edgeCachePut(final String hashCode, final boolean value){
 		if(hashCode != null){
 			synchronized(screenLock){
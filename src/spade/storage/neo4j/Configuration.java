@@ -55,6 +55,7 @@ public class Configuration{
 		keyFlushAfterSeconds = "flushAfterSeconds",
 		keyBufferLimit = "bufferLimit",
 		keyTransactionTimeoutInSeconds = "transactionTimeoutInSeconds",
+		keyPutBatchSize = "putBatchSize",
 		// Storage and database interaction management
 		keyForceShutdown = "forceShutdown",
 		keyReset = "reset",
@@ -83,7 +84,11 @@ public class Configuration{
 		keyTestVertexTotal = "test.vertex.total",
 		keyTestEdgeDegree = "test.edge.degree",
 		keyTestVertexAnnotations = "test.vertex.annotations",
-		keyTestEdgeAnnotations = "test.edge.annotations";
+		keyTestEdgeAnnotations = "test.edge.annotations",
+		// Bulk import management
+		keyBulkImport = "bulkImport",
+		keyBulkImportDirectory = "bulkImport.directory",
+		keyBulkImportCommand = "bulkImport.command";
 
 	// Storage setup management
 	public final File dbHomeDirectoryFile;
@@ -99,6 +104,7 @@ public class Configuration{
 	public final int flushAfterSeconds;
 	public final int bufferLimit;
 	public final int transactionTimeoutInSeconds;
+	public final int putBatchSize;
 	// Storage and database interaction management
 	public final boolean forceShutdown;
 	public final boolean reset;
@@ -132,6 +138,10 @@ public class Configuration{
 	public final long testEdgeDegree;
 	private final List<SimpleEntry<String, String>> testVertexAnnotationsList;
 	private final List<SimpleEntry<String, String>> testEdgeAnnotationsList;
+	// Bulk import management
+	public final boolean bulkImport;
+	public final File bulkImportDirectoryFile;
+	public final File bulkImportCommandFile;
 	// The stringified map that was left after removing all valid keys. Used as a warning in case the user uses illegal keys
 	public final String extraKeysAndValues;
 
@@ -150,6 +160,7 @@ public class Configuration{
 			final int flushAfterSeconds, 
 			final int bufferLimit, 
 			final int transactionTimeoutInSeconds,
+			final int putBatchSize,
 			// Storage and database interaction management
 			final boolean forceShutdown,
 			final boolean reset,
@@ -183,6 +194,10 @@ public class Configuration{
 			final long testEdgeDegree, 
 			final List<SimpleEntry<String, String>> testVertexAnnotationsList,
 			final List<SimpleEntry<String, String>> testEdgeAnnotationsList,
+			// Bulk import management
+			final boolean bulkImport,
+			final File bulkImportDirectoryFile,
+			final File bulkImportCommandFile,
 			// The stringified map that was left
 			final String extraKeysAndValues
 			){
@@ -201,6 +216,7 @@ public class Configuration{
 		this.flushAfterSeconds = flushAfterSeconds;
 		this.bufferLimit = bufferLimit;
 		this.transactionTimeoutInSeconds = transactionTimeoutInSeconds;
+		this.putBatchSize = putBatchSize;
 		// Storage and database interaction management
 		this.forceShutdown = forceShutdown;
 		this.reset = reset;
@@ -234,6 +250,10 @@ public class Configuration{
 		this.testEdgeDegree = testEdgeDegree;
 		this.testVertexAnnotationsList = testVertexAnnotationsList;
 		this.testEdgeAnnotationsList = testEdgeAnnotationsList;
+		// Bulk import management
+		this.bulkImport = bulkImport;
+		this.bulkImportDirectoryFile = bulkImportDirectoryFile;
+		this.bulkImportCommandFile = bulkImportCommandFile;
 		// The stringified map that was left
 		this.extraKeysAndValues = extraKeysAndValues;
 	}
@@ -439,6 +459,18 @@ public class Configuration{
 			return Result.failed("Invalid value for '" + keyTransactionTimeoutInSeconds + "': '"+transactionTimeoutInSecondsString+"'", null, transactionTimeoutInSecondsResult);
 		}
 		final int transactionTimeoutInSeconds = transactionTimeoutInSecondsResult.result.intValue();
+
+		final String putBatchSizeString = map.remove(keyPutBatchSize);
+		final int putBatchSize;
+		if(HelperFunctions.isNullOrEmpty(putBatchSizeString)){
+			putBatchSize = 1;
+		}else{
+			final Result<Long> putBatchSizeResult = HelperFunctions.parseLong(putBatchSizeString, 10, 1, Integer.MAX_VALUE);
+			if(putBatchSizeResult.error){
+				return Result.failed("Invalid value for '" + keyPutBatchSize + "': '"+putBatchSizeString+"'", null, putBatchSizeResult);
+			}
+			putBatchSize = putBatchSizeResult.result.intValue();
+		}
 		// End - Storage buffer management
 
 		// Start - Storage and database interaction management
@@ -653,6 +685,52 @@ public class Configuration{
 		}
 		// End - Test management
 
+		// Start - Bulk import management
+		final String bulkImportString = map.remove(keyBulkImport);
+		final boolean bulkImport;
+		if(HelperFunctions.isNullOrEmpty(bulkImportString)){
+			bulkImport = false;
+		}else{
+			final Result<Boolean> bulkImportResult = HelperFunctions.parseBoolean(bulkImportString);
+			if(bulkImportResult.error){
+				return Result.failed("Invalid value for '" + keyBulkImport + "': '" + bulkImportString + "'", null, bulkImportResult);
+			}
+			bulkImport = bulkImportResult.result;
+		}
+
+		final String bulkImportDirectoryString = map.remove(keyBulkImportDirectory);
+		final String bulkImportCommandString = map.remove(keyBulkImportCommand);
+
+		final File bulkImportDirectoryFile;
+		final File bulkImportCommandFile;
+		if(bulkImport){
+			if(HelperFunctions.isNullOrEmpty(bulkImportDirectoryString)){
+				return Result.failed("NULL/Empty value for '" + keyBulkImportDirectory + "': '" + bulkImportDirectoryString + "'");
+			}
+			bulkImportDirectoryFile = new File(bulkImportDirectoryString.trim());
+
+			if(HelperFunctions.isNullOrEmpty(bulkImportCommandString)){
+				return Result.failed("NULL/Empty value for '" + keyBulkImportCommand + "': '" + bulkImportCommandString + "'");
+			}
+			final File commandFile = new File(bulkImportCommandString.trim());
+			if(commandFile.isAbsolute()){
+				bulkImportCommandFile = commandFile;
+			}else{
+				// Relative to the neo4j home
+				bulkImportCommandFile = new File(dbHomeDirectoryFile.getAbsolutePath(), commandFile.getPath());
+			}
+			try{
+				FileUtility.pathMustBeAReadableExecutableFile(bulkImportCommandFile.getAbsolutePath());
+			}catch(Exception e){
+				return Result.failed("Invalid path for key '" + keyBulkImportCommand + "': '"
+						+ bulkImportCommandFile.getAbsolutePath() + "'", e, null);
+			}
+		}else{
+			bulkImportDirectoryFile = null;
+			bulkImportCommandFile = null;
+		}
+		// End - Bulk import management
+
 		// The stringified map that was left
 		final String extraKeysAndValues = map.toString();
 
@@ -672,6 +750,7 @@ public class Configuration{
 						flushAfterSeconds, 
 						bufferLimit,
 						transactionTimeoutInSeconds,
+						putBatchSize,
 						// Storage and database interaction management
 						forceShutdown, 
 						reset, 
@@ -705,6 +784,10 @@ public class Configuration{
 						testEdgeDegree, 
 						testVertexAnnotationsList, 
 						testEdgeAnnotationsList,
+						// Bulk import management
+						bulkImport,
+						bulkImportDirectoryFile,
+						bulkImportCommandFile,
 						// Extra key values in the map
 						extraKeysAndValues
 						));
@@ -729,6 +812,7 @@ public class Configuration{
 				+ ", " + keyFlushAfterSeconds + "=" + flushAfterSeconds + newLine
 				+ ", " + keyBufferLimit + "=" + bufferLimit + " (buffering:" + ((bufferLimit < 0) ? ("disabled") : ("enabled") )+ ")" + newLine
 				+ ", " + keyTransactionTimeoutInSeconds + "=" + transactionTimeoutInSeconds + " (limited:" + ((transactionTimeoutInSeconds < 0) ? ("no") : ("yes") )+ ")" + newLine
+				+ ", " + keyPutBatchSize + "=" + putBatchSize + newLine
 				// Storage and database interaction management
 				+ ", " + keyForceShutdown + "=" + forceShutdown + newLine
 				+ ", " + keyReset + "=" + reset + newLine
@@ -758,6 +842,10 @@ public class Configuration{
 				+ ", " + keyTestEdgeDegree + "=" + testEdgeDegree + newLine
 				+ ", " + keyTestVertexAnnotations + "=" + testVertexAnnotationsList + newLine
 				+ ", " + keyTestEdgeAnnotations + "=" + testEdgeAnnotationsList + newLine
+				// Bulk import management
+				+ ", " + keyBulkImport + "=" + bulkImport + newLine
+				+ ", " + keyBulkImportDirectory + "=" + (bulkImportDirectoryFile == null ? "null" : bulkImportDirectoryFile.getAbsolutePath()) + newLine
+				+ ", " + keyBulkImportCommand + "=" + (bulkImportCommandFile == null ? "null" : bulkImportCommandFile.getAbsolutePath()) + newLine
 				// Extra keys and values in the map
 				+ ", " + "Ignored unexpected argument(s)" + "=" + extraKeysAndValues  + newLine
 				;
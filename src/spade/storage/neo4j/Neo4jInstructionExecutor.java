@@ -74,6 +74,8 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 	
 	@Override
 	public final Neo4jQueryEnvironment getQueryEnvironment(){
+		// Every query resolves symbols through here first
+		storage.handOverFromBulkImportOrFail();
 		return neo4jQueryEnvironment;
 	}
 
@@ -118,6 +120,19 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		}
 	}
 
+	@Override
+	public void putGraph(final long putGraphBatchSize, final Graph targetGraph, final spade.core.Graph graph){
+		final TaskPutGraph task;
+		if(neo4jQueryEnvironment.isBaseGraph(targetGraph)){
+			task = new TaskPutGraph(graph, null, null, (int)putGraphBatchSize);
+		}else{
+			task = new TaskPutGraph(graph, targetGraph.name, 
+					buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name), (int)putGraphBatchSize);
+		}
+		storage.executeQueryAndBlockForResult(task);
+		storage.screenAndCountWrittenGraph(graph);
+	}
+
 	@Override
 	public void createEmptyGraph(Graph graph){
 		neo4jQueryEnvironment.dropVertexLabels(graph.name);
@@ -0,0 +1,310 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.neo4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.storage.Neo4j;
+import spade.storage.neo4j.Configuration.EdgeCacheFindMode;
+import spade.storage.neo4j.Configuration.VertexCacheMode;
+
+/**
+ * Executes consecutive put vertex and put edge tasks together with one query per step instead of a few calls per
+ * element.
+ *
+ * Steps: look up the node ids of all vertices and edge endpoints (cache first and then the hash index), create the
+ * missing nodes, look up the edges (cache first and then by edge cache find mode), and create the missing
+ * relationships. The result is the same as executing the tasks one by one.
+ */
+public class TaskPutBatch extends StorageTask<Void>{
+
+	private final List<StorageTask<?>> tasks;
+
+	@Override
+	public String toString(){
+		return "TaskPutBatch [tasks=" + tasks.size() + "]";
+	}
+
+	/**
+	 * @param task task to check
+	 * @return true if the task can be a part of the batch
+	 */
+	public static final boolean isBatchable(final StorageTask<?> task){
+		return task instanceof TaskPutVertex || task instanceof TaskPutEdge;
+	}
+
+	/**
+	 * @param tasks batchable tasks
+	 */
+	public TaskPutBatch(final List<StorageTask<?>> tasks){
+		super(false, false);
+		for(final StorageTask<?> task : tasks){
+			if(!isBatchable(task)){
+				throw new IllegalArgumentException("Task cannot be batched: " + task);
+			}
+		}
+		this.tasks = tasks;
+	}
+
+	public final int size(){
+		return tasks.size();
+	}
+
+	private static final List<Map<String, Object>> executeForRows(final Transaction tx, final String query,
+			final String parameterName, final Object parameterValue){
+		final Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put(parameterName, parameterValue);
+		final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		try(final Result result = tx.execute(query, parameters)){
+			while(result.hasNext()){
+				rows.add(result.next());
+			}
+		}
+		return rows;
+	}
+
+	private static final Long getNodeIdFromCacheValue(final Object value){
+		if(value == null){
+			return null;
+		}else if(value instanceof Long){
+			return (Long)value;
+		}else if(value instanceof Node){
+			return ((Node)value).getId();
+		}else{
+			throw new RuntimeException(
+					"Invalid object ("+value+") type in cache. Expected '"+Long.class+"' or '"+Node.class+"' but is '"+value.getClass()+"'");
+		}
+	}
+
+	private static final void putNodeIdInCache(final Neo4j storage, final Transaction tx, final String hashCode, final long nodeId){
+		if(VertexCacheMode.ID.equals(storage.getConfiguration().vertexCacheMode)){
+			storage.getCacheManager().vertexCachePutNodeId(hashCode, nodeId);
+		}else if(VertexCacheMode.NODE.equals(storage.getConfiguration().vertexCacheMode)){
+			storage.getCacheManager().vertexCachePutNode(hashCode, tx.getNodeById(nodeId));
+		}else{
+			throw new RuntimeException(
+					"Failed to cache node. Unhandled vertex cache mode: " + storage.getConfiguration().vertexCacheMode);
+		}
+	}
+
+	/*
+	 * Returns the node ids of all the given vertices, creating the missing ones
+	 */
+	private final Map<String, Long> putVertices(final Neo4j storage, final Transaction tx,
+			final Map<String, AbstractVertex> vertices) throws Exception{
+		final Configuration configuration = storage.getConfiguration();
+		final Map<String, Long> nodeIds = new HashMap<String, Long>();
+
+		final List<String> notCachedHashes = new ArrayList<String>();
+		for(final String hashCode : vertices.keySet()){
+			final Long nodeId = getNodeIdFromCacheValue(storage.getCacheManager().vertexCacheGet(hashCode));
+			if(nodeId == null){
+				notCachedHashes.add(hashCode);
+			}else{
+				nodeIds.put(hashCode, nodeId);
+			}
+		}
+
+		if(!notCachedHashes.isEmpty()){
+			storage.getStorageStats().startActionTimer("BATCH-NODE-FIND");
+			final List<Map<String, Object>> foundRows = executeForRows(tx,
+					"unwind $hashes as hash"
+					+ " match (v:`" + configuration.nodePrimaryLabelName + "` {`" + configuration.hashPropertyName + "`: hash})"
+					+ " return hash, id(v) as id",
+					"hashes", notCachedHashes);
+			storage.getStorageStats().stopActionTimer("BATCH-NODE-FIND");
+			for(final Map<String, Object> foundRow : foundRows){
+				final String hashCode = String.valueOf(foundRow.get("hash"));
+				if(!nodeIds.containsKey(hashCode)){
+					final long nodeId = ((Number)foundRow.get("id")).longValue();
+					nodeIds.put(hashCode, nodeId);
+					putNodeIdInCache(storage, tx, hashCode, nodeId);
+				}
+			}
+		}
+
+		final Set<String> propertyNames = new HashSet<String>();
+		final List<Map<String, Object>> createRows = new ArrayList<Map<String, Object>>();
+		for(final String hashCode : notCachedHashes){
+			if(nodeIds.containsKey(hashCode)){
+				continue;
+			}
+			final AbstractVertex vertex = vertices.get(hashCode);
+			final Map<String, String> annotations = vertex.getCopyOfAnnotations();
+			try{
+				storage.validateUpdateHashKeyAndKeysInAnnotationMap(vertex, "Vertex", annotations);
+			}catch(Exception e){
+				storage.debug(e.getMessage());
+				continue;
+			}
+			propertyNames.addAll(annotations.keySet());
+			final Map<String, Object> row = new HashMap<String, Object>();
+			row.put("hash", hashCode);
+			row.put("annotations", annotations);
+			createRows.add(row);
+		}
+
+		if(!createRows.isEmpty()){
+			storage.getStorageStats().startActionTimer("BATCH-NODE-CREATE");
+			final List<Map<String, Object>> createdRows = executeForRows(tx,
+					"unwind $rows as row"
+					+ " create (v:`" + configuration.nodePrimaryLabelName + "` {`" + configuration.hashPropertyName + "`: row.hash})"
+					+ " set v += row.annotations"
+					+ " return row.hash as hash, id(v) as id",
+					"rows", createRows);
+			storage.getStorageStats().stopActionTimer("BATCH-NODE-CREATE");
+			for(final Map<String, Object> createdRow : createdRows){
+				final String hashCode = String.valueOf(createdRow.get("hash"));
+				final long nodeId = ((Number)createdRow.get("id")).longValue();
+				nodeIds.put(hashCode, nodeId);
+				putNodeIdInCache(storage, tx, hashCode, nodeId);
+				storage.getStorageStats().vertexCount.increment();
+			}
+			propertyNames.add(configuration.hashPropertyName);
+			storage.updateNodePropertyNames(propertyNames);
+		}
+
+		return nodeIds;
+	}
+
+	private final void putEdges(final Neo4j storage, final Transaction tx, final Map<String, AbstractEdge> edges,
+			final Map<String, Long> nodeIds) throws Exception{
+		final Configuration configuration = storage.getConfiguration();
+
+		final List<String> notCachedHashes = new ArrayList<String>();
+		for(final String hashCode : edges.keySet()){
+			final Object value = storage.getCacheManager().edgeCacheGetCached(hashCode);
+			if(value == null){
+				notCachedHashes.add(hashCode);
+			}
+		}
+
+		final Set<String> foundHashes = new HashSet<String>();
+		if(!notCachedHashes.isEmpty() && !EdgeCacheFindMode.NONE.equals(configuration.edgeCacheFindMode)){
+			storage.getStorageStats().startActionTimer("BATCH-RELATIONSHIP-FIND");
+			final List<Map<String, Object>> foundRows = executeForRows(tx,
+					"unwind $hashes as hash"
+					+ " match ()-[e:`" + configuration.edgeRelationshipTypeName + "` {`" + configuration.hashPropertyName + "`: hash}]->()"
+					+ " return distinct hash",
+					"hashes", notCachedHashes);
+			storage.getStorageStats().stopActionTimer("BATCH-RELATIONSHIP-FIND");
+			for(final Map<String, Object> foundRow : foundRows){
+				final String hashCode = String.valueOf(foundRow.get("hash"));
+				foundHashes.add(hashCode);
+				storage.getCacheManager().edgeCachePut(hashCode, true);
+			}
+		}
+
+		final Set<String> propertyNames = new HashSet<String>();
+		final List<Map<String, Object>> createRows = new ArrayList<Map<String, Object>>();
+		for(final String hashCode : notCachedHashes){
+			if(foundHashes.contains(hashCode)){
+				continue;
+			}
+			final AbstractEdge edge = edges.get(hashCode);
+			final Long childNodeId = nodeIds.get(edge.getChildVertex().bigHashCode());
+			final Long parentNodeId = nodeIds.get(edge.getParentVertex().bigHashCode());
+			if(childNodeId == null || parentNodeId == null){
+				// Endpoint discarded
+				storage.debug("Child or parent node is NULL. Failed to put edge: " + edge);
+				continue;
+			}
+			final Map<String, String> annotations = edge.getCopyOfAnnotations();
+			try{
+				storage.validateUpdateHashKeyAndKeysInAnnotationMap(edge, "Edge", annotations);
+			}catch(Exception e){
+				storage.debug(e.getMessage());
+				continue;
+			}
+			propertyNames.addAll(annotations.keySet());
+			final Map<String, Object> row = new HashMap<String, Object>();
+			row.put("hash", hashCode);
+			row.put("child", childNodeId);
+			row.put("parent", parentNodeId);
+			row.put("annotations", annotations);
+			createRows.add(row);
+		}
+
+		if(!createRows.isEmpty()){
+			storage.getStorageStats().startActionTimer("BATCH-RELATIONSHIP-CREATE");
+			executeForRows(tx,
+					"unwind $rows as row"
+					+ " match (c) where id(c) = row.child"
+					+ " match (p) where id(p) = row.parent"
+					+ " create (c)-[e:`" + configuration.edgeRelationshipTypeName + "` {`" + configuration.hashPropertyName + "`: row.hash}]->(p)"
+					+ " set e += row.annotations",
+					"rows", createRows);
+			storage.getStorageStats().stopActionTimer("BATCH-RELATIONSHIP-CREATE");
+			for(final Map<String, Object> createRow : createRows){
+				storage.getCacheManager().edgeCachePut(String.valueOf(createRow.get("hash")), true);
+				storage.getStorageStats().edgeCount.increment();
+			}
+			propertyNames.add(configuration.hashPropertyName);
+			storage.updateRelationshipPropertyNames(propertyNames);
+		}
+	}
+
+	@Override
+	public final Void execute(final Neo4j storage, final Transaction tx) throws Exception{
+		// Deduplicated by hash. Endpoints are put too, like when putting an edge
+		final Map<String, AbstractVertex> vertices = new LinkedHashMap<String, AbstractVertex>();
+		final Map<String, AbstractEdge> edges = new LinkedHashMap<String, AbstractEdge>();
+		for(final StorageTask<?> task : tasks){
+			if(task instanceof TaskPutVertex){
+				final AbstractVertex vertex = ((TaskPutVertex)task).getVertex();
+				if(vertex == null || vertex.bigHashCode() == null){
+					storage.debug("NULL vertex or hash code for vertex to put: " + vertex);
+					continue;
+				}
+				vertices.putIfAbsent(vertex.bigHashCode(), vertex);
+			}else{
+				final AbstractEdge edge = ((TaskPutEdge)task).getEdge();
+				if(edge == null || edge.bigHashCode() == null
+						|| edge.getChildVertex() == null || edge.getParentVertex() == null){
+					storage.debug("NULL edge, endpoint or hash code for edge to put: " + edge);
+					continue;
+				}
+				edges.putIfAbsent(edge.bigHashCode(), edge);
+				vertices.putIfAbsent(edge.getChildVertex().bigHashCode(), edge.getChildVertex());
+				vertices.putIfAbsent(edge.getParentVertex().bigHashCode(), edge.getParentVertex());
+			}
+		}
+
+		final Map<String, Long> nodeIds = putVertices(storage, tx, vertices);
+		putEdges(storage, tx, edges, nodeIds);
+
+		for(final StorageTask<?> task : tasks){
+			task.completed();
+		}
+		return null;
+	}
+}
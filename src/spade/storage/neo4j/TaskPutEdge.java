@@ -34,6 +34,10 @@ public class TaskPutEdge extends StorageTask<Relationship>{
 
 	private final AbstractEdge edge;
 
+	final AbstractEdge getEdge(){
+		return edge;
+	}
+
 	@Override
 	public String toString(){
 		return "TaskPutEdge [edge=" + edge + "]";
@@ -0,0 +1,146 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.neo4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.graphdb.Transaction;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.storage.Neo4j;
+
+/**
+ * Merges a whole graph in batches of rows unwound by one cypher query each, instead of a task per element.
+ * Existing nodes and relationships (matched by hash) are left as they are but are added to the target graph too.
+ */
+public class TaskPutGraph extends StorageTask<Void>{
+
+	private final spade.core.Graph graph;
+	private final String targetVertexLabel;
+	private final String targetEdgeSymbolsSubquery;
+	private final int batchSize;
+
+	@Override
+	public String toString(){
+		return "TaskPutGraph [vertices=" + graph.vertexSet().size() + ", edges=" + graph.edgeSet().size()
+				+ ", targetVertexLabel=" + targetVertexLabel + ", batchSize=" + batchSize + "]";
+	}
+
+	/**
+	 * @param graph vertices and edges to put
+	 * @param targetVertexLabel label to add to all the nodes. None added if null.
+	 * @param targetEdgeSymbolsSubquery 'set' clause on the relationship alias 'e' to add all the relationships to the 
+	 * target graph. None added if null.
+	 * @param batchSize number of rows per query
+	 */
+	public TaskPutGraph(final spade.core.Graph graph, final String targetVertexLabel, 
+			final String targetEdgeSymbolsSubquery, final int batchSize){
+		super(true, true);
+		this.graph = graph;
+		this.targetVertexLabel = targetVertexLabel;
+		this.targetEdgeSymbolsSubquery = targetEdgeSymbolsSubquery;
+		this.batchSize = Math.max(batchSize, 1);
+	}
+
+	private final String getVertexQuery(final Neo4j storage){
+		final Configuration configuration = storage.getConfiguration();
+		return "unwind $rows as row"
+				+ " merge (v:`" + configuration.nodePrimaryLabelName + "` {`" + configuration.hashPropertyName + "`: row.hash})"
+				+ " on create set v += row.annotations"
+				+ (targetVertexLabel == null ? "" : " set v:`" + targetVertexLabel + "`");
+	}
+
+	private final String getEdgeQuery(final Neo4j storage){
+		final Configuration configuration = storage.getConfiguration();
+		final String vertexLabel = configuration.nodePrimaryLabelName;
+		final String hashKey = configuration.hashPropertyName;
+		return "unwind $rows as row"
+				+ " match (c:`" + vertexLabel + "` {`" + hashKey + "`: row.child})"
+				+ " match (p:`" + vertexLabel + "` {`" + hashKey + "`: row.parent})"
+				+ " merge (c)-[e:`" + configuration.edgeRelationshipTypeName + "` {`" + hashKey + "`: row.hash}]->(p)"
+				+ " on create set e += row.annotations"
+				+ (targetEdgeSymbolsSubquery == null ? "" : " " + targetEdgeSymbolsSubquery);
+	}
+
+	private final void executeInBatches(final Transaction tx, final String query, final List<Map<String, Object>> rows){
+		for(int from = 0; from < rows.size(); from += batchSize){
+			final Map<String, Object> parameters = new HashMap<String, Object>();
+			parameters.put("rows", rows.subList(from, Math.min(from + batchSize, rows.size())));
+			tx.execute(query, parameters).close();
+		}
+	}
+
+	@Override
+	public final Void execute(final Neo4j storage, final Transaction tx) throws Exception{
+		// Endpoints are put too, like when putting an edge
+		final Map<String, AbstractVertex> vertices = new LinkedHashMap<String, AbstractVertex>();
+		for(final AbstractVertex vertex : graph.vertexSet()){
+			vertices.put(vertex.bigHashCode(), vertex);
+		}
+		for(final AbstractEdge edge : graph.edgeSet()){
+			vertices.putIfAbsent(edge.getChildVertex().bigHashCode(), edge.getChildVertex());
+			vertices.putIfAbsent(edge.getParentVertex().bigHashCode(), edge.getParentVertex());
+		}
+
+		final Set<String> nodePropertyNames = new HashSet<String>();
+		final List<Map<String, Object>> vertexRows = new ArrayList<Map<String, Object>>();
+		for(final Map.Entry<String, AbstractVertex> entry : vertices.entrySet()){
+			final Map<String, String> annotations = entry.getValue().getCopyOfAnnotations();
+			storage.validateUpdateHashKeyAndKeysInAnnotationMap(entry.getValue(), "Vertex", annotations);
+			nodePropertyNames.addAll(annotations.keySet());
+			final Map<String, Object> row = new HashMap<String, Object>();
+			row.put("hash", entry.getKey());
+			row.put("annotations", annotations);
+			vertexRows.add(row);
+		}
+
+		final Set<String> relationshipPropertyNames = new HashSet<String>();
+		final List<Map<String, Object>> edgeRows = new ArrayList<Map<String, Object>>();
+		for(final AbstractEdge edge : graph.edgeSet()){
+			final Map<String, String> annotations = edge.getCopyOfAnnotations();
+			storage.validateUpdateHashKeyAndKeysInAnnotationMap(edge, "Edge", annotations);
+			relationshipPropertyNames.addAll(annotations.keySet());
+			final Map<String, Object> row = new HashMap<String, Object>();
+			row.put("hash", edge.bigHashCode());
+			row.put("child", edge.getChildVertex().bigHashCode());
+			row.put("parent", edge.getParentVertex().bigHashCode());
+			row.put("annotations", annotations);
+			edgeRows.add(row);
+		}
+
+		storage.getStorageStats().startActionTimer("GRAPH-MERGE");
+		executeInBatches(tx, getVertexQuery(storage), vertexRows);
+		executeInBatches(tx, getEdgeQuery(storage), edgeRows);
+		storage.getStorageStats().stopActionTimer("GRAPH-MERGE");
+
+		nodePropertyNames.add(storage.getConfiguration().hashPropertyName);
+		storage.updateNodePropertyNames(nodePropertyNames);
+		relationshipPropertyNames.add(storage.getConfiguration().hashPropertyName);
+		storage.updateRelationshipPropertyNames(relationshipPropertyNames);
+		return null;
+	}
+}
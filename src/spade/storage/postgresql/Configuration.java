@@ -24,6 +24,7 @@ import java.util.Map;
 import spade.utility.ArgumentFunctions;
 import spade.utility.FileUtility;
 import spade.utility.HelperFunctions;
+import spade.utility.Result;
 
 public class Configuration{
 
@@ -38,7 +39,14 @@ public class Configuration{
 		, keyBufferSize = "buffer"
 		, keyReset = "reset"
 		, keySecondaryIndexes = "secondaryIndexes"
-		, keyFetchSize = "fetch";
+		, keyFetchSize = "fetch"
+		, keyCopyFormat = "copyFormat"
+		, keyCopyBufferSize = "copyBufferSize"
+		, keyAsyncFlush = "asyncFlush"
+		, keyMaxPendingFlushes = "maxPendingFlushes"
+		, keyTraversal = "traversal"
+		, keyQueryConnections = "queryConnections"
+		, keyExportFetchSize = "exportFetch";
 
 	private String driverClassName;
 	private String jdbcProtocol;
@@ -51,6 +59,13 @@ public class Configuration{
 	private boolean reset;
 	private boolean secondaryIndexes;
 	private int fetchSize;
+	private CopyEncoder.Format copyFormat;
+	private int copyBufferSize;
+	private boolean asyncFlush;
+	private int maxPendingFlushes;
+	private TraversalFunctions.Mode traversal;
+	private int queryConnections;
+	private int exportFetchSize;
 
 	public final void load(final String arguments, final String path) throws Exception{
 		try{
@@ -66,6 +81,24 @@ public class Configuration{
 			reset = ArgumentFunctions.mustParseBoolean(keyReset, map);
 			secondaryIndexes = ArgumentFunctions.mustParseBoolean(keySecondaryIndexes, map);
 			fetchSize = ArgumentFunctions.mustParseInteger(keyFetchSize, map);
+			final Result<CopyEncoder.Format> copyFormatResult = HelperFunctions.parseEnumValue(CopyEncoder.Format.class, map.get(keyCopyFormat), true);
+			if(copyFormatResult.error){
+				throw new Exception("Invalid value for '" + keyCopyFormat + "'. " + copyFormatResult.errorMessage);
+			}
+			copyFormat = copyFormatResult.result;
+			copyBufferSize = (int)ArgumentFunctions.mustBeGreaterThanZero(keyCopyBufferSize, map);
+			asyncFlush = ArgumentFunctions.mustParseBoolean(keyAsyncFlush, map);
+			maxPendingFlushes = (int)ArgumentFunctions.mustBeGreaterThanZero(keyMaxPendingFlushes, map);
+			final Result<TraversalFunctions.Mode> traversalResult = HelperFunctions.parseEnumValue(TraversalFunctions.Mode.class, map.get(keyTraversal), true);
+			if(traversalResult.error){
+				throw new Exception("Invalid value for '" + keyTraversal + "'. " + traversalResult.errorMessage);
+			}
+			traversal = traversalResult.result;
+			queryConnections = ArgumentFunctions.mustParseInteger(keyQueryConnections, map);
+			if(queryConnections < 0){
+				throw new Exception("Value for '" + keyQueryConnections + "' must not be less than '0'");
+			}
+			exportFetchSize = (int)ArgumentFunctions.mustBeGreaterThanZero(keyExportFetchSize, map);
 		}catch(Exception e){
 			throw new Exception("Failed to read/parse configuration: '" + path + "'", e);
 		}
@@ -123,11 +156,46 @@ public class Configuration{
 		return fetchSize > 0;
 	}
 
+	public CopyEncoder.Format getCopyFormat(){
+		return copyFormat;
+	}
+
+	public int getCopyBufferSize(){
+		return copyBufferSize;
+	}
+
+	public boolean isAsyncFlush(){
+		return asyncFlush;
+	}
+
+	public int getMaxPendingFlushes(){
+		return maxPendingFlushes;
+	}
+
+	public TraversalFunctions.Mode getTraversal(){
+		return traversal;
+	}
+
+	public int getQueryConnections(){
+		return queryConnections;
+	}
+
+	public boolean useQueryConnections(){
+		return queryConnections > 0;
+	}
+
+	public int getExportFetchSize(){
+		return exportFetchSize;
+	}
+
 	@Override
 	public String toString(){
 		return "Configuration [driverClassName=" + driverClassName + ", jdbcProtocol=" + jdbcProtocol + ", host=" + host
 				+ ", port=" + port + ", dbName=" + dbName + ", dbUser=" + dbUser + ", dbPassword=" + dbPassword
 				+ ", bufferSize=" + bufferSize + ", reset=" + reset + ", secondaryIndexes=" + secondaryIndexes
-				+ ", fetchSize=" + fetchSize + "]";
+				+ ", fetchSize=" + fetchSize + ", copyFormat=" + copyFormat + ", copyBufferSize=" + copyBufferSize
+				+ ", asyncFlush=" + asyncFlush + ", maxPendingFlushes=" + maxPendingFlushes
+				+ ", traversal=" + traversal + ", queryConnections=" + queryConnections
+				+ ", exportFetchSize=" + exportFetchSize + "]";
 	}
 }
@@ -0,0 +1,258 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.postgresql;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * Encodes rows straight into a 'copy ... from stdin' stream in fixed size chunks without building the whole batch
+ * in memory.
+ *
+ * Usage: start, then (startRow, write* for each column, endRow) for each row, then finish. Cancel on error.
+ */
+public final class CopyEncoder{
+
+	public static enum Format{ CSV, BINARY }
+
+	private static final byte[] binaryHeader = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte)0xFF, '\r', '\n', 0,
+			0, 0, 0, 0, // flags
+			0, 0, 0, 0 // header extension length
+			};
+	private static final byte[] hexDigits = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+	private final CopyIn copyIn;
+	private final Format format;
+	private final int columnCount;
+	private final byte[] buffer;
+	private int position = 0;
+	private int column = 0;
+	private long rows = 0;
+
+	private CopyEncoder(final CopyIn copyIn, final Format format, final int columnCount, final int bufferSize){
+		this.copyIn = copyIn;
+		this.format = format;
+		this.columnCount = columnCount;
+		this.buffer = new byte[Math.max(bufferSize, 64)];
+	}
+
+	/**
+	 * @param copyManager copy manager of the connection
+	 * @param tableName table to copy into
+	 * @param columnNames formatted column names in the order in which the values are going to be written
+	 * @param format csv or binary
+	 * @param bufferSize bytes to buffer before writing a chunk to the stream
+	 * @return encoder
+	 * @throws Exception if failed to start copy
+	 */
+	public static CopyEncoder start(final CopyManager copyManager, final String tableName, final List<String> columnNames,
+			final Format format, final int bufferSize) throws Exception{
+		final String query = "copy " + tableName + " (" + String.join(", ", columnNames) + ") from stdin "
+				+ "(format " + format.name().toLowerCase() + ")";
+		final CopyEncoder encoder = new CopyEncoder(copyManager.copyIn(query), format, columnNames.size(), bufferSize);
+		if(format == Format.BINARY){
+			encoder.writeBytes(binaryHeader, 0, binaryHeader.length);
+		}
+		return encoder;
+	}
+
+	public final void startRow() throws Exception{
+		column = 0;
+		if(format == Format.BINARY){
+			writeShort(columnCount);
+		}
+	}
+
+	public final void endRow() throws Exception{
+		if(column != columnCount){
+			throw new IllegalStateException("Expected " + columnCount + " values in row but got " + column);
+		}
+		if(format == Format.CSV){
+			writeByte('\n');
+		}
+		rows++;
+	}
+
+	public final void writeNull() throws Exception{
+		startColumn();
+		if(format == Format.BINARY){
+			writeInt(-1);
+		}
+		// Unquoted empty value is null in csv
+	}
+
+	public final void writeText(final String value) throws Exception{
+		if(value == null){
+			writeNull();
+			return;
+		}
+		startColumn();
+		if(format == Format.BINARY){
+			if(isAscii(value)){
+				final int length = value.length();
+				writeInt(length);
+				for(int i = 0; i < length; i++){
+					writeByte(value.charAt(i));
+				}
+			}else{
+				final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+				writeInt(bytes.length);
+				writeBytes(bytes, 0, bytes.length);
+			}
+		}else{
+			writeByte('"');
+			if(isAscii(value)){
+				final int length = value.length();
+				for(int i = 0; i < length; i++){
+					final char c = value.charAt(i);
+					if(c == '"'){
+						writeByte('"');
+					}
+					writeByte(c);
+				}
+			}else{
+				final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+				for(final byte b : bytes){
+					if(b == '"'){
+						writeByte('"');
+					}
+					writeByte(b);
+				}
+			}
+			writeByte('"');
+		}
+	}
+
+	/**
+	 * Writes a value for a uuid column
+	 *
+	 * @param bytes 16 bytes
+	 * @throws Exception on write error
+	 */
+	public final void writeUuid(final byte[] bytes) throws Exception{
+		if(bytes == null){
+			writeNull();
+			return;
+		}
+		if(bytes.length != 16){
+			throw new IllegalArgumentException("Expected 16 bytes for uuid but got " + bytes.length);
+		}
+		startColumn();
+		if(format == Format.BINARY){
+			writeInt(16);
+			writeBytes(bytes, 0, bytes.length);
+		}else{
+			for(final byte b : bytes){
+				writeByte(hexDigits[(b >>> 4) & 0x0F]);
+				writeByte(hexDigits[b & 0x0F]);
+			}
+		}
+	}
+
+	/**
+	 * Writes the rest of the buffer and ends the copy
+	 *
+	 * @return number of rows copied as reported by the server
+	 * @throws Exception on write error
+	 */
+	public final long finish() throws Exception{
+		if(format == Format.BINARY){
+			writeShort(-1);
+		}
+		flushBuffer();
+		return copyIn.endCopy();
+	}
+
+	public final void cancel(){
+		try{
+			if(copyIn.isActive()){
+				copyIn.cancelCopy();
+			}
+		}catch(Exception e){
+			// Ignore. Already failed.
+		}
+	}
+
+	public final long getRowCount(){
+		return rows;
+	}
+
+	private void startColumn() throws Exception{
+		if(column >= columnCount){
+			throw new IllegalStateException("More than " + columnCount + " values in row");
+		}
+		if(format == Format.CSV && column > 0){
+			writeByte(',');
+		}
+		column++;
+	}
+
+	private static boolean isAscii(final String value){
+		final int length = value.length();
+		for(int i = 0; i < length; i++){
+			if(value.charAt(i) >= 0x80){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void writeByte(final int b) throws Exception{
+		if(position == buffer.length){
+			flushBuffer();
+		}
+		buffer[position++] = (byte)b;
+	}
+
+	private void writeShort(final int value) throws Exception{
+		writeByte(value >>> 8);
+		writeByte(value);
+	}
+
+	private void writeInt(final int value) throws Exception{
+		writeByte(value >>> 24);
+		writeByte(value >>> 16);
+		writeByte(value >>> 8);
+		writeByte(value);
+	}
+
+	private void writeBytes(final byte[] bytes, int offset, int length) throws Exception{
+		while(length > 0){
+			if(position == buffer.length){
+				flushBuffer();
+			}
+			final int count = Math.min(length, buffer.length - position);
+			System.arraycopy(bytes, offset, buffer, position, count);
+			position += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	private void flushBuffer() throws Exception{
+		if(position > 0){
+			copyIn.writeToCopy(buffer, 0, position);
+			position = 0;
+		}
+	}
+}
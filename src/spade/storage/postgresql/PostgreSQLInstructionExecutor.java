@@ -19,6 +19,8 @@
  */
 package spade.storage.postgresql;
 
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -27,9 +29,12 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import spade.core.AbstractStorage;
 import spade.query.quickgrail.core.GraphDescription;
+import spade.query.quickgrail.core.GraphExportSink;
 import spade.query.quickgrail.core.GraphStatistic;
 import spade.query.quickgrail.core.GraphStatistic.Interval;
 import spade.query.quickgrail.core.QueriedEdge;
@@ -55,6 +60,8 @@ import spade.utility.HelperFunctions;
  */
 public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 
+	private final Logger logger = Logger.getLogger(this.getClass().getName());
+
 	private final PostgreSQL storage;
 	private final PostgreSQLQueryEnvironment queryEnvironment;
 	
@@ -64,6 +71,8 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 	private final String vertexAnnotationTableName;
 	private final String edgeAnnotationTableName;
 
+	private volatile boolean nativeTraversal = false;
+
 	public PostgreSQLInstructionExecutor(PostgreSQL storage, PostgreSQLQueryEnvironment queryEnvironment,
 			String idColumnName, String idChildVertexColumnName, String idParentVertexColumnName,
 			String vertexAnnotationTableName, String edgeAnnotationTableName){
@@ -102,6 +111,44 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		return storage;
 	}
 
+	/**
+	 * Creates (or replaces) the traversal functions in the database so that lineage and path queries run on the
+	 * server in one call. The per-hop queries are used if the functions cannot be created.
+	 * 
+	 * @return true if the functions are installed
+	 */
+	public final boolean installTraversalFunctions(){
+		try{
+			for(final String query : TraversalFunctions.getCreateQueries(getIdColumnName(), getIdColumnNameChildVertex(),
+					getIdColumnNameParentVertex(), getEdgeAnnotationTableName())){
+				noResultExecuteQuery(query);
+			}
+			nativeTraversal = true;
+		}catch(Exception e){
+			logger.log(Level.WARNING, "Failed to install traversal functions. Falling back to per-hop traversal queries", e);
+			nativeTraversal = false;
+		}
+		return nativeTraversal;
+	}
+
+	/**
+	 * Runs the queries in a query session so that the temporary tables created by them are not visible to other sessions
+	 *
+	 * @param queries queries to run
+	 */
+	private void inQuerySession(final Runnable queries){
+		final PostgreSQL.QuerySession session = storage.openQuerySession();
+		try{
+			queries.run();
+		}finally{
+			session.close();
+		}
+	}
+
+	private String getSubjectEdgeTableNameOrNull(Graph subjectGraph){
+		return queryEnvironment.isBaseGraph(subjectGraph) ? null : getEdgeTableName(subjectGraph);
+	}
+
 	private String getIdColumnName(){
 		return idColumnName;
 	}
@@ -181,56 +228,60 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 
 	@Override
 	public void insertLiteralEdge(Graph targetGraph, ArrayList<String> edges){
-		if(!edges.isEmpty()){
-			String insertSubpart = "";
-			for(String edge : edges){
-				if(edge.length() <= 32){
-					insertSubpart += "('" + edge + "'), ";
+		inQuerySession(() -> {
+			if(!edges.isEmpty()){
+				String insertSubpart = "";
+				for(String edge : edges){
+					if(edge.length() <= 32){
+						insertSubpart += "('" + edge + "'), ";
+					}
 				}
-			}
 
-			if(!insertSubpart.isEmpty()){
-				final String tempEdgeTable = "m_edgehash";
-				executeQueryForResult("drop table if exists " + tempEdgeTable + ";\n", false);
-				executeQueryForResult("create table " + tempEdgeTable + " (" + getIdColumnName() + " uuid);\n", false);
-				insertSubpart = insertSubpart.substring(0, insertSubpart.length() - 2);
-				executeQueryForResult("insert into " + tempEdgeTable + " values " + insertSubpart + ";\n", false);
+				if(!insertSubpart.isEmpty()){
+					final String tempEdgeTable = "m_edgehash";
+					executeQueryForResult("drop table if exists " + tempEdgeTable + ";\n", false);
+					executeQueryForResult("create temp table " + tempEdgeTable + " (" + getIdColumnName() + " uuid);\n", false);
+					insertSubpart = insertSubpart.substring(0, insertSubpart.length() - 2);
+					executeQueryForResult("insert into " + tempEdgeTable + " values " + insertSubpart + ";\n", false);
 
-				executeQueryForResult("insert into " + getEdgeTableName(targetGraph) + " select "
-						+ getIdColumnName() + " from " + getEdgeAnnotationTableName() + " where " + getIdColumnName()
-						+ " in (select " + getIdColumnName() + " from " + tempEdgeTable + " group by "
-						+ getIdColumnName() + ");\n", false);
+					executeQueryForResult("insert into " + getEdgeTableName(targetGraph) + " select "
+							+ getIdColumnName() + " from " + getEdgeAnnotationTableName() + " where " + getIdColumnName()
+							+ " in (select " + getIdColumnName() + " from " + tempEdgeTable + " group by "
+							+ getIdColumnName() + ");\n", false);
 
-				executeQueryForResult("drop table " + tempEdgeTable + ";\n", false);
+					executeQueryForResult("drop table " + tempEdgeTable + ";\n", false);
+				}
 			}
-		}
+		});
 	}
 
 	@Override
 	public void insertLiteralVertex(Graph targetGraph, ArrayList<String> vertices){
-		if(!vertices.isEmpty()){
-			String insertSubpart = "";
-			for(String vertex : vertices){
-				if(vertex.length() <= 32){
-					insertSubpart += "('" + vertex + "'), ";
+		inQuerySession(() -> {
+			if(!vertices.isEmpty()){
+				String insertSubpart = "";
+				for(String vertex : vertices){
+					if(vertex.length() <= 32){
+						insertSubpart += "('" + vertex + "'), ";
+					}
 				}
-			}
 
-			if(!insertSubpart.isEmpty()){
-				final String tempVertexTable = "m_vertexhash";
-				executeQueryForResult("drop table if exists " + tempVertexTable + ";\n", false);
-				executeQueryForResult("create table " + tempVertexTable + " (" + getIdColumnName() + " uuid);\n", false);
-				insertSubpart = insertSubpart.substring(0, insertSubpart.length() - 2);
-				executeQueryForResult("insert into " + tempVertexTable + " values " + insertSubpart + ";\n", false);
+				if(!insertSubpart.isEmpty()){
+					final String tempVertexTable = "m_vertexhash";
+					executeQueryForResult("drop table if exists " + tempVertexTable + ";\n", false);
+					executeQueryForResult("create temp table " + tempVertexTable + " (" + getIdColumnName() + " uuid);\n", false);
+					insertSubpart = insertSubpart.substring(0, insertSubpart.length() - 2);
+					executeQueryForResult("insert into " + tempVertexTable + " values " + insertSubpart + ";\n", false);
 
-				executeQueryForResult("insert into " + getVertexTableName(targetGraph) + " select "
-						+ getIdColumnName() + " from " + getVertexAnnotationTableName() + " where " + getIdColumnName()
-						+ " in (select " + getIdColumnName() + " from " + tempVertexTable + " group by "
-						+ getIdColumnName() + ");\n", false);
+					executeQueryForResult("insert into " + getVertexTableName(targetGraph) + " select "
+							+ getIdColumnName() + " from " + getVertexAnnotationTableName() + " where " + getIdColumnName()
+							+ " in (select " + getIdColumnName() + " from " + tempVertexTable + " group by "
+							+ getIdColumnName() + ");\n", false);
 
-				executeQueryForResult("drop table " + tempVertexTable + ";\n", false);
+					executeQueryForResult("drop table " + tempVertexTable + ";\n", false);
+				}
 			}
-		}
+		});
 	}
 
 	private void createUUIDTable(String tableName, boolean deleteFirst){
@@ -241,6 +292,11 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		executeQueryForResult(createQuery, false);
 	}
 	
+	private void createTempUUIDTable(String tableName){
+		dropTable(tableName);
+		executeQueryForResult("create temp table " + tableName + "(" + getIdColumnName() + " uuid" + ")", false);
+	}
+	
 	private void createUUIDShortestPathTable(String tableName, boolean deleteFirst){
 		if(deleteFirst){
 			dropTable(tableName);
@@ -344,63 +400,65 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 	@Override
 	public void getMatch(final Graph targetGraph, final Graph graph1, final Graph graph2,
 			final ArrayList<String> annotationKeys){
-		final Graph g1 = createNewGraph();
-		getWhereAnnotationsExist(g1, graph1, annotationKeys);
-		final Graph g2 = createNewGraph();
-		getWhereAnnotationsExist(g2, graph2 , annotationKeys);
+		inQuerySession(() -> {
+			final Graph g1 = createNewGraph();
+			getWhereAnnotationsExist(g1, graph1, annotationKeys);
+			final Graph g2 = createNewGraph();
+			getWhereAnnotationsExist(g2, graph2 , annotationKeys);
 
-		final Set<String> existingColumnNames = getColumnNamesOfVertexAnnotationTable();
-		final Set<String> requestedColumnNames = new HashSet<String>(annotationKeys);
-		requestedColumnNames.removeAll(existingColumnNames);
-		if(requestedColumnNames.size() > 0){
-			// User specified column names which do not exist for vertices
-			return;
-		}
+			final Set<String> existingColumnNames = getColumnNamesOfVertexAnnotationTable();
+			final Set<String> requestedColumnNames = new HashSet<String>(annotationKeys);
+			requestedColumnNames.removeAll(existingColumnNames);
+			if(requestedColumnNames.size() > 0){
+				// User specified column names which do not exist for vertices
+				return;
+			}
 
-		final String vertexAnnotationsTableName = getVertexAnnotationTableName();
+			final String vertexAnnotationsTableName = getVertexAnnotationTableName();
 
-		executeQueryForResult("drop table if exists m_answer_x", false);
-		executeQueryForResult("create table m_answer_x (id1 uuid, id2 uuid)", false);
+			executeQueryForResult("drop table if exists m_answer_x", false);
+			executeQueryForResult("create temp table m_answer_x (id1 uuid, id2 uuid)", false);
 
-		String query = "insert into m_answer_x "
-				+ "select ga1.\""+getIdColumnName()+"\", ga2.\""+getIdColumnName()+"\" from " 
-				+ getVertexTableName(g1) + " gv1, " + vertexAnnotationsTableName + " ga1, "
-				+ getVertexTableName(g2) + " gv2, " + vertexAnnotationsTableName + " ga2 "
-				+ "where gv1.\""+getIdColumnName()+"\" = ga1.\""+getIdColumnName()+"\" "
-				+ "and gv2.\""+getIdColumnName()+"\" = ga2.\""+getIdColumnName()+"\" and ";
+			String query = "insert into m_answer_x "
+					+ "select ga1.\""+getIdColumnName()+"\", ga2.\""+getIdColumnName()+"\" from " 
+					+ getVertexTableName(g1) + " gv1, " + vertexAnnotationsTableName + " ga1, "
+					+ getVertexTableName(g2) + " gv2, " + vertexAnnotationsTableName + " ga2 "
+					+ "where gv1.\""+getIdColumnName()+"\" = ga1.\""+getIdColumnName()+"\" "
+					+ "and gv2.\""+getIdColumnName()+"\" = ga2.\""+getIdColumnName()+"\" and ";
 		
-		for(int i = 0; i < annotationKeys.size(); i++){
-			String annotationKey = annotationKeys.get(i);
-			if(annotationKey.equals(getIdColumnName()) 
-					|| annotationKey.equals(getIdColumnNameChildVertex())
-					|| annotationKey.equals(getIdColumnNameParentVertex())){
-				annotationKey = "\"" + annotationKey + "\"::text";
-			}else{
-				annotationKey = "\"" + annotationKey + "\"";
-			}
-			query += "( " 
-					+ "ga1." + annotationKey + " = ga2." + annotationKey
-					+ "and ga1."+annotationKey+" is not null and ga2." + annotationKey + " is not null "
-					+ ")";
-			if(i == annotationKeys.size() - 1){
-				// is last so don't append 'and'
-			}else{
-				query += " and ";
+			for(int i = 0; i < annotationKeys.size(); i++){
+				String annotationKey = annotationKeys.get(i);
+				if(annotationKey.equals(getIdColumnName()) 
+						|| annotationKey.equals(getIdColumnNameChildVertex())
+						|| annotationKey.equals(getIdColumnNameParentVertex())){
+					annotationKey = "\"" + annotationKey + "\"::text";
+				}else{
+					annotationKey = "\"" + annotationKey + "\"";
+				}
+				query += "( " 
+						+ "ga1." + annotationKey + " = ga2." + annotationKey
+						+ "and ga1."+annotationKey+" is not null and ga2." + annotationKey + " is not null "
+						+ ")";
+				if(i == annotationKeys.size() - 1){
+					// is last so don't append 'and'
+				}else{
+					query += " and ";
+				}
 			}
-		}
 		
-		executeQueryForResult(query, false);
+			executeQueryForResult(query, false);
 		
-		executeQueryForResult("drop table if exists m_answer_y", false);
-		executeQueryForResult("create table m_answer_y (id uuid)", false);
-		executeQueryForResult("insert into m_answer_y select id1 from m_answer_x group by id1", false);
-		executeQueryForResult("insert into m_answer_y select id2 from m_answer_x group by id2", false);
+			executeQueryForResult("drop table if exists m_answer_y", false);
+			executeQueryForResult("create temp table m_answer_y (id uuid)", false);
+			executeQueryForResult("insert into m_answer_y select id1 from m_answer_x group by id1", false);
+			executeQueryForResult("insert into m_answer_y select id2 from m_answer_x group by id2", false);
 		
-		executeQueryForResult("insert into " + getVertexTableName(targetGraph) 
-			+ " select id from m_answer_y group by id;\n", false);
+			executeQueryForResult("insert into " + getVertexTableName(targetGraph) 
+				+ " select id from m_answer_y group by id;\n", false);
 		
-		executeQueryForResult("drop table if exists m_answer_y", false);
-		executeQueryForResult("drop table if exists m_answer_x", false);
+			executeQueryForResult("drop table if exists m_answer_y", false);
+			executeQueryForResult("drop table if exists m_answer_x", false);
+		});
 	}
 	
 	@Override
@@ -625,29 +683,31 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 
 	@Override
 	public void getEdgeEndpoint(Graph targetGraph, Graph subjectGraph, GetEdgeEndpoint.Component component){
-		String targetVertexTable = getVertexTableName(targetGraph);
-		String subjectEdgeTable = getEdgeTableName(subjectGraph);
+		inQuerySession(() -> {
+			String targetVertexTable = getVertexTableName(targetGraph);
+			String subjectEdgeTable = getEdgeTableName(subjectGraph);
 
-		String answerTable = "m_answer";
+			String answerTable = "m_answer";
 
-		createUUIDTable(answerTable, true);
+			createTempUUIDTable(answerTable);
 
-		if(component == GetEdgeEndpoint.Component.kSource
-				|| component == GetEdgeEndpoint.Component.kBoth){
-			executeQueryForResult("insert into " + answerTable + " select \"" + getIdColumnNameChildVertex()
-					+ "\" from " + getEdgeAnnotationTableName() + " where " + getIdColumnName() + " in (select "
-					+ getIdColumnName() + " from " + subjectEdgeTable + ");", false);
-		}
-		if(component == GetEdgeEndpoint.Component.kDestination
-				|| component == GetEdgeEndpoint.Component.kBoth){
-			executeQueryForResult("insert into " + answerTable + " select \"" + getIdColumnNameParentVertex()
-					+ "\" from " + getEdgeAnnotationTableName() + " where " + getIdColumnName() + " in (select "
-					+ getIdColumnName() + " from " + subjectEdgeTable + ");", false);
-		}
-		executeQueryForResult("insert into " + targetVertexTable + " select " + getIdColumnName() + " from "
-				+ answerTable + " group by "+getIdColumnName(), false);
+			if(component == GetEdgeEndpoint.Component.kSource
+					|| component == GetEdgeEndpoint.Component.kBoth){
+				executeQueryForResult("insert into " + answerTable + " select \"" + getIdColumnNameChildVertex()
+						+ "\" from " + getEdgeAnnotationTableName() + " where " + getIdColumnName() + " in (select "
+						+ getIdColumnName() + " from " + subjectEdgeTable + ");", false);
+			}
+			if(component == GetEdgeEndpoint.Component.kDestination
+					|| component == GetEdgeEndpoint.Component.kBoth){
+				executeQueryForResult("insert into " + answerTable + " select \"" + getIdColumnNameParentVertex()
+						+ "\" from " + getEdgeAnnotationTableName() + " where " + getIdColumnName() + " in (select "
+						+ getIdColumnName() + " from " + subjectEdgeTable + ");", false);
+			}
+			executeQueryForResult("insert into " + targetVertexTable + " select " + getIdColumnName() + " from "
+					+ answerTable + " group by "+getIdColumnName(), false);
 
-		dropTable(answerTable);
+			dropTable(answerTable);
+		});
 	}
 
 	@Override
@@ -973,73 +1033,178 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 	}
 
 	@Override
-	public void getAdjacentVertex(Graph targetGraph, Graph subjectGraph, Graph sourceGraph, GetLineage.Direction directionArg){
-		final List<Direction> directions = new ArrayList<Direction>();
-		if(directionArg == Direction.kBoth){
-			directions.add(Direction.kAncestor);
-			directions.add(Direction.kDescendant);
+	public void putGraph(final long putGraphBatchSize, final Graph targetGraph, final spade.core.Graph graph){
+		// Staged and inserted in one pass by the storage hence no batches
+		if(queryEnvironment.isBaseGraph(targetGraph)){
+			storage.putGraph(graph, null, null);
 		}else{
-			directions.add(directionArg);
+			storage.putGraph(graph, getVertexTableName(targetGraph), getEdgeTableName(targetGraph));
 		}
+	}
 
-		final String targetVertexTable = getVertexTableName(targetGraph);
-		final String targetEdgeTable = getEdgeTableName(targetGraph);
-		final String subjectEdgeTable = getEdgeTableName(subjectGraph);
-		final String cursorTable = "m_cur";
-		final String nextTable = "m_next";
-		final String answerTable = "m_answer";
-		final String answerEdgeTable = "m_answer_edge";
+	@Override
+	public void getAdjacentVertex(Graph targetGraph, Graph subjectGraph, Graph sourceGraph, GetLineage.Direction directionArg){
+		inQuerySession(() -> {
+			final List<Direction> directions = new ArrayList<Direction>();
+			if(directionArg == Direction.kBoth){
+				directions.add(Direction.kAncestor);
+				directions.add(Direction.kDescendant);
+			}else{
+				directions.add(directionArg);
+			}
+
+			final String targetVertexTable = getVertexTableName(targetGraph);
+			final String targetEdgeTable = getEdgeTableName(targetGraph);
+			final String subjectEdgeTable = getEdgeTableName(subjectGraph);
+			final String cursorTable = "m_cur";
+			final String nextTable = "m_next";
+			final String answerTable = "m_answer";
+			final String answerEdgeTable = "m_answer_edge";
 		
-		final String filter = queryEnvironment.isBaseGraph(subjectGraph) ? ""
-				: " and " + getEdgeAnnotationTableName() + "." + getIdColumnName() 
-				+ " in (select "+getIdColumnName()+" from "+subjectEdgeTable+")";
+			final String filter = queryEnvironment.isBaseGraph(subjectGraph) ? ""
+					: " and " + getEdgeAnnotationTableName() + "." + getIdColumnName() 
+					+ " in (select "+getIdColumnName()+" from "+subjectEdgeTable+")";
 
-		for(final Direction direction : directions){
-			if(direction != Direction.kAncestor && direction != Direction.kDescendant){
-				throw new RuntimeException("Unexpected direction: " + direction);
-			}
-			final String startVertexTable = getVertexTableName(sourceGraph);
-			final String src = direction == Direction.kAncestor ? getIdColumnNameChildVertex() : getIdColumnNameParentVertex();
-			final String dst = direction == Direction.kAncestor ? getIdColumnNameParentVertex() : getIdColumnNameChildVertex();
+			for(final Direction direction : directions){
+				if(direction != Direction.kAncestor && direction != Direction.kDescendant){
+					throw new RuntimeException("Unexpected direction: " + direction);
+				}
+				final String startVertexTable = getVertexTableName(sourceGraph);
+				final String src = direction == Direction.kAncestor ? getIdColumnNameChildVertex() : getIdColumnNameParentVertex();
+				final String dst = direction == Direction.kAncestor ? getIdColumnNameParentVertex() : getIdColumnNameChildVertex();
 			
-			createUUIDTable(cursorTable, true);
-			createUUIDTable(nextTable, true);
-			createUUIDTable(answerTable, true);
-			createUUIDTable(answerEdgeTable, true);
-
-			executeQueryForResult("insert into "+cursorTable+" select "+getIdColumnName()+" from " + startVertexTable + ";", false);
-			executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + cursorTable + ";", false);
-
-			for(int i = 0; i < 1; ++i){
-				createUUIDTable(nextTable, true);
-				executeQueryForResult("insert into " + nextTable + " select \"" + dst + "\" from " + getEdgeAnnotationTableName()
-					+ " where \"" + src + "\" in (select "+getIdColumnName()+" from "+cursorTable+")"
-					+ " " + filter + " group by \"" + dst + "\";", false);
-				executeQueryForResult("insert into " + answerEdgeTable + " select " + getIdColumnName() + " from " + getEdgeAnnotationTableName()
-					+ " where \"" + src + "\" in (select "+getIdColumnName()+" from "+cursorTable+") " + filter + ";", false);
-				createUUIDTable(cursorTable, true);
-				executeQueryForResult("insert into " + cursorTable + " select " + getIdColumnName() + " from " + nextTable
-						+ " where " + getIdColumnName() + " not in (select "+getIdColumnName()+" from "+answerTable+");", false);
-				executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + cursorTable + ";", 
-						false);
-
-				List<List<String>> countResult = executeQueryForResult("select count(*) from "+cursorTable+";", false);
-				long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
-				if(cursorTableCount == 0){
-					break;
+				createTempUUIDTable(cursorTable);
+				createTempUUIDTable(nextTable);
+				createTempUUIDTable(answerTable);
+				createTempUUIDTable(answerEdgeTable);
+
+				executeQueryForResult("insert into "+cursorTable+" select "+getIdColumnName()+" from " + startVertexTable + ";", false);
+				executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + cursorTable + ";", false);
+
+				for(int i = 0; i < 1; ++i){
+					createTempUUIDTable(nextTable);
+					executeQueryForResult("insert into " + nextTable + " select \"" + dst + "\" from " + getEdgeAnnotationTableName()
+						+ " where \"" + src + "\" in (select "+getIdColumnName()+" from "+cursorTable+")"
+						+ " " + filter + " group by \"" + dst + "\";", false);
+					executeQueryForResult("insert into " + answerEdgeTable + " select " + getIdColumnName() + " from " + getEdgeAnnotationTableName()
+						+ " where \"" + src + "\" in (select "+getIdColumnName()+" from "+cursorTable+") " + filter + ";", false);
+					createTempUUIDTable(cursorTable);
+					executeQueryForResult("insert into " + cursorTable + " select " + getIdColumnName() + " from " + nextTable
+							+ " where " + getIdColumnName() + " not in (select "+getIdColumnName()+" from "+answerTable+");", false);
+					executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + cursorTable + ";", 
+							false);
+
+					List<List<String>> countResult = executeQueryForResult("select count(*) from "+cursorTable+";", false);
+					long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
+					if(cursorTableCount == 0){
+						break;
+					}
 				}
+
+				executeQueryForResult("insert into " + targetVertexTable 
+						+ " select " + getIdColumnName() + " from " + answerTable + ";", false);
+				executeQueryForResult("insert into " + targetEdgeTable 
+						+ " select " + getIdColumnName() + " from " + answerEdgeTable + " group by " + getIdColumnName() + ";", false);
 			}
 
-			executeQueryForResult("insert into " + targetVertexTable 
-					+ " select " + getIdColumnName() + " from " + answerTable + ";", false);
-			executeQueryForResult("insert into " + targetEdgeTable 
-					+ " select " + getIdColumnName() + " from " + answerEdgeTable + " group by " + getIdColumnName() + ";", false);
+			dropTable(cursorTable);
+			dropTable(nextTable);
+			dropTable(answerEdgeTable);
+			dropTable(answerTable);
+		});
+	}
+
+	private static String uuidToHash(final String uuid){
+		if(uuid == null){
+			return null;
+		}
+		final int length = uuid.length();
+		final StringBuilder hash = new StringBuilder(length);
+		for(int i = 0; i < length; i++){
+			final char c = uuid.charAt(i);
+			if(c != '-'){
+				hash.append(c);
+			}
+		}
+		return hash.toString();
+	}
+
+	@Override
+	public void exportGraph(final Graph targetGraph, final GraphExportSink sink){
+		final String targetVertexTable = getVertexTableName(targetGraph);
+		final String targetEdgeTable = getEdgeTableName(targetGraph);
+
+		storage.executeQueryForEachRow("select * from " + getVertexAnnotationTableName()
+				+ " where " + getIdColumnName() + " in (select " + getIdColumnName() + " from " + targetVertexTable + ")",
+				new PostgreSQL.RowHandler(){
+					private String[] columnNames = null;
+					private int idIndex = -1;
+
+					@Override
+					public void handle(final ResultSet resultSet) throws Exception{
+						if(columnNames == null){
+							columnNames = getColumnNames(resultSet);
+							idIndex = indexOf(columnNames, getIdColumnName());
+						}
+						final Map<String, String> annotations = new HashMap<String, String>();
+						for(int i = 0; i < columnNames.length; i++){
+							if(i != idIndex){
+								final String annotationValue = resultSet.getString(i + 1);
+								if(annotationValue != null){
+									annotations.put(columnNames[i], annotationValue);
+								}
+							}
+						}
+						sink.putVertex(uuidToHash(resultSet.getString(idIndex + 1)), annotations);
+					}
+				});
+
+		storage.executeQueryForEachRow("select * from " + getEdgeAnnotationTableName()
+				+ " where " + getIdColumnName() + " in (select " + getIdColumnName() + " from " + targetEdgeTable + ")",
+				new PostgreSQL.RowHandler(){
+					private String[] columnNames = null;
+					private int idIndex = -1, childIndex = -1, parentIndex = -1;
+
+					@Override
+					public void handle(final ResultSet resultSet) throws Exception{
+						if(columnNames == null){
+							columnNames = getColumnNames(resultSet);
+							idIndex = indexOf(columnNames, getIdColumnName());
+							childIndex = indexOf(columnNames, getIdColumnNameChildVertex());
+							parentIndex = indexOf(columnNames, getIdColumnNameParentVertex());
+						}
+						final Map<String, String> annotations = new HashMap<String, String>();
+						for(int i = 0; i < columnNames.length; i++){
+							if(i != idIndex && i != childIndex && i != parentIndex){
+								final String annotationValue = resultSet.getString(i + 1);
+								if(annotationValue != null){
+									annotations.put(columnNames[i], annotationValue);
+								}
+							}
+						}
+						sink.putEdge(uuidToHash(resultSet.getString(idIndex + 1)),
+								uuidToHash(resultSet.getString(childIndex + 1)),
+								uuidToHash(resultSet.getString(parentIndex + 1)), annotations);
+					}
+				});
+	}
+
+	private static String[] getColumnNames(final ResultSet resultSet) throws Exception{
+		final ResultSetMetaData metaData = resultSet.getMetaData();
+		final String[] columnNames = new String[metaData.getColumnCount()];
+		for(int i = 0; i < columnNames.length; i++){
+			columnNames[i] = metaData.getColumnLabel(i + 1);
 		}
+		return columnNames;
+	}
 
-		dropTable(cursorTable);
-		dropTable(nextTable);
-		dropTable(answerEdgeTable);
-		dropTable(answerTable);
+	private static int indexOf(final String[] columnNames, final String columnName){
+		for(int i = 0; i < columnNames.length; i++){
+			if(columnNames[i].equals(columnName)){
+				return i;
+			}
+		}
+		throw new RuntimeException("Missing column '" + columnName + "' in result");
 	}
 
 	@Override
@@ -1060,7 +1225,7 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 				String annotationKey = vertexHeader.get(i);
 				String annotationValue = vertexList.get(i);
 				if(annotationKey.equals(getIdColumnName())){
-					hash = annotationValue.replaceAll("\\-", "");
+					hash = uuidToHash(annotationValue);
 				}else{
 					if(annotationValue != null){
 						annotations.put(annotationKey, annotationValue);
@@ -1092,11 +1257,11 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 				String annotationKey = edgeHeader.get(i);
 				String annotationValue = edgeList.get(i);
 				if(annotationKey.equals(getIdColumnName())){
-					hash = annotationValue.replaceAll("\\-", "");
+					hash = uuidToHash(annotationValue);
 				}else if(annotationKey.equals(getIdColumnNameChildVertex())){
-					childHash = annotationValue.replaceAll("\\-", "");
+					childHash = uuidToHash(annotationValue);
 				}else if(annotationKey.equals(getIdColumnNameParentVertex())){
-					parentHash = annotationValue.replaceAll("\\-", "");
+					parentHash = uuidToHash(annotationValue);
 				}else{
 					if(annotationValue != null){
 						annotations.put(annotationKey, annotationValue);
@@ -1161,37 +1326,39 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 
 	@Override
 	public void getSubgraph(Graph targetGraph, Graph subjectGraph, Graph skeletonGraph){
-		final String targetVertexTable = getVertexTableName(targetGraph);
-		final String targetEdgeTable = getEdgeTableName(targetGraph);
-		final String subjectVertexTable = getVertexTableName(subjectGraph);
-		final String subjectEdgeTable = getEdgeTableName(subjectGraph);
-		final String skeletonVertexTable = getVertexTableName(skeletonGraph);
-		final String skeletonEdgeTable = getEdgeTableName(skeletonGraph);
-
-		final String answerTable = "m_answer";
+		inQuerySession(() -> {
+			final String targetVertexTable = getVertexTableName(targetGraph);
+			final String targetEdgeTable = getEdgeTableName(targetGraph);
+			final String subjectVertexTable = getVertexTableName(subjectGraph);
+			final String subjectEdgeTable = getEdgeTableName(subjectGraph);
+			final String skeletonVertexTable = getVertexTableName(skeletonGraph);
+			final String skeletonEdgeTable = getEdgeTableName(skeletonGraph);
+
+			final String answerTable = "m_answer";
 		
-		createUUIDTable(answerTable, true);
-
-		// Get vertices.
-		executeQueryForResult("insert into "+answerTable+" select "+getIdColumnName()+" from " + skeletonVertexTable 
-				+ " where "+getIdColumnName()+" in (select "+getIdColumnName()+" from " + subjectVertexTable + ");", false);
-		executeQueryForResult("insert into "+answerTable+" select \""+getIdColumnNameChildVertex()+"\" from "+getEdgeAnnotationTableName()
-				+ " where "+getIdColumnName()+" in (select "+getIdColumnName()+" from " + skeletonEdgeTable + ")"
-				+ " and \""+getIdColumnNameChildVertex()+"\" in (select "+getIdColumnName()+" from " + subjectVertexTable + ");", false);
-		executeQueryForResult("insert into "+answerTable+" select \""+getIdColumnNameParentVertex()+"\" from "+getEdgeAnnotationTableName()
-				+ " where "+getIdColumnName()+" in (select "+getIdColumnName()+" from " + skeletonEdgeTable + ")"
-				+ " and \""+getIdColumnNameParentVertex()+"\" in (select "+getIdColumnName()+" from " + subjectVertexTable + ");", false);
-		executeQueryForResult("insert into " + targetVertexTable + " select "+getIdColumnName()+" from "+answerTable+" group by "+getIdColumnName()+";", false);
+			createTempUUIDTable(answerTable);
+
+			// Get vertices.
+			executeQueryForResult("insert into "+answerTable+" select "+getIdColumnName()+" from " + skeletonVertexTable 
+					+ " where "+getIdColumnName()+" in (select "+getIdColumnName()+" from " + subjectVertexTable + ");", false);
+			executeQueryForResult("insert into "+answerTable+" select \""+getIdColumnNameChildVertex()+"\" from "+getEdgeAnnotationTableName()
+					+ " where "+getIdColumnName()+" in (select "+getIdColumnName()+" from " + skeletonEdgeTable + ")"
+					+ " and \""+getIdColumnNameChildVertex()+"\" in (select "+getIdColumnName()+" from " + subjectVertexTable + ");", false);
+			executeQueryForResult("insert into "+answerTable+" select \""+getIdColumnNameParentVertex()+"\" from "+getEdgeAnnotationTableName()
+					+ " where "+getIdColumnName()+" in (select "+getIdColumnName()+" from " + skeletonEdgeTable + ")"
+					+ " and \""+getIdColumnNameParentVertex()+"\" in (select "+getIdColumnName()+" from " + subjectVertexTable + ");", false);
+			executeQueryForResult("insert into " + targetVertexTable + " select "+getIdColumnName()+" from "+answerTable+" group by "+getIdColumnName()+";", false);
 		
-		// Get edges.
-		executeQueryForResult("insert into " + targetEdgeTable + " select s."+getIdColumnName()
-				+ " from " + subjectEdgeTable + " s, "+getEdgeAnnotationTableName()+" e" 
-				+ " where s."+getIdColumnName()+" = e."+getIdColumnName()
-				+ " and e.\""+getIdColumnNameChildVertex()+"\" in (select "+getIdColumnName()+" from "+answerTable+")"
-				+ " and e.\""+getIdColumnNameParentVertex()+"\" in (select "+getIdColumnName()+" from "+answerTable+")"
-				+ " group by s."+getIdColumnName()+";", false);
-
-		dropTable(answerTable);
+			// Get edges.
+			executeQueryForResult("insert into " + targetEdgeTable + " select s."+getIdColumnName()
+					+ " from " + subjectEdgeTable + " s, "+getEdgeAnnotationTableName()+" e" 
+					+ " where s."+getIdColumnName()+" = e."+getIdColumnName()
+					+ " and e.\""+getIdColumnNameChildVertex()+"\" in (select "+getIdColumnName()+" from "+answerTable+")"
+					+ " and e.\""+getIdColumnNameParentVertex()+"\" in (select "+getIdColumnName()+" from "+answerTable+")"
+					+ " group by s."+getIdColumnName()+";", false);
+
+			dropTable(answerTable);
+		});
 	}
 	
 	private void noResultExecuteQuery(String query){
@@ -1200,401 +1367,441 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 	
 	@Override
 	public void getShortestPath(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
-		String filter;
-		dropTable("m_conn");
-		noResultExecuteQuery("create table m_conn ("+getIdColumnNameChildVertex()+" uuid, "+getIdColumnNameParentVertex()+" uuid)");
-		if(queryEnvironment.isBaseGraph(subjectGraph)){
-			filter = "";
-			noResultExecuteQuery("insert into m_conn select \"" + getIdColumnNameChildVertex() + "\", \"" + getIdColumnNameParentVertex() + "\" "
-					+ "from " + getEdgeAnnotationTableName() + " group by \"" + getIdColumnNameChildVertex() + "\", \"" + getIdColumnNameParentVertex() + "\"");
-		}else{
-			String subjectEdgeTable = getEdgeTableName(subjectGraph);
-			filter = " and "+getEdgeAnnotationTableName()+".\""+getIdColumnName()+"\" in (select "+getIdColumnName()+" from " + subjectEdgeTable + ")";
-			dropTable("m_sgedge");
-			noResultExecuteQuery("create table m_sgedge ("+getIdColumnNameChildVertex()+" uuid, "+getIdColumnNameParentVertex()+" uuid)");
-			noResultExecuteQuery("insert into m_sgedge select \"" + getIdColumnNameChildVertex() + "\", \"" + getIdColumnNameParentVertex() + "\" "
-					+ "from " + getEdgeAnnotationTableName() + " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from "
-					+ subjectEdgeTable + ")");
-			noResultExecuteQuery("insert into m_conn select "+getIdColumnNameChildVertex()+", "+getIdColumnNameParentVertex()+" from "
-					+ "m_sgedge group by " + getIdColumnNameChildVertex() + ", " + getIdColumnNameParentVertex());
-			dropTable("m_sgedge");
-		}
-		// Create subgraph edges table.
-		dropTable("m_sgconn");
-		noResultExecuteQuery("create table m_sgconn ("+getIdColumnNameChildVertex()+" uuid, "+getIdColumnNameParentVertex()+" uuid,"
-				+ "reaching uuid, depth int)");
-		
-		dropTable("m_cur"); dropTable("m_next"); dropTable("m_answer");
-		noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid, reaching uuid)");
-		noResultExecuteQuery("create table m_next ("+getIdColumnName()+" uuid, reaching uuid)");
-		noResultExecuteQuery("create table m_answer ("+getIdColumnName()+" uuid)");
-
-		noResultExecuteQuery("insert into m_cur select "+getIdColumnName()+", " + getIdColumnName() + " from " 
-				+ getVertexTableName(dstGraph));
-		noResultExecuteQuery("insert into m_answer select " + getIdColumnName() + " from m_cur group by " + getIdColumnName());
+		inQuerySession(() -> {
+			if(nativeTraversal){
+				noResultExecuteQuery(TraversalFunctions.getCallQuery(TraversalFunctions.functionShortestPath,
+						getVertexTableName(srcGraph), getVertexTableName(dstGraph), getSubjectEdgeTableNameOrNull(subjectGraph),
+						getVertexTableName(targetGraph), getEdgeTableName(targetGraph), maxDepth));
+				return;
+			}
+			String filter;
+			dropTable("m_conn");
+			noResultExecuteQuery("create temp table m_conn ("+getIdColumnNameChildVertex()+" uuid, "+getIdColumnNameParentVertex()+" uuid)");
+			if(queryEnvironment.isBaseGraph(subjectGraph)){
+				filter = "";
+				noResultExecuteQuery("insert into m_conn select \"" + getIdColumnNameChildVertex() + "\", \"" + getIdColumnNameParentVertex() + "\" "
+						+ "from " + getEdgeAnnotationTableName() + " group by \"" + getIdColumnNameChildVertex() + "\", \"" + getIdColumnNameParentVertex() + "\"");
+			}else{
+				String subjectEdgeTable = getEdgeTableName(subjectGraph);
+				filter = " and "+getEdgeAnnotationTableName()+".\""+getIdColumnName()+"\" in (select "+getIdColumnName()+" from " + subjectEdgeTable + ")";
+				dropTable("m_sgedge");
+				noResultExecuteQuery("create temp table m_sgedge ("+getIdColumnNameChildVertex()+" uuid, "+getIdColumnNameParentVertex()+" uuid)");
+				noResultExecuteQuery("insert into m_sgedge select \"" + getIdColumnNameChildVertex() + "\", \"" + getIdColumnNameParentVertex() + "\" "
+						+ "from " + getEdgeAnnotationTableName() + " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from "
+						+ subjectEdgeTable + ")");
+				noResultExecuteQuery("insert into m_conn select "+getIdColumnNameChildVertex()+", "+getIdColumnNameParentVertex()+" from "
+						+ "m_sgedge group by " + getIdColumnNameChildVertex() + ", " + getIdColumnNameParentVertex());
+				dropTable("m_sgedge");
+			}
+			// Create subgraph edges table.
+			dropTable("m_sgconn");
+			noResultExecuteQuery("create temp table m_sgconn ("+getIdColumnNameChildVertex()+" uuid, "+getIdColumnNameParentVertex()+" uuid,"
+					+ "reaching uuid, depth int)");
 		
-		for(int i = 0; i < maxDepth; ++i){
-			noResultExecuteQuery(
-					"insert into m_sgconn select " + getIdColumnNameChildVertex() + ", " + getIdColumnNameParentVertex() + ", reaching, "+String.valueOf(i + 1)+" "
-					+ "from m_cur, m_conn where " + getIdColumnName() + " = " + getIdColumnNameParentVertex());
-			dropTable("m_next");
-			noResultExecuteQuery("create table m_next ("+getIdColumnName()+" uuid, reaching uuid)");
-			noResultExecuteQuery("insert into m_next select " + getIdColumnNameChildVertex() + ", reaching from "
-				+ "m_cur, m_conn where "+getIdColumnName()+" = " + getIdColumnNameParentVertex());
-			dropTable("m_cur");
-			noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid, reaching uuid)");
-			noResultExecuteQuery("insert into m_cur select " + getIdColumnName() + ", reaching from m_next where "
-				+ getIdColumnName() + " not in (select "+getIdColumnName()+" from m_answer) group by " + getIdColumnName() + ", reaching");
-			noResultExecuteQuery("insert into m_answer select " + getIdColumnName() + " from m_cur group by " + getIdColumnName());
+			dropTable("m_cur"); dropTable("m_next"); dropTable("m_answer");
+			noResultExecuteQuery("create temp table m_cur ("+getIdColumnName()+" uuid, reaching uuid)");
+			noResultExecuteQuery("create temp table m_next ("+getIdColumnName()+" uuid, reaching uuid)");
+			noResultExecuteQuery("create temp table m_answer ("+getIdColumnName()+" uuid)");
 
-			List<List<String>> countResult = executeQueryForResult("select count(*) from m_cur", false);
-			long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
-			if(cursorTableCount == 0){
-				break;
+			noResultExecuteQuery("insert into m_cur select "+getIdColumnName()+", " + getIdColumnName() + " from " 
+					+ getVertexTableName(dstGraph));
+			noResultExecuteQuery("insert into m_answer select " + getIdColumnName() + " from m_cur group by " + getIdColumnName());
+		
+			for(int i = 0; i < maxDepth; ++i){
+				noResultExecuteQuery(
+						"insert into m_sgconn select " + getIdColumnNameChildVertex() + ", " + getIdColumnNameParentVertex() + ", reaching, "+String.valueOf(i + 1)+" "
+						+ "from m_cur, m_conn where " + getIdColumnName() + " = " + getIdColumnNameParentVertex());
+				dropTable("m_next");
+				noResultExecuteQuery("create temp table m_next ("+getIdColumnName()+" uuid, reaching uuid)");
+				noResultExecuteQuery("insert into m_next select " + getIdColumnNameChildVertex() + ", reaching from "
+					+ "m_cur, m_conn where "+getIdColumnName()+" = " + getIdColumnNameParentVertex());
+				dropTable("m_cur");
+				noResultExecuteQuery("create temp table m_cur ("+getIdColumnName()+" uuid, reaching uuid)");
+				noResultExecuteQuery("insert into m_cur select " + getIdColumnName() + ", reaching from m_next where "
+					+ getIdColumnName() + " not in (select "+getIdColumnName()+" from m_answer) group by " + getIdColumnName() + ", reaching");
+				noResultExecuteQuery("insert into m_answer select " + getIdColumnName() + " from m_cur group by " + getIdColumnName());
+
+				List<List<String>> countResult = executeQueryForResult("select count(*) from m_cur", false);
+				long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
+				if(cursorTableCount == 0){
+					break;
+				}
 			}
-		}
 
-		dropTable("m_cur"); dropTable("m_next");
-		noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid)");
-		noResultExecuteQuery("create table m_next ("+getIdColumnName()+" uuid)");
-
-		noResultExecuteQuery("insert into m_cur select " + getIdColumnName() + " from " + getVertexTableName(srcGraph)
-				+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from m_answer)");
-
-		dropTable("m_answer");
-		noResultExecuteQuery("create table m_answer ("+getIdColumnName()+" uuid)");
-		noResultExecuteQuery("insert into m_answer select " + getIdColumnName() + " from m_cur");
-
-		for(int i = 0; i < maxDepth; ++i){
-			dropTable("m_next");
-			noResultExecuteQuery("create table m_next ("+getIdColumnName()+" uuid)");
-			noResultExecuteQuery("insert into m_next select min(" + getIdColumnNameParentVertex() + "::text)::uuid" // TODO as?
-					+ " from m_cur, m_sgconn where " + getIdColumnName() + " = " + getIdColumnNameChildVertex() + " and depth + " + String.valueOf(i) 
-					+ " <= " + String.valueOf(maxDepth) + " group by " + getIdColumnNameChildVertex() + ", reaching");
-			dropTable("m_cur");
-			noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid)");
-			noResultExecuteQuery("insert into m_cur select "+getIdColumnName()+" from m_next where "
-					+getIdColumnName()+" not in (select "+getIdColumnName()+" from m_answer)");
-			noResultExecuteQuery("insert into m_answer select "+getIdColumnName()+" from m_cur");
+			dropTable("m_cur"); dropTable("m_next");
+			noResultExecuteQuery("create temp table m_cur ("+getIdColumnName()+" uuid)");
+			noResultExecuteQuery("create temp table m_next ("+getIdColumnName()+" uuid)");
+
+			noResultExecuteQuery("insert into m_cur select " + getIdColumnName() + " from " + getVertexTableName(srcGraph)
+					+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from m_answer)");
+
+			dropTable("m_answer");
+			noResultExecuteQuery("create temp table m_answer ("+getIdColumnName()+" uuid)");
+			noResultExecuteQuery("insert into m_answer select " + getIdColumnName() + " from m_cur");
+
+			for(int i = 0; i < maxDepth; ++i){
+				dropTable("m_next");
+				noResultExecuteQuery("create temp table m_next ("+getIdColumnName()+" uuid)");
+				noResultExecuteQuery("insert into m_next select min(" + getIdColumnNameParentVertex() + "::text)::uuid" // TODO as?
+						+ " from m_cur, m_sgconn where " + getIdColumnName() + " = " + getIdColumnNameChildVertex() + " and depth + " + String.valueOf(i) 
+						+ " <= " + String.valueOf(maxDepth) + " group by " + getIdColumnNameChildVertex() + ", reaching");
+				dropTable("m_cur");
+				noResultExecuteQuery("create temp table m_cur ("+getIdColumnName()+" uuid)");
+				noResultExecuteQuery("insert into m_cur select "+getIdColumnName()+" from m_next where "
+						+getIdColumnName()+" not in (select "+getIdColumnName()+" from m_answer)");
+				noResultExecuteQuery("insert into m_answer select "+getIdColumnName()+" from m_cur");
 			
-			List<List<String>> countResult = executeQueryForResult("select count(*) from m_cur", false);
-			long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
-			if(cursorTableCount == 0){
-				break;
+				List<List<String>> countResult = executeQueryForResult("select count(*) from m_cur", false);
+				long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
+				if(cursorTableCount == 0){
+					break;
+				}
 			}
-		}
 
-		String targetVertexTable = getVertexTableName(targetGraph);
-		String targetEdgeTable = getEdgeTableName(targetGraph);
+			String targetVertexTable = getVertexTableName(targetGraph);
+			String targetEdgeTable = getEdgeTableName(targetGraph);
 
-		noResultExecuteQuery("insert into " + targetVertexTable + " select " + getIdColumnName() + " from m_answer");
-		noResultExecuteQuery("insert into " + targetEdgeTable + " select \"" + getIdColumnName() + "\" from " + getEdgeAnnotationTableName()
-			+ " where \"" + getIdColumnNameChildVertex() + "\" in (select "+getIdColumnName()+" from m_answer)"
-			+ " and \"" + getIdColumnNameParentVertex() + "\" in (select "+getIdColumnName()+" from m_answer) " + filter);
-		dropTable("m_cur");dropTable("m_next");dropTable("m_answer");dropTable("m_conn");dropTable("m_sgconn");
+			noResultExecuteQuery("insert into " + targetVertexTable + " select " + getIdColumnName() + " from m_answer");
+			noResultExecuteQuery("insert into " + targetEdgeTable + " select \"" + getIdColumnName() + "\" from " + getEdgeAnnotationTableName()
+				+ " where \"" + getIdColumnNameChildVertex() + "\" in (select "+getIdColumnName()+" from m_answer)"
+				+ " and \"" + getIdColumnNameParentVertex() + "\" in (select "+getIdColumnName()+" from m_answer) " + filter);
+			dropTable("m_cur");dropTable("m_next");dropTable("m_answer");dropTable("m_conn");dropTable("m_sgconn");
+		});
 	}
 	
 	@Override
 	public void getLineage(Graph targetGraph, Graph subjectGraph, Graph startGraph, int depth, Direction directionArg){
-		final List<Direction> directions = new ArrayList<Direction>();
-		if(directionArg == Direction.kBoth){
-			directions.add(Direction.kAncestor);
-			directions.add(Direction.kDescendant);
-		}else{
-			directions.add(directionArg);
-		}
+		inQuerySession(() -> {
+			if(nativeTraversal){
+				final String direction;
+				switch(directionArg){
+					case kAncestor: direction = TraversalFunctions.directionAncestor; break;
+					case kDescendant: direction = TraversalFunctions.directionDescendant; break;
+					case kBoth: direction = TraversalFunctions.directionBoth; break;
+					default: throw new RuntimeException("Unexpected direction: " + directionArg);
+				}
+				noResultExecuteQuery(TraversalFunctions.getCallQuery(TraversalFunctions.functionLineage,
+						getVertexTableName(startGraph), getSubjectEdgeTableNameOrNull(subjectGraph),
+						getVertexTableName(targetGraph), getEdgeTableName(targetGraph), depth, direction));
+				return;
+			}
+			final List<Direction> directions = new ArrayList<Direction>();
+			if(directionArg == Direction.kBoth){
+				directions.add(Direction.kAncestor);
+				directions.add(Direction.kDescendant);
+			}else{
+				directions.add(directionArg);
+			}
 
-		final String targetVertexTable = getVertexTableName(targetGraph);
-		final String targetEdgeTable = getEdgeTableName(targetGraph);
-		final String subjectEdgeTable = getEdgeTableName(subjectGraph);
-		final String currentTable = "m_cur";
-		final String nextTable = "m_next";
-		final String answerTable = "m_answer";
-		final String answerEdgeTable = "m_answer_edge";
+			final String targetVertexTable = getVertexTableName(targetGraph);
+			final String targetEdgeTable = getEdgeTableName(targetGraph);
+			final String subjectEdgeTable = getEdgeTableName(subjectGraph);
+			final String currentTable = "m_cur";
+			final String nextTable = "m_next";
+			final String answerTable = "m_answer";
+			final String answerEdgeTable = "m_answer_edge";
 		
-		final String filter = queryEnvironment.isBaseGraph(subjectGraph) ? ""
-				: " and " + getEdgeAnnotationTableName() + "." + getIdColumnName() 
-				+ " in (select "+getIdColumnName()+" from "+subjectEdgeTable+")";
+			final String filter = queryEnvironment.isBaseGraph(subjectGraph) ? ""
+					: " and " + getEdgeAnnotationTableName() + "." + getIdColumnName() 
+					+ " in (select "+getIdColumnName()+" from "+subjectEdgeTable+")";
 
-		for(final Direction direction : directions){
-			if(direction != Direction.kAncestor && direction != Direction.kDescendant){
-				throw new RuntimeException("Unexpected direction: " + direction);
-			}
-			final String startVertexTable = getVertexTableName(startGraph);
-			final String src = direction == Direction.kAncestor ? getIdColumnNameChildVertex() : getIdColumnNameParentVertex();
-			final String dst = direction == Direction.kAncestor ? getIdColumnNameParentVertex() : getIdColumnNameChildVertex();
+			for(final Direction direction : directions){
+				if(direction != Direction.kAncestor && direction != Direction.kDescendant){
+					throw new RuntimeException("Unexpected direction: " + direction);
+				}
+				final String startVertexTable = getVertexTableName(startGraph);
+				final String src = direction == Direction.kAncestor ? getIdColumnNameChildVertex() : getIdColumnNameParentVertex();
+				final String dst = direction == Direction.kAncestor ? getIdColumnNameParentVertex() : getIdColumnNameChildVertex();
 			
-			createUUIDTable(currentTable, true);
-			createUUIDTable(nextTable, true);
-			createUUIDTable(answerTable, true);
-			createUUIDTable(answerEdgeTable, true);
-
-			executeQueryForResult("insert into "+currentTable+" select "+getIdColumnName()+" from " + startVertexTable + ";", false);
-			executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";", false);
-
-			for(int i = 0; i < depth; ++i){
-				createUUIDTable(nextTable, true);
-				executeQueryForResult("insert into " + nextTable + " select \"" + dst + "\" from " + getEdgeAnnotationTableName()
-					+ " where \"" + src + "\" in (select "+getIdColumnName()+" from "+currentTable+")"
-					+ " " + filter + " group by \"" + dst + "\";", false);
-				executeQueryForResult("insert into " + answerEdgeTable + " select " + getIdColumnName() + " from " + getEdgeAnnotationTableName()
-					+ " where \"" + src + "\" in (select "+getIdColumnName()+" from "+currentTable+") " + filter + ";", false);
-				createUUIDTable(currentTable, true);
-				executeQueryForResult("insert into " + currentTable + " select " + getIdColumnName() + " from " + nextTable
-						+ " where " + getIdColumnName() + " not in (select "+getIdColumnName()+" from "+answerTable+");", false);
-				executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";", 
-						false);
-
-				List<List<String>> countResult = executeQueryForResult("select count(*) from "+currentTable+";", false);
-				long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
-				if(cursorTableCount == 0){
-					break;
+				createTempUUIDTable(currentTable);
+				createTempUUIDTable(nextTable);
+				createTempUUIDTable(answerTable);
+				createTempUUIDTable(answerEdgeTable);
+
+				executeQueryForResult("insert into "+currentTable+" select "+getIdColumnName()+" from " + startVertexTable + ";", false);
+				executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";", false);
+
+				for(int i = 0; i < depth; ++i){
+					createTempUUIDTable(nextTable);
+					executeQueryForResult("insert into " + nextTable + " select \"" + dst + "\" from " + getEdgeAnnotationTableName()
+						+ " where \"" + src + "\" in (select "+getIdColumnName()+" from "+currentTable+")"
+						+ " " + filter + " group by \"" + dst + "\";", false);
+					executeQueryForResult("insert into " + answerEdgeTable + " select " + getIdColumnName() + " from " + getEdgeAnnotationTableName()
+						+ " where \"" + src + "\" in (select "+getIdColumnName()+" from "+currentTable+") " + filter + ";", false);
+					createTempUUIDTable(currentTable);
+					executeQueryForResult("insert into " + currentTable + " select " + getIdColumnName() + " from " + nextTable
+							+ " where " + getIdColumnName() + " not in (select "+getIdColumnName()+" from "+answerTable+");", false);
+					executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";", 
+							false);
+
+					List<List<String>> countResult = executeQueryForResult("select count(*) from "+currentTable+";", false);
+					long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
+					if(cursorTableCount == 0){
+						break;
+					}
 				}
-			}
 
-			executeQueryForResult("insert into " + targetVertexTable 
-					+ " select " + getIdColumnName() + " from " + answerTable + ";", false);
-			executeQueryForResult("insert into " + targetEdgeTable 
-					+ " select " + getIdColumnName() + " from " + answerEdgeTable + " group by " + getIdColumnName() + ";", false);
-		}
+				executeQueryForResult("insert into " + targetVertexTable 
+						+ " select " + getIdColumnName() + " from " + answerTable + ";", false);
+				executeQueryForResult("insert into " + targetEdgeTable 
+						+ " select " + getIdColumnName() + " from " + answerEdgeTable + " group by " + getIdColumnName() + ";", false);
+			}
 
-		dropTable(currentTable);
-		dropTable(nextTable);
-		dropTable(answerEdgeTable);
-		dropTable(answerTable);
+			dropTable(currentTable);
+			dropTable(nextTable);
+			dropTable(answerEdgeTable);
+			dropTable(answerTable);
+		});
 	}
 	
 	@Override
 	public void getSimplePath(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
+		inQuerySession(() -> {
+			if(nativeTraversal){
+				noResultExecuteQuery(TraversalFunctions.getCallQuery(TraversalFunctions.functionSimplePath,
+						getVertexTableName(srcGraph), getVertexTableName(dstGraph), getSubjectEdgeTableNameOrNull(subjectGraph),
+						getVertexTableName(targetGraph), getEdgeTableName(targetGraph), maxDepth));
+				return;
+			}
 		
-		final String depthColumnName = "depth";
-		final String currentTable = "m_cur";
-		final String nextTable = "m_next";
-		final String answerTable = "m_answer";
-		final String currentSubgraphTable = "m_sgconn";
+			final String depthColumnName = "depth";
+			final String currentTable = "m_cur";
+			final String nextTable = "m_next";
+			final String answerTable = "m_answer";
+			final String currentSubgraphTable = "m_sgconn";
 		
-		final String targetVertexTable = getVertexTableName(targetGraph);
-		final String targetEdgeTable = getEdgeTableName(targetGraph);
-		final String subjectEdgeTable = getEdgeTableName(subjectGraph);
-		final String dstVertexTable = getVertexTableName(dstGraph);
-		final String srcVertexTable = getVertexTableName(srcGraph);
+			final String targetVertexTable = getVertexTableName(targetGraph);
+			final String targetEdgeTable = getEdgeTableName(targetGraph);
+			final String subjectEdgeTable = getEdgeTableName(subjectGraph);
+			final String dstVertexTable = getVertexTableName(dstGraph);
+			final String srcVertexTable = getVertexTableName(srcGraph);
 		
-		createUUIDTable(currentTable, true);
-		createUUIDTable(nextTable, true);
-		createUUIDTable(answerTable, true);
+			createTempUUIDTable(currentTable);
+			createTempUUIDTable(nextTable);
+			createTempUUIDTable(answerTable);
 		
-		dropTable(currentSubgraphTable);
-		executeQueryForResult("create table " + currentSubgraphTable + "("
-				+ "\""+getIdColumnNameChildVertex()+"\" uuid, "
-				+ "\""+getIdColumnNameParentVertex()+"\" uuid, "
-				+ depthColumnName + " int);", false);
-
-		executeQueryForResult("insert into "+currentTable+" select "+getIdColumnName()+" from " + dstVertexTable, false);
-		executeQueryForResult("insert into "+answerTable+" select "+getIdColumnName()+" from " + currentTable, false);
+			dropTable(currentSubgraphTable);
+			executeQueryForResult("create temp table " + currentSubgraphTable + "("
+					+ "\""+getIdColumnNameChildVertex()+"\" uuid, "
+					+ "\""+getIdColumnNameParentVertex()+"\" uuid, "
+					+ depthColumnName + " int);", false);
+
+			executeQueryForResult("insert into "+currentTable+" select "+getIdColumnName()+" from " + dstVertexTable, false);
+			executeQueryForResult("insert into "+answerTable+" select "+getIdColumnName()+" from " + currentTable, false);
 		
-		final String filter = queryEnvironment.isBaseGraph(subjectGraph) 
-				? "" : " and "+getEdgeAnnotationTableName()+"."+getIdColumnName()+" in (select "+getIdColumnName()+" from " + subjectEdgeTable + ")";
+			final String filter = queryEnvironment.isBaseGraph(subjectGraph) 
+					? "" : " and "+getEdgeAnnotationTableName()+"."+getIdColumnName()+" in (select "+getIdColumnName()+" from " + subjectEdgeTable + ")";
 		
-		final String q0 = "insert into " + currentSubgraphTable + " select \"" + getIdColumnNameChildVertex() + "\", \""
-				+ getIdColumnNameParentVertex() + "\", %s from " + getEdgeAnnotationTableName() + " where \""
-				+ getIdColumnNameParentVertex() + "\" in (select " + getIdColumnName() + " from " + currentTable + ")"
-				+ " " + filter + ";";
-		final String q1 = ""; // createUUIDTable(nextTable, true);
-		final String q2 = "insert into " + nextTable + " select \"" + getIdColumnNameChildVertex() + "\" from "
-				+ getEdgeAnnotationTableName() + " where \"" + getIdColumnNameParentVertex() + "\" in (select "
-				+ getIdColumnName() + " from " + currentTable + ")" + " " + filter + " group by \""
-				+ getIdColumnNameChildVertex() + "\";";
-		final String q3 = ""; // createUUIDTable(cursorTable, true);
-		final String q4 = "insert into " + currentTable + " select " + getIdColumnName() + " from " + nextTable
-				+ " where " + getIdColumnName() + " not in (select " + getIdColumnName() + " from " + answerTable
-				+ ");";
-		final String q5 = "insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";";
+			final String q0 = "insert into " + currentSubgraphTable + " select \"" + getIdColumnNameChildVertex() + "\", \""
+					+ getIdColumnNameParentVertex() + "\", %s from " + getEdgeAnnotationTableName() + " where \""
+					+ getIdColumnNameParentVertex() + "\" in (select " + getIdColumnName() + " from " + currentTable + ")"
+					+ " " + filter + ";";
+			final String q1 = ""; // createTempUUIDTable(nextTable);
+			final String q2 = "insert into " + nextTable + " select \"" + getIdColumnNameChildVertex() + "\" from "
+					+ getEdgeAnnotationTableName() + " where \"" + getIdColumnNameParentVertex() + "\" in (select "
+					+ getIdColumnName() + " from " + currentTable + ")" + " " + filter + " group by \""
+					+ getIdColumnNameChildVertex() + "\";";
+			final String q3 = ""; // createTempUUIDTable(cursorTable);
+			final String q4 = "insert into " + currentTable + " select " + getIdColumnName() + " from " + nextTable
+					+ " where " + getIdColumnName() + " not in (select " + getIdColumnName() + " from " + answerTable
+					+ ");";
+			final String q5 = "insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";";
 		
-		for(int i = 0; i < maxDepth; ++i){
-			final String formattedQ0 = String.format(q0, i+1);
+			for(int i = 0; i < maxDepth; ++i){
+				final String formattedQ0 = String.format(q0, i+1);
 			
-			executeQueryForResult(formattedQ0, false);
-			createUUIDTable(nextTable, true);
-			executeQueryForResult(q2, false);
-			createUUIDTable(currentTable, true);
-			executeQueryForResult(q4, false);
-			executeQueryForResult(q5, false);
-
-			List<List<String>> countResult = executeQueryForResult("select count(*) from "+currentTable+";", false);
-			long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
-			if(cursorTableCount == 0){
-				break;
+				executeQueryForResult(formattedQ0, false);
+				createTempUUIDTable(nextTable);
+				executeQueryForResult(q2, false);
+				createTempUUIDTable(currentTable);
+				executeQueryForResult(q4, false);
+				executeQueryForResult(q5, false);
+
+				List<List<String>> countResult = executeQueryForResult("select count(*) from "+currentTable+";", false);
+				long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
+				if(cursorTableCount == 0){
+					break;
+				}
 			}
-		}
 
-		createUUIDTable(currentTable, true);
-		createUUIDTable(nextTable, true);
+			createTempUUIDTable(currentTable);
+			createTempUUIDTable(nextTable);
 		
-		executeQueryForResult("insert into " + currentTable + " select " + getIdColumnName() + " from " + srcVertexTable
-				+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from "+answerTable+");", false);
+			executeQueryForResult("insert into " + currentTable + " select " + getIdColumnName() + " from " + srcVertexTable
+					+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from "+answerTable+");", false);
 
-		createUUIDTable(answerTable, true);
+			createTempUUIDTable(answerTable);
 		
-		executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable, false);
-
-		final String qq0 = ""; // createUUIDTable(nextTable, true);
-		final String qq1 = "insert into " + nextTable + " select \"" + getIdColumnNameParentVertex() + "\" from " + currentSubgraphTable
-				+ " where \"" + getIdColumnNameChildVertex() + "\" in (select "+getIdColumnName()+" from "+currentTable+")"
-				+ " and " + depthColumnName + " + %s <= " + maxDepth + " group by \""+getIdColumnNameParentVertex()+"\";";
-		final String qq2 = "insert into " + targetEdgeTable + " select " + getIdColumnName() + " from " + getEdgeAnnotationTableName()
-				+ " where \""+getIdColumnNameChildVertex()+"\" in (select " + getIdColumnName() + " from " + currentTable + ")"
-				+ " and \""+getIdColumnNameParentVertex()+"\" in (select "+getIdColumnName()+" from "+nextTable+") " + filter + ";";
-		final String qq3 = ""; // createUUIDTable(cursorTable, true);
-		final String qq4 = "insert into " + currentTable + " select " + getIdColumnName() + " from " + nextTable 
-				+ " where " + getIdColumnName() + " not in (select "+getIdColumnName()+" from "+answerTable+");";
-		final String qq5 = "insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";";
-
-		for(int i = 0; i < maxDepth; ++i){
-			createUUIDTable(nextTable, true);
-			final String formattedQq1 = String.format(qq1, i);
-			executeQueryForResult(formattedQq1, false);
-			executeQueryForResult(qq2, false);
-			createUUIDTable(currentTable, true);
-			executeQueryForResult(qq4, false);
-			executeQueryForResult(qq5, false);
+			executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable, false);
+
+			final String qq0 = ""; // createTempUUIDTable(nextTable);
+			final String qq1 = "insert into " + nextTable + " select \"" + getIdColumnNameParentVertex() + "\" from " + currentSubgraphTable
+					+ " where \"" + getIdColumnNameChildVertex() + "\" in (select "+getIdColumnName()+" from "+currentTable+")"
+					+ " and " + depthColumnName + " + %s <= " + maxDepth + " group by \""+getIdColumnNameParentVertex()+"\";";
+			final String qq2 = "insert into " + targetEdgeTable + " select " + getIdColumnName() + " from " + getEdgeAnnotationTableName()
+					+ " where \""+getIdColumnNameChildVertex()+"\" in (select " + getIdColumnName() + " from " + currentTable + ")"
+					+ " and \""+getIdColumnNameParentVertex()+"\" in (select "+getIdColumnName()+" from "+nextTable+") " + filter + ";";
+			final String qq3 = ""; // createTempUUIDTable(cursorTable);
+			final String qq4 = "insert into " + currentTable + " select " + getIdColumnName() + " from " + nextTable 
+					+ " where " + getIdColumnName() + " not in (select "+getIdColumnName()+" from "+answerTable+");";
+			final String qq5 = "insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";";
+
+			for(int i = 0; i < maxDepth; ++i){
+				createTempUUIDTable(nextTable);
+				final String formattedQq1 = String.format(qq1, i);
+				executeQueryForResult(formattedQq1, false);
+				executeQueryForResult(qq2, false);
+				createTempUUIDTable(currentTable);
+				executeQueryForResult(qq4, false);
+				executeQueryForResult(qq5, false);
 			
-			List<List<String>> countResult = executeQueryForResult("select count(*) from "+currentTable+";", false);
-			long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
-			if(cursorTableCount == 0){
-				break;
+				List<List<String>> countResult = executeQueryForResult("select count(*) from "+currentTable+";", false);
+				long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
+				if(cursorTableCount == 0){
+					break;
+				}
 			}
-		}
 
-		executeQueryForResult("insert into " + targetVertexTable + " select " + getIdColumnName() + " from " + answerTable, false);
-		dropTable(currentSubgraphTable);
-		dropTable(currentTable);
-		dropTable(nextTable);
-		dropTable(answerTable);
+			executeQueryForResult("insert into " + targetVertexTable + " select " + getIdColumnName() + " from " + answerTable, false);
+			dropTable(currentSubgraphTable);
+			dropTable(currentTable);
+			dropTable(nextTable);
+			dropTable(answerTable);
+		});
 	}
 	
 	@Override
-	public void getLink(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
-		if(maxDepth <= 0){
+	public void getLink(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int depth){
+		if(depth <= 0){
 			return;
 		}
 		
-		maxDepth = maxDepth - 1;
+		final int maxDepth = depth - 1;
 		
-		final String depthColumnName = "depth";
-		final String currentTable = "m_cur";
-		final String nextTable = "m_next";
-		final String answerTable = "m_answer";
-		final String currentSubgraphTable = "m_sgconn";
+		inQuerySession(() -> {
+			if(nativeTraversal){
+				noResultExecuteQuery(TraversalFunctions.getCallQuery(TraversalFunctions.functionLink,
+						getVertexTableName(srcGraph), getVertexTableName(dstGraph), getSubjectEdgeTableNameOrNull(subjectGraph),
+						getVertexTableName(targetGraph), getEdgeTableName(targetGraph), maxDepth));
+				return;
+			}
 		
-		final String dstVertexTable = getVertexTableName(dstGraph);
-		final String srcVertexTable = getVertexTableName(srcGraph);
-		final String subjectEdgeTable = getEdgeTableName(subjectGraph);
-		final String targetVertexTable = getVertexTableName(targetGraph);
-		final String targetEdgeTable = getEdgeTableName(targetGraph);
+			final String depthColumnName = "depth";
+			final String currentTable = "m_cur";
+			final String nextTable = "m_next";
+			final String answerTable = "m_answer";
+			final String currentSubgraphTable = "m_sgconn";
+		
+			final String dstVertexTable = getVertexTableName(dstGraph);
+			final String srcVertexTable = getVertexTableName(srcGraph);
+			final String subjectEdgeTable = getEdgeTableName(subjectGraph);
+			final String targetVertexTable = getVertexTableName(targetGraph);
+			final String targetEdgeTable = getEdgeTableName(targetGraph);
 		
-		createUUIDTable(currentTable, true);
-		createUUIDTable(nextTable, true);
-		createUUIDTable(answerTable, true);
+			createTempUUIDTable(currentTable);
+			createTempUUIDTable(nextTable);
+			createTempUUIDTable(answerTable);
 		
-		dropTable(currentSubgraphTable);
-		executeQueryForResult("create table " + currentSubgraphTable + "("
-				+ "\""+getIdColumnNameChildVertex()+"\" uuid, "
-				+ "\""+getIdColumnNameParentVertex()+"\" uuid, "
-				+ depthColumnName + " int);", false);
+			dropTable(currentSubgraphTable);
+			executeQueryForResult("create temp table " + currentSubgraphTable + "("
+					+ "\""+getIdColumnNameChildVertex()+"\" uuid, "
+					+ "\""+getIdColumnNameParentVertex()+"\" uuid, "
+					+ depthColumnName + " int);", false);
 		
-		executeQueryForResult("insert into "+currentTable+" select "+getIdColumnName()+" from " + dstVertexTable, false);
-		executeQueryForResult("insert into "+answerTable+" select "+getIdColumnName()+" from " + currentTable, false);
+			executeQueryForResult("insert into "+currentTable+" select "+getIdColumnName()+" from " + dstVertexTable, false);
+			executeQueryForResult("insert into "+answerTable+" select "+getIdColumnName()+" from " + currentTable, false);
 		
 		
-		final String filter = queryEnvironment.isBaseGraph(subjectGraph) 
-				? "" : " and "+getEdgeAnnotationTableName()+"."+getIdColumnName()+" in (select "+getIdColumnName()+" from " + subjectEdgeTable + ")";
-		final String q0 = "insert into "+currentSubgraphTable+" select \""+getIdColumnNameChildVertex()+"\", \""+getIdColumnNameParentVertex()+"\", %s from " + getEdgeAnnotationTableName()
-				+ " where \""+getIdColumnNameParentVertex()+"\" in (select "+getIdColumnName()+" from " + currentTable + ")"
-				+ " " + filter + ";";
-		final String q1 = "insert into " + currentSubgraphTable + " select \"" + getIdColumnNameChildVertex() + "\", \"" +getIdColumnNameParentVertex() + "\", %s from " + getEdgeAnnotationTableName()
-				+ " where \"" + getIdColumnNameChildVertex() + "\" in (select "+getIdColumnName()+" from "+currentTable+")"
-				+ " " + filter + ";";
-		final String q2 = ""; // createUUIDTable(nextTable, true);
-		final String q3 = "insert into " + nextTable + " select \"" + getIdColumnNameChildVertex() + "\" from " + getEdgeAnnotationTableName()
-				+ " where \"" + getIdColumnNameParentVertex() + "\" in (select "+getIdColumnName()+" from "+currentTable+")"
-				+ " " + filter + " group by \""+getIdColumnNameChildVertex()+"\";";
-		final String q4 = "insert into " +nextTable + " select \"" + getIdColumnNameParentVertex() + "\" from " + getEdgeAnnotationTableName()
-				+ " where \""+getIdColumnNameChildVertex()+"\" in (select "+getIdColumnName()+" from "+currentTable+")"
-				+ " " + filter + " group by \""+getIdColumnNameParentVertex()+"\";";
-		final String q5 = ""; // createUUIDTable(cursorTable, true);
-		final String q6 = "insert into " + currentTable + " select " + getIdColumnName() + " from " +nextTable
-				+ " where " + getIdColumnName() + " not in (select "+getIdColumnName()+" from "+answerTable+");";
-		final String q7 = "insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";";
+			final String filter = queryEnvironment.isBaseGraph(subjectGraph) 
+					? "" : " and "+getEdgeAnnotationTableName()+"."+getIdColumnName()+" in (select "+getIdColumnName()+" from " + subjectEdgeTable + ")";
+			final String q0 = "insert into "+currentSubgraphTable+" select \""+getIdColumnNameChildVertex()+"\", \""+getIdColumnNameParentVertex()+"\", %s from " + getEdgeAnnotationTableName()
+					+ " where \""+getIdColumnNameParentVertex()+"\" in (select "+getIdColumnName()+" from " + currentTable + ")"
+					+ " " + filter + ";";
+			final String q1 = "insert into " + currentSubgraphTable + " select \"" + getIdColumnNameChildVertex() + "\", \"" +getIdColumnNameParentVertex() + "\", %s from " + getEdgeAnnotationTableName()
+					+ " where \"" + getIdColumnNameChildVertex() + "\" in (select "+getIdColumnName()+" from "+currentTable+")"
+					+ " " + filter + ";";
+			final String q2 = ""; // createTempUUIDTable(nextTable);
+			final String q3 = "insert into " + nextTable + " select \"" + getIdColumnNameChildVertex() + "\" from " + getEdgeAnnotationTableName()
+					+ " where \"" + getIdColumnNameParentVertex() + "\" in (select "+getIdColumnName()+" from "+currentTable+")"
+					+ " " + filter + " group by \""+getIdColumnNameChildVertex()+"\";";
+			final String q4 = "insert into " +nextTable + " select \"" + getIdColumnNameParentVertex() + "\" from " + getEdgeAnnotationTableName()
+					+ " where \""+getIdColumnNameChildVertex()+"\" in (select "+getIdColumnName()+" from "+currentTable+")"
+					+ " " + filter + " group by \""+getIdColumnNameParentVertex()+"\";";
+			final String q5 = ""; // createTempUUIDTable(cursorTable);
+			final String q6 = "insert into " + currentTable + " select " + getIdColumnName() + " from " +nextTable
+					+ " where " + getIdColumnName() + " not in (select "+getIdColumnName()+" from "+answerTable+");";
+			final String q7 = "insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";";
 		
-		for(int i = 0; i < maxDepth; ++i){
-			final String formattedQ0 = String.format(q0, i+1);
-			final String formattedQ1 = String.format(q1, i+1);
+			for(int i = 0; i < maxDepth; ++i){
+				final String formattedQ0 = String.format(q0, i+1);
+				final String formattedQ1 = String.format(q1, i+1);
 			
-			executeQueryForResult(formattedQ0, false);
-			executeQueryForResult(formattedQ1, false);
-			createUUIDTable(nextTable, true);
-			executeQueryForResult(q3, false);
-			executeQueryForResult(q4, false);
-			createUUIDTable(currentTable, true);
-			executeQueryForResult(q6, false);
-			executeQueryForResult(q7, false);
-
-			List<List<String>> countResult = executeQueryForResult("select count(*) from "+currentTable+";", false);
-			long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
-			if(cursorTableCount == 0){
-				break;
+				executeQueryForResult(formattedQ0, false);
+				executeQueryForResult(formattedQ1, false);
+				createTempUUIDTable(nextTable);
+				executeQueryForResult(q3, false);
+				executeQueryForResult(q4, false);
+				createTempUUIDTable(currentTable);
+				executeQueryForResult(q6, false);
+				executeQueryForResult(q7, false);
+
+				List<List<String>> countResult = executeQueryForResult("select count(*) from "+currentTable+";", false);
+				long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
+				if(cursorTableCount == 0){
+					break;
+				}
 			}
-		}
 		
-		createUUIDTable(currentTable, true);
-		createUUIDTable(nextTable, true);
+			createTempUUIDTable(currentTable);
+			createTempUUIDTable(nextTable);
 		
-		executeQueryForResult("insert into " + currentTable + " select " + getIdColumnName() + " from " + srcVertexTable
-				+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from "+answerTable+");", false);
+			executeQueryForResult("insert into " + currentTable + " select " + getIdColumnName() + " from " + srcVertexTable
+					+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from "+answerTable+");", false);
 
-		createUUIDTable(answerTable, true);
+			createTempUUIDTable(answerTable);
 		
-		executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable, false);
-
-		final String qq0 = ""; // createUUIDTable(nextTable, true);
-		final String qq1 = "insert into " + nextTable + " select \"" + getIdColumnNameParentVertex() + "\" from " + currentSubgraphTable
-				+ " where \"" + getIdColumnNameChildVertex() + "\" in (select "+getIdColumnName()+" from "+currentTable+")"
-				+ " and " + depthColumnName + " + %s <= " + maxDepth + " group by \""+getIdColumnNameParentVertex()+"\";";
-		final String qq2 = "insert into " + nextTable + " select \"" + getIdColumnNameChildVertex() + "\" from " + currentSubgraphTable
-				+ " where \"" + getIdColumnNameParentVertex() + "\" in (select "+getIdColumnName()+" from "+currentTable+")"
-				+ " and " + depthColumnName + " + %s <= " + maxDepth + " group by \""+getIdColumnNameChildVertex()+"\";";
-		final String qq3 = ""; // createUUIDTable(cursorTable, true);
-		final String qq4 = "insert into " + currentTable + " select " + getIdColumnName() + " from " + nextTable 
-				+ " where " + getIdColumnName() + " not in (select "+getIdColumnName()+" from "+answerTable+");";
-		final String qq5 = "insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";";
+			executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable, false);
+
+			final String qq0 = ""; // createTempUUIDTable(nextTable);
+			final String qq1 = "insert into " + nextTable + " select \"" + getIdColumnNameParentVertex() + "\" from " + currentSubgraphTable
+					+ " where \"" + getIdColumnNameChildVertex() + "\" in (select "+getIdColumnName()+" from "+currentTable+")"
+					+ " and " + depthColumnName + " + %s <= " + maxDepth + " group by \""+getIdColumnNameParentVertex()+"\";";
+			final String qq2 = "insert into " + nextTable + " select \"" + getIdColumnNameChildVertex() + "\" from " + currentSubgraphTable
+					+ " where \"" + getIdColumnNameParentVertex() + "\" in (select "+getIdColumnName()+" from "+currentTable+")"
+					+ " and " + depthColumnName + " + %s <= " + maxDepth + " group by \""+getIdColumnNameChildVertex()+"\";";
+			final String qq3 = ""; // createTempUUIDTable(cursorTable);
+			final String qq4 = "insert into " + currentTable + " select " + getIdColumnName() + " from " + nextTable 
+					+ " where " + getIdColumnName() + " not in (select "+getIdColumnName()+" from "+answerTable+");";
+			final String qq5 = "insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";";
 		
-		for(int i = 0; i < maxDepth; ++i){
-			createUUIDTable(nextTable, true);
-			final String formattedQq1 = String.format(qq1, i);
-			final String formattedQq2 = String.format(qq2, i);
-			executeQueryForResult(formattedQq1, false);
-			executeQueryForResult(formattedQq2, false);
-			createUUIDTable(currentTable, true);
-			executeQueryForResult(qq4, false);
-			executeQueryForResult(qq5, false);
+			for(int i = 0; i < maxDepth; ++i){
+				createTempUUIDTable(nextTable);
+				final String formattedQq1 = String.format(qq1, i);
+				final String formattedQq2 = String.format(qq2, i);
+				executeQueryForResult(formattedQq1, false);
+				executeQueryForResult(formattedQq2, false);
+				createTempUUIDTable(currentTable);
+				executeQueryForResult(qq4, false);
+				executeQueryForResult(qq5, false);
 			
-			List<List<String>> countResult = executeQueryForResult("select count(*) from "+currentTable+";", false);
-			long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
-			if(cursorTableCount == 0){
-				break;
+				List<List<String>> countResult = executeQueryForResult("select count(*) from "+currentTable+";", false);
+				long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
+				if(cursorTableCount == 0){
+					break;
+				}
 			}
-		}
 		
-		executeQueryForResult("insert into " + targetVertexTable + " select "+getIdColumnName()+" from "+answerTable+";", false);
-		executeQueryForResult("insert into " + targetEdgeTable + " select " +getIdColumnName() + " from " + getEdgeAnnotationTableName()
-				+ " where \""+getIdColumnNameChildVertex()+"\" in (select "+getIdColumnName()+" from "+answerTable+")"
-				+ " and \""+getIdColumnNameParentVertex()+"\" in (select "+getIdColumnName()+" from "+answerTable+")"
-				+ " " + filter + ";", false);
-
-		dropTable(currentSubgraphTable);
-		dropTable(currentTable);
-		dropTable(nextTable);
-		dropTable(answerTable);
+			executeQueryForResult("insert into " + targetVertexTable + " select "+getIdColumnName()+" from "+answerTable+";", false);
+			executeQueryForResult("insert into " + targetEdgeTable + " select " +getIdColumnName() + " from " + getEdgeAnnotationTableName()
+					+ " where \""+getIdColumnNameChildVertex()+"\" in (select "+getIdColumnName()+" from "+answerTable+")"
+					+ " and \""+getIdColumnNameParentVertex()+"\" in (select "+getIdColumnName()+" from "+answerTable+")"
+					+ " " + filter + ";", false);
+
+			dropTable(currentSubgraphTable);
+			dropTable(currentTable);
+			dropTable(nextTable);
+			dropTable(answerTable);
+		});
 	}
 	
 	@Override
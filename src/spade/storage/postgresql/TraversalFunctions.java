@@ -0,0 +1,282 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.postgresql;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PL/pgSQL functions which run a whole lineage/path traversal on the server in one call.
+ *
+ * The frontier, the visited set and the explored edges are kept in session-local temporary tables (pg_temp.spade_t_*)
+ * which are truncated at the start of each call. Results are inserted directly into the target graph tables.
+ */
+public final class TraversalFunctions{
+
+	public static enum Mode{ NATIVE, ITERATIVE }
+
+	public static final String
+		functionLineage = "spade_get_lineage"
+		, functionSimplePath = "spade_get_simple_path"
+		, functionLink = "spade_get_link"
+		, functionShortestPath = "spade_get_shortest_path";
+
+	public static final String
+		directionAncestor = "ancestor"
+		, directionDescendant = "descendant"
+		, directionBoth = "both";
+
+	private static final String functionScratch = "spade_traversal_scratch";
+
+	private static final String scratch =
+			"create or replace function " + functionScratch + "() returns void as $$\n"
+			+ "begin\n"
+			+ "	perform set_config('client_min_messages', 'warning', true);\n"
+			+ "	create temp table if not exists spade_t_answer(id uuid primary key);\n"
+			+ "	create temp table if not exists spade_t_cur(id uuid, reaching uuid);\n"
+			+ "	create temp table if not exists spade_t_next(id uuid, reaching uuid);\n"
+			+ "	create temp table if not exists spade_t_step(id uuid, child uuid, parent uuid, reaching uuid);\n"
+			+ "	create temp table if not exists spade_t_edge(id uuid);\n"
+			+ "	create temp table if not exists spade_t_conn(child uuid, parent uuid, reaching uuid, depth int);\n"
+			+ "	truncate pg_temp.spade_t_answer, pg_temp.spade_t_cur, pg_temp.spade_t_next, pg_temp.spade_t_step,\n"
+			+ "		pg_temp.spade_t_edge, pg_temp.spade_t_conn;\n"
+			+ "end;\n"
+			+ "$$ language plpgsql";
+
+	private static final String filter =
+			"	if p_subject is not null then\n"
+			+ "		v_filter := ' and e.{ID} in (select {GID} from ' || p_subject || ')';\n"
+			+ "	end if;\n";
+
+	// Moves the selected vertices which are not in the answer yet into the answer and makes them the new frontier
+	private static String advance(final String select){
+		return "		truncate pg_temp.spade_t_cur;\n"
+				+ "		with added as (insert into pg_temp.spade_t_answer " + select + " on conflict do nothing returning id)\n"
+				+ "		insert into pg_temp.spade_t_cur(id) select id from added;\n"
+				+ "		get diagnostics v_count = row_count;\n"
+				+ "		exit when v_count = 0;\n"
+				+ "		v_i := v_i + 1;\n";
+	}
+
+	private static String step(final String frontierColumn){
+		return "		execute 'insert into pg_temp.spade_t_step(id, child, parent) select e.{ID}, e.{CHILD}, e.{PARENT} from {EDGES} e'\n"
+				+ "			|| ' where e." + frontierColumn + " in (select id from pg_temp.spade_t_cur)' || v_filter;\n";
+	}
+
+	private static String seed(final String tableArgument){
+		return "	execute 'insert into pg_temp.spade_t_answer select distinct {GID} from ' || " + tableArgument
+				+ " || ' where {GID} is not null on conflict do nothing';\n"
+				+ "	insert into pg_temp.spade_t_cur(id) select id from pg_temp.spade_t_answer;\n";
+	}
+
+	// Restarts from the sources which were reached by the first pass
+	private static final String reseedFromSources =
+			"	truncate pg_temp.spade_t_cur, pg_temp.spade_t_next;\n"
+			+ "	execute 'insert into pg_temp.spade_t_next(id) select distinct {GID} from ' || p_src\n"
+			+ "		|| ' where {GID} in (select id from pg_temp.spade_t_answer)';\n"
+			+ "	truncate pg_temp.spade_t_answer;\n"
+			+ "	insert into pg_temp.spade_t_answer select id from pg_temp.spade_t_next;\n"
+			+ "	insert into pg_temp.spade_t_cur(id) select id from pg_temp.spade_t_answer;\n"
+			+ "	v_i := 0;\n";
+
+	private static final String answerToTarget =
+			"	execute 'insert into ' || p_target_vertex || ' select id from pg_temp.spade_t_answer';\n";
+
+	private static final String edgesInAnswerToTarget =
+			"	execute 'insert into ' || p_target_edge || ' select e.{ID} from {EDGES} e'\n"
+			+ "		|| ' where e.{CHILD} in (select id from pg_temp.spade_t_answer)'\n"
+			+ "		|| ' and e.{PARENT} in (select id from pg_temp.spade_t_answer)' || v_filter;\n";
+
+	private static final String declarations =
+			"declare\n"
+			+ "	v_filter text := '';\n"
+			+ "	v_i int := 0;\n"
+			+ "	v_count bigint;\n";
+
+	private static final String lineage =
+			"create or replace function " + functionLineage + "(p_start text, p_subject text, p_target_vertex text,"
+			+ " p_target_edge text, p_depth int, p_direction text) returns void as $$\n"
+			+ declarations
+			+ "	v_direction text;\n"
+			+ "begin\n"
+			+ filter
+			+ "	foreach v_direction in array (case when p_direction = '" + directionBoth + "'"
+			+ " then array['" + directionAncestor + "', '" + directionDescendant + "'] else array[p_direction] end) loop\n"
+			+ "	perform " + functionScratch + "();\n"
+			+ seed("p_start")
+			+ "	v_i := 0;\n"
+			+ "	while v_i < p_depth loop\n"
+			+ "		truncate pg_temp.spade_t_step;\n"
+			+ "		if v_direction = '" + directionAncestor + "' then\n"
+			+ step("{CHILD}")
+			+ "		else\n"
+			+ step("{PARENT}")
+			+ "		end if;\n"
+			+ "		insert into pg_temp.spade_t_edge select id from pg_temp.spade_t_step;\n"
+			+ "		truncate pg_temp.spade_t_next;\n"
+			+ "		if v_direction = '" + directionAncestor + "' then\n"
+			+ "			insert into pg_temp.spade_t_next(id) select distinct parent from pg_temp.spade_t_step;\n"
+			+ "		else\n"
+			+ "			insert into pg_temp.spade_t_next(id) select distinct child from pg_temp.spade_t_step;\n"
+			+ "		end if;\n"
+			+ advance("select id from pg_temp.spade_t_next where id is not null")
+			+ "	end loop;\n"
+			+ answerToTarget
+			+ "	execute 'insert into ' || p_target_edge || ' select distinct id from pg_temp.spade_t_edge';\n"
+			+ "	end loop;\n"
+			+ "end;\n"
+			+ "$$ language plpgsql";
+
+	private static final String simplePath =
+			"create or replace function " + functionSimplePath + "(p_src text, p_dst text, p_subject text,"
+			+ " p_target_vertex text, p_target_edge text, p_depth int) returns void as $$\n"
+			+ declarations
+			+ "begin\n"
+			+ filter
+			+ "	perform " + functionScratch + "();\n"
+			+ seed("p_dst")
+			+ "	while v_i < p_depth loop\n"
+			+ "		truncate pg_temp.spade_t_step;\n"
+			+ step("{PARENT}")
+			+ "		insert into pg_temp.spade_t_conn(child, parent, depth) select child, parent, v_i + 1 from pg_temp.spade_t_step;\n"
+			+ advance("select distinct child from pg_temp.spade_t_step where child is not null")
+			+ "	end loop;\n"
+			+ reseedFromSources
+			+ "	while v_i < p_depth loop\n"
+			+ "		truncate pg_temp.spade_t_next;\n"
+			+ "		insert into pg_temp.spade_t_next(id) select distinct parent from pg_temp.spade_t_conn\n"
+			+ "			where child in (select id from pg_temp.spade_t_cur) and depth + v_i <= p_depth;\n"
+			+ "		execute 'insert into ' || p_target_edge || ' select e.{ID} from {EDGES} e'\n"
+			+ "			|| ' where e.{CHILD} in (select id from pg_temp.spade_t_cur)'\n"
+			+ "			|| ' and e.{PARENT} in (select id from pg_temp.spade_t_next)' || v_filter;\n"
+			+ advance("select id from pg_temp.spade_t_next where id is not null")
+			+ "	end loop;\n"
+			+ answerToTarget
+			+ "end;\n"
+			+ "$$ language plpgsql";
+
+	private static final String link =
+			"create or replace function " + functionLink + "(p_src text, p_dst text, p_subject text,"
+			+ " p_target_vertex text, p_target_edge text, p_depth int) returns void as $$\n"
+			+ declarations
+			+ "begin\n"
+			+ filter
+			+ "	perform " + functionScratch + "();\n"
+			+ seed("p_dst")
+			+ "	while v_i < p_depth loop\n"
+			+ "		truncate pg_temp.spade_t_step, pg_temp.spade_t_next;\n"
+			+ step("{PARENT}")
+			+ step("{CHILD}")
+			+ "		insert into pg_temp.spade_t_conn(child, parent, depth) select child, parent, v_i + 1 from pg_temp.spade_t_step;\n"
+			+ "		insert into pg_temp.spade_t_next(id)\n"
+			+ "			select child from pg_temp.spade_t_step where parent in (select id from pg_temp.spade_t_cur)\n"
+			+ "			union select parent from pg_temp.spade_t_step where child in (select id from pg_temp.spade_t_cur);\n"
+			+ advance("select id from pg_temp.spade_t_next where id is not null")
+			+ "	end loop;\n"
+			+ reseedFromSources
+			+ "	while v_i < p_depth loop\n"
+			+ "		truncate pg_temp.spade_t_next;\n"
+			+ "		insert into pg_temp.spade_t_next(id)\n"
+			+ "			select parent from pg_temp.spade_t_conn\n"
+			+ "				where child in (select id from pg_temp.spade_t_cur) and depth + v_i <= p_depth\n"
+			+ "			union select child from pg_temp.spade_t_conn\n"
+			+ "				where parent in (select id from pg_temp.spade_t_cur) and depth + v_i <= p_depth;\n"
+			+ advance("select id from pg_temp.spade_t_next where id is not null")
+			+ "	end loop;\n"
+			+ answerToTarget
+			+ edgesInAnswerToTarget
+			+ "end;\n"
+			+ "$$ language plpgsql";
+
+	private static final String shortestPath =
+			"create or replace function " + functionShortestPath + "(p_src text, p_dst text, p_subject text,"
+			+ " p_target_vertex text, p_target_edge text, p_depth int) returns void as $$\n"
+			+ declarations
+			+ "begin\n"
+			+ filter
+			+ "	perform " + functionScratch + "();\n"
+			+ "	execute 'insert into pg_temp.spade_t_cur select distinct {GID}, {GID} from ' || p_dst || ' where {GID} is not null';\n"
+			+ "	insert into pg_temp.spade_t_answer select distinct id from pg_temp.spade_t_cur;\n"
+			+ "	while v_i < p_depth loop\n"
+			+ "		truncate pg_temp.spade_t_step;\n"
+			+ "		execute 'insert into pg_temp.spade_t_step select e.{ID}, e.{CHILD}, e.{PARENT}, c.reaching'\n"
+			+ "			|| ' from {EDGES} e, pg_temp.spade_t_cur c where e.{PARENT} = c.id' || v_filter;\n"
+			+ "		insert into pg_temp.spade_t_conn select distinct child, parent, reaching, v_i + 1 from pg_temp.spade_t_step;\n"
+			+ "		truncate pg_temp.spade_t_cur;\n"
+			+ "		insert into pg_temp.spade_t_cur select distinct child, reaching from pg_temp.spade_t_step\n"
+			+ "			where child is not null and child not in (select id from pg_temp.spade_t_answer);\n"
+			+ "		get diagnostics v_count = row_count;\n"
+			+ "		exit when v_count = 0;\n"
+			+ "		insert into pg_temp.spade_t_answer select distinct id from pg_temp.spade_t_cur;\n"
+			+ "		v_i := v_i + 1;\n"
+			+ "	end loop;\n"
+			+ reseedFromSources
+			+ "	while v_i < p_depth loop\n"
+			+ "		truncate pg_temp.spade_t_next;\n"
+			+ "		insert into pg_temp.spade_t_next(id) select min(c.parent::text)::uuid\n"
+			+ "			from pg_temp.spade_t_cur k, pg_temp.spade_t_conn c\n"
+			+ "			where k.id = c.child and c.depth + v_i <= p_depth group by c.child, c.reaching;\n"
+			+ advance("select distinct id from pg_temp.spade_t_next where id is not null")
+			+ "	end loop;\n"
+			+ answerToTarget
+			+ edgesInAnswerToTarget
+			+ "end;\n"
+			+ "$$ language plpgsql";
+
+	/**
+	 * @param idColumnName id column name in the annotation and the graph tables
+	 * @param childVertexColumnName child vertex id column name in the edge annotation table
+	 * @param parentVertexColumnName parent vertex id column name in the edge annotation table
+	 * @param edgeAnnotationTableName edge annotation table name
+	 * @return 'create or replace function' queries in the order in which they must be executed
+	 */
+	public static List<String> getCreateQueries(final String idColumnName, final String childVertexColumnName,
+			final String parentVertexColumnName, final String edgeAnnotationTableName){
+		final List<String> queries = new ArrayList<String>();
+		for(final String query : new String[]{scratch, lineage, simplePath, link, shortestPath}){
+			queries.add(query
+					.replace("{ID}", "\"" + idColumnName + "\"")
+					.replace("{GID}", idColumnName)
+					.replace("{CHILD}", "\"" + childVertexColumnName + "\"")
+					.replace("{PARENT}", "\"" + parentVertexColumnName + "\"")
+					.replace("{EDGES}", edgeAnnotationTableName));
+		}
+		return queries;
+	}
+
+	/**
+	 * @param functionName name of the function to call
+	 * @param arguments function arguments. Strings are passed as text and null as null
+	 * @return 'select' query which calls the function
+	 */
+	public static String getCallQuery(final String functionName, final Object... arguments){
+		final List<String> values = new ArrayList<String>();
+		for(final Object argument : arguments){
+			if(argument == null){
+				values.add("null");
+			}else if(argument instanceof String){
+				values.add("'" + ((String)argument).replace("'", "''") + "'");
+			}else{
+				values.add(String.valueOf(argument));
+			}
+		}
+		return "select " + functionName + "(" + String.join(", ", values) + ")";
+	}
+}
@@ -74,6 +74,9 @@ public class QuickstepConfiguration {
 
   private String reset;
 
+  private boolean membershipBitmaps;
+  private boolean vertexIdDictionary;
+
   private Logger logger = Logger.getLogger(Quickstep.class.getName());
 
   public QuickstepConfiguration(String configFilePath, String arguments) {
@@ -118,6 +121,10 @@ public class QuickstepConfiguration {
 
     // Whether to reset database.
     reset = getProperty("reset");
+
+    // Whether to keep graph variable memberships as in-memory bitmaps.
+    membershipBitmaps = "true".equalsIgnoreCase(getPropertyOrDefault("membershipBitmaps", "false"));
+    vertexIdDictionary = "true".equalsIgnoreCase(getPropertyOrDefault("vertexIdDictionary", "false"));
   }
 
   /**
@@ -190,6 +197,20 @@ public class QuickstepConfiguration {
     return reset != null && reset.equalsIgnoreCase("true");
   }
 
+  /**
+   * @return Whether to run set operations on graph variables with in-memory bitmaps of their ids.
+   */
+  public boolean getMembershipBitmaps() {
+    return membershipBitmaps;
+  }
+
+  /**
+   * @return Whether to assign vertex ids from the persistent hash to id dictionary.
+   */
+  public boolean getVertexIdDictionary() {
+    return vertexIdDictionary;
+  }
+
   /**
    * Merge command line arguments into the properties (initially loaded from
    * configuration file spade.storage.Quickstep.config).
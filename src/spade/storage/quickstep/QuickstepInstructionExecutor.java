@@ -32,6 +32,8 @@ import java.util.TreeMap;
 
 import spade.core.AbstractStorage;
 import spade.query.quickgrail.core.GraphDescription;
+import spade.query.quickgrail.core.GraphMemberships;
+import spade.query.quickgrail.core.GraphMemberships.Membership;
 import spade.query.quickgrail.core.GraphStatistic;
 import spade.query.quickgrail.core.GraphStatistic.Interval;
 import spade.query.quickgrail.core.QueriedEdge;
@@ -47,6 +49,7 @@ import spade.query.quickgrail.instruction.GetLineage.Direction;
 import spade.query.quickgrail.instruction.SetGraphMetadata;
 import spade.query.quickgrail.instruction.SetGraphMetadata.Component;
 import spade.query.quickgrail.types.StringType;
+import spade.query.quickgrail.utility.MembershipBitmap;
 import spade.query.quickgrail.utility.ResultTable;
 import spade.query.quickgrail.utility.Schema;
 import spade.storage.Quickstep;
@@ -104,8 +107,20 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 		return qs;
 	}
 
+	@Override
+	public void putGraph(final long putGraphBatchSize, final Graph targetGraph, final spade.core.Graph graph){
+		modified(targetGraph);
+		// Loaded in one batch by the storage hence no batches
+		if(queryEnvironment.isBaseGraph(targetGraph)){
+			qs.putGraph(graph, null, null);
+		}else{
+			qs.putGraph(graph, getVertexTableName(targetGraph), getEdgeTableName(targetGraph));
+		}
+	}
+
 	@Override
 	public void insertLiteralEdge(Graph targetGraph, ArrayList<String> edges){
+		modified(targetGraph);
 		if(!edges.isEmpty()){
 			String insertSubpart = "";
 			for(String edge : edges){
@@ -131,6 +146,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 
 	@Override
 	public void insertLiteralVertex(Graph targetGraph, ArrayList<String> vertices){
+		modified(targetGraph);
 		if(!vertices.isEmpty()){
 			String insertSubpart = "";
 			for(String vertex : vertices){
@@ -189,13 +205,104 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 		return (escaped ? "e" : "") + "'" + sb + "'";
 	}
 
+	private GraphMemberships getMemberships(){
+		return queryEnvironment.getGraphMemberships();
+	}
+
+	/*
+	 * Must be called before writing to the tables of the graph other than through the membership bitmaps
+	 */
+	private void modified(final Graph graph){
+		getMemberships().invalidate(graph);
+	}
+
+	/*
+	 * Returns the membership of the graph, reading it from the tables if not known already.
+	 * Returns null if bitmaps are not in use, for the base graph, or if the ids do not fit.
+	 */
+	private Membership getOrLoadMembership(final Graph graph){
+		if(!qs.getMembershipBitmaps() || queryEnvironment.isBaseGraph(graph)){
+			return null;
+		}
+		Membership membership = getMemberships().get(graph);
+		if(membership == null){
+			final long[] rows = new long[]{0};
+			final MembershipBitmap vertices = loadIds(getVertexTableName(graph), rows);
+			if(vertices == null){
+				return null;
+			}
+			final MembershipBitmap edges = loadIds(getEdgeTableName(graph), rows);
+			if(edges == null){
+				return null;
+			}
+			membership = new Membership(vertices, edges, 
+					rows[0] == vertices.getCardinality() + edges.getCardinality());
+			getMemberships().put(graph, membership);
+		}
+		return membership;
+	}
+
+	private MembershipBitmap loadIds(final String tableName, final long[] rows){
+		final String result = qs.executeQuery("copy select id from " + tableName + " to stdout;");
+		if(result == null){
+			return null;
+		}
+		final MembershipBitmap ids = new MembershipBitmap();
+		for(final String line : result.split("\n")){
+			final String idString = line.trim();
+			if(!idString.isEmpty()){
+				final long id = Long.parseLong(idString);
+				if(id < 0 || id > Integer.MAX_VALUE){
+					return null;
+				}
+				ids.add((int)id);
+				rows[0]++;
+			}
+		}
+		return ids;
+	}
+
+	private void appendIds(final String tableName, final MembershipBitmap ids){
+		if(!ids.isEmpty()){
+			final StringBuilder data = new StringBuilder();
+			ids.forEach(id -> data.append(id).append('\n'));
+			qs.getExecutor().executeQuery("copy " + tableName + " from stdin with (delimiter '|');", data.toString());
+		}
+	}
+
+	/*
+	 * Appends the ids in the result which are not in the target already, and updates the target membership
+	 */
+	private void appendMembership(final Graph targetGraph, final Membership target, 
+			final MembershipBitmap resultVertices, final MembershipBitmap resultEdges){
+		modified(targetGraph);
+		appendIds(getVertexTableName(targetGraph), MembershipBitmap.andNot(resultVertices, target.vertices));
+		appendIds(getEdgeTableName(targetGraph), MembershipBitmap.andNot(resultEdges, target.edges));
+		getMemberships().put(targetGraph, new Membership(
+				MembershipBitmap.or(target.vertices, resultVertices), 
+				MembershipBitmap.or(target.edges, resultEdges), 
+				target.distinct));
+	}
+
 	@Override
 	public void createEmptyGraph(Graph graph){
+		modified(graph);
 		QuickstepUtil.CreateEmptyGraph(qs, queryEnvironment, graph);
+		if(qs.getMembershipBitmaps() && !queryEnvironment.isBaseGraph(graph)){
+			getMemberships().put(graph, Membership.empty());
+		}
 	}
 
 	@Override
 	public void distinctifyGraph(Graph targetGraph, Graph sourceGraph){
+		final Membership target = getOrLoadMembership(targetGraph);
+		final Membership source = target == null ? null : getOrLoadMembership(sourceGraph);
+		if(target != null && source != null && target.distinct){
+			appendMembership(targetGraph, target, source.vertices, source.edges);
+			return;
+		}
+		modified(targetGraph);
+
 		String sourceVertexTable = getVertexTableName(sourceGraph);
 		String sourceEdgeTable = getEdgeTableName(sourceGraph);
 		String targetVertexTable = getVertexTableName(targetGraph);
@@ -209,6 +316,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 	@Override
 	public void getWhereAnnotationsExist(final Graph targetGraph, final Graph subjectGraph,
 			final ArrayList<String> annotationNames){
+		modified(targetGraph);
 		
 		final ArrayList<String> annotationKeys = annotationNames;
 		
@@ -321,6 +429,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 	@Override
 	public void getMatch(final Graph targetGraph, final Graph graph1, final Graph graph2,
 			final ArrayList<String> annotationKeys){
+		modified(targetGraph);
 		/*
 		 * OLD join based approach in commit:
 		 * https://github.com/ashish-gehani/SPADE/commit/05bfe7501f4f1a6f8e77c709c528085e3207fe2d
@@ -377,6 +486,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 	@Override
 	public void getVertex(Graph targetGraph, Graph subjectGraph, String annotationKey, PredicateOperator operator,
 			String annotationValue, final boolean hasArguments){
+		modified(targetGraph);
 		if(!hasArguments){
 			StringBuilder sqlQuery = new StringBuilder();
 			sqlQuery.append("INSERT INTO " + getVertexTableName(targetGraph) + " SELECT id FROM "
@@ -453,6 +563,8 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 
 	@Override
 	public ResultTable evaluateQuery(final String nativeQuery){
+		// Could write to any variable
+		getMemberships().clear();
 		List<String> queries = new ArrayList<String>();
 		boolean insideQuotes = false;
 		String currentQuery = "";
@@ -538,6 +650,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 	@Override
 	public void getEdge(Graph targetGraph, Graph subjectGraph, String annotationKey, PredicateOperator operator,
 			String annotationValue, final boolean hasArguments){
+		modified(targetGraph);
 		if(!hasArguments){
 			StringBuilder sqlQuery = new StringBuilder();
 			sqlQuery.append("INSERT INTO " + getEdgeTableName(targetGraph) + " SELECT id FROM "
@@ -570,6 +683,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 
 	@Override
 	public void getEdgeEndpoint(Graph targetGraph, Graph subjectGraph, GetEdgeEndpoint.Component component){
+		modified(targetGraph);
 		String targetVertexTable = getVertexTableName(targetGraph);
 		String subjectEdgeTable = getEdgeTableName(subjectGraph);
 		qs.executeQuery("DROP TABLE m_answer;\n" + "CREATE TABLE m_answer (id INT);\n" + "\\analyzerange "
@@ -597,6 +711,16 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 		String rhsVertexTable = getVertexTableName(rhsGraph);
 		String rhsEdgeTable = getEdgeTableName(rhsGraph);
 
+		final Membership output = getOrLoadMembership(outputGraph);
+		final Membership lhs = output == null ? null : getOrLoadMembership(lhsGraph);
+		final Membership rhs = lhs == null ? null : getOrLoadMembership(rhsGraph);
+		if(output != null && lhs != null && rhs != null){
+			appendMembership(outputGraph, output, 
+					MembershipBitmap.and(lhs.vertices, rhs.vertices), MembershipBitmap.and(lhs.edges, rhs.edges));
+			return;
+		}
+		modified(outputGraph);
+
 		qs.executeQuery("\\analyzerange " + rhsVertexTable + " " + rhsEdgeTable + "\n");
 		qs.executeQuery("INSERT INTO " + outputVertexTable + " SELECT id FROM " + lhsVertexTable
 				+ " WHERE id IN (SELECT id FROM " + rhsVertexTable + ");");
@@ -606,6 +730,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 
 	@Override
 	public void limitGraph(Graph targetGraph, Graph sourceGraph, int limit){
+		modified(targetGraph);
 		String sourceVertexTable = getVertexTableName(sourceGraph);
 		String sourceEdgeTable = getEdgeTableName(sourceGraph);
 
@@ -665,6 +790,10 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 
 	@Override
 	public GraphStatistic.Count getGraphCount(final Graph graph){
+		final Membership membership = getMemberships().get(graph);
+		if(membership != null && membership.distinct){
+			return new GraphStatistic.Count(membership.vertices.getCardinality(), membership.edges.getCardinality());
+		}
 		final String targetVertexTable = getVertexTableName(graph);
 		final String targetEdgeTable = getEdgeTableName(graph);
 		final long numVertices = 
@@ -905,6 +1034,19 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 		String subtrahendVertexTable = getVertexTableName(subtrahendGraph);
 		String subtrahendEdgeTable = getEdgeTableName(subtrahendGraph);
 
+		final Membership output = getOrLoadMembership(outputGraph);
+		final Membership minuend = output == null ? null : getOrLoadMembership(minuendGraph);
+		final Membership subtrahend = minuend == null ? null : getOrLoadMembership(subtrahendGraph);
+		if(output != null && minuend != null && subtrahend != null){
+			appendMembership(outputGraph, output, 
+					(component == null || component == Graph.Component.kVertex) 
+						? MembershipBitmap.andNot(minuend.vertices, subtrahend.vertices) : new MembershipBitmap(),
+					(component == null || component == Graph.Component.kEdge) 
+						? MembershipBitmap.andNot(minuend.edges, subtrahend.edges) : new MembershipBitmap());
+			return;
+		}
+		modified(outputGraph);
+
 		if(component == null || component == Graph.Component.kVertex){
 			qs.executeQuery("\\analyzerange " + subtrahendVertexTable + "\n");
 			qs.executeQuery("INSERT INTO " + outputVertexTable + " SELECT id FROM " + minuendVertexTable
@@ -924,12 +1066,21 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 		String targetVertexTable = getVertexTableName(targetGraph);
 		String targetEdgeTable = getEdgeTableName(targetGraph);
 
+		final Membership target = getOrLoadMembership(targetGraph);
+		final Membership source = target == null ? null : getOrLoadMembership(sourceGraph);
+		if(target != null && source != null){
+			appendMembership(targetGraph, target, source.vertices, source.edges);
+			return;
+		}
+		modified(targetGraph);
+
 		qs.executeQuery("INSERT INTO " + targetVertexTable + " SELECT id FROM " + sourceVertexTable + ";");
 		qs.executeQuery("INSERT INTO " + targetEdgeTable + " SELECT id FROM " + sourceEdgeTable + ";");
 	}
 
 	@Override
 	public void getAdjacentVertex(Graph targetGraph, Graph subjectGraph, Graph sourceGraph, GetLineage.Direction direction){
+		modified(targetGraph);
 		List<Direction> oneDirs = new ArrayList<Direction>();
 		if(direction == Direction.kBoth){
 			oneDirs.add(Direction.kAncestor);
@@ -1141,6 +1292,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 
 	@Override
 	public void getLink(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
+		modified(targetGraph);
 		qs.executeQuery("DROP TABLE m_cur;\n" + "DROP TABLE m_next;\n" + "DROP TABLE m_answer;\n"
 				+ "CREATE TABLE m_cur (id INT);\n" + "CREATE TABLE m_next (id INT);\n"
 				+ "CREATE TABLE m_answer (id INT);");
@@ -1216,6 +1368,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 
 	@Override
 	public void getShortestPath(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
+		modified(targetGraph);
 		String filter;
 		qs.executeQuery("DROP TABLE m_conn;\n" + "CREATE TABLE m_conn (src INT, dst INT);");
 		if(isBaseGraph(subjectGraph)){
@@ -1299,6 +1452,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 
 	@Override
 	public void getSubgraph(Graph targetGraph, Graph subjectGraph, Graph skeletonGraph){
+		modified(targetGraph);
 		String targetVertexTable = getVertexTableName(targetGraph);
 		String targetEdgeTable = getEdgeTableName(targetGraph);
 		String subjectVertexTable = getVertexTableName(subjectGraph);
@@ -1328,6 +1482,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 
 	@Override
 	public void getLineage(Graph targetGraph, Graph subjectGraph, Graph startGraph, int depth, Direction directionArg){
+		modified(targetGraph);
 		List<Direction> oneDirs = new ArrayList<Direction>();
 		if(directionArg == Direction.kBoth){
 			oneDirs.add(Direction.kAncestor);
@@ -1397,6 +1552,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 
 	@Override
 	public void getSimplePath(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
+		modified(targetGraph);
 		String targetVertexTable = getVertexTableName(targetGraph);
 		String targetEdgeTable = getEdgeTableName(targetGraph);
 		String subjectEdgeTable = getEdgeTableName(subjectGraph);
@@ -1469,6 +1625,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 
 	@Override
 	public void collapseEdge(Graph targetGraph, Graph sourceGraph, ArrayList<String> fields){
+		modified(targetGraph);
 		String sourceVertexTable = getVertexTableName(sourceGraph);
 		String sourceEdgeTable = getEdgeTableName(sourceGraph);
 		String targetVertexTable = getVertexTableName(targetGraph);
@@ -1521,6 +1678,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 	@Override
 	public void getSubsetVertex(final Graph targetGraph, final Graph sourceGraph, final long fromInclusive,
 			final long toExclusive){
+		modified(targetGraph);
 		final String sourceTable = getVertexTableName(sourceGraph);
 		final String targetTable = getVertexTableName(targetGraph);
 		final String intermTable = "m_interm_" + targetTable;
@@ -1533,6 +1691,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 	@Override
 	public void getSubsetEdge(final Graph targetGraph, final Graph sourceGraph, final long fromInclusive,
 			final long toExclusive){
+		modified(targetGraph);
 		final String sourceTable = getEdgeTableName(sourceGraph);
 		final String targetTable = getEdgeTableName(targetGraph);
 		final String intermTable = "m_interm_" + targetTable;
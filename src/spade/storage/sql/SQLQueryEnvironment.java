@@ -291,6 +291,11 @@ public abstract class SQLQueryEnvironment extends AbstractQueryEnvironment{
 			}
 			if(drop){
 				dropQueriesList.add("drop table " + table + "");
+				final String name = getNameOfTable(table);
+				if(name != null){
+					// Must not be found if the name is used again
+					getGraphMemberships().invalidate(new Graph(name));
+				}
 			}
 		}
 		if(dropQueriesList.size() > 0){
@@ -335,6 +340,19 @@ public abstract class SQLQueryEnvironment extends AbstractQueryEnvironment{
 		return name + "_edge";
 	}
 	
+	/**
+	 * @param table name of the vertex or edge table
+	 * @return the name of the graph or metadata the table belongs to, or null if not a vertex or edge table
+	 */
+	private static final String getNameOfTable(final String table){
+		if(table.endsWith("_vertex")){
+			return table.substring(0, table.length() - "_vertex".length());
+		}else if(table.endsWith("_edge")){
+			return table.substring(0, table.length() - "_edge".length());
+		}
+		return null;
+	}
+	
 	public final String getGraphVertexTableName(Graph graph){
 		return getVertexTableName(graph.name);
 	}
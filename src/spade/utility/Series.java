@@ -50,6 +50,10 @@ public class Series<T extends Serializable & Comparable<T>, V extends Serializab
 		}
 	}
 	
+	public List<SimpleEntry<T, V>> getEntries(){
+		return Collections.unmodifiableList(series);
+	}
+	
 	public Set<V> getValues(){
 		final Set<V> values = new HashSet<V>();
 		series.forEach(v -> values.add(v.getValue()));
@@ -33,6 +33,9 @@ import spade.utility.profile.Intervaler;
 /**
  * A map backed by a persistent storage
  * 
+ * Each operation is atomic so the map can be shared by threads. A value returned by 'get' can be the one in the cache,
+ * and must not be changed by more than one thread at a time.
+ * 
  * @param <K> key 	Must be Serializable
  * @param <V> value Must be Serializable
  */
@@ -99,7 +102,7 @@ public class ExternalMap<K, V>{
 	 * @param key
 	 * @param value
 	 */
-	public void put(K key, V value){
+	public synchronized void put(K key, V value){
 		checkInterval();
 		// Might be value update
 		if(key == null || value == null){
@@ -136,7 +139,7 @@ public class ExternalMap<K, V>{
 	 * @param key
 	 * @return value/null
 	 */
-	public V get(K key){
+	public synchronized V get(K key){
 		checkInterval();
 		if(key == null){
 			return null;
@@ -192,7 +195,7 @@ public class ExternalMap<K, V>{
 		}
 	}
 	
-	public boolean contains(K key){
+	public synchronized boolean contains(K key){
 		checkInterval();
 		if(key == null){
 			return false;
@@ -228,7 +231,7 @@ public class ExternalMap<K, V>{
 	 * 
 	 * @param key
 	 */
-	public void remove(K key){
+	public synchronized void remove(K key){
 		checkInterval();
 		if(key == null){
 			return;
@@ -270,7 +273,7 @@ public class ExternalMap<K, V>{
 	/**
 	 * Clear the screen, clear the cache and clear the store
 	 */
-	public void clear(){
+	public synchronized void clear(){
 		printStats();
 		try{
 			screen.clear();
@@ -292,7 +295,7 @@ public class ExternalMap<K, V>{
 	/**
 	 * Close the screen, close the cache and close the store
 	 */
-	public void close(){
+	public synchronized void close(){
 		if(flushCacheOnClose){
 			printStats("PRE-FLUSH");
 			try{
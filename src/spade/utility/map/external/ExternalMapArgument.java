@@ -20,6 +20,7 @@
 package spade.utility.map.external;
 
 import spade.utility.map.external.cache.CacheArgument;
+import spade.utility.map.external.codec.CodecName;
 import spade.utility.map.external.screen.ScreenArgument;
 import spade.utility.map.external.store.StoreArgument;
 
@@ -28,6 +29,7 @@ public class ExternalMapArgument{
 	public static final String keyMapArgument = "argument",
 								keyMapReportingSeconds = "reportingSeconds",
 								keyMapFlushOnClose = "flushOnClose",
+								keyMapCodec = "codec",
 								keyScreenName = "screenName",
 								keyScreenArgument = "screenArgument",
 								keyCacheName = "cacheName",
@@ -44,15 +46,18 @@ public class ExternalMapArgument{
 	public final Long reportingIntervalMillis;
 	public final boolean flushCacheOnClose;
 	
+	public final CodecName codecName;
+	
 	protected ExternalMapArgument(String mapId, 
 			ScreenArgument screenArgument, CacheArgument cacheArgument, StoreArgument storeArgument,
-			Long reportingIntervalMillis, boolean flushCacheOnClose){
+			Long reportingIntervalMillis, boolean flushCacheOnClose, CodecName codecName){
 		this.mapId = mapId;
 		this.screenArgument = screenArgument;
 		this.cacheArgument = cacheArgument;
 		this.storeArgument = storeArgument;
 		this.reportingIntervalMillis = reportingIntervalMillis;
 		this.flushCacheOnClose = flushCacheOnClose;
+		this.codecName = codecName;
 	}
 
 	@Override
@@ -60,6 +65,7 @@ public class ExternalMapArgument{
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((cacheArgument == null) ? 0 : cacheArgument.hashCode());
+		result = prime * result + ((codecName == null) ? 0 : codecName.hashCode());
 		result = prime * result + (flushCacheOnClose ? 1231 : 1237);
 		result = prime * result + ((mapId == null) ? 0 : mapId.hashCode());
 		result = prime * result + ((reportingIntervalMillis == null) ? 0 : reportingIntervalMillis.hashCode());
@@ -82,6 +88,8 @@ public class ExternalMapArgument{
 				return false;
 		}else if(!cacheArgument.equals(other.cacheArgument))
 			return false;
+		if(codecName != other.codecName)
+			return false;
 		if(flushCacheOnClose != other.flushCacheOnClose)
 			return false;
 		if(mapId == null){
@@ -111,6 +119,6 @@ public class ExternalMapArgument{
 	public String toString(){
 		return "ExternalMapArgument [mapId=" + mapId + ", screenArgument=" + screenArgument + ", cacheArgument="
 				+ cacheArgument + ", storeArgument=" + storeArgument + ", reportingIntervalMillis="
-				+ reportingIntervalMillis + ", flushCacheOnClose=" + flushCacheOnClose + "]";
+				+ reportingIntervalMillis + ", flushCacheOnClose=" + flushCacheOnClose + ", codecName=" + codecName + "]";
 	}
 }
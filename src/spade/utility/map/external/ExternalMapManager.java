@@ -31,6 +31,8 @@ import spade.utility.Serializable2ByteArrayConverter;
 import spade.utility.map.external.cache.Cache;
 import spade.utility.map.external.cache.CacheArgument;
 import spade.utility.map.external.cache.CacheManager;
+import spade.utility.map.external.codec.CodecName;
+import spade.utility.map.external.codec.CompactConverter;
 import spade.utility.map.external.screen.Screen;
 import spade.utility.map.external.screen.ScreenArgument;
 import spade.utility.map.external.screen.ScreenManager;
@@ -72,7 +74,7 @@ public class ExternalMapManager{
 	/**
 	 * Expected key value:
 	 * 
-	 * <mapid>.argument=reportingSeconds= flushOnClose=
+	 * <mapid>.argument=reportingSeconds= flushOnClose= codec=
 	 * <mapid>.screenName=
 	 * <mapid>.screenArgument=
 	 * <mapid>.cacheName=
@@ -167,6 +169,15 @@ public class ExternalMapManager{
 					return Result.failed("Failed to parse flush on close value", flushResult);
 				}else{
 					boolean flushOnClose = flushResult.result;
+					CodecName codecName = CodecName.Java;
+					String codecString = mapArgumentMap.get(ExternalMapArgument.keyMapCodec);
+					if(codecString != null){
+						Result<CodecName> codecResult = HelperFunctions.parseEnumValue(CodecName.class, codecString, true);
+						if(codecResult.error){
+							return Result.failed("Failed to parse codec name", codecResult);
+						}
+						codecName = codecResult.result;
+					}
 					Result<ScreenArgument> screenResult = ScreenManager.parseArgument(screenNameString, screenArgumentString);
 					if(screenResult.error){
 						return Result.failed("Invalid screen argument", screenResult);
@@ -181,7 +192,7 @@ public class ExternalMapManager{
 							}else{
 								return Result.successful(new ExternalMapArgument(mapId, 
 										screenResult.result, cacheResult.result, storeResult.result,
-										reportingIntervalMillis, flushOnClose));
+										reportingIntervalMillis, flushOnClose, codecName));
 							}
 						}
 					}
@@ -210,7 +221,11 @@ public class ExternalMapManager{
 	}
 	
 	public static <K extends Serializable, V extends Serializable> Result<ExternalMap<K, V>> create(ExternalMapArgument argument){
-		return create(argument, new Serializable2ByteArrayConverter<K>(), new Serializable2ByteArrayConverter<V>());
+		if(argument != null && argument.codecName == CodecName.Compact){
+			return create(argument, new CompactConverter<K>(), new CompactConverter<V>());
+		}else{
+			return create(argument, new Serializable2ByteArrayConverter<K>(), new Serializable2ByteArrayConverter<V>());
+		}
 	}
 	
 	public static <K, V> Result<ExternalMap<K, V>> create(ExternalMapArgument argument,
@@ -229,7 +244,8 @@ public class ExternalMapManager{
 					return Result.failed("Failed to create screen", screenResult);
 				}else{
 					Screen<K> screen = screenResult.result;
-					Result<? extends Cache<K, V>> cacheResult = CacheManager.createCache(argument.cacheArgument);
+					Result<? extends Cache<K, V>> cacheResult = 
+							CacheManager.createCache(argument.cacheArgument, keyConverter, valueConverter);
 					if(cacheResult.error){
 						return Result.failed("Failed to create cache", cacheResult);
 					}else{
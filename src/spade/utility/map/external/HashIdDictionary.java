@@ -0,0 +1,157 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.map.external;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import spade.utility.Result;
+
+/**
+ * A persistent dictionary from element hashes to dense ids, backed by an external map.
+ *
+ * Ids start from 1 and are assigned in increasing order as new hashes are seen. The next id is kept in the same map
+ * under a reserved key and is written on commit. Storages assign ids while committing a batch and commit the
+ * dictionary after the batch is persisted.
+ *
+ * Only as persistent as the map's screen, cache and store. Use a screen which is saved and loaded, a store which is
+ * not deleted on close, and 'flushOnClose=true'.
+ */
+public class HashIdDictionary{
+
+	// Cannot be a hex hash
+	private static final String keyNextId = "#nextId";
+
+	private final ExternalMap<String, Long> map;
+	private long nextId;
+	private boolean uncommitted = false;
+	// Hashes assigned ids since the last commit
+	private final List<String> uncommittedHashes = new ArrayList<String>();
+
+	private HashIdDictionary(final ExternalMap<String, Long> map){
+		this.map = map;
+		final Long storedNextId = map.get(keyNextId);
+		this.nextId = (storedNextId == null || storedNextId < 1) ? 1 : storedNextId;
+	}
+
+	/**
+	 * @param mapId id of the external map arguments in the file
+	 * @param configFilePath file with the external map arguments
+	 * @return dictionary or error
+	 */
+	public static Result<HashIdDictionary> create(final String mapId, final String configFilePath){
+		final Result<ExternalMapArgument> argumentResult = ExternalMapManager.parseArgumentFromFile(mapId, configFilePath);
+		if(argumentResult.error){
+			return Result.failed("Failed to parse arguments for external map: '" + mapId + "'", argumentResult);
+		}
+		final Result<ExternalMap<String, Long>> mapResult = ExternalMapManager.create(argumentResult.result);
+		if(mapResult.error){
+			return Result.failed("Failed to create external map: '" + mapId + "'", mapResult);
+		}
+		return Result.successful(new HashIdDictionary(mapResult.result));
+	}
+
+	/**
+	 * @param hash hash of the element
+	 * @return id or null if not assigned yet
+	 */
+	public synchronized Long get(final String hash){
+		if(hash == null || keyNextId.equals(hash)){
+			return null;
+		}
+		return map.get(hash);
+	}
+
+	/**
+	 * @param hash hash of the element
+	 * @return existing id or the next id if new
+	 */
+	public synchronized long assign(final String hash){
+		if(hash == null || keyNextId.equals(hash)){
+			throw new IllegalArgumentException("Invalid hash: " + hash);
+		}
+		final Long existingId = map.get(hash);
+		if(existingId != null){
+			return existingId;
+		}
+		final long id = nextId++;
+		map.put(hash, id);
+		uncommittedHashes.add(hash);
+		uncommitted = true;
+		return id;
+	}
+
+	/**
+	 * @return id to be assigned to the next new hash
+	 */
+	public synchronized long getNextId(){
+		return nextId;
+	}
+
+	/**
+	 * Skips ids which were assigned by some other means, for example before the dictionary was in use
+	 *
+	 * @param minimumNextId the least value the next id must have
+	 */
+	public synchronized void ensureNextIdAtLeast(final long minimumNextId){
+		if(nextId < minimumNextId){
+			nextId = minimumNextId;
+			uncommitted = true;
+		}
+	}
+
+	/**
+	 * Persists the next id so that the assigned ids are not reused
+	 */
+	public synchronized void commit(){
+		if(uncommitted){
+			map.put(keyNextId, nextId);
+			uncommitted = false;
+		}
+		uncommittedHashes.clear();
+	}
+
+	/**
+	 * Forgets the ids assigned since the last commit, for example when the elements could not be stored.
+	 * The next id is not rolled back so that an id which might have been partially stored is not reused.
+	 */
+	public synchronized void rollback(){
+		for(final String hash : uncommittedHashes){
+			map.remove(hash);
+		}
+		uncommittedHashes.clear();
+	}
+
+	/**
+	 * Forgets all the assigned ids and starts from 1 again
+	 */
+	public synchronized void clear(){
+		map.clear();
+		uncommittedHashes.clear();
+		nextId = 1;
+		uncommitted = true;
+		commit();
+	}
+
+	public synchronized void close(){
+		commit();
+		map.close();
+	}
+}
@@ -21,6 +21,7 @@ package spade.utility.map.external.cache;
 
 import java.util.Map;
 
+import spade.utility.Converter;
 import spade.utility.HelperFunctions;
 import spade.utility.Result;
 import spade.utility.profile.ReportingArgument;
@@ -34,6 +35,20 @@ public abstract class CacheManager{
 	public abstract Result<CacheArgument> parseArgument(Map<String, String> arguments);
 	public abstract <K, V> Result<Cache<K, V>> createFromArgument(CacheArgument genericArgument);
 	
+	/**
+	 * Create cache with the byte array converters of the external map.
+	 * Only needed by caches which keep the entries serialized. Others ignore the converters.
+	 * 
+	 * @param genericArgument argument of the cache
+	 * @param keyConverter byte array converter for the key type
+	 * @param valueConverter byte array converter for the value type
+	 * @return Cache object or error
+	 */
+	public <K, V> Result<Cache<K, V>> createFromArgument(CacheArgument genericArgument,
+			Converter<K, byte[]> keyConverter, Converter<V, byte[]> valueConverter){
+		return createFromArgument(genericArgument);
+	}
+	
 	/**
 	 * Parse Cache arguments
 	 * 
@@ -79,6 +94,19 @@ public abstract class CacheManager{
 	 * @return Cache object or error
 	 */
 	public static <K, V> Result<? extends Cache<K, V>> createCache(CacheArgument cacheArgument){
+		return createCache(cacheArgument, null, null);
+	}
+	
+	/**
+	 * Create cache for the external map
+	 * 
+	 * @param cacheArgument argument of the cache
+	 * @param keyConverter byte array converter for the key type
+	 * @param valueConverter byte array converter for the value type
+	 * @return Cache object or error
+	 */
+	public static <K, V> Result<? extends Cache<K, V>> createCache(CacheArgument cacheArgument,
+			Converter<K, byte[]> keyConverter, Converter<V, byte[]> valueConverter){
 		if(cacheArgument == null){
 			return Result.failed("NULL cache argument");
 		}else{
@@ -90,7 +118,7 @@ public abstract class CacheManager{
 				if(cacheManager == null){
 					return Result.failed("Unhandled cache name: " + cacheName);
 				}else{
-					Result<Cache<K, V>> cacheResult = cacheManager.createFromArgument(cacheArgument);
+					Result<Cache<K, V>> cacheResult = cacheManager.createFromArgument(cacheArgument, keyConverter, valueConverter);
 					if(cacheResult.error){
 						return cacheResult;
 					}else{
@@ -0,0 +1,424 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2019 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.map.external.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import spade.utility.Converter;
+
+/**
+ * Cache which keeps the serialized entries outside of the Java heap.
+ * 
+ * Memory is allocated in slabs of direct byte buffers which are divided into blocks of fixed size. An entry is written
+ * to a chain of blocks and freed blocks are reused through a free list kept inside the blocks. The index is an
+ * open-addressing (linear probing) table of the first block and hash of each entry. Eviction is CLOCK i.e. an entry
+ * accessed since the last sweep of the hand gets a second chance.
+ * 
+ * Size is in bytes of the blocks in use. Keys are compared by their serialized bytes.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class OffHeapCache<K, V> implements Cache<K, V>{
+
+	private static final int noBlock = -1;
+	private static final int maximumSlabSize = 16 * 1024 * 1024;
+	private static final int initialIndexCapacity = 1024;
+	
+	// Every block: [next block id]. First block of an entry: [next block id][key length][value length]
+	private static final int offsetNext = 0, offsetKeyLength = 4, offsetValueLength = 8;
+	private static final int blockHeaderSize = 4, entryHeaderSize = 8;
+	
+	private final long maximumSizeInBytes;
+	private final int blockSize;
+	private final int blockDataSize;
+	private final int blocksPerSlab;
+	
+	private final Converter<K, byte[]> keyConverter;
+	private final Converter<V, byte[]> valueConverter;
+	
+	private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+	private int freeBlocksHead = noBlock;
+	private int nextUnusedBlock = 0;
+	private long usedBlocks = 0;
+	
+	private int[] indexFirstBlocks;
+	private int[] indexHashes;
+	private boolean[] indexReferenced;
+	private int indexMask;
+	private int currentSize = 0;
+	private int clockHand = 0;
+	
+	public OffHeapCache(long maximumSizeInBytes, int blockSize,
+			Converter<K, byte[]> keyConverter, Converter<V, byte[]> valueConverter){
+		this.maximumSizeInBytes = maximumSizeInBytes;
+		this.blockSize = blockSize;
+		this.blockDataSize = blockSize - blockHeaderSize;
+		final long slabSize = Math.min(maximumSlabSize, maximumSizeInBytes);
+		this.blocksPerSlab = (int)Math.max(1, slabSize / blockSize);
+		this.keyConverter = keyConverter;
+		this.valueConverter = valueConverter;
+		createIndex(initialIndexCapacity);
+	}
+	
+	private void createIndex(int capacity){
+		indexFirstBlocks = new int[capacity];
+		Arrays.fill(indexFirstBlocks, noBlock);
+		indexHashes = new int[capacity];
+		indexReferenced = new boolean[capacity];
+		indexMask = capacity - 1;
+		clockHand = 0;
+	}
+	
+	private static int hash(byte[] bytes){
+		int h = Arrays.hashCode(bytes);
+		// Spread the bits because the index uses the low bits only
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h;
+	}
+	
+	private byte[] serializeKey(K key){
+		try{
+			return keyConverter.serialize(key);
+		}catch(Exception e){
+			throw new RuntimeException("Failed to serialize key: " + key, e);
+		}
+	}
+	
+	private ByteBuffer slab(int block){
+		return slabs.get(block / blocksPerSlab);
+	}
+	
+	private int offset(int block){
+		return (block % blocksPerSlab) * blockSize;
+	}
+	
+	private int nextBlock(int block){
+		return slab(block).getInt(offset(block) + offsetNext);
+	}
+	
+	private int allocateBlock(){
+		int block;
+		if(freeBlocksHead != noBlock){
+			block = freeBlocksHead;
+			freeBlocksHead = nextBlock(block);
+		}else{
+			if(nextUnusedBlock == slabs.size() * blocksPerSlab){
+				slabs.add(ByteBuffer.allocateDirect(blocksPerSlab * blockSize));
+			}
+			block = nextUnusedBlock++;
+		}
+		usedBlocks++;
+		return block;
+	}
+	
+	private void freeBlocks(int firstBlock){
+		int block = firstBlock;
+		while(block != noBlock){
+			final int next = nextBlock(block);
+			slab(block).putInt(offset(block) + offsetNext, freeBlocksHead);
+			freeBlocksHead = block;
+			usedBlocks--;
+			block = next;
+		}
+	}
+	
+	/**
+	 * Writes the payload (entry header, key bytes and value bytes) to a new chain of blocks
+	 * 
+	 * @return first block of the chain
+	 */
+	private int writeEntry(byte[] keyBytes, byte[] valueBytes){
+		final int payloadSize = entryHeaderSize + keyBytes.length + valueBytes.length;
+		int firstBlock = noBlock, previousBlock = noBlock;
+		int payloadPosition = 0;
+		while(payloadPosition < payloadSize){
+			final int block = allocateBlock();
+			final ByteBuffer slab = slab(block);
+			final int offset = offset(block);
+			slab.putInt(offset + offsetNext, noBlock);
+			if(previousBlock == noBlock){
+				firstBlock = block;
+			}else{
+				slab(previousBlock).putInt(offset(previousBlock) + offsetNext, block);
+			}
+			final int blockEnd = payloadPosition + blockDataSize;
+			while(payloadPosition < payloadSize && payloadPosition < blockEnd){
+				final int blockPosition = offset + blockHeaderSize + (payloadPosition - (blockEnd - blockDataSize));
+				if(payloadPosition < entryHeaderSize){
+					// Header always fits in the first block because blocks are at least 16 bytes
+					slab.putInt(offset + offsetKeyLength, keyBytes.length);
+					slab.putInt(offset + offsetValueLength, valueBytes.length);
+					payloadPosition = entryHeaderSize;
+				}else if(payloadPosition < entryHeaderSize + keyBytes.length){
+					final int from = payloadPosition - entryHeaderSize;
+					final int length = Math.min(keyBytes.length - from, blockEnd - payloadPosition);
+					slab.position(blockPosition);
+					slab.put(keyBytes, from, length);
+					payloadPosition += length;
+				}else{
+					final int from = payloadPosition - entryHeaderSize - keyBytes.length;
+					final int length = Math.min(valueBytes.length - from, blockEnd - payloadPosition);
+					slab.position(blockPosition);
+					slab.put(valueBytes, from, length);
+					payloadPosition += length;
+				}
+			}
+			previousBlock = block;
+		}
+		return firstBlock;
+	}
+	
+	/**
+	 * Reads the given range of the payload (entry header, key bytes and value bytes) in the chain of blocks
+	 */
+	private byte[] readPayload(int firstBlock, int payloadPosition, int length){
+		final byte[] bytes = new byte[length];
+		if(length == 0){
+			return bytes;
+		}
+		int block = firstBlock;
+		int blockStart = 0;
+		while(blockStart + blockDataSize <= payloadPosition){
+			block = nextBlock(block);
+			blockStart += blockDataSize;
+		}
+		int read = 0;
+		while(read < length){
+			final int from = payloadPosition + read - blockStart;
+			final int toRead = Math.min(length - read, blockDataSize - from);
+			final ByteBuffer slab = slab(block);
+			slab.position(offset(block) + blockHeaderSize + from);
+			slab.get(bytes, read, toRead);
+			read += toRead;
+			block = nextBlock(block);
+			blockStart += blockDataSize;
+		}
+		return bytes;
+	}
+	
+	private int keyLength(int firstBlock){
+		return slab(firstBlock).getInt(offset(firstBlock) + offsetKeyLength);
+	}
+	
+	private int valueLength(int firstBlock){
+		return slab(firstBlock).getInt(offset(firstBlock) + offsetValueLength);
+	}
+	
+	private byte[] readKey(int firstBlock){
+		return readPayload(firstBlock, entryHeaderSize, keyLength(firstBlock));
+	}
+	
+	private V readValue(int firstBlock){
+		final byte[] valueBytes = readPayload(firstBlock, entryHeaderSize + keyLength(firstBlock), valueLength(firstBlock));
+		try{
+			return valueConverter.deserialize(valueBytes);
+		}catch(Exception e){
+			throw new RuntimeException("Failed to deserialize value", e);
+		}
+	}
+	
+	/**
+	 * @return index slot of the key if found otherwise (-(empty slot to insert at) - 1)
+	 */
+	private int findSlot(byte[] keyBytes, int hash){
+		int slot = hash & indexMask;
+		while(true){
+			final int firstBlock = indexFirstBlocks[slot];
+			if(firstBlock == noBlock){
+				return -slot - 1;
+			}
+			if(indexHashes[slot] == hash && keyLength(firstBlock) == keyBytes.length
+					&& Arrays.equals(readKey(firstBlock), keyBytes)){
+				return slot;
+			}
+			slot = (slot + 1) & indexMask;
+		}
+	}
+	
+	private void growIndex(){
+		final int[] oldFirstBlocks = indexFirstBlocks;
+		final int[] oldHashes = indexHashes;
+		final boolean[] oldReferenced = indexReferenced;
+		createIndex(oldFirstBlocks.length * 2);
+		for(int i = 0; i < oldFirstBlocks.length; i++){
+			if(oldFirstBlocks[i] != noBlock){
+				int slot = oldHashes[i] & indexMask;
+				while(indexFirstBlocks[slot] != noBlock){
+					slot = (slot + 1) & indexMask;
+				}
+				indexFirstBlocks[slot] = oldFirstBlocks[i];
+				indexHashes[slot] = oldHashes[i];
+				indexReferenced[slot] = oldReferenced[i];
+			}
+		}
+	}
+	
+	/**
+	 * Frees the entry and shifts back the following entries of the probe sequence to fill the hole
+	 */
+	private void removeSlot(int slot){
+		freeBlocks(indexFirstBlocks[slot]);
+		currentSize--;
+		int hole = slot;
+		int next = (slot + 1) & indexMask;
+		while(indexFirstBlocks[next] != noBlock){
+			final int home = indexHashes[next] & indexMask;
+			if(((next - home) & indexMask) >= ((next - hole) & indexMask)){
+				indexFirstBlocks[hole] = indexFirstBlocks[next];
+				indexHashes[hole] = indexHashes[next];
+				indexReferenced[hole] = indexReferenced[next];
+				hole = next;
+			}
+			next = (next + 1) & indexMask;
+		}
+		indexFirstBlocks[hole] = noBlock;
+		indexReferenced[hole] = false;
+	}
+	
+	@Override
+	public void put(K key, V value){
+		final byte[] keyBytes = serializeKey(key);
+		final byte[] valueBytes;
+		try{
+			valueBytes = valueConverter.serialize(value);
+		}catch(Exception e){
+			throw new RuntimeException("Failed to serialize value for key: " + key, e);
+		}
+		final int hash = hash(keyBytes);
+		int slot = findSlot(keyBytes, hash);
+		if(slot >= 0){
+			freeBlocks(indexFirstBlocks[slot]);
+		}else{
+			if((currentSize + 1) * 2 > indexFirstBlocks.length){
+				growIndex();
+				slot = findSlot(keyBytes, hash);
+			}
+			slot = -slot - 1;
+			indexHashes[slot] = hash;
+			currentSize++;
+		}
+		indexFirstBlocks[slot] = writeEntry(keyBytes, valueBytes);
+		indexReferenced[slot] = true;
+	}
+
+	@Override
+	public V get(K key){
+		final byte[] keyBytes = serializeKey(key);
+		final int slot = findSlot(keyBytes, hash(keyBytes));
+		if(slot < 0){
+			return null;
+		}else{
+			indexReferenced[slot] = true;
+			return readValue(indexFirstBlocks[slot]);
+		}
+	}
+
+	@Override
+	public boolean contains(K key){
+		final byte[] keyBytes = serializeKey(key);
+		return findSlot(keyBytes, hash(keyBytes)) >= 0;
+	}
+
+	@Override
+	public V remove(K key){
+		final byte[] keyBytes = serializeKey(key);
+		final int slot = findSlot(keyBytes, hash(keyBytes));
+		if(slot < 0){
+			return null;
+		}else{
+			final V value = readValue(indexFirstBlocks[slot]);
+			removeSlot(slot);
+			return value;
+		}
+	}
+
+	@Override
+	public CacheEntry<K, V> evict(){
+		if(currentSize == 0){
+			return null;
+		}
+		// Terminates within two sweeps because the first sweep clears all the referenced flags
+		while(true){
+			final int firstBlock = indexFirstBlocks[clockHand];
+			if(firstBlock != noBlock){
+				if(indexReferenced[clockHand]){
+					indexReferenced[clockHand] = false;
+				}else{
+					final K key;
+					try{
+						key = keyConverter.deserialize(readKey(firstBlock));
+					}catch(Exception e){
+						throw new RuntimeException("Failed to deserialize key", e);
+					}
+					final V value = readValue(firstBlock);
+					// The hand stays because an entry from ahead might be shifted back into this slot
+					removeSlot(clockHand);
+					return new CacheEntry<K, V>(key, value);
+				}
+			}
+			clockHand = (clockHand + 1) & indexMask;
+		}
+	}
+
+	@Override
+	public int getCurrentSize(){
+		return currentSize;
+	}
+
+	/**
+	 * Maximum number of the smallest possible entries i.e. of one block each
+	 */
+	@Override
+	public int getMaximumSize(){
+		return (int)Math.min(Integer.MAX_VALUE, maximumSizeInBytes / blockSize);
+	}
+
+	/**
+	 * @return true if the bytes of the blocks in use are more than the maximum size in bytes
+	 */
+	@Override
+	public boolean hasExceededMaximumSize(){
+		return usedBlocks * blockSize > maximumSizeInBytes;
+	}
+
+	/**
+	 * Releases the slabs too
+	 */
+	@Override
+	public void clear(){
+		slabs.clear();
+		freeBlocksHead = noBlock;
+		nextUnusedBlock = 0;
+		usedBlocks = 0;
+		currentSize = 0;
+		createIndex(initialIndexCapacity);
+	}
+
+	@Override
+	public void close(){
+		clear();
+	}
+}
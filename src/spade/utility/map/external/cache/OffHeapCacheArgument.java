@@ -0,0 +1,67 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2019 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.map.external.cache;
+
+public class OffHeapCacheArgument extends CacheArgument{
+	
+	public final static String keySizeInBytes = "sizeInBytes",
+			keyBlockSize = "blockSize";
+	
+	public final static int defaultBlockSize = 64;
+	
+	public final long sizeInBytes;
+	public final int blockSize;
+	
+	protected OffHeapCacheArgument(long sizeInBytes, int blockSize){
+		super(CacheName.OffHeap);
+		this.sizeInBytes = sizeInBytes;
+		this.blockSize = blockSize;
+	}
+
+	@Override
+	public int hashCode(){
+		final int prime = 31;
+		int result = super.hashCode();
+		result = prime * result + blockSize;
+		result = prime * result + (int)(sizeInBytes ^ (sizeInBytes >>> 32));
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj){
+		if(this == obj)
+			return true;
+		if(!super.equals(obj))
+			return false;
+		if(getClass() != obj.getClass())
+			return false;
+		OffHeapCacheArgument other = (OffHeapCacheArgument)obj;
+		if(blockSize != other.blockSize)
+			return false;
+		if(sizeInBytes != other.sizeInBytes)
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString(){
+		return "OffHeapCacheArgument [sizeInBytes=" + sizeInBytes + ", blockSize=" + blockSize + ", name=" + name + "]";
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.map.external.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Hand-written binary encoding of a type for the compact converter.
+ * 
+ * Registered with a tag in CompactCodecs. The encoding and the tag are persisted with the value and must not change
+ * for a store which is reopened.
+ *
+ * @param <T> type encoded
+ */
+public interface Codec<T>{
+
+	public void write(DataOutput out, T value) throws IOException;
+	public T read(DataInput in) throws IOException;
+	
+	/**
+	 * Whether the value can be written by this codec. Java serialization is used if not.
+	 * 
+	 * @param value value to write
+	 * @return true/false
+	 */
+	public default boolean canWrite(T value){
+		return true;
+	}
+}
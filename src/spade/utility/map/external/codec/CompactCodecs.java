@@ -0,0 +1,281 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.map.external.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the codecs used by the compact converter, and helper functions for writing codecs.
+ * 
+ * Tags are one byte. Tag '0' is reserved for Java serialization.
+ * Reserved ranges: [1-15] common types in this class, [16-47] audit artifacts, [48-63] audit processes.
+ */
+public class CompactCodecs{
+
+	public static final int tagJavaSerialization = 0,
+			tagString = 1,
+			tagLong = 2,
+			tagInteger = 3,
+			tagStringHashMap = 4;
+	
+	private static final int maximumTag = 255;
+	
+	private static final Map<Integer, Codec<?>> codecsByTag = new ConcurrentHashMap<Integer, Codec<?>>();
+	private static final Map<Class<?>, Integer> tagsByClass = new ConcurrentHashMap<Class<?>, Integer>();
+	
+	static{
+		register(tagString, String.class, new Codec<String>(){
+			@Override
+			public void write(DataOutput out, String value) throws IOException{
+				writeString(out, value);
+			}
+			@Override
+			public String read(DataInput in) throws IOException{
+				return readString(in);
+			}
+		});
+		register(tagLong, Long.class, new Codec<Long>(){
+			@Override
+			public void write(DataOutput out, Long value) throws IOException{
+				out.writeLong(value);
+			}
+			@Override
+			public Long read(DataInput in) throws IOException{
+				return in.readLong();
+			}
+		});
+		register(tagInteger, Integer.class, new Codec<Integer>(){
+			@Override
+			public void write(DataOutput out, Integer value) throws IOException{
+				out.writeInt(value);
+			}
+			@Override
+			public Integer read(DataInput in) throws IOException{
+				return in.readInt();
+			}
+		});
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		final Class<HashMap<Object, Object>> hashMapClass = (Class)HashMap.class;
+		register(tagStringHashMap, hashMapClass, new Codec<HashMap<Object, Object>>(){
+			@Override
+			public boolean canWrite(HashMap<Object, Object> value){
+				for(Map.Entry<Object, Object> entry : value.entrySet()){
+					if(!isNullOrString(entry.getKey()) || !isNullOrString(entry.getValue())){
+						return false;
+					}
+				}
+				return true;
+			}
+			private boolean isNullOrString(Object object){
+				return object == null || object.getClass().equals(String.class);
+			}
+			@Override
+			public void write(DataOutput out, HashMap<Object, Object> value) throws IOException{
+				writeVarInt(out, value.size());
+				for(Map.Entry<Object, Object> entry : value.entrySet()){
+					writeString(out, (String)entry.getKey());
+					writeString(out, (String)entry.getValue());
+				}
+			}
+			@Override
+			public HashMap<Object, Object> read(DataInput in) throws IOException{
+				final int size = readVarInt(in);
+				final HashMap<Object, Object> value = new HashMap<Object, Object>((int)(size / 0.75f) + 1);
+				for(int i = 0; i < size; i++){
+					final String key = readString(in);
+					value.put(key, readString(in));
+				}
+				return value;
+			}
+		});
+	}
+	
+	/**
+	 * Registers the codec for the exact class (not subclasses).
+	 * Registering the same class with the same tag again is ignored.
+	 * 
+	 * @param tag unique tag in the range [1-255]
+	 * @param type class of the values
+	 * @param codec codec for the values
+	 * @throws IllegalArgumentException if the tag is out of range or already taken by another class
+	 */
+	public static synchronized <T> void register(int tag, Class<T> type, Codec<T> codec){
+		if(tag <= tagJavaSerialization || tag > maximumTag){
+			throw new IllegalArgumentException("Codec tag must be in the range [1-"+maximumTag+"]: " + tag);
+		}
+		if(type == null || codec == null){
+			throw new IllegalArgumentException("NULL codec class or codec for tag: " + tag);
+		}
+		final Integer existingTag = tagsByClass.get(type);
+		if(existingTag != null){
+			if(existingTag.intValue() == tag){
+				return;
+			}
+			throw new IllegalArgumentException("Codec for class '"+type+"' already registered with tag: " + existingTag);
+		}
+		if(codecsByTag.containsKey(tag)){
+			throw new IllegalArgumentException("Codec tag already registered for another class: " + tag);
+		}
+		codecsByTag.put(tag, codec);
+		tagsByClass.put(type, tag);
+	}
+	
+	/**
+	 * @param type class of the value
+	 * @return tag or null if no codec registered for the exact class
+	 */
+	static Integer getTag(Class<?> type){
+		return tagsByClass.get(type);
+	}
+	
+	/**
+	 * @param tag tag of the codec
+	 * @return codec or null if none registered with the tag
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> Codec<T> getCodec(int tag){
+		return (Codec<T>)codecsByTag.get(tag);
+	}
+	
+	/**
+	 * Writes a non-negative int in 1 to 5 bytes. 7 bits per byte and the high bit set if more bytes follow.
+	 */
+	public static void writeVarInt(DataOutput out, int value) throws IOException{
+		while((value & ~0x7F) != 0){
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+	
+	public static int readVarInt(DataInput in) throws IOException{
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7){
+			final int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0){
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable length int");
+	}
+	
+	/**
+	 * Writes the UTF-8 length plus one (zero for null) followed by the UTF-8 bytes.
+	 * Unlike DataOutput.writeUTF there is no limit on the length.
+	 */
+	public static void writeString(DataOutput out, String value) throws IOException{
+		if(value == null){
+			writeVarInt(out, 0);
+		}else{
+			final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(out, bytes.length + 1);
+			out.write(bytes);
+		}
+	}
+	
+	public static String readString(DataInput in) throws IOException{
+		final int length = readVarInt(in) - 1;
+		if(length < 0){
+			return null;
+		}else{
+			final byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+	
+	/**
+	 * Writes null as zero, false as one and true as two in one byte.
+	 */
+	public static void writeNullableBoolean(DataOutput out, Boolean value) throws IOException{
+		out.writeByte(value == null ? 0 : (value ? 2 : 1));
+	}
+	
+	public static Boolean readNullableBoolean(DataInput in) throws IOException{
+		final int value = in.readUnsignedByte();
+		switch(value){
+			case 0: return null;
+			case 1: return false;
+			case 2: return true;
+			default: throw new IOException("Malformed nullable boolean: " + value);
+		}
+	}
+	
+	/**
+	 * Writes the tag and the value in the same way as the compact converter. Java serialization (and null) is
+	 * prefixed with the length so that the value can be followed by other values in the same stream.
+	 */
+	public static void writeObject(DataOutput out, Serializable value) throws IOException{
+		final Integer tag = value == null ? null : getTag(value.getClass());
+		final Codec<Serializable> codec = tag == null ? null : getCodec(tag);
+		if(codec != null && codec.canWrite(value)){
+			out.writeByte(tag);
+			codec.write(out, value);
+		}else{
+			out.writeByte(tagJavaSerialization);
+			if(value == null){
+				writeVarInt(out, 0);
+			}else{
+				final ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
+				final ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteOutputStream);
+				objectOutputStream.writeObject(value);
+				objectOutputStream.flush();
+				writeVarInt(out, byteOutputStream.size());
+				out.write(byteOutputStream.toByteArray());
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static <T> T readObject(DataInput in) throws IOException{
+		final int tag = in.readUnsignedByte();
+		if(tag == tagJavaSerialization){
+			final int length = readVarInt(in);
+			if(length == 0){
+				return null;
+			}
+			final byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			try(final ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes))){
+				return (T)objectInputStream.readObject();
+			}catch(ClassNotFoundException e){
+				throw new IOException("Failed to deserialize value", e);
+			}
+		}else{
+			final Codec<T> codec = getCodec(tag);
+			if(codec == null){
+				throw new IOException("No codec registered for tag: " + tag);
+			}
+			return codec.read(in);
+		}
+	}
+}
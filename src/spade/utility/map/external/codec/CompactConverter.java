@@ -0,0 +1,107 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.map.external.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import spade.utility.Converter;
+
+/**
+ * Converter which writes a one byte tag followed by the encoding of the codec registered for the class of the object.
+ * Objects without a registered codec are written with Java serialization after the tag '0'.
+ *
+ * @param <X> type of the object
+ */
+public class CompactConverter<X extends Serializable> implements Converter<X, byte[]>{
+
+	private static final int initialBufferSize = 64;
+	
+	@Override
+	public byte[] serialize(X i) throws Exception{
+		if(i == null){
+			return null;
+		}else{
+			final ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream(initialBufferSize);
+			final Integer tag = CompactCodecs.getTag(i.getClass());
+			final Codec<X> codec = tag == null ? null : CompactCodecs.getCodec(tag);
+			if(codec != null && codec.canWrite(i)){
+				final DataOutputStream dataOutputStream = new DataOutputStream(byteOutputStream);
+				dataOutputStream.writeByte(tag);
+				codec.write(dataOutputStream, i);
+				dataOutputStream.flush();
+			}else{
+				byteOutputStream.write(CompactCodecs.tagJavaSerialization);
+				final ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteOutputStream);
+				objectOutputStream.writeObject(i);
+				objectOutputStream.flush();
+			}
+			return byteOutputStream.toByteArray();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public X deserialize(byte[] j) throws Exception{
+		if(j == null){
+			return null;
+		}else if(j.length == 0){
+			throw new Exception("Empty bytes for compact converter");
+		}else{
+			final int tag = j[0] & 0xFF;
+			final ByteArrayInputStream byteInputStream = new ByteArrayInputStream(j, 1, j.length - 1);
+			if(tag == CompactCodecs.tagJavaSerialization){
+				final ObjectInputStream objectInputStream = new ObjectInputStream(byteInputStream);
+				return (X)objectInputStream.readObject();
+			}else{
+				final Codec<X> codec = CompactCodecs.getCodec(tag);
+				if(codec == null){
+					throw new Exception("No codec registered for tag: " + tag);
+				}
+				return codec.read(new DataInputStream(byteInputStream));
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public byte[] serializeObject(Object o) throws Exception{
+		if(o == null){
+			return null;
+		}else{
+			return serialize((X)o);
+		}
+	}
+
+	@Override
+	public X deserializeObject(Object o) throws Exception{
+		if(o == null){
+			return null;
+		}else{
+			return deserialize((byte[])o);
+		}
+	}
+
+}
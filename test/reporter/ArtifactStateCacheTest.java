@@ -0,0 +1,199 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package reporter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.core.Buffer;
+import spade.reporter.Audit;
+import spade.reporter.audit.ArtifactConfiguration;
+import spade.reporter.audit.OPMConstants;
+import spade.reporter.audit.artifact.ArtifactManager;
+import spade.reporter.audit.artifact.FileIdentifier;
+import spade.utility.Result;
+import spade.utility.map.external.ExternalMapArgument;
+import spade.utility.map.external.ExternalMapManager;
+
+/**
+ * Changes the state of artifacts through ArtifactManager and reads it back, with the LRU cache and with the off-heap
+ * cache (once large enough for all the artifacts and once small enough for most of them to be evicted to the store).
+ * Exits with a non-zero status if the epochs, versions, and permissions read back are not the expected ones.
+ *
+ * Usage: java reporter.ArtifactStateCacheTest [artifacts]
+ *
+ * The off-heap cache returns a copy of the state on each get so every change must be put back in the map.
+ */
+public class ArtifactStateCacheTest{
+
+	private static final String mapId = "AuditArtifactsMap";
+
+	public static void main(String[] args) throws Exception{
+		final int artifacts = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+
+		final List<String> expected = new ArrayList<String>();
+		for(int i = 0; i < artifacts; i++){
+			expected.add(describe(0, 0, null));
+			expected.add(describe(0, 1, null));
+			expected.add(describe(0, 1, "0644"));
+			expected.add(describe(1, 0, null));
+			expected.add(describe(1, 1, null));
+		}
+
+		boolean failed = false;
+		final String[][] caches = {
+				{"LRU", "size=100000"},
+				{"OffHeap", "sizeInBytes=67108864"},
+				{"OffHeap", "sizeInBytes=4096 blockSize=64"}
+		};
+		for(final String[] cache : caches){
+			final List<String> actual = run(artifacts, cache[0], cache[1]);
+			final String name = cache[0] + "(" + cache[1] + ")";
+			if(actual.equals(expected)){
+				System.out.println(name + ": OK");
+			}else{
+				failed = true;
+				for(int i = 0; i < expected.size(); i++){
+					if(i >= actual.size() || !expected.get(i).equals(actual.get(i))){
+						System.out.println(name + ": MISMATCH at " + i + ". Expected " + expected.get(i)
+								+ " but read " + (i >= actual.size() ? null : actual.get(i)));
+						break;
+					}
+				}
+			}
+		}
+		if(failed){
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return epoch, version and permissions of each artifact put
+	 */
+	private static List<String> run(final int artifacts, final String cacheName, final String cacheArgument)
+			throws Exception{
+		final File storeDir = Files.createTempDirectory("artifactstatecachetest").toFile();
+		ArtifactManager artifactManager = null;
+		try{
+			final Map<String, String> mapArguments = new HashMap<String, String>();
+			mapArguments.put(mapId + "." + ExternalMapArgument.keyMapArgument, "reportingSeconds=3600 flushOnClose=false codec=Compact");
+			mapArguments.put(mapId + "." + ExternalMapArgument.keyScreenName, "BloomFilter");
+			mapArguments.put(mapId + "." + ExternalMapArgument.keyScreenArgument, "expectedElements=100000 falsePositiveProbability=0.000001");
+			mapArguments.put(mapId + "." + ExternalMapArgument.keyCacheName, cacheName);
+			mapArguments.put(mapId + "." + ExternalMapArgument.keyCacheArgument, cacheArgument);
+			mapArguments.put(mapId + "." + ExternalMapArgument.keyStoreName, "BerkeleyDB");
+			mapArguments.put(mapId + "." + ExternalMapArgument.keyStoreArgument,
+					"environmentPath=" + storeDir.getAbsolutePath() + " dbName=ArtifactStateCacheTestDb deleteOnClose=true");
+			final Result<ExternalMapArgument> mapArgumentResult = ExternalMapManager.parseArgumentFromMap(mapId, mapArguments);
+			if(mapArgumentResult.error){
+				throw new Exception(mapArgumentResult.toErrorString());
+			}
+
+			// The edges drawn between the versions are not needed
+			final Audit reporter = new Audit(){
+				@Override
+				public void putEdge(AbstractEdge edge, String operation, String time, String eventId, String source){}
+			};
+			reporter.setBuffer(new Buffer(){
+				@Override
+				public boolean putVertex(final AbstractVertex vertex){
+					return true;
+				}
+			});
+			artifactManager = new ArtifactManager(reporter, artifactConfiguration(), mapArgumentResult.result);
+
+			final List<String> read = new ArrayList<String>();
+			for(int i = 0; i < artifacts; i++){
+				read.add(put(artifactManager, i));
+			}
+			for(int i = 0; i < artifacts; i++){
+				artifactManager.artifactVersioned(identifier(i));
+				read.add(put(artifactManager, i));
+			}
+			for(int i = 0; i < artifacts; i++){
+				artifactManager.artifactPermissioned(identifier(i), "0644");
+				read.add(put(artifactManager, i));
+			}
+			for(int i = 0; i < artifacts; i++){
+				artifactManager.artifactCreated(identifier(i));
+				read.add(put(artifactManager, i));
+			}
+			for(int i = 0; i < artifacts; i++){
+				artifactManager.artifactVersioned(identifier(i));
+				read.add(put(artifactManager, i));
+			}
+
+			// Same order as the expected list i.e. all the reads of an artifact together
+			final List<String> ordered = new ArrayList<String>();
+			for(int i = 0; i < artifacts; i++){
+				for(int j = i; j < read.size(); j += artifacts){
+					ordered.add(read.get(j));
+				}
+			}
+			return ordered;
+		}finally{
+			if(artifactManager != null){
+				artifactManager.doCleanUp();
+			}
+			FileUtils.deleteQuietly(storeDir);
+		}
+	}
+
+	private static String put(final ArtifactManager artifactManager, final int i){
+		final AbstractVertex artifact = artifactManager.putArtifact("0", "0", "test", "1",
+				OPMConstants.SOURCE_AUDIT_SYSCALL, identifier(i));
+		return describe(artifact.getAnnotation(OPMConstants.ARTIFACT_EPOCH),
+				artifact.getAnnotation(OPMConstants.ARTIFACT_VERSION),
+				artifact.getAnnotation(OPMConstants.ARTIFACT_PERMISSIONS));
+	}
+
+	private static FileIdentifier identifier(final int i){
+		return new FileIdentifier("/tmp/file" + i, "/", String.valueOf(i));
+	}
+
+	private static String describe(final Object epoch, final Object version, final Object permissions){
+		return "epoch=" + epoch + ", version=" + version + ", permissions=" + permissions;
+	}
+
+	private static ArtifactConfiguration artifactConfiguration() throws Exception{
+		final Map<String, String> map = new HashMap<String, String>();
+		for(final String key : new String[]{
+				ArtifactConfiguration.unixSocketsKey, ArtifactConfiguration.versionNetworkSocketsKey,
+				ArtifactConfiguration.versionFilesKey, ArtifactConfiguration.versionMemorysKey,
+				ArtifactConfiguration.versionNamedPipesKey, ArtifactConfiguration.versionUnnamedPipesKey,
+				ArtifactConfiguration.versionUnknownsKey, ArtifactConfiguration.versionUnixSocketsKey,
+				ArtifactConfiguration.versionUnnamedUnixSocketPairsKey,
+				ArtifactConfiguration.versionUnnamedNetworkSocketPairsKey,
+				ArtifactConfiguration.versionSysVMessageQueueKey, ArtifactConfiguration.versionSysVSharedMemoryKey,
+				ArtifactConfiguration.versionPosixMessageQueueKey, ArtifactConfiguration.versionsKey,
+				ArtifactConfiguration.epochsKey, ArtifactConfiguration.permissionsKey}){
+			map.put(key, "true");
+		}
+		return ArtifactConfiguration.instance(map);
+	}
+}
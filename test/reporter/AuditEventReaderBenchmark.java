@@ -0,0 +1,119 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package reporter;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Map;
+
+import spade.reporter.audit.AuditEventPipeline;
+import spade.reporter.audit.AuditEventReader;
+import spade.reporter.audit.MalformedAuditDataException;
+
+/**
+ * Replays a captured audit log through AuditEventReader.readEventData and reports the throughput.
+ * 
+ * Usage: java reporter.AuditEventReaderBenchmark <audit log path> [warmup iterations] [measured iterations]
+ * 	[parser threads]
+ * 
+ * If parser threads is greater than 0 then the events are read through AuditEventPipeline.
+ * 
+ * The log must be in the format read by the Audit reporter i.e. the output of spadeAuditBridge or the 'outputLog'.
+ * Run with '-verbose:gc' or a profiler attached to see the allocation rate.
+ */
+public class AuditEventReaderBenchmark{
+
+	public static void main(String[] args) throws Exception{
+		if(args.length < 1){
+			System.err.println("Usage: java reporter.AuditEventReaderBenchmark <audit log path> "
+					+ "[warmup iterations (default 3)] [measured iterations (default 5)] [parser threads (default 0)]");
+			System.exit(1);
+		}
+		final String logPath = args[0];
+		final int warmupIterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		final int measuredIterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		final int parserThreads = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+		for(int i = 0; i < warmupIterations; i++){
+			final long[] result = replay(logPath, parserThreads);
+			System.out.println("Warmup " + (i + 1) + ": " + format(result));
+		}
+
+		long totalEvents = 0, totalNanos = 0;
+		for(int i = 0; i < measuredIterations; i++){
+			final long[] result = replay(logPath, parserThreads);
+			totalEvents += result[0];
+			totalNanos += result[2];
+			System.out.println("Iteration " + (i + 1) + ": " + format(result));
+		}
+
+		if(measuredIterations > 0 && totalNanos > 0){
+			System.out.println(String.format("Average: %.1f events/s, %.1f ns/event", 
+					(totalEvents * 1e9) / totalNanos, ((double)totalNanos) / Math.max(1, totalEvents)));
+		}
+	}
+
+	/**
+	 * @return [events read, malformed events, elapsed nanos]
+	 */
+	private static long[] replay(final String logPath, final int parserThreads) throws Exception{
+		long events = 0, malformed = 0;
+		final long startNanos;
+		try(final InputStream stream = new BufferedInputStream(new FileInputStream(logPath))){
+			final AuditEventReader reader = new AuditEventReader(logPath, stream);
+			final AuditEventPipeline pipeline = parserThreads > 0 
+					? new AuditEventPipeline(reader, parserThreads, parserThreads * 1024) : null;
+			startNanos = System.nanoTime();
+			if(pipeline != null){
+				pipeline.start();
+			}
+			while(true){
+				final Map<String, String> eventData;
+				try{
+					eventData = pipeline != null ? pipeline.readEventData() : reader.readEventData();
+				}catch(MalformedAuditDataException made){
+					malformed++;
+					continue;
+				}
+				if(eventData == null){
+					break;
+				}
+				events++;
+				if(pipeline != null){
+					pipeline.recycleEventData(eventData);
+				}else{
+					reader.recycleEventData(eventData);
+				}
+			}
+			if(pipeline != null){
+				pipeline.close();
+			}else{
+				reader.close();
+			}
+		}
+		return new long[]{events, malformed, System.nanoTime() - startNanos};
+	}
+
+	private static String format(final long[] result){
+		return String.format("%d events (%d malformed) in %.1f ms, %.1f events/s", 
+				result[0], result[1], result[2] / 1e6, (result[0] * 1e9) / Math.max(1, result[2]));
+	}
+}
@@ -0,0 +1,275 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package reporter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.core.Buffer;
+import spade.reporter.Audit;
+import spade.reporter.audit.AuditEventReader;
+import spade.reporter.audit.NetfilterHooksManager;
+import spade.reporter.audit.OPMConstants;
+import spade.vertex.opm.Artifact;
+
+/**
+ * Replays a generated stream of netfilter hook and network syscall events through NetfilterHooksManager and through
+ * the H2 version of it (H2NetfilterHooksManager), checks that both emit the same vertices and edges, and reports the
+ * throughput of each.
+ * 
+ * Usage: java reporter.NetfilterHooksBenchmark [flows] [warmup iterations] [measured iterations] [seed]
+ * 
+ * Each flow is a connection going out through LOCAL_OUT and POST_ROUTING, or coming in through PRE_ROUTING and
+ * LOCAL_IN, with its syscall at a random position among the hook events. Some flows have their addresses translated,
+ * some have an event missing so that entries are left behind, and skb ids are reused like the kernel does.
+ * The limits and ttls are read from the config file of NetfilterHooksManager.
+ * 
+ * The first pass, which compares the outputs, also warms up both. The H2 version does a table scan per lookup so keep
+ * the number of flows small when measuring it.
+ */
+public class NetfilterHooksBenchmark{
+
+	private static final double probabilityIngress = 0.5, probabilityTranslated = 0.5, probabilityMissing = 0.2;
+	private static final int skbIdPoolSize = 8192, networkNamespaces = 4;
+
+	public static void main(String[] args) throws Exception{
+		final int flows = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		final int warmupIterations = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+		final int measuredIterations = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+		final long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+
+		final List<Object> events = generate(flows, new Random(seed));
+		System.out.println("Generated " + events.size() + " events for " + flows + " flows");
+
+		final String digest = replay(events, false, true)[1];
+		final String h2Digest = replay(events, true, true)[1];
+		System.out.println("Output: " + digest);
+		System.out.println("H2 output: " + h2Digest);
+		if(!digest.equals(h2Digest)){
+			System.out.println("MISMATCH between the outputs");
+			System.exit(1);
+		}
+
+		for(final boolean h2 : new boolean[]{false, true}){
+			final String name = h2 ? "H2NetfilterHooksManager" : "NetfilterHooksManager";
+			for(int i = 0; i < warmupIterations; i++){
+				System.out.println(name + " warmup " + (i + 1) + ": " + replay(events, h2, false)[0]);
+			}
+			for(int i = 0; i < measuredIterations; i++){
+				System.out.println(name + " iteration " + (i + 1) + ": " + replay(events, h2, false)[0]);
+			}
+		}
+	}
+
+	/**
+	 * @return [timing, digest of the output if asked for]
+	 */
+	private static String[] replay(final List<Object> events, final boolean h2, final boolean digest) throws Exception{
+		final OutputDigest output = new OutputDigest(digest);
+		final Audit reporter = new Audit();
+		reporter.setBuffer(output);
+
+		final NetfilterHooksManager manager = h2 ? null : new NetfilterHooksManager(reporter, true);
+		final H2NetfilterHooksManager h2Manager = h2 ? new H2NetfilterHooksManager(reporter, true) : null;
+
+		final long startNanos = System.nanoTime();
+		for(final Object event : events){
+			if(event instanceof SyscallEvent){
+				final SyscallEvent syscallEvent = (SyscallEvent)event;
+				if(h2){
+					h2Manager.handleNetworkSyscallEvent(syscallEvent.time, syscallEvent.eventId, syscallEvent.ingress, 
+							syscallEvent.artifact);
+				}else{
+					manager.handleNetworkSyscallEvent(syscallEvent.time, syscallEvent.eventId, syscallEvent.ingress, 
+							syscallEvent.artifact);
+				}
+			}else{
+				@SuppressWarnings("unchecked")
+				final Map<String, String> eventData = (Map<String, String>)event;
+				if(h2){
+					h2Manager.handleNetfilterHookEvent(eventData);
+				}else{
+					manager.handleNetfilterHookEvent(eventData);
+				}
+			}
+		}
+		final long elapsedNanos = System.nanoTime() - startNanos;
+		if(h2){
+			h2Manager.printStats();
+			h2Manager.shutdown();
+		}else{
+			manager.printStats();
+			manager.shutdown();
+		}
+
+		final String timing = String.format("%d events in %.1f ms, %.1f events/s, %d vertices, %d edges", 
+				events.size(), elapsedNanos / 1e6, (events.size() * 1e9) / Math.max(1, elapsedNanos), 
+				output.vertices, output.edges);
+		return new String[]{timing, output.vertices + " vertices, " + output.edges + " edges, hash " + output.hash};
+	}
+
+	private static List<Object> generate(final int flows, final Random random){
+		final List<Object> events = new ArrayList<Object>();
+		long timeMillis = 1600000000000L;
+		for(int flow = 0; flow < flows; flow++){
+			timeMillis += random.nextInt(3);
+			final boolean ingress = random.nextDouble() < probabilityIngress;
+			final boolean translated = random.nextDouble() < probabilityTranslated;
+			final boolean tcp = random.nextBoolean();
+			final String skbId = Integer.toHexString(0x10000 + random.nextInt(skbIdPoolSize));
+			final String netNs = String.valueOf(4026531992L + random.nextInt(networkNamespaces));
+
+			final String localIp = "10.0." + random.nextInt(4) + "." + (1 + random.nextInt(250));
+			final String localPort = String.valueOf(1024 + random.nextInt(60000));
+			final String remoteIp = "172.16." + random.nextInt(256) + "." + (1 + random.nextInt(250));
+			final String remotePort = String.valueOf(1 + random.nextInt(1024));
+			final String translatedIp = translated ? "192.168.1." + (1 + random.nextInt(250)) : null;
+			final String translatedPort = translated ? String.valueOf(1024 + random.nextInt(60000)) : null;
+
+			final List<Object> flowEvents = new ArrayList<Object>();
+			if(!ingress){
+				// Destination translated at LOCAL_OUT, source translated at POST_ROUTING
+				final String dstIp = translated ? translatedIp : remoteIp;
+				final String dstPort = translated ? translatedPort : remotePort;
+				final String srcIp = translated ? "203.0.113." + (1 + random.nextInt(250)) : localIp;
+				flowEvents.add(hookEvent(AuditEventReader.NF_HOOK_VALUE_LOCAL_OUT, true, tcp, skbId, netNs, 
+						localIp, localPort, remoteIp, remotePort));
+				flowEvents.add(hookEvent(AuditEventReader.NF_HOOK_VALUE_LOCAL_OUT, false, tcp, skbId, netNs, 
+						localIp, localPort, dstIp, dstPort));
+				flowEvents.add(hookEvent(AuditEventReader.NF_HOOK_VALUE_POST_ROUTING, true, tcp, skbId, netNs, 
+						localIp, localPort, dstIp, dstPort));
+				flowEvents.add(hookEvent(AuditEventReader.NF_HOOK_VALUE_POST_ROUTING, false, tcp, skbId, netNs, 
+						srcIp, localPort, dstIp, dstPort));
+			}else{
+				// Destination translated at PRE_ROUTING
+				final String dstIp = translated ? translatedIp : localIp;
+				final String dstPort = translated ? translatedPort : localPort;
+				flowEvents.add(hookEvent(AuditEventReader.NF_HOOK_VALUE_PRE_ROUTING, true, tcp, skbId, netNs, 
+						remoteIp, remotePort, dstIp, dstPort));
+				flowEvents.add(hookEvent(AuditEventReader.NF_HOOK_VALUE_PRE_ROUTING, false, tcp, skbId, netNs, 
+						remoteIp, remotePort, localIp, localPort));
+				flowEvents.add(hookEvent(AuditEventReader.NF_HOOK_VALUE_LOCAL_IN, true, tcp, skbId, netNs, 
+						remoteIp, remotePort, localIp, localPort));
+				flowEvents.add(hookEvent(AuditEventReader.NF_HOOK_VALUE_LOCAL_IN, false, tcp, skbId, netNs, 
+						remoteIp, remotePort, localIp, localPort));
+			}
+			flowEvents.add(random.nextInt(flowEvents.size() + 1), 
+					syscallEvent(ingress, tcp, netNs, localIp, localPort, remoteIp, remotePort, flow));
+			if(random.nextDouble() < probabilityMissing){
+				flowEvents.remove(random.nextInt(flowEvents.size()));
+			}
+
+			for(final Object event : flowEvents){
+				final String time = String.format("%d.%03d", timeMillis / 1000, timeMillis % 1000);
+				final String eventId = String.valueOf(events.size() + 1);
+				if(event instanceof SyscallEvent){
+					((SyscallEvent)event).time = time;
+					((SyscallEvent)event).eventId = eventId;
+				}else{
+					@SuppressWarnings("unchecked")
+					final Map<String, String> eventData = (Map<String, String>)event;
+					eventData.put(AuditEventReader.TIME, time);
+					eventData.put(AuditEventReader.EVENT_ID, eventId);
+				}
+				events.add(event);
+			}
+		}
+		return events;
+	}
+
+	private static Map<String, String> hookEvent(final String hook, final boolean first, final boolean tcp, 
+			final String skbId, final String netNs, final String srcIp, final String srcPort, 
+			final String dstIp, final String dstPort){
+		final Map<String, String> eventData = new HashMap<String, String>();
+		eventData.put(AuditEventReader.NF_HOOK_KEY, hook);
+		eventData.put(AuditEventReader.NF_PRIORITY_KEY, 
+				first ? AuditEventReader.NF_PRIORITY_VALUE_FIRST : AuditEventReader.NF_PRIORITY_VALUE_LAST);
+		eventData.put(AuditEventReader.NF_ID_KEY, skbId);
+		eventData.put(AuditEventReader.NF_SRC_IP_KEY, srcIp);
+		eventData.put(AuditEventReader.NF_SRC_PORT_KEY, srcPort);
+		eventData.put(AuditEventReader.NF_DST_IP_KEY, dstIp);
+		eventData.put(AuditEventReader.NF_DST_PORT_KEY, dstPort);
+		eventData.put(AuditEventReader.NF_PROTOCOL_KEY, 
+				tcp ? AuditEventReader.NF_PROTOCOL_VALUE_TCP : AuditEventReader.NF_PROTOCOL_VALUE_UDP);
+		eventData.put(AuditEventReader.NF_IP_VERSION_KEY, AuditEventReader.NF_IP_VERSION_VALUE_IPV4);
+		eventData.put(AuditEventReader.NF_NET_NS_INUM_KEY, netNs);
+		return eventData;
+	}
+
+	private static SyscallEvent syscallEvent(final boolean ingress, final boolean tcp, final String netNs, 
+			final String localIp, final String localPort, final String remoteIp, final String remotePort, final int flow){
+		final Artifact artifact = new Artifact();
+		artifact.addAnnotation(OPMConstants.ARTIFACT_SUBTYPE, OPMConstants.SUBTYPE_NETWORK_SOCKET);
+		artifact.addAnnotation(OPMConstants.PROCESS_NET_NAMESPACE, netNs);
+		artifact.addAnnotation(OPMConstants.ARTIFACT_PROTOCOL, tcp ? Audit.PROTOCOL_NAME_TCP : Audit.PROTOCOL_NAME_UDP);
+		artifact.addAnnotation(OPMConstants.ARTIFACT_LOCAL_ADDRESS, localIp);
+		artifact.addAnnotation(OPMConstants.ARTIFACT_LOCAL_PORT, localPort);
+		artifact.addAnnotation(OPMConstants.ARTIFACT_REMOTE_ADDRESS, remoteIp);
+		artifact.addAnnotation(OPMConstants.ARTIFACT_REMOTE_PORT, remotePort);
+		artifact.addAnnotation(OPMConstants.ARTIFACT_EPOCH, "0");
+		artifact.addAnnotation(OPMConstants.ARTIFACT_VERSION, String.valueOf(flow));
+		artifact.addAnnotation(OPMConstants.SOURCE, OPMConstants.SOURCE_AUDIT_SYSCALL);
+		final SyscallEvent event = new SyscallEvent();
+		event.ingress = ingress;
+		event.artifact = artifact;
+		return event;
+	}
+
+	private static final class SyscallEvent{
+		private String time, eventId;
+		private boolean ingress;
+		private Artifact artifact;
+	}
+
+	/**
+	 * Counts the vertices and edges, and if asked hashes them in the order they are put.
+	 */
+	private static final class OutputDigest extends Buffer{
+		private final boolean digest;
+		private long vertices = 0, edges = 0, hash = 0;
+
+		private OutputDigest(final boolean digest){
+			this.digest = digest;
+		}
+
+		@Override
+		public boolean putVertex(final AbstractVertex vertex){
+			vertices++;
+			if(digest){
+				hash = hash * 31 + vertex.bigHashCode().hashCode();
+			}
+			return true;
+		}
+
+		@Override
+		public boolean putEdge(final AbstractEdge edge){
+			edges++;
+			if(digest){
+				hash = hash * 31 + edge.bigHashCode().hashCode();
+			}
+			return true;
+		}
+	}
+}